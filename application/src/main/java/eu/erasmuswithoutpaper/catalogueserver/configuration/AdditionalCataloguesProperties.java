@@ -0,0 +1,119 @@
+package eu.erasmuswithoutpaper.catalogueserver.configuration;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Catalogues of other registries mirrored next to the main one, configured with
+ * 'app.additional-catalogues.{name}.*' properties, e.g.:
+ *
+ * <pre>
+ * app.additional-catalogues.test.repo-name=ewp-registry-log-test
+ * app.additional-catalogues.dev.repo-name=ewp-registry-log-dev
+ * app.additional-catalogues.dev.poll-interval-seconds=60
+ * </pre>
+ *
+ * <p>
+ * The name is used in the URL of the catalogue and in the name of its cache directory. Settings
+ * which are not listed here (storage, deltas, timeouts, GitHub credentials) are shared with the
+ * main Catalogue.
+ * </p>
+ */
+@ConfigurationProperties(prefix = "app")
+public class AdditionalCataloguesProperties {
+  private final Map<String, Catalogue> additionalCatalogues = new LinkedHashMap<>();
+
+  public Map<String, Catalogue> getAdditionalCatalogues() {
+    return this.additionalCatalogues;
+  }
+
+  /**
+   * Source and schedule of one catalogue.
+   */
+  public static class Catalogue {
+    private String userName;
+    private String repoName;
+    private String filePath = "catalogue-v1.xml";
+    private String source = "raw";
+    private String gitUrl = "";
+    private long pollMinIntervalSeconds = 5;
+    private long pollIntervalSeconds = 10;
+    private long pollMaxIntervalSeconds = 60;
+
+    /**
+     * Owner of the repository, by default the owner of the main Catalogue's repository.
+     *
+     * @return GitHub user or organization name, null if not set.
+     */
+    public String getUserName() {
+      return this.userName;
+    }
+
+    public void setUserName(String userName) {
+      this.userName = userName;
+    }
+
+    public String getRepoName() {
+      return this.repoName;
+    }
+
+    public void setRepoName(String repoName) {
+      this.repoName = repoName;
+    }
+
+    public String getFilePath() {
+      return this.filePath;
+    }
+
+    public void setFilePath(String filePath) {
+      this.filePath = filePath;
+    }
+
+    /**
+     * Kind of the source, as 'app.catalogue.source' of the main Catalogue.
+     *
+     * @return 'raw', 'raw-async', 'graphql' or 'git'.
+     */
+    public String getSource() {
+      return this.source;
+    }
+
+    public void setSource(String source) {
+      this.source = source;
+    }
+
+    public String getGitUrl() {
+      return this.gitUrl;
+    }
+
+    public void setGitUrl(String gitUrl) {
+      this.gitUrl = gitUrl;
+    }
+
+    public long getPollMinIntervalSeconds() {
+      return this.pollMinIntervalSeconds;
+    }
+
+    public void setPollMinIntervalSeconds(long pollMinIntervalSeconds) {
+      this.pollMinIntervalSeconds = pollMinIntervalSeconds;
+    }
+
+    public long getPollIntervalSeconds() {
+      return this.pollIntervalSeconds;
+    }
+
+    public void setPollIntervalSeconds(long pollIntervalSeconds) {
+      this.pollIntervalSeconds = pollIntervalSeconds;
+    }
+
+    public long getPollMaxIntervalSeconds() {
+      return this.pollMaxIntervalSeconds;
+    }
+
+    public void setPollMaxIntervalSeconds(long pollMaxIntervalSeconds) {
+      this.pollMaxIntervalSeconds = pollMaxIntervalSeconds;
+    }
+  }
+}
@@ -1,32 +1,78 @@
 package eu.erasmuswithoutpaper.catalogueserver.configuration;
 
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
 
+import eu.erasmuswithoutpaper.catalogueserver.dns.DnsResponder;
+import eu.erasmuswithoutpaper.catalogueserver.dns.DnsZone;
+import eu.erasmuswithoutpaper.catalogueserver.web.AdditionalCatalogues;
+import eu.erasmuswithoutpaper.catalogueserver.web.CatalogueChangeFeed;
 import eu.erasmuswithoutpaper.catalogueserver.web.CatalogueCopy;
 import eu.erasmuswithoutpaper.catalogueserver.web.CatalogueGetter;
+import eu.erasmuswithoutpaper.catalogueserver.web.CatalogueGetterMultiSource;
+import eu.erasmuswithoutpaper.catalogueserver.web.CatalogueHealth;
+import eu.erasmuswithoutpaper.catalogueserver.web.CatalogueHealthController;
+import eu.erasmuswithoutpaper.catalogueserver.web.CatalogueStorage;
 import eu.erasmuswithoutpaper.catalogueserver.web.CatalogueUpdater;
+import eu.erasmuswithoutpaper.catalogueserver.web.CatalogueVersionStore;
+import eu.erasmuswithoutpaper.catalogueserver.web.CatalogueVersionsEndpoint;
+import eu.erasmuswithoutpaper.catalogueserver.web.ClientPollingEndpoint;
+import eu.erasmuswithoutpaper.catalogueserver.web.ClientPollingStatistics;
 import eu.erasmuswithoutpaper.catalogueserver.web.GitHubData;
+import eu.erasmuswithoutpaper.catalogueserver.web.PollingSchedule;
+import eu.erasmuswithoutpaper.catalogueserver.web.githubcataloguesource.CatalogueGetterGit;
 import eu.erasmuswithoutpaper.catalogueserver.web.githubcataloguesource.CatalogueGetterGitHub;
+import eu.erasmuswithoutpaper.catalogueserver.web.githubcataloguesource.CatalogueGetterGitHubAsync;
+import eu.erasmuswithoutpaper.catalogueserver.web.githubcataloguesource.CatalogueGetterGraphQl;
+import eu.erasmuswithoutpaper.catalogueserver.web.githubcataloguesource.CatalogueGetterPeer;
 import eu.erasmuswithoutpaper.catalogueserver.web.githubcataloguesource.CatalogueMetadataGitHub;
+import eu.erasmuswithoutpaper.catalogueserver.web.githubcataloguesource.GitHubWebhookController;
 
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.context.annotation.Profile;
 import org.springframework.core.convert.ConversionService;
 import org.springframework.core.convert.support.DefaultConversionService;
 import org.springframework.core.task.TaskExecutor;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
 
 /**
  * Spring beans to be used when running an actual application server.
  */
 @Profile({ "production", "development" })
 @Configuration
+@EnableConfigurationProperties(AdditionalCataloguesProperties.class)
 public class ProductionConfiguration {
+  // Defaults of polling and of the health check, when pushes are announced by GitHub webhook
+  // deliveries polling is only a safety net for missed deliveries.
+  private static final long POLL_INTERVAL_SECONDS = 10;
+  private static final long POLL_MAX_INTERVAL_SECONDS = 60;
+  private static final long MAX_SECONDS_SINCE_FETCH = 120;
+  private static final long WEBHOOK_POLL_INTERVAL_SECONDS = 300;
+  private static final long WEBHOOK_POLL_MAX_INTERVAL_SECONDS = 600;
+  private static final long WEBHOOK_MAX_SECONDS_SINCE_FETCH = 900;
+
   public ProductionConfiguration() {
     setSystemProperties();
   }
@@ -73,22 +119,504 @@ public class ProductionConfiguration {
     return new DefaultConversionService();
   }
 
+  /**
+   * Constructs the blocking HTTP client used by 'raw' source of the Catalogue. Its connection pool
+   * is shared by all catalogues, including {@link AdditionalCatalogues}.
+   *
+   * @param requestTimeoutSeconds timeout of connecting, of waiting for a pooled connection and of
+   *                              waiting for data, so that a hung connection doesn't stop updates.
+   * @param maxConnections        maximal number of pooled connections, also to a single host, as
+   *                              all catalogues are fetched from the same GitHub hosts.
+   */
   @Bean
-  public CloseableHttpClient closeableHttpClient() {
-    return HttpClients.createDefault();
+  public CloseableHttpClient closeableHttpClient(
+      @Value("${app.catalogue.fetch.request-timeout-seconds:30}") long requestTimeoutSeconds,
+      @Value("${app.catalogue.fetch.max-connections:20}") int maxConnections) {
+    return HttpClients.custom()
+        .setDefaultRequestConfig(createRequestConfig(requestTimeoutSeconds))
+        .setMaxConnTotal(maxConnections)
+        .setMaxConnPerRoute(maxConnections)
+        .build();
+  }
+
+  /**
+   * Constructs the non-blocking HTTP client used by 'raw-async' sources of all catalogues,
+   * including {@link AdditionalCatalogues}, so that they share one I/O reactor and connection pool.
+   * It is created and started only when such a source is configured, and closed on shutdown.
+   *
+   * @param requestTimeoutSeconds see {@link #closeableHttpClient}.
+   * @param maxConnections        see {@link #closeableHttpClient}.
+   */
+  @Bean(destroyMethod = "close")
+  @Lazy
+  public CloseableHttpAsyncClient closeableHttpAsyncClient(
+      @Value("${app.catalogue.fetch.request-timeout-seconds:30}") long requestTimeoutSeconds,
+      @Value("${app.catalogue.fetch.max-connections:20}") int maxConnections) {
+    CloseableHttpAsyncClient asyncClient = HttpAsyncClients.custom()
+        .setDefaultRequestConfig(createRequestConfig(requestTimeoutSeconds))
+        .setMaxConnTotal(maxConnections)
+        .setMaxConnPerRoute(maxConnections)
+        .build();
+    asyncClient.start();
+    return asyncClient;
+  }
+
+  private static RequestConfig createRequestConfig(long timeoutSeconds) {
+    int timeoutMillis = (int) Duration.ofSeconds(timeoutSeconds).toMillis();
+    return RequestConfig.custom()
+        .setConnectTimeout(timeoutMillis)
+        .setConnectionRequestTimeout(timeoutMillis)
+        .setSocketTimeout(timeoutMillis)
+        .build();
   }
 
   /**
    * Constructs CatalogueUpdater implementation to be used by the application.
+   *
+   * @param catalogueName  value of 'catalogue' tag of the metrics of the main Catalogue, which
+   *                       tells them apart from metrics of {@link AdditionalCatalogues}.
+   * @param offHeap        whether Catalogue contents should be kept outside of the Java heap.
+   * @param cacheDirectory directory where the local copy of the Catalogue is stored.
+   * @param metadataFlushIntervalSeconds how often metadata file is rewritten when the Catalogue
+   *                       hasn't changed. The DNS watchdog asks the server for the last fetch
+   *                       date, so this only affects the date seen after a restart.
+   * @param deltaBaseVersions number of previous versions of the Catalogue from which deltas are
+   *                       served to clients that support RFC 3229 delta encoding.
+   * @param ignoreFormattingChanges whether fetched versions differing from the served one only in
+   *                       formatting (whitespace, attribute order, comments) are ignored, so
+   *                       that clients don't download them again.
+   * @param pollingSchedule schedule of fetches.
+   * @param meterRegistry  registry of updater metrics.
+   * @param getter         source of the Catalogue.
+   * @param versionStore   store of published versions.
    */
   @Bean
   public CatalogueUpdater<CatalogueMetadataGitHub> catalogueGetterGitHub(
-      CloseableHttpClient httpClient, GitHubData gitHubData) {
-    CatalogueGetter<CatalogueMetadataGitHub> getter =
-        new CatalogueGetterGitHub(httpClient, gitHubData);
-    CatalogueCopy<CatalogueMetadataGitHub> copy =
-        new CatalogueCopy<>(CatalogueMetadataGitHub.class);
-    return new CatalogueUpdater<>(copy, getter);
+      @Value("${app.catalogue.name:primary}") String catalogueName,
+      @Value("${app.catalogue.off-heap:false}") boolean offHeap,
+      @Value("${app.catalogue.cache-directory:/cache}") String cacheDirectory,
+      @Value("${app.catalogue.metadata-flush-interval-seconds:30}")
+          long metadataFlushIntervalSeconds,
+      @Value("${app.catalogue.delta.base-versions:10}") int deltaBaseVersions,
+      @Value("${app.catalogue.ignore-formatting-changes:false}") boolean ignoreFormattingChanges,
+      PollingSchedule pollingSchedule, MeterRegistry meterRegistry,
+      CatalogueGetter<CatalogueMetadataGitHub> getter, CatalogueVersionStore versionStore) {
+    CatalogueCopy<CatalogueMetadataGitHub> copy = createCatalogueCopy(offHeap, cacheDirectory,
+        metadataFlushIntervalSeconds, deltaBaseVersions, ignoreFormattingChanges, versionStore);
+    return new CatalogueUpdater<>(copy, getter, pollingSchedule,
+        createCatalogueMeterRegistry(meterRegistry, catalogueName));
+  }
+
+  private static CatalogueCopy<CatalogueMetadataGitHub> createCatalogueCopy(boolean offHeap,
+      String cacheDirectory, long metadataFlushIntervalSeconds, int deltaBaseVersions,
+      boolean ignoreFormattingChanges, CatalogueVersionStore versionStore) {
+    CatalogueStorage storage = offHeap ? CatalogueStorage.OFF_HEAP : CatalogueStorage.HEAP;
+    return new CatalogueCopy<>(CatalogueMetadataGitHub.class, cacheDirectory, storage,
+        Duration.ofSeconds(metadataFlushIntervalSeconds), deltaBaseVersions, versionStore,
+        ignoreFormattingChanges);
+  }
+
+  private static MeterRegistry createCatalogueMeterRegistry(MeterRegistry meterRegistry,
+      String catalogueName) {
+    // Prometheus requires the same tag keys in all meters of a name, so the main Catalogue is
+    // tagged too, even if there are no additional catalogues.
+    CompositeMeterRegistry registry = new CompositeMeterRegistry();
+    registry.config().commonTags("catalogue", catalogueName);
+    registry.add(meterRegistry);
+    return registry;
+  }
+
+  /**
+   * Constructs catalogues of other registries mirrored next to the main Catalogue, see
+   * {@link AdditionalCataloguesProperties}. Each of them has its own getter, local copy in
+   * 'catalogues/{name}' subdirectory of the cache directory, store of versions and polling
+   * schedule. Other settings are shared with the main Catalogue.
+   *
+   * @param properties     names, sources and schedules of the catalogues.
+   * @param httpClient     HTTP client shared by all catalogues.
+   * @param asyncClient    non-blocking HTTP client shared by all catalogues, see
+   *                       {@link #closeableHttpAsyncClient}.
+   * @param gitHubData     GitHub settings of the main Catalogue, its owner and credentials are
+   *                       used by default.
+   * @param offHeap        see {@link #catalogueGetterGitHub}.
+   * @param cacheDirectory directory where the local copy of the main Catalogue is stored.
+   * @param metadataFlushIntervalSeconds see {@link #catalogueGetterGitHub}.
+   * @param deltaBaseVersions see {@link #catalogueGetterGitHub}.
+   * @param ignoreFormattingChanges see {@link #catalogueGetterGitHub}.
+   * @param maxVersions    see {@link #catalogueVersionStore}.
+   * @param maxMegabytes   see {@link #catalogueVersionStore}.
+   * @param graphQlUrl     see {@link #catalogueGetter}.
+   * @param rawContentUrl  see {@link #catalogueGetter}.
+   * @param requestTimeoutSeconds see {@link #catalogueGetter}.
+   * @param fetchTimeoutSeconds see {@link #catalogueGetter}.
+   * @param lowBudget      see {@link #pollingSchedule}.
+   * @param sketchWidth    see {@link #clientPollingStatistics}.
+   * @param maxClients     see {@link #clientPollingStatistics}.
+   * @param windowMinutes  see {@link #clientPollingStatistics}.
+   * @param meterRegistry  registry of metrics, which are tagged with the name of the catalogue.
+   */
+  @Bean
+  public AdditionalCatalogues additionalCatalogues(AdditionalCataloguesProperties properties,
+      CloseableHttpClient httpClient, ObjectProvider<CloseableHttpAsyncClient> asyncClient,
+      GitHubData gitHubData,
+      @Value("${app.catalogue.off-heap:false}") boolean offHeap,
+      @Value("${app.catalogue.cache-directory:/cache}") String cacheDirectory,
+      @Value("${app.catalogue.metadata-flush-interval-seconds:30}")
+          long metadataFlushIntervalSeconds,
+      @Value("${app.catalogue.delta.base-versions:10}") int deltaBaseVersions,
+      @Value("${app.catalogue.ignore-formatting-changes:false}") boolean ignoreFormattingChanges,
+      @Value("${app.catalogue.versions.max-count:50}") int maxVersions,
+      @Value("${app.catalogue.versions.max-megabytes:256}") long maxMegabytes,
+      @Value("${app.git-hub-catalogue.graphql-url:https://api.github.com/graphql}")
+          String graphQlUrl,
+      @Value("${app.git-hub-catalogue.raw-content-url:https://raw.githubusercontent.com}")
+          String rawContentUrl,
+      @Value("${app.catalogue.fetch.request-timeout-seconds:30}") long requestTimeoutSeconds,
+      @Value("${app.catalogue.fetch.timeout-seconds:60}") long fetchTimeoutSeconds,
+      @Value("${app.catalogue.poll.low-rate-limit-budget:20}") int lowBudget,
+      @Value("${app.catalogue.clients.sketch-width:2048}") int sketchWidth,
+      @Value("${app.catalogue.clients.top:100}") int maxClients,
+      @Value("${app.catalogue.clients.window-minutes:60}") long windowMinutes,
+      MeterRegistry meterRegistry) {
+    Map<String, CatalogueUpdater<?>> updaters = new LinkedHashMap<>();
+    Map<String, ClientPollingStatistics> statistics = new LinkedHashMap<>();
+    for (Map.Entry<String, AdditionalCataloguesProperties.Catalogue> entry :
+        properties.getAdditionalCatalogues().entrySet()) {
+      String name = entry.getKey();
+      AdditionalCataloguesProperties.Catalogue catalogue = entry.getValue();
+      if (!name.matches("[a-z0-9][a-z0-9-]*")) {
+        throw new IllegalArgumentException("Invalid name of additional catalogue: " + name);
+      }
+      if (catalogue.getRepoName() == null || catalogue.getRepoName().isEmpty()) {
+        throw new IllegalArgumentException(
+            "app.additional-catalogues." + name + ".repo-name is not set");
+      }
+      GitHubData catalogueGitHubData = new GitHubData(
+          catalogue.getUserName() == null ? gitHubData.getGitHubUserName()
+              : catalogue.getUserName(),
+          catalogue.getRepoName(), catalogue.getFilePath(), gitHubData.getGitHubAuthUserName(),
+          gitHubData.getGitHubAuthUserToken());
+      String directory = new File(new File(cacheDirectory, "catalogues"), name).getPath();
+      // The store creates the directory of the catalogue.
+      CatalogueVersionStore versionStore = new CatalogueVersionStore(
+          new File(directory, "versions").getPath(), maxVersions, maxMegabytes * 1024 * 1024);
+      CatalogueCopy<CatalogueMetadataGitHub> copy = createCatalogueCopy(offHeap, directory,
+          metadataFlushIntervalSeconds, deltaBaseVersions, ignoreFormattingChanges, versionStore);
+      MeterRegistry catalogueMeterRegistry = createCatalogueMeterRegistry(meterRegistry, name);
+      CatalogueGetter<CatalogueMetadataGitHub> getter = createUpstreamGetter(httpClient,
+          asyncClient, catalogueGitHubData, catalogue.getSource(), catalogue.getGitUrl(),
+          graphQlUrl, rawContentUrl, directory, requestTimeoutSeconds, fetchTimeoutSeconds,
+          catalogueMeterRegistry);
+      PollingSchedule pollingSchedule = new PollingSchedule(
+          Duration.ofSeconds(catalogue.getPollMinIntervalSeconds()),
+          Duration.ofSeconds(catalogue.getPollIntervalSeconds()),
+          Duration.ofSeconds(catalogue.getPollMaxIntervalSeconds()), lowBudget);
+      updaters.put(name,
+          new CatalogueUpdater<>(copy, getter, pollingSchedule, catalogueMeterRegistry));
+      statistics.put(name,
+          new ClientPollingStatistics(sketchWidth, maxClients, Duration.ofMinutes(windowMinutes)));
+    }
+    return new AdditionalCatalogues(updaters, statistics);
+  }
+
+  /**
+   * Constructs the store of published versions of the Catalogue, served under immutable URLs.
+   *
+   * @param cacheDirectory directory where the local copy of the Catalogue is stored, versions are
+   *                       stored in its 'versions' subdirectory.
+   * @param maxVersions    maximal number of stored versions.
+   * @param maxMegabytes   maximal total size of stored (compressed) versions.
+   */
+  @Bean
+  public CatalogueVersionStore catalogueVersionStore(
+      @Value("${app.catalogue.cache-directory:/cache}") String cacheDirectory,
+      @Value("${app.catalogue.versions.max-count:50}") int maxVersions,
+      @Value("${app.catalogue.versions.max-megabytes:256}") long maxMegabytes) {
+    return new CatalogueVersionStore(new File(cacheDirectory, "versions").getPath(), maxVersions,
+        maxMegabytes * 1024 * 1024);
+  }
+
+  @Bean
+  public CatalogueVersionsEndpoint catalogueVersionsEndpoint(
+      CatalogueUpdater<CatalogueMetadataGitHub> catalogueUpdater,
+      CatalogueVersionStore versionStore) {
+    return new CatalogueVersionsEndpoint(catalogueUpdater.getCatalogueCopy(), versionStore);
+  }
+
+  /**
+   * Constructs statistics of Catalogue requests per client.
+   *
+   * @param sketchWidth   number of counters in each row of the sketches, estimates are at most
+   *                      e / sketchWidth of all requests in the window too high.
+   * @param maxClients    number of reported clients with the most requests.
+   * @param windowMinutes length of the window of counted requests.
+   */
+  @Bean
+  public ClientPollingStatistics clientPollingStatistics(
+      @Value("${app.catalogue.clients.sketch-width:2048}") int sketchWidth,
+      @Value("${app.catalogue.clients.top:100}") int maxClients,
+      @Value("${app.catalogue.clients.window-minutes:60}") long windowMinutes) {
+    return new ClientPollingStatistics(sketchWidth, maxClients, Duration.ofMinutes(windowMinutes));
+  }
+
+  /**
+   * Constructs the endpoint reporting statistics of requests per client of each catalogue.
+   *
+   * @param catalogueName        see {@link #catalogueGetterGitHub}, the name of the report of the
+   *                             main Catalogue.
+   * @param statistics           statistics of the main Catalogue.
+   * @param additionalCatalogues catalogues whose statistics are reported under their names.
+   */
+  @Bean
+  public ClientPollingEndpoint clientPollingEndpoint(
+      @Value("${app.catalogue.name:primary}") String catalogueName,
+      ClientPollingStatistics statistics, AdditionalCatalogues additionalCatalogues) {
+    Map<String, ClientPollingStatistics> byCatalogue = new LinkedHashMap<>();
+    byCatalogue.put(catalogueName, statistics);
+    byCatalogue.putAll(additionalCatalogues.getClientPollingStatistics());
+    return new ClientPollingEndpoint(byCatalogue);
+  }
+
+  /**
+   * Constructs the feed of changes made in recent versions of the Catalogue.
+   *
+   * @param catalogueUpdater updater whose copy is watched.
+   * @param versionStore     store of versions from which changes are rebuilt at startup.
+   * @param maxVersions      number of versions whose changes are kept in memory.
+   */
+  @Bean
+  public CatalogueChangeFeed<CatalogueMetadataGitHub> catalogueChangeFeed(
+      CatalogueUpdater<CatalogueMetadataGitHub> catalogueUpdater,
+      CatalogueVersionStore versionStore,
+      @Value("${app.catalogue.changes.history-versions:50}") int maxVersions) {
+    return new CatalogueChangeFeed<>(catalogueUpdater.getCatalogueCopy(), versionStore,
+        maxVersions);
+  }
+
+  /**
+   * Constructs the health check of the served copy, used by {@link CatalogueHealthController} and
+   * by the embedded DNS server.
+   *
+   * @param catalogueUpdater     updater whose copy is checked.
+   * @param maxSecondsSinceFetch age of the last fetch after which the copy is stale, it has to be
+   *                             longer than the maximal polling interval and the fetch timeout
+   *                             together. By default 120 seconds, or 900 seconds if GitHub
+   *                             webhook is enabled, see {@link #pollingSchedule}.
+   * @param webhookSecret        see {@link GitHubWebhookController}.
+   */
+  @Bean
+  public CatalogueHealth<CatalogueMetadataGitHub> catalogueHealth(
+      CatalogueUpdater<CatalogueMetadataGitHub> catalogueUpdater,
+      @Value("${app.catalogue.health.max-seconds-since-fetch:#{null}}") Long maxSecondsSinceFetch,
+      @Value("${app.git-hub-webhook.secret:}") String webhookSecret) {
+    long defaultMaxSecondsSinceFetch = webhookSecret.isEmpty()
+        ? MAX_SECONDS_SINCE_FETCH : WEBHOOK_MAX_SECONDS_SINCE_FETCH;
+    return new CatalogueHealth<>(catalogueUpdater, Duration.ofSeconds(
+        maxSecondsSinceFetch == null ? defaultMaxSecondsSinceFetch : maxSecondsSinceFetch));
+  }
+
+  /**
+   * Constructs the embedded DNS server of the registry zone, an alternative to the BIND server
+   * stopped by the DNS watchdog. It is started only if 'app.dns.enabled' is true.
+   *
+   * @param catalogueHealth      health check deciding whether queries are answered.
+   * @param allowStaleCatalogue  whether queries are answered while the copy is only stale.
+   * @param bindAddress          address to listen on.
+   * @param port                 UDP port to listen on.
+   * @param zone                 the registry domain name.
+   * @param nameServer           domain name of this name server.
+   * @param adminMailbox         mailbox of the zone administrator in the SOA format.
+   * @param addresses            comma-separated IP addresses of this node.
+   * @param ttlSeconds           TTL of the records, short so that resolvers notice failover.
+   * @param serial               serial number of the zone.
+   * @param healthCheckIntervalMillis how often the health check is run.
+   * @param failuresBeforeUnhealthy number of consecutive failed health checks after which queries
+   *                             are not answered.
+   * @param whenUnhealthy        'servfail' or 'drop', the response to queries while the copy is
+   *                             not served correctly.
+   * @param meterRegistry        registry of query metrics.
+   * @throws IOException if the socket cannot be bound.
+   */
+  @Bean
+  @ConditionalOnProperty(name = "app.dns.enabled", havingValue = "true")
+  public DnsResponder dnsResponder(CatalogueHealth<CatalogueMetadataGitHub> catalogueHealth,
+      @Value("${app.dns.allow-stale-catalogue:false}") boolean allowStaleCatalogue,
+      @Value("${app.dns.bind-address:0.0.0.0}") String bindAddress,
+      @Value("${app.dns.port:53}") int port,
+      @Value("${app.dns.zone}") String zone,
+      @Value("${app.dns.name-server}") String nameServer,
+      @Value("${app.dns.admin-mailbox}") String adminMailbox,
+      @Value("${app.dns.addresses}") String[] addresses,
+      @Value("${app.dns.ttl-seconds:1}") int ttlSeconds,
+      @Value("${app.dns.serial:2020032000}") long serial,
+      @Value("${app.dns.health-check-interval-millis:250}") long healthCheckIntervalMillis,
+      @Value("${app.dns.failures-before-unhealthy:3}") int failuresBeforeUnhealthy,
+      @Value("${app.dns.when-unhealthy:servfail}") String whenUnhealthy,
+      MeterRegistry meterRegistry) throws IOException {
+    if (!"servfail".equals(whenUnhealthy) && !"drop".equals(whenUnhealthy)) {
+      throw new IllegalArgumentException("Unknown app.dns.when-unhealthy: " + whenUnhealthy);
+    }
+    List<InetAddress> nodeAddresses = new ArrayList<>();
+    for (String address : addresses) {
+      String literal = address.trim();
+      if (!literal.isEmpty()) {
+        nodeAddresses.add(InetAddress.getByName(literal));
+      }
+    }
+    DnsZone dnsZone =
+        new DnsZone(zone, nameServer, adminMailbox, nodeAddresses, ttlSeconds, serial);
+    BooleanSupplier healthCheck = () -> {
+      CatalogueHealth.Status status = catalogueHealth.check().getStatus();
+      return status == CatalogueHealth.Status.OK
+          || allowStaleCatalogue && status == CatalogueHealth.Status.STALE;
+    };
+    DnsResponder responder =
+        new DnsResponder(new InetSocketAddress(InetAddress.getByName(bindAddress), port),
+            dnsZone, healthCheck, Duration.ofMillis(healthCheckIntervalMillis),
+            failuresBeforeUnhealthy, "drop".equals(whenUnhealthy), meterRegistry);
+    responder.start();
+    return responder;
+  }
+
+  /**
+   * Constructs the source of the Catalogue, selected with 'app.catalogue.source' property.
+   *
+   * <p>
+   * 'raw' (default) downloads the Catalogue file over HTTP and asks GitHub API for its
+   * modification date. 'raw-async' does the same with a non-blocking client, sending both
+   * requests at once, with a deadline of each request and of the whole fetch. 'graphql' asks GitHub
+   * GraphQL API for the blob id and modification date in a single query and downloads the file only
+   * if the blob has changed. 'git' keeps a bare mirror of the repository in the cache directory,
+   * updates it with incremental fetches and reads both from the mirror.
+   * </p>
+   *
+   * <p>
+   * If URLs of other catalogue servers (other secondary nodes or the registry) are listed in
+   * 'app.catalogue.peers', they are used as fallback sources, see
+   * {@link CatalogueGetterMultiSource}.
+   * </p>
+   *
+   * @param source         'raw', 'raw-async', 'graphql' or 'git'.
+   * @param gitUrl         URL of the repository used by 'git' source, by default the GitHub
+   *                       repository configured in {@link GitHubData}.
+   * @param graphQlUrl     URL of the GraphQL API used by 'graphql' source.
+   * @param rawContentUrl  URL of the raw content host used by 'graphql' source.
+   * @param cacheDirectory directory where the local copy of the Catalogue is stored.
+   * @param requestTimeoutSeconds deadline of each request of 'raw-async' source, measured from
+   *                       when the request is sent.
+   * @param fetchTimeoutSeconds deadline of a whole fetch of 'raw-async' source, measured from its
+   *                       start, and of a fetch from multiple sources. It should be longer than
+   *                       the request deadline, as the commits request may be sent only after
+   *                       the file has been downloaded.
+   * @param peers          comma-separated URLs of the Catalogue on other servers, the most
+   *                       preferred first.
+   * @param hedgeDelayMillis time after which the next source is asked if no source has responded.
+   * @param asyncClient    client of 'raw-async' source, see {@link #closeableHttpAsyncClient}.
+   * @param catalogueName  see {@link #catalogueGetterGitHub}.
+   * @param meterRegistry  registry of request metrics.
+   */
+  @Bean
+  public CatalogueGetter<CatalogueMetadataGitHub> catalogueGetter(
+      CloseableHttpClient httpClient, GitHubData gitHubData,
+      @Value("${app.catalogue.source:raw}") String source,
+      @Value("${app.git-hub-catalogue.git-url:}") String gitUrl,
+      @Value("${app.git-hub-catalogue.graphql-url:https://api.github.com/graphql}")
+          String graphQlUrl,
+      @Value("${app.git-hub-catalogue.raw-content-url:https://raw.githubusercontent.com}")
+          String rawContentUrl,
+      @Value("${app.catalogue.cache-directory:/cache}") String cacheDirectory,
+      @Value("${app.catalogue.fetch.request-timeout-seconds:30}") long requestTimeoutSeconds,
+      @Value("${app.catalogue.fetch.timeout-seconds:60}") long fetchTimeoutSeconds,
+      @Value("${app.catalogue.peers:}") String[] peers,
+      @Value("${app.catalogue.hedge-delay-millis:2000}") long hedgeDelayMillis,
+      ObjectProvider<CloseableHttpAsyncClient> asyncClient,
+      @Value("${app.catalogue.name:primary}") String catalogueName,
+      MeterRegistry meterRegistry) {
+    MeterRegistry catalogueMeterRegistry =
+        createCatalogueMeterRegistry(meterRegistry, catalogueName);
+    CatalogueGetter<CatalogueMetadataGitHub> upstream = createUpstreamGetter(httpClient,
+        asyncClient, gitHubData, source, gitUrl, graphQlUrl, rawContentUrl, cacheDirectory,
+        requestTimeoutSeconds, fetchTimeoutSeconds, catalogueMeterRegistry);
+    Map<String, CatalogueGetter<CatalogueMetadataGitHub>> sources = new LinkedHashMap<>();
+    sources.put("github", upstream);
+    for (String peer : peers) {
+      String url = peer.trim();
+      if (!url.isEmpty()) {
+        sources.put(url, new CatalogueGetterPeer(httpClient, url, cacheDirectory));
+      }
+    }
+    if (sources.size() == 1) {
+      return upstream;
+    }
+    return new CatalogueGetterMultiSource<>(sources, Duration.ofMillis(hedgeDelayMillis),
+        Duration.ofSeconds(fetchTimeoutSeconds), catalogueMeterRegistry);
+  }
+
+  private CatalogueGetter<CatalogueMetadataGitHub> createUpstreamGetter(
+      CloseableHttpClient httpClient, ObjectProvider<CloseableHttpAsyncClient> asyncClient,
+      GitHubData gitHubData, String source, String gitUrl, String graphQlUrl,
+      String rawContentUrl, String cacheDirectory, long requestTimeoutSeconds,
+      long fetchTimeoutSeconds, MeterRegistry meterRegistry) {
+    switch (source) {
+      case "graphql":
+        return new CatalogueGetterGraphQl(httpClient, gitHubData, graphQlUrl, rawContentUrl,
+            cacheDirectory, meterRegistry);
+      case "raw":
+        return new CatalogueGetterGitHub(httpClient, gitHubData, cacheDirectory, meterRegistry);
+      case "raw-async":
+        return new CatalogueGetterGitHubAsync(asyncClient.getObject(), gitHubData, cacheDirectory,
+            Duration.ofSeconds(requestTimeoutSeconds), Duration.ofSeconds(fetchTimeoutSeconds),
+            meterRegistry);
+      case "git":
+        String remoteUrl = gitUrl.isEmpty()
+            ? String.format("https://github.com/%s/%s.git", gitHubData.getGitHubUserName(),
+                gitHubData.getGitHubRepositoryName())
+            : gitUrl;
+        return new CatalogueGetterGit(remoteUrl, new File(cacheDirectory, "registry-log.git"),
+            gitHubData, cacheDirectory, meterRegistry);
+      default:
+        throw new IllegalArgumentException("Unknown catalogue source: " + source);
+    }
+  }
+
+  /**
+   * Constructs schedule of Catalogue fetches.
+   *
+   * <p>
+   * Without GitHub webhook the Catalogue is polled every 10 seconds, backing off to 60 seconds
+   * after failures, and the copy is stale after 120 seconds without a successful fetch. When
+   * 'app.git-hub-webhook.secret' is set, pushes trigger fetches and polling only catches missed
+   * deliveries, so by default it is done every 5 minutes, backing off to 10 minutes, and the copy
+   * is stale after 15 minutes. Right after a change the minimal interval is used in both cases.
+   * </p>
+   *
+   * @param minIntervalSeconds interval used right after the Catalogue has changed.
+   * @param intervalSeconds    regular interval.
+   * @param maxIntervalSeconds maximal interval used after failed fetches, it should be shorter
+   *                           than 'app.catalogue.health.max-seconds-since-fetch', see
+   *                           {@link CatalogueHealthController}, so that the node isn't reported
+   *                           stale while it backs off and recovery is noticed quickly.
+   * @param lowBudget          number of remaining GitHub API calls below which polling slows down,
+   *                           so that the remaining calls last until the limit is reset.
+   * @param webhookSecret      see {@link GitHubWebhookController}.
+   */
+  @Bean
+  public PollingSchedule pollingSchedule(
+      @Value("${app.catalogue.poll.min-interval-seconds:5}") long minIntervalSeconds,
+      @Value("${app.catalogue.poll.interval-seconds:#{null}}") Long intervalSeconds,
+      @Value("${app.catalogue.poll.max-interval-seconds:#{null}}") Long maxIntervalSeconds,
+      @Value("${app.catalogue.poll.low-rate-limit-budget:20}") int lowBudget,
+      @Value("${app.git-hub-webhook.secret:}") String webhookSecret) {
+    boolean webhookEnabled = !webhookSecret.isEmpty();
+    long defaultIntervalSeconds =
+        webhookEnabled ? WEBHOOK_POLL_INTERVAL_SECONDS : POLL_INTERVAL_SECONDS;
+    long defaultMaxIntervalSeconds =
+        webhookEnabled ? WEBHOOK_POLL_MAX_INTERVAL_SECONDS : POLL_MAX_INTERVAL_SECONDS;
+    return new PollingSchedule(Duration.ofSeconds(minIntervalSeconds),
+        Duration.ofSeconds(intervalSeconds == null ? defaultIntervalSeconds : intervalSeconds),
+        Duration.ofSeconds(
+            maxIntervalSeconds == null ? defaultMaxIntervalSeconds : maxIntervalSeconds),
+        lowBudget);
   }
 
 }
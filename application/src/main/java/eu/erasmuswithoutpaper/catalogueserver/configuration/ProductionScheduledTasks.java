@@ -1,10 +1,17 @@
 package eu.erasmuswithoutpaper.catalogueserver.configuration;
 
+import java.util.Date;
+
+import eu.erasmuswithoutpaper.catalogueserver.web.AdditionalCatalogues;
 import eu.erasmuswithoutpaper.catalogueserver.web.CatalogueUpdater;
 
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Profile;
-import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.annotation.SchedulingConfigurer;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.scheduling.config.ScheduledTaskRegistrar;
 import org.springframework.stereotype.Component;
 
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
@@ -16,20 +23,53 @@ import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 @Profile({ "production", "development" })
 @Component
 @SuppressFBWarnings("SIC_INNER_SHOULD_BE_STATIC_ANON")
-public class ProductionScheduledTasks {
+public class ProductionScheduledTasks implements SchedulingConfigurer, DisposableBean {
 
   private final CatalogueUpdater catalogueUpdater;
+  private final AdditionalCatalogues additionalCatalogues;
+  private final ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
 
+  /**
+   * Creates the tasks.
+   *
+   * @param catalogueUpdater     updater of the main Catalogue.
+   * @param additionalCatalogues catalogues of other registries, updated in the same way.
+   * @param fetchThreads         number of threads fetching catalogues, a slow fetch of one
+   *                             catalogue delays fetches of other ones only if all threads are
+   *                             busy.
+   */
   @Autowired
-  public ProductionScheduledTasks(CatalogueUpdater catalogueUpdater) {
+  public ProductionScheduledTasks(CatalogueUpdater catalogueUpdater,
+      AdditionalCatalogues additionalCatalogues,
+      @Value("${app.catalogue.fetch.threads:2}") int fetchThreads) {
     this.catalogueUpdater = catalogueUpdater;
+    this.additionalCatalogues = additionalCatalogues;
+    this.scheduler.setPoolSize(fetchThreads);
+    this.scheduler.setThreadNamePrefix("catalogue-fetch-");
   }
 
   /**
-   * Update local catalogue copy.
+   * Update local catalogue copies. Next update of each catalogue is scheduled at the instant chosen
+   * by its {@link CatalogueUpdater} after the previous one has finished.
    */
-  @Scheduled(initialDelay = 0, fixedRate = 1000 * 10)
+  @Override
+  public void configureTasks(ScheduledTaskRegistrar taskRegistrar) {
+    this.scheduler.initialize();
+    taskRegistrar.setTaskScheduler(this.scheduler);
+    taskRegistrar.addTriggerTask(this::fetchNewCatalogue,
+        triggerContext -> Date.from(this.catalogueUpdater.getNextFetchInstant()));
+    for (CatalogueUpdater<?> updater : this.additionalCatalogues.getUpdaters().values()) {
+      taskRegistrar.addTriggerTask(updater::updateCatalogue,
+          triggerContext -> Date.from(updater.getNextFetchInstant()));
+    }
+  }
+
   public void fetchNewCatalogue() {
     this.catalogueUpdater.updateCatalogue();
   }
+
+  @Override
+  public void destroy() {
+    this.scheduler.shutdown();
+  }
 }
@@ -0,0 +1,235 @@
+package eu.erasmuswithoutpaper.catalogueserver.dns;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Authoritative DNS server of {@link DnsZone} over UDP, which answers only while the node should
+ * be in rotation, so that resolvers move to other nodes within a health check interval.
+ *
+ * <p>
+ * The health check is run periodically on its own thread, because it may take a while when a new
+ * version of the Catalogue has to be hashed, other checks are made in memory. Queries are answered
+ * by a single thread from a non-blocking channel, a whole batch of queries after each wakeup of the
+ * selector. The node is taken out of rotation only after several consecutive failed checks, so
+ * that a single one, e.g. around a publication, isn't noticed by resolvers, and put back after the
+ * first passed one. While the node is not healthy, queries get SERVFAIL, which makes resolvers ask
+ * the next name server right away, or are dropped, like when the BIND server was stopped by the
+ * DNS watchdog.
+ * </p>
+ */
+public class DnsResponder implements Closeable {
+  private static final Logger logger = LoggerFactory.getLogger(DnsResponder.class);
+  private static final int MAX_QUERY_SIZE = 65535;
+
+  private final DnsZone zone;
+  private final BooleanSupplier healthCheck;
+  private final boolean dropWhenUnhealthy;
+  private final DatagramChannel channel;
+  private final Selector selector;
+  private final ScheduledExecutorService healthCheckExecutor;
+  private final Duration healthCheckInterval;
+  private final int failuresBeforeUnhealthy;
+  private final Thread thread;
+  private final Counter[] responses = new Counter[6];
+  private final Counter dropped;
+  private volatile boolean serving;
+  private volatile boolean running = true;
+  // Accessed only by the health check thread, and by the constructor before it is started.
+  private int consecutiveFailures;
+
+  /**
+   * Binds the socket, queries are answered after {@link #start()}.
+   *
+   * @param address             address and port to listen on.
+   * @param zone                the served zone.
+   * @param healthCheck         decides whether this node should be in rotation.
+   * @param healthCheckInterval how often the health check is run.
+   * @param failuresBeforeUnhealthy number of consecutive failed checks after which the node is not
+   *                            healthy, at least 1.
+   * @param dropWhenUnhealthy   whether queries are dropped instead of getting SERVFAIL while the
+   *                            node is not healthy.
+   * @param meterRegistry       registry of query metrics.
+   * @throws IOException if the socket cannot be bound.
+   */
+  public DnsResponder(InetSocketAddress address, DnsZone zone, BooleanSupplier healthCheck,
+      Duration healthCheckInterval, int failuresBeforeUnhealthy, boolean dropWhenUnhealthy,
+      MeterRegistry meterRegistry) throws IOException {
+    if (failuresBeforeUnhealthy < 1) {
+      throw new IllegalArgumentException(
+          "failuresBeforeUnhealthy has to be positive: " + failuresBeforeUnhealthy);
+    }
+    this.zone = zone;
+    this.healthCheck = healthCheck;
+    this.failuresBeforeUnhealthy = failuresBeforeUnhealthy;
+    this.dropWhenUnhealthy = dropWhenUnhealthy;
+    String[] rcodeNames = {"noerror", "formerr", "servfail", "nxdomain", "notimp", "refused"};
+    for (int rcode = 0; rcode < this.responses.length; rcode++) {
+      this.responses[rcode] = Counter.builder("dns.responses")
+          .description("Responses sent by the embedded DNS server.")
+          .tag("rcode", rcodeNames[rcode])
+          .register(meterRegistry);
+    }
+    this.dropped = Counter.builder("dns.queries.dropped")
+        .description("Queries which were not answered: invalid, received while the node was not "
+            + "healthy, or not sent because the socket buffer was full.")
+        .register(meterRegistry);
+    Gauge.builder("dns.serving", this, responder -> responder.serving ? 1 : 0)
+        .description("Whether the embedded DNS server answers queries.")
+        .register(meterRegistry);
+
+    // The first check is done before any query is answered, a node which is not healthy at
+    // startup is not put in rotation.
+    this.consecutiveFailures = failuresBeforeUnhealthy - 1;
+    updateServing();
+    this.channel = DatagramChannel.open();
+    try {
+      this.channel.bind(address);
+      this.channel.configureBlocking(false);
+      this.selector = Selector.open();
+      this.channel.register(this.selector, SelectionKey.OP_READ);
+    } catch (IOException e) {
+      this.channel.close();
+      throw e;
+    }
+    this.healthCheckExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread checkThread = new Thread(runnable, "dns-health-check");
+      checkThread.setDaemon(true);
+      return checkThread;
+    });
+    this.healthCheckInterval = healthCheckInterval;
+    this.thread = new Thread(this::run, "dns-responder");
+    this.thread.setDaemon(true);
+  }
+
+  /**
+   * Starts the health checks and answering queries.
+   */
+  public void start() {
+    this.healthCheckExecutor.scheduleWithFixedDelay(this::updateServing,
+        this.healthCheckInterval.toMillis(), this.healthCheckInterval.toMillis(),
+        TimeUnit.MILLISECONDS);
+    this.thread.start();
+    logger.info("DNS server listening on {}", getLocalAddress());
+  }
+
+  /**
+   * Address the server listens on, with the actual port if port 0 was requested.
+   *
+   * @return bound address.
+   */
+  public InetSocketAddress getLocalAddress() {
+    try {
+      return (InetSocketAddress) this.channel.getLocalAddress();
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  public boolean isServing() {
+    return this.serving;
+  }
+
+  private void updateServing() {
+    boolean passed;
+    try {
+      passed = this.healthCheck.getAsBoolean();
+    } catch (RuntimeException e) {
+      logger.error("DNS health check failed", e);
+      passed = false;
+    }
+    if (passed) {
+      this.consecutiveFailures = 0;
+    } else if (this.consecutiveFailures < this.failuresBeforeUnhealthy) {
+      this.consecutiveFailures++;
+    }
+    boolean healthy = this.consecutiveFailures < this.failuresBeforeUnhealthy;
+    if (healthy != this.serving) {
+      logger.info(healthy ? "Catalogue is served correctly, answering DNS queries"
+          : "Catalogue is not served correctly, not answering DNS queries");
+      this.serving = healthy;
+    }
+  }
+
+  private void run() {
+    ByteBuffer query = ByteBuffer.allocateDirect(MAX_QUERY_SIZE);
+    ByteBuffer response = ByteBuffer.allocateDirect(DnsZone.MAX_RESPONSE_SIZE);
+    while (this.running) {
+      try {
+        this.selector.select();
+        this.selector.selectedKeys().clear();
+        // Answer all queries which have arrived before going back to the selector.
+        SocketAddress client;
+        while ((client = receive(query)) != null) {
+          answer(query, response, client);
+        }
+      } catch (ClosedSelectorException e) {
+        return;
+      } catch (IOException e) {
+        if (this.running) {
+          logger.error("DNS server error", e);
+        }
+      }
+    }
+  }
+
+  private SocketAddress receive(ByteBuffer query) throws IOException {
+    query.clear();
+    SocketAddress client = this.channel.receive(query);
+    query.flip();
+    return client;
+  }
+
+  private void answer(ByteBuffer query, ByteBuffer response, SocketAddress client)
+      throws IOException {
+    boolean healthy = this.serving;
+    if (!healthy && this.dropWhenUnhealthy) {
+      this.dropped.increment();
+      return;
+    }
+    int rcode = this.zone.respond(query, response, healthy);
+    if (rcode < 0) {
+      this.dropped.increment();
+      return;
+    }
+    if (this.channel.send(response, client) == 0) {
+      this.dropped.increment();
+      return;
+    }
+    this.responses[rcode].increment();
+  }
+
+  /**
+   * Stops answering queries and closes the socket.
+   */
+  @Override
+  public void close() throws IOException {
+    this.running = false;
+    this.healthCheckExecutor.shutdownNow();
+    this.selector.close();
+    this.channel.close();
+    try {
+      this.thread.join(1000);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
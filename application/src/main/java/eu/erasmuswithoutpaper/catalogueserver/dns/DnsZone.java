@@ -0,0 +1,384 @@
+package eu.erasmuswithoutpaper.catalogueserver.dns;
+
+import java.io.ByteArrayOutputStream;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The registry zone served by {@link DnsResponder}, with the same records as 'db.ewp' zone file of
+ * the BIND server: SOA and NS records of the zone, and A (or AAAA) records of the zone and of its
+ * name server.
+ *
+ * <p>
+ * Answers are encoded when the zone is created, so that a response is built by copying the
+ * question and a prepared section, without allocations.
+ * </p>
+ */
+public class DnsZone {
+  /**
+   * Maximal size of a UDP response to a client which doesn't use EDNS.
+   */
+  public static final int MAX_RESPONSE_SIZE = 512;
+
+  static final int RCODE_NOERROR = 0;
+  static final int RCODE_FORMERR = 1;
+  static final int RCODE_SERVFAIL = 2;
+  static final int RCODE_NXDOMAIN = 3;
+  static final int RCODE_NOTIMP = 4;
+  static final int RCODE_REFUSED = 5;
+
+  private static final int HEADER_SIZE = 12;
+  private static final int TYPE_A = 1;
+  private static final int TYPE_NS = 2;
+  private static final int TYPE_SOA = 6;
+  private static final int TYPE_AAAA = 28;
+  private static final int TYPE_ANY = 255;
+  private static final int CLASS_IN = 1;
+  private static final int CLASS_ANY = 255;
+  private static final int FLAG_QR = 0x8000;
+  private static final int FLAG_AA = 0x0400;
+  private static final int FLAG_TC = 0x0200;
+  private static final int FLAG_RD = 0x0100;
+  private static final int OPCODE_MASK = 0x7800;
+  private static final int MAX_NAME_SIZE = 255;
+
+  private final byte[] zoneName;
+  private final List<NameRecords> names = new ArrayList<>();
+  private final Section nameError;
+
+  /**
+   * Prepared answer, authority and additional sections of a response.
+   */
+  private static class Section {
+    final int rcode;
+    final int answerCount;
+    final int authorityCount;
+    final int additionalCount;
+    final byte[] records;
+
+    Section(int rcode, int answerCount, int authorityCount, int additionalCount,
+        byte[] records) {
+      this.rcode = rcode;
+      this.answerCount = answerCount;
+      this.authorityCount = authorityCount;
+      this.additionalCount = additionalCount;
+      this.records = records;
+    }
+  }
+
+  /**
+   * Name with records, and responses to queries about it, indexed by query type.
+   */
+  private static class NameRecords {
+    final byte[] name;
+    final Section[] byType = new Section[TYPE_ANY + 1];
+    Section noData;
+
+    NameRecords(byte[] name) {
+      this.name = name;
+    }
+
+    Section get(int type) {
+      Section section = type < this.byType.length ? this.byType[type] : null;
+      return section != null ? section : this.noData;
+    }
+  }
+
+  /**
+   * Prepares responses of the zone.
+   *
+   * @param zone        name of the zone, the registry domain name.
+   * @param nameServer  name of this name server, it gets address records if it is in the zone.
+   * @param adminMailbox mailbox of the zone administrator in the SOA format, e.g.
+   *                    'hostmaster.example.com'.
+   * @param addresses   addresses of this node.
+   * @param ttlSeconds  TTL of all records and of negative answers.
+   * @param serial      serial number of the zone.
+   */
+  public DnsZone(String zone, String nameServer, String adminMailbox,
+      List<InetAddress> addresses, int ttlSeconds, long serial) {
+    this.zoneName = encodeName(zone);
+    byte[] nameServerName = encodeName(nameServer);
+
+    ByteArrayOutputStream soaData = new ByteArrayOutputStream();
+    soaData.write(nameServerName, 0, nameServerName.length);
+    byte[] mailbox = encodeName(adminMailbox);
+    soaData.write(mailbox, 0, mailbox.length);
+    // Serial, refresh, retry, expire and minimum (negative answers TTL), as in 'db.ewp'.
+    writeInt(soaData, serial);
+    for (int i = 0; i < 4; i++) {
+      writeInt(soaData, ttlSeconds);
+    }
+    ByteArrayOutputStream soa = new ByteArrayOutputStream();
+    writeRecord(soa, this.zoneName, TYPE_SOA, ttlSeconds, soaData.toByteArray());
+    ByteArrayOutputStream ns = new ByteArrayOutputStream();
+    writeRecord(ns, this.zoneName, TYPE_NS, ttlSeconds, nameServerName);
+
+    NameRecords apex = new NameRecords(this.zoneName);
+    this.names.add(apex);
+    boolean nameServerInZone =
+        isInZone(ByteBuffer.wrap(nameServerName), 0, nameServerName.length);
+    NameRecords nameServerRecords = null;
+    if (nameServerInZone && !equalNames(nameServerName, 0, this.zoneName)) {
+      nameServerRecords = new NameRecords(nameServerName);
+      this.names.add(nameServerRecords);
+    }
+
+    this.nameError = new Section(RCODE_NXDOMAIN, 0, 1, 0, soa.toByteArray());
+    Section noData = new Section(RCODE_NOERROR, 0, 1, 0, soa.toByteArray());
+    apex.noData = noData;
+    apex.byType[TYPE_SOA] = new Section(RCODE_NOERROR, 1, 0, 0, soa.toByteArray());
+
+    ByteArrayOutputStream any = new ByteArrayOutputStream();
+    any.write(soa.toByteArray(), 0, soa.size());
+    any.write(ns.toByteArray(), 0, ns.size());
+    int anyCount = 2;
+    for (int type : new int[] {TYPE_A, TYPE_AAAA}) {
+      ByteArrayOutputStream records = new ByteArrayOutputStream();
+      int count = writeAddressRecords(records, this.zoneName, type, addresses, ttlSeconds);
+      if (count > 0) {
+        apex.byType[type] = new Section(RCODE_NOERROR, count, 0, 0, records.toByteArray());
+        any.write(records.toByteArray(), 0, records.size());
+        anyCount += count;
+      }
+    }
+    apex.byType[TYPE_ANY] = new Section(RCODE_NOERROR, anyCount, 0, 0, any.toByteArray());
+
+    // Glue records of the name server are sent with the NS record.
+    ByteArrayOutputStream glue = new ByteArrayOutputStream();
+    int glueCount = 0;
+    if (nameServerInZone) {
+      glueCount += writeAddressRecords(glue, nameServerName, TYPE_A, addresses, ttlSeconds);
+      glueCount += writeAddressRecords(glue, nameServerName, TYPE_AAAA, addresses, ttlSeconds);
+    }
+    ByteArrayOutputStream nsWithGlue = new ByteArrayOutputStream();
+    nsWithGlue.write(ns.toByteArray(), 0, ns.size());
+    nsWithGlue.write(glue.toByteArray(), 0, glue.size());
+    apex.byType[TYPE_NS] = new Section(RCODE_NOERROR, 1, 0, glueCount, nsWithGlue.toByteArray());
+
+    if (nameServerRecords != null) {
+      nameServerRecords.noData = noData;
+      ByteArrayOutputStream nameServerAny = new ByteArrayOutputStream();
+      for (int type : new int[] {TYPE_A, TYPE_AAAA}) {
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        int count = writeAddressRecords(records, nameServerName, type, addresses, ttlSeconds);
+        if (count > 0) {
+          nameServerRecords.byType[type] =
+              new Section(RCODE_NOERROR, count, 0, 0, records.toByteArray());
+          nameServerAny.write(records.toByteArray(), 0, records.size());
+        }
+      }
+      nameServerRecords.byType[TYPE_ANY] =
+          new Section(RCODE_NOERROR, glueCount, 0, 0, nameServerAny.toByteArray());
+    }
+  }
+
+  /**
+   * Writes the response to a query.
+   *
+   * @param query    query datagram, between position and limit, the position is not changed.
+   * @param response buffer of at least {@link #MAX_RESPONSE_SIZE} bytes, the response is written
+   *                 from position 0 and the buffer is flipped.
+   * @param serving  whether the zone is served, SERVFAIL is sent to all valid queries otherwise.
+   * @return response code sent, or -1 if the datagram should be ignored (a response or too short
+   *         to be answered).
+   */
+  public int respond(ByteBuffer query, ByteBuffer response, boolean serving) {
+    int start = query.position();
+    int length = query.remaining();
+    response.clear();
+    if (length < HEADER_SIZE) {
+      return -1;
+    }
+    int flags = query.getShort(start + 2) & 0xffff;
+    if ((flags & FLAG_QR) != 0) {
+      return -1;
+    }
+    int id = query.getShort(start) & 0xffff;
+    int responseFlags = FLAG_QR | (flags & (OPCODE_MASK | FLAG_RD));
+    if ((flags & OPCODE_MASK) != 0) {
+      return writeHeaderOnly(response, id, responseFlags, RCODE_NOTIMP);
+    }
+    if ((query.getShort(start + 4) & 0xffff) != 1) {
+      return writeHeaderOnly(response, id, responseFlags, RCODE_FORMERR);
+    }
+
+    // Question: name, type and class.
+    int nameStart = start + HEADER_SIZE;
+    int nameEnd = skipName(query, nameStart, start + length);
+    if (nameEnd < 0 || nameEnd + 4 > start + length) {
+      return writeHeaderOnly(response, id, responseFlags, RCODE_FORMERR);
+    }
+    int type = query.getShort(nameEnd) & 0xffff;
+    int queryClass = query.getShort(nameEnd + 2) & 0xffff;
+    int questionEnd = nameEnd + 4;
+
+    Section section = null;
+    int rcode;
+    if (!serving) {
+      rcode = RCODE_SERVFAIL;
+    } else if (queryClass != CLASS_IN && queryClass != CLASS_ANY) {
+      rcode = RCODE_REFUSED;
+    } else {
+      section = find(query, nameStart, nameEnd, type);
+      rcode = section == null ? RCODE_REFUSED : section.rcode;
+      if (section != null) {
+        responseFlags |= FLAG_AA;
+      }
+    }
+    int questionSize = questionEnd - nameStart;
+    if (section != null
+        && HEADER_SIZE + questionSize + section.records.length > MAX_RESPONSE_SIZE) {
+      responseFlags |= FLAG_TC;
+      section = null;
+    }
+    response.putShort((short) id);
+    response.putShort((short) (responseFlags | rcode));
+    response.putShort((short) 1);
+    response.putShort((short) (section == null ? 0 : section.answerCount));
+    response.putShort((short) (section == null ? 0 : section.authorityCount));
+    response.putShort((short) (section == null ? 0 : section.additionalCount));
+    for (int i = nameStart; i < questionEnd; i++) {
+      response.put(query.get(i));
+    }
+    if (section != null) {
+      response.put(section.records);
+    }
+    response.flip();
+    return rcode;
+  }
+
+  private Section find(ByteBuffer query, int nameStart, int nameEnd, int type) {
+    for (NameRecords owner : this.names) {
+      if (owner.name.length == nameEnd - nameStart && equalNames(query, nameStart, owner.name)) {
+        return owner.get(type);
+      }
+    }
+    // Names below the zone which have no records don't exist, other names are not ours.
+    return isInZone(query, nameStart, nameEnd) ? this.nameError : null;
+  }
+
+  private boolean isInZone(ByteBuffer name, int nameStart, int nameEnd) {
+    int suffixStart = nameEnd - this.zoneName.length;
+    if (suffixStart < nameStart) {
+      return false;
+    }
+    int position = nameStart;
+    while (position < suffixStart) {
+      position += (name.get(position) & 0xff) + 1;
+    }
+    return position == suffixStart && equalNames(name, suffixStart, this.zoneName);
+  }
+
+  private static int writeHeaderOnly(ByteBuffer response, int id, int flags, int rcode) {
+    response.putShort((short) id);
+    response.putShort((short) (flags | rcode));
+    for (int i = 0; i < 4; i++) {
+      response.putShort((short) 0);
+    }
+    response.flip();
+    return rcode;
+  }
+
+  /**
+   * Finds the end of an uncompressed name.
+   *
+   * @return position after the terminating empty label, -1 if the name is invalid.
+   */
+  private static int skipName(ByteBuffer query, int position, int limit) {
+    int current = position;
+    while (current < limit) {
+      int labelLength = query.get(current) & 0xff;
+      if (labelLength == 0) {
+        return current + 1 - position > MAX_NAME_SIZE ? -1 : current + 1;
+      }
+      // Compression pointers and extended labels are not used in questions.
+      if ((labelLength & 0xc0) != 0) {
+        return -1;
+      }
+      current += labelLength + 1;
+    }
+    return -1;
+  }
+
+  private static boolean equalNames(ByteBuffer query, int position, byte[] name) {
+    for (int i = 0; i < name.length; i++) {
+      if (toLowerCase(query.get(position + i)) != name[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean equalNames(byte[] name, int position, byte[] other) {
+    return name.length - position == other.length
+        && equalNames(ByteBuffer.wrap(name), position, other);
+  }
+
+  private static byte toLowerCase(byte value) {
+    return value >= 'A' && value <= 'Z' ? (byte) (value + ('a' - 'A')) : value;
+  }
+
+  private static int writeAddressRecords(ByteArrayOutputStream output, byte[] name, int type,
+      List<InetAddress> addresses, int ttlSeconds) {
+    int count = 0;
+    for (InetAddress address : addresses) {
+      if ((address instanceof Inet4Address) == (type == TYPE_A)) {
+        writeRecord(output, name, type, ttlSeconds, address.getAddress());
+        count++;
+      }
+    }
+    return count;
+  }
+
+  private static void writeRecord(ByteArrayOutputStream output, byte[] name, int type,
+      int ttlSeconds, byte[] data) {
+    output.write(name, 0, name.length);
+    writeShort(output, type);
+    writeShort(output, CLASS_IN);
+    writeInt(output, ttlSeconds);
+    writeShort(output, data.length);
+    output.write(data, 0, data.length);
+  }
+
+  private static void writeShort(ByteArrayOutputStream output, int value) {
+    output.write(value >>> 8);
+    output.write(value);
+  }
+
+  private static void writeInt(ByteArrayOutputStream output, long value) {
+    writeShort(output, (int) (value >>> 16) & 0xffff);
+    writeShort(output, (int) value & 0xffff);
+  }
+
+  /**
+   * Encodes a domain name in the wire format, in lower case.
+   */
+  static byte[] encodeName(String name) {
+    String normalized = name.toLowerCase(Locale.ROOT);
+    if (normalized.endsWith(".")) {
+      normalized = normalized.substring(0, normalized.length() - 1);
+    }
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    if (!normalized.isEmpty()) {
+      for (String label : normalized.split("\\.", -1)) {
+        byte[] bytes = label.getBytes(StandardCharsets.US_ASCII);
+        if (bytes.length == 0 || bytes.length > 63) {
+          throw new IllegalArgumentException("Invalid domain name: " + name);
+        }
+        output.write(bytes.length);
+        output.write(bytes, 0, bytes.length);
+      }
+    }
+    output.write(0);
+    if (output.size() > MAX_NAME_SIZE) {
+      throw new IllegalArgumentException("Domain name too long: " + name);
+    }
+    return output.toByteArray();
+  }
+}
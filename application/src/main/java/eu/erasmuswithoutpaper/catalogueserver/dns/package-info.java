@@ -0,0 +1,5 @@
+/**
+ * Embedded authoritative DNS server of the registry domain, which answers only while the
+ * Catalogue is served correctly.
+ */
+package eu.erasmuswithoutpaper.catalogueserver.dns;
@@ -0,0 +1,48 @@
+package eu.erasmuswithoutpaper.catalogueserver.web;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Catalogues of other registries (e.g. the test and dev ones) mirrored by this server next to the
+ * main Catalogue, each with its own source, local copy and polling schedule.
+ *
+ * <p>
+ * They are served by {@link AdditionalCataloguesController}. Requests of each catalogue are counted
+ * in its own {@link ClientPollingStatistics}, so that the clients of a rarely polled catalogue are
+ * not displaced by those of the main one. Only the main Catalogue is checked by the DNS watchdog
+ * and updated by webhooks.
+ * </p>
+ */
+public class AdditionalCatalogues {
+  private final Map<String, CatalogueUpdater<?>> updaters;
+  private final Map<String, ClientPollingStatistics> clientPollingStatistics;
+
+  /**
+   * Creates the set of additional catalogues.
+   *
+   * @param updaters                updaters of the catalogues by their names, which are used in
+   *                                their URLs.
+   * @param clientPollingStatistics statistics of requests per client of each catalogue, by the
+   *                                same names.
+   */
+  public AdditionalCatalogues(Map<String, CatalogueUpdater<?>> updaters,
+      Map<String, ClientPollingStatistics> clientPollingStatistics) {
+    if (!clientPollingStatistics.keySet().equals(updaters.keySet())) {
+      throw new IllegalArgumentException("Statistics don't match catalogues: "
+          + clientPollingStatistics.keySet() + ", " + updaters.keySet());
+    }
+    this.updaters = Collections.unmodifiableMap(new LinkedHashMap<>(updaters));
+    this.clientPollingStatistics =
+        Collections.unmodifiableMap(new LinkedHashMap<>(clientPollingStatistics));
+  }
+
+  public Map<String, CatalogueUpdater<?>> getUpdaters() {
+    return this.updaters;
+  }
+
+  public Map<String, ClientPollingStatistics> getClientPollingStatistics() {
+    return this.clientPollingStatistics;
+  }
+}
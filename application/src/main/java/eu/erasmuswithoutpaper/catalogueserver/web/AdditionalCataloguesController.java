@@ -0,0 +1,72 @@
+package eu.erasmuswithoutpaper.catalogueserver.web;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.ServletWebRequest;
+
+/**
+ * Serves {@link AdditionalCatalogues} under '/registries/{name}/catalogue-v1.xml', in the same way
+ * as the main Catalogue is served by {@link CatalogueEndpointController}.
+ */
+@RestController
+public class AdditionalCataloguesController {
+  private final Map<String, CatalogueEndpointController<?>> controllers = new HashMap<>();
+  private final ApplicationErrorController errorController;
+
+  /**
+   * Creates a {@link CatalogueEndpointController} for each additional catalogue.
+   *
+   * @param additionalCatalogues the served catalogues, with their statistics of requests.
+   * @param errorController      source of 404 responses to unknown names.
+   */
+  @Autowired
+  public AdditionalCataloguesController(AdditionalCatalogues additionalCatalogues,
+      ApplicationErrorController errorController) {
+    for (Map.Entry<String, CatalogueUpdater<?>> entry :
+        additionalCatalogues.getUpdaters().entrySet()) {
+      this.controllers.put(entry.getKey(), createController(entry.getValue(),
+          additionalCatalogues.getClientPollingStatistics().get(entry.getKey())));
+    }
+    this.errorController = errorController;
+  }
+
+  private static <T extends CatalogueMetadata<T>> CatalogueEndpointController<T> createController(
+      CatalogueUpdater<T> catalogueUpdater, ClientPollingStatistics clientPollingStatistics) {
+    return new CatalogueEndpointController<>(catalogueUpdater, clientPollingStatistics);
+  }
+
+  /**
+   * Serves an additional catalogue, see {@link CatalogueEndpointController#getCatalogue}.
+   *
+   * @param name name of the catalogue in the configuration.
+   */
+  @RequestMapping("/registries/{name}/catalogue-v1.xml")
+  public void getCatalogue(@PathVariable String name, ServletWebRequest webRequest,
+      HttpServletResponse response) throws IOException {
+    CatalogueEndpointController<?> controller = this.controllers.get(name);
+    if (controller == null) {
+      sendNotFound(response);
+      return;
+    }
+    controller.getCatalogue(webRequest, response);
+  }
+
+  private void sendNotFound(HttpServletResponse response) throws IOException {
+    ResponseEntity<String> notFound = this.errorController.get404();
+    response.setStatus(notFound.getStatusCodeValue());
+    response.setContentType(MediaType.APPLICATION_XML_VALUE);
+    response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+    response.getWriter().write(notFound.getBody());
+  }
+}
@@ -0,0 +1,188 @@
+package eu.erasmuswithoutpaper.catalogueserver.web;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Computes hashes of the Catalogue which don't depend on its formatting, so that versions
+ * differing only in formatting can be recognized.
+ *
+ * <p>
+ * The document is read with StAX and its canonical form, similar to Canonical XML, is hashed as it
+ * is read. Comments, processing instructions, the XML declaration and whitespace-only text between
+ * elements are omitted, attributes are sorted and names are qualified with namespace URIs instead
+ * of prefixes, so choice of prefixes, attribute order, indentation, line endings, character
+ * references and CDATA sections don't change the hash. Non-whitespace text is hashed as is.
+ * Prefixes used in attribute or text values (e.g. 'xsi:type') are not resolved, the Catalogue
+ * doesn't use them.
+ * </p>
+ */
+public class CanonicalXml {
+  private static final XMLInputFactory XML_INPUT_FACTORY = createXmlInputFactory();
+  private static final int CHUNK_LENGTH = 8192;
+
+  private static XMLInputFactory createXmlInputFactory() {
+    XMLInputFactory factory = XMLInputFactory.newFactory();
+    // The Catalogue doesn't use DTDs, external entities must not be resolved.
+    factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+    factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+    return factory;
+  }
+
+  /**
+   * Calculates hash of the canonical form of given UTF-8 encoded XML document.
+   *
+   * @param content XML document.
+   * @return hash in the format of {@link MetadataVerifier#getHash(byte[])}, equal for documents
+   *         differing only in formatting.
+   * @throws XMLStreamException if the document is not well-formed.
+   */
+  public static String getHash(byte[] content) throws XMLStreamException {
+    MessageDigest digest = MetadataVerifier.createDigest();
+    XMLStreamReader reader =
+        XML_INPUT_FACTORY.createXMLStreamReader(new ByteArrayInputStream(content));
+    try {
+      writeCanonicalForm(reader, digest);
+    } finally {
+      reader.close();
+    }
+    return MetadataVerifier.getHash(digest);
+  }
+
+  private static void writeCanonicalForm(XMLStreamReader reader, MessageDigest digest)
+      throws XMLStreamException {
+    // The canonical form is built in chunks, which are encoded into the digest between events.
+    StringBuilder output = new StringBuilder(2 * CHUNK_LENGTH);
+    // Text is split by comments and processing instructions, parts are joined before deciding
+    // whether it is whitespace between elements.
+    StringBuilder text = new StringBuilder();
+    // Namespace URIs are long, they are numbered in order of their first use and only the first
+    // use is written in full, e.g. '{0=urn:a}name', then '{0}name'.
+    Map<String, Integer> namespaces = new HashMap<>();
+    while (reader.hasNext()) {
+      switch (reader.next()) {
+        case XMLStreamConstants.START_ELEMENT:
+          writeText(text, output);
+          output.append('<');
+          writeName(reader.getNamespaceURI(), reader.getLocalName(), namespaces, output);
+          writeAttributes(reader, namespaces, output);
+          output.append('>');
+          break;
+        case XMLStreamConstants.END_ELEMENT:
+          writeText(text, output);
+          output.append("</");
+          writeName(reader.getNamespaceURI(), reader.getLocalName(), namespaces, output);
+          output.append('>');
+          break;
+        case XMLStreamConstants.CHARACTERS:
+        case XMLStreamConstants.CDATA:
+        case XMLStreamConstants.SPACE:
+          text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+          break;
+        default:
+          // Comments, processing instructions and document boundaries are not hashed.
+          break;
+      }
+      if (output.length() >= CHUNK_LENGTH) {
+        flush(output, digest);
+      }
+    }
+    writeText(text, output);
+    flush(output, digest);
+  }
+
+  private static void flush(StringBuilder output, MessageDigest digest) {
+    digest.update(output.toString().getBytes(StandardCharsets.UTF_8));
+    output.setLength(0);
+  }
+
+  private static void writeAttributes(XMLStreamReader reader, Map<String, Integer> namespaces,
+      StringBuilder output) {
+    int count = reader.getAttributeCount();
+    if (count == 0) {
+      return;
+    }
+    // Sorted by namespace URI and local name, before the URIs are numbered.
+    Map<String, Integer> attributes = new TreeMap<>();
+    for (int i = 0; i < count; i++) {
+      String namespace = reader.getAttributeNamespace(i);
+      String key = namespace == null || namespace.isEmpty()
+          ? reader.getAttributeLocalName(i)
+          : "{" + namespace + "}" + reader.getAttributeLocalName(i);
+      attributes.put(key, i);
+    }
+    for (int i : attributes.values()) {
+      output.append(' ');
+      writeName(reader.getAttributeNamespace(i), reader.getAttributeLocalName(i), namespaces,
+          output);
+      output.append("=\"");
+      writeEscaped(reader.getAttributeValue(i), output);
+      output.append('"');
+    }
+  }
+
+  private static void writeName(String namespace, String localName,
+      Map<String, Integer> namespaces, StringBuilder output) {
+    if (namespace != null && !namespace.isEmpty()) {
+      Integer number = namespaces.get(namespace);
+      if (number == null) {
+        number = namespaces.size();
+        namespaces.put(namespace, number);
+        output.append('{').append(number).append('=').append(namespace).append('}');
+      } else {
+        output.append('{').append(number).append('}');
+      }
+    }
+    output.append(localName);
+  }
+
+  private static void writeText(StringBuilder text, StringBuilder output) {
+    if (!isWhitespace(text)) {
+      writeEscaped(text, output);
+    }
+    text.setLength(0);
+  }
+
+  private static boolean isWhitespace(CharSequence text) {
+    for (int i = 0; i < text.length(); i++) {
+      char character = text.charAt(i);
+      if (character != ' ' && character != '\t' && character != '\n' && character != '\r') {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static void writeEscaped(CharSequence value, StringBuilder output) {
+    for (int i = 0; i < value.length(); i++) {
+      char character = value.charAt(i);
+      switch (character) {
+        case '&':
+          output.append("&amp;");
+          break;
+        case '<':
+          output.append("&lt;");
+          break;
+        case '>':
+          output.append("&gt;");
+          break;
+        case '"':
+          output.append("&quot;");
+          break;
+        default:
+          output.append(character);
+      }
+    }
+  }
+}
@@ -1,25 +1,209 @@
 package eu.erasmuswithoutpaper.catalogueserver.web;
 
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
 import javax.validation.constraints.NotNull;
 
 /**
  * In memory copy of the Catalogue contents and metadata, they are always read and updated together.
  * Moreover, storing them in a single immutable object makes accessing them thread safe.
+ *
+ * <p>
+ * Contents are kept already encoded in every supported {@link CatalogueEncoding}, encodings are
+ * computed once, when the object is created, so they are never computed while serving a request.
+ * Depending on {@link CatalogueStorage} they are kept on the Java heap or in direct buffers.
+ * </p>
+ *
+ * <p>
+ * Every object is a snapshot with a generation number assigned by {@link CatalogueCopy}, newer
+ * snapshots have greater generation numbers.
+ * </p>
+ *
+ * <p>
+ * A snapshot may also hold {@link CatalogueDelta}s from a few previous versions to its contents
+ * and a {@link CatalogueIndex} of its contents, so that they are always published together.
+ * The index may still be being built when a snapshot is published, e.g. at startup, snapshots of
+ * the same contents share it, so it becomes available in all of them once it is built.
+ * </p>
  */
 public class CatalogueAndMetadata<T extends CatalogueMetadata<T>> {
+  private static final DateTimeFormatter HTTP_DATE_FORMATTER =
+      DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US)
+          .withZone(ZoneOffset.UTC);
+
+  private final long generation;
   private final T catalogueMetadata;
-  private final String catalogueContents;
+  private final Map<CatalogueEncoding, EncodedCatalogue> encodedCatalogues;
+  private final Map<String, CatalogueDelta> deltasByBaseEtag;
+  private final CompletableFuture<CatalogueIndex> index;
+  private final long lastModifiedTimestamp;
+  private final String lastModifiedHeader;
+
+  /**
+   * Creates a snapshot, encoding the contents in every supported encoding.
+   *
+   * @param generation        generation of the snapshot.
+   * @param catalogueMetadata metadata of the contents.
+   * @param catalogueContents UTF-8 encoded contents, the array must not be modified afterwards.
+   * @param storage           where in memory the encoded contents should be kept.
+   */
+  CatalogueAndMetadata(long generation, @NotNull T catalogueMetadata, byte[] catalogueContents,
+      CatalogueStorage storage) {
+    this(generation, catalogueMetadata,
+        encode(catalogueMetadata.getHash(), catalogueContents, storage),
+        Collections.emptyMap(), CompletableFuture.completedFuture(null));
+  }
 
-  CatalogueAndMetadata(@NotNull T catalogueMetadata, String catalogueContents) {
+  private CatalogueAndMetadata(long generation, T catalogueMetadata,
+      Map<CatalogueEncoding, EncodedCatalogue> encodedCatalogues,
+      Map<String, CatalogueDelta> deltasByBaseEtag, CompletableFuture<CatalogueIndex> index) {
+    this.generation = generation;
     this.catalogueMetadata = catalogueMetadata;
-    this.catalogueContents = catalogueContents;
+    this.encodedCatalogues = encodedCatalogues;
+    this.deltasByBaseEtag = deltasByBaseEtag;
+    this.index = index;
+    // HTTP dates have a precision of one second.
+    this.lastModifiedTimestamp = catalogueMetadata.getModificationDate().getEpochSecond() * 1000;
+    this.lastModifiedHeader = HTTP_DATE_FORMATTER.format(catalogueMetadata.getModificationDate());
+  }
+
+  /**
+   * Creates a snapshot from contents that were already encoded, e.g. read from
+   * {@link CatalogueSnapshotFile}. Missing encodings are computed from identity-encoded contents.
+   *
+   * @param generation        generation of the snapshot.
+   * @param catalogueMetadata metadata of the contents.
+   * @param encodedContents   contents in each available encoding, identity encoding is required.
+   * @param storage           where in memory the encoded contents should be kept.
+   * @return new CatalogueAndMetadata.
+   */
+  static <T extends CatalogueMetadata<T>> CatalogueAndMetadata<T> fromEncodedContents(
+      long generation, T catalogueMetadata, Map<CatalogueEncoding, byte[]> encodedContents,
+      CatalogueStorage storage) {
+    byte[] identityContent = encodedContents.get(CatalogueEncoding.IDENTITY);
+    String hash = catalogueMetadata.getHash();
+    Map<CatalogueEncoding, EncodedCatalogue> encoded = new EnumMap<>(CatalogueEncoding.class);
+    for (CatalogueEncoding encoding : CatalogueEncoding.values()) {
+      byte[] content = encodedContents.get(encoding);
+      if (content == null) {
+        content = encoding.encode(identityContent);
+      }
+      encoded.put(encoding,
+          new EncodedCatalogue(encoding, storage.store(content), encoding.getEtag(hash)));
+    }
+    return new CatalogueAndMetadata<T>(generation, catalogueMetadata,
+        Collections.unmodifiableMap(encoded), Collections.emptyMap(),
+        CompletableFuture.completedFuture(null));
+  }
+
+  private static Map<CatalogueEncoding, EncodedCatalogue> encode(String hash, byte[] content,
+      CatalogueStorage storage) {
+    Map<CatalogueEncoding, EncodedCatalogue> encoded = new EnumMap<>(CatalogueEncoding.class);
+    for (CatalogueEncoding encoding : CatalogueEncoding.values()) {
+      encoded.put(encoding, new EncodedCatalogue(encoding,
+          storage.store(encoding.encode(content)), encoding.getEtag(hash)));
+    }
+    return Collections.unmodifiableMap(encoded);
+  }
+
+  /**
+   * Creates a snapshot with different metadata of the same contents. Encoded contents are shared.
+   *
+   * @param newGeneration generation of the new snapshot.
+   * @param newMetadata metadata describing the same contents, e.g. with updated last fetch date.
+   * @return new CatalogueAndMetadata.
+   */
+  CatalogueAndMetadata<T> withCatalogueMetadata(long newGeneration, T newMetadata) {
+    return new CatalogueAndMetadata<T>(newGeneration, newMetadata, this.encodedCatalogues,
+        this.deltasByBaseEtag, this.index);
+  }
+
+  /**
+   * Creates a snapshot of the same version with deltas from previous versions.
+   *
+   * @param deltas deltas to the contents of this snapshot.
+   * @return new CatalogueAndMetadata with the same generation.
+   */
+  CatalogueAndMetadata<T> withDeltas(Collection<CatalogueDelta> deltas) {
+    // Clients identify their version with the ETag of any encoding they have received.
+    Map<String, CatalogueDelta> byEtag = new HashMap<>();
+    for (CatalogueDelta delta : deltas) {
+      for (CatalogueEncoding encoding : CatalogueEncoding.values()) {
+        byEtag.put(encoding.getEtag(delta.getBaseHash()), delta);
+      }
+    }
+    return new CatalogueAndMetadata<T>(this.generation, this.catalogueMetadata,
+        this.encodedCatalogues, Collections.unmodifiableMap(byEtag), this.index);
+  }
+
+  /**
+   * Creates a snapshot of the same version with an index of its contents.
+   *
+   * @param newIndex index of the contents of this snapshot, completed with null if it couldn't be
+   *                 built.
+   * @return new CatalogueAndMetadata with the same generation.
+   */
+  CatalogueAndMetadata<T> withIndex(CompletableFuture<CatalogueIndex> newIndex) {
+    return new CatalogueAndMetadata<T>(this.generation, this.catalogueMetadata,
+        this.encodedCatalogues, this.deltasByBaseEtag, newIndex);
+  }
+
+  public long getGeneration() {
+    return generation;
   }
 
   public T getCatalogueMetadata() {
     return catalogueMetadata;
   }
 
-  public String getCatalogueContents() {
-    return catalogueContents;
+  public EncodedCatalogue getEncodedCatalogue(CatalogueEncoding encoding) {
+    return encodedCatalogues.get(encoding);
+  }
+
+  /**
+   * Finds a delta from a previous version.
+   *
+   * @param baseEtag unquoted ETag of the previous version, in any encoding.
+   * @return delta to the contents of this snapshot or null if it is not available.
+   */
+  public CatalogueDelta getDelta(String baseEtag) {
+    return deltasByBaseEtag.get(baseEtag);
+  }
+
+  /**
+   * @return index of the contents or null if the contents couldn't be indexed or the index is
+   *         still being built.
+   */
+  public CatalogueIndex getIndex() {
+    return index.getNow(null);
+  }
+
+  /**
+   * @return index of the contents, completed once it is built.
+   */
+  CompletableFuture<CatalogueIndex> getBuiltIndex() {
+    return index;
+  }
+
+  /**
+   * @return modification date in milliseconds, truncated to seconds, as used in HTTP headers.
+   */
+  public long getLastModifiedTimestamp() {
+    return lastModifiedTimestamp;
+  }
+
+  /**
+   * @return value of the 'Last-Modified' header.
+   */
+  public String getLastModifiedHeader() {
+    return lastModifiedHeader;
   }
 }
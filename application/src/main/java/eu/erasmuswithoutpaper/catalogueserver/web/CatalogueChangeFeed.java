@@ -0,0 +1,163 @@
+package eu.erasmuswithoutpaper.catalogueserver.web;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.springframework.util.StreamUtils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps {@link CatalogueChangeSet}s of recently published versions of the Catalogue, so that
+ * clients can apply changes made since the version they have, instead of downloading and indexing
+ * the whole Catalogue again.
+ *
+ * <p>
+ * Changes are computed when a version is published, from indexes of the previous and the new
+ * version. The history is kept in memory, at startup it is rebuilt from versions kept in
+ * {@link CatalogueVersionStore}, which are stored in order of publication. It is cleared when a
+ * version cannot be indexed, as changes made in it are unknown.
+ * </p>
+ */
+public class CatalogueChangeFeed<T extends CatalogueMetadata<T>> {
+  private static final Logger logger = LoggerFactory.getLogger(CatalogueChangeFeed.class);
+
+  private final int maxVersions;
+  // The oldest first, each one's base is the previous one.
+  private final Deque<CatalogueChangeSet> changeSets = new ArrayDeque<>();
+  private String currentHash;
+  private CatalogueIndex currentIndex;
+
+  /**
+   * Creates the feed, with changes made in stored versions, and subscribes it to publications of
+   * the copy.
+   *
+   * @param catalogueCopy copy whose versions are compared.
+   * @param versionStore  store of versions published by the copy.
+   * @param maxVersions   number of versions whose changes are kept, 0 disables the feed.
+   */
+  public CatalogueChangeFeed(CatalogueCopy<T> catalogueCopy, CatalogueVersionStore versionStore,
+      int maxVersions) {
+    this.maxVersions = maxVersions;
+    CatalogueAndMetadata<T> current = catalogueCopy.getCatalogueAndMetadata();
+    if (current != null) {
+      // The index of the version read at startup is built in the background.
+      String hash = current.getCatalogueMetadata().getHash();
+      current.getBuiltIndex().thenAccept(builtIndex -> rebuild(versionStore, hash, builtIndex));
+    }
+    // The feed is created with the application context, before the copy is updated.
+    catalogueCopy.addPublicationListener(this::onPublished);
+  }
+
+  private synchronized void rebuild(CatalogueVersionStore versionStore, String hash,
+      CatalogueIndex builtIndex) {
+    if (this.currentHash != null) {
+      // A newer version was published before the index was built.
+      return;
+    }
+    this.currentHash = hash;
+    this.currentIndex = builtIndex;
+    List<CatalogueVersionStore.Version> versions = versionStore.getVersions();
+    if (this.maxVersions <= 0 || versions.isEmpty()
+        || !versions.get(0).getHash().equals(this.currentHash)) {
+      // Stored versions were not published before the current one.
+      return;
+    }
+    versions = new ArrayList<>(versions.subList(0, Math.min(versions.size(),
+        this.maxVersions + 1)));
+    Collections.reverse(versions);
+    String baseHash = null;
+    CatalogueIndex baseIndex = null;
+    long start = System.nanoTime();
+    for (CatalogueVersionStore.Version version : versions) {
+      CatalogueIndex index = version.getHash().equals(this.currentHash)
+          ? this.currentIndex : readIndex(versionStore, version);
+      if (baseIndex == null || index == null) {
+        this.changeSets.clear();
+      } else {
+        this.changeSets.addLast(CatalogueChangeSet.compute(baseHash, baseIndex,
+            version.getHash(), index, version.getStoredAt()));
+      }
+      baseHash = version.getHash();
+      baseIndex = index;
+    }
+    long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+    logger.info("Rebuilt changes of {} stored versions in {} ms.", this.changeSets.size(),
+        elapsedMillis);
+  }
+
+  private static CatalogueIndex readIndex(CatalogueVersionStore versionStore,
+      CatalogueVersionStore.Version version) {
+    try {
+      byte[] content = StreamUtils.copyToByteArray(new GZIPInputStream(
+          new ByteArrayInputStream(versionStore.readContent(version))));
+      return CatalogueIndex.build(content);
+    } catch (FileUtils.ReadFileException | IOException | XMLStreamException e) {
+      logger.warn("Cannot index stored catalogue version {}, changes made before it are lost.",
+          version.getId(), e);
+      return null;
+    }
+  }
+
+  private synchronized void onPublished(CatalogueAndMetadata<T> published) {
+    String hash = published.getCatalogueMetadata().getHash();
+    CatalogueIndex index = published.getIndex();
+    if (this.maxVersions <= 0 || this.currentIndex == null || index == null) {
+      this.changeSets.clear();
+    } else {
+      long start = System.nanoTime();
+      CatalogueChangeSet changeSet =
+          CatalogueChangeSet.compute(this.currentHash, this.currentIndex, hash, index);
+      long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+      logger.info("Computed {} changes in {} ms.", changeSet.getChanges().size(), elapsedMillis);
+      this.changeSets.addLast(changeSet);
+      while (this.changeSets.size() > this.maxVersions) {
+        this.changeSets.removeFirst();
+      }
+    }
+    this.currentHash = hash;
+    this.currentIndex = index;
+  }
+
+  /**
+   * Finds changes made since a version.
+   *
+   * @param version hash of the version, as in its metadata, or its id, see
+   *                {@link CatalogueVersionStore#getVersionId(String)}.
+   * @return change sets of versions published after the given one, the oldest first, empty if it
+   *         is the current version, null if it is not known to the feed.
+   */
+  public synchronized List<CatalogueChangeSet> getChangeSetsSince(String version) {
+    String versionId = CatalogueVersionStore.getVersionId(version);
+    if (this.currentHash != null && isVersion(this.currentHash, versionId)) {
+      return Collections.emptyList();
+    }
+    // The latest publication of the version is used, it might have been published again, e.g.
+    // after a rollback.
+    List<CatalogueChangeSet> result = new ArrayList<>();
+    Iterator<CatalogueChangeSet> newestFirst = this.changeSets.descendingIterator();
+    while (newestFirst.hasNext()) {
+      CatalogueChangeSet changeSet = newestFirst.next();
+      result.add(changeSet);
+      if (isVersion(changeSet.getBaseHash(), versionId)) {
+        Collections.reverse(result);
+        return result;
+      }
+    }
+    return null;
+  }
+
+  private static boolean isVersion(String hash, String versionId) {
+    return CatalogueVersionStore.getVersionId(hash).equals(versionId);
+  }
+}
@@ -0,0 +1,382 @@
+package eu.erasmuswithoutpaper.catalogueserver.web;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Structural changes between two versions of the Catalogue: institutions, hosts, APIs and
+ * credentials added, removed or changed.
+ *
+ * <p>
+ * Changes are computed from {@link CatalogueIndex}es of both versions, with hash lookups, in time
+ * linear in their sizes. Hosts have no identifiers in the Catalogue, a host is identified by the
+ * URL of its Discovery API (its manifest), or by the first URL of another API or its first admin
+ * email if it doesn't implement it. A host whose identifier changes is reported as removed and
+ * added.
+ * </p>
+ *
+ * <p>
+ * APIs and credentials of added and removed hosts are reported as added and removed too, so that
+ * every change can be applied separately. Every change lists IDs of HEIs it affects.
+ * </p>
+ */
+public class CatalogueChangeSet {
+  private final String baseHash;
+  private final String hash;
+  private final Instant publishedAt;
+  private final List<Change> changes;
+
+  private CatalogueChangeSet(String baseHash, String hash, Instant publishedAt,
+      List<Change> changes) {
+    this.baseHash = baseHash;
+    this.hash = hash;
+    this.publishedAt = publishedAt;
+    this.changes = Collections.unmodifiableList(changes);
+  }
+
+  /**
+   * Computes changes made in a new version of the Catalogue.
+   *
+   * @param baseHash hash of the previous version.
+   * @param base     index of the previous version.
+   * @param hash     hash of the new version.
+   * @param index    index of the new version.
+   * @return new CatalogueChangeSet, HEIs first, then hosts, APIs and credentials.
+   */
+  public static CatalogueChangeSet compute(String baseHash, CatalogueIndex base, String hash,
+      CatalogueIndex index) {
+    return compute(baseHash, base, hash, index, Instant.now());
+  }
+
+  /**
+   * Computes changes made in a version of the Catalogue published earlier.
+   *
+   * @param baseHash    hash of the previous version.
+   * @param base        index of the previous version.
+   * @param hash        hash of the new version.
+   * @param index       index of the new version.
+   * @param publishedAt when the new version was published.
+   * @return new CatalogueChangeSet, HEIs first, then hosts, APIs and credentials.
+   */
+  public static CatalogueChangeSet compute(String baseHash, CatalogueIndex base, String hash,
+      CatalogueIndex index, Instant publishedAt) {
+    List<Change> changes = new ArrayList<>();
+    compareHeis(base, index, changes);
+
+    Map<String, CatalogueIndex.HostEntry> baseHosts = getHostsByKey(base);
+    Map<String, CatalogueIndex.HostEntry> hosts = getHostsByKey(index);
+    List<Change> apiChanges = new ArrayList<>();
+    List<Change> credentialChanges = new ArrayList<>();
+    for (Map.Entry<String, CatalogueIndex.HostEntry> entry : hosts.entrySet()) {
+      CatalogueIndex.HostEntry host = entry.getValue();
+      CatalogueIndex.HostEntry baseHost = baseHosts.remove(entry.getKey());
+      if (baseHost == null) {
+        changes.add(new Change(Entity.HOST, Kind.ADDED, entry.getKey(), null, host.getHeiIds(),
+            Collections.emptyMap()));
+      } else if (!isSameHost(baseHost, host)) {
+        Set<String> heiIds = new LinkedHashSet<>(baseHost.getHeiIds());
+        heiIds.addAll(host.getHeiIds());
+        changes.add(new Change(Entity.HOST, Kind.CHANGED, entry.getKey(), null,
+            new ArrayList<>(heiIds), Collections.emptyMap()));
+      }
+      compareApis(entry.getKey(), baseHost, host, apiChanges);
+      compareCredentials(entry.getKey(), baseHost, host, credentialChanges);
+    }
+    // Hosts left are not present in the new version.
+    for (Map.Entry<String, CatalogueIndex.HostEntry> entry : baseHosts.entrySet()) {
+      CatalogueIndex.HostEntry baseHost = entry.getValue();
+      changes.add(new Change(Entity.HOST, Kind.REMOVED, entry.getKey(), null,
+          baseHost.getHeiIds(), Collections.emptyMap()));
+      compareApis(entry.getKey(), baseHost, null, apiChanges);
+      compareCredentials(entry.getKey(), baseHost, null, credentialChanges);
+    }
+    changes.addAll(apiChanges);
+    changes.addAll(credentialChanges);
+    return new CatalogueChangeSet(baseHash, hash, publishedAt, changes);
+  }
+
+  private static void compareHeis(CatalogueIndex base, CatalogueIndex index,
+      List<Change> changes) {
+    Map<String, CatalogueIndex.HeiEntry> baseHeis = new HashMap<>();
+    for (CatalogueIndex.HeiEntry hei : base.getHeis()) {
+      baseHeis.put(hei.getId().toLowerCase(Locale.ROOT), hei);
+    }
+    List<Change> heiChanges = new ArrayList<>();
+    for (CatalogueIndex.HeiEntry hei : index.getHeis()) {
+      CatalogueIndex.HeiEntry baseHei = baseHeis.remove(hei.getId().toLowerCase(Locale.ROOT));
+      if (baseHei == null) {
+        heiChanges.add(createHeiChange(Kind.ADDED, hei));
+      } else if (!isSameHei(baseHei, hei)) {
+        heiChanges.add(createHeiChange(Kind.CHANGED, hei));
+      }
+    }
+    for (CatalogueIndex.HeiEntry baseHei : baseHeis.values()) {
+      heiChanges.add(createHeiChange(Kind.REMOVED, baseHei));
+    }
+    // Institutions are not kept in order of the Catalogue.
+    heiChanges.sort(Comparator.comparing(Change::getId));
+    changes.addAll(heiChanges);
+  }
+
+  private static Change createHeiChange(Kind kind, CatalogueIndex.HeiEntry hei) {
+    return new Change(Entity.HEI, kind, hei.getId(), null, Collections.singletonList(hei.getId()),
+        Collections.emptyMap());
+  }
+
+  private static void compareApis(String hostKey, CatalogueIndex.HostEntry baseHost,
+      CatalogueIndex.HostEntry host, List<Change> changes) {
+    Map<String, CatalogueIndex.ApiEntry> baseApis = getApisByKey(baseHost);
+    if (host != null) {
+      for (CatalogueIndex.ApiEntry api : host.getApis()) {
+        CatalogueIndex.ApiEntry baseApi = baseApis.remove(getApiKey(api));
+        if (baseApi == null) {
+          changes.add(createApiChange(Kind.ADDED, hostKey, host, api));
+        } else if (!baseApi.getUrls().equals(api.getUrls())) {
+          changes.add(createApiChange(Kind.CHANGED, hostKey, host, api));
+        }
+      }
+    }
+    for (CatalogueIndex.ApiEntry baseApi : baseApis.values()) {
+      changes.add(createApiChange(Kind.REMOVED, hostKey, baseHost, baseApi));
+    }
+  }
+
+  private static Map<String, CatalogueIndex.ApiEntry> getApisByKey(
+      CatalogueIndex.HostEntry host) {
+    Map<String, CatalogueIndex.ApiEntry> apis = new LinkedHashMap<>();
+    if (host != null) {
+      for (CatalogueIndex.ApiEntry api : host.getApis()) {
+        apis.put(getApiKey(api), api);
+      }
+    }
+    return apis;
+  }
+
+  private static String getApiKey(CatalogueIndex.ApiEntry api) {
+    return api.getName() + ' ' + api.getNamespace() + ' ' + api.getVersion();
+  }
+
+  private static Change createApiChange(Kind kind, String hostKey, CatalogueIndex.HostEntry host,
+      CatalogueIndex.ApiEntry api) {
+    Map<String, String> details = new LinkedHashMap<>();
+    details.put("namespace", api.getNamespace());
+    details.put("version", api.getVersion());
+    return new Change(Entity.API, kind, api.getName(), hostKey, host.getHeiIds(), details);
+  }
+
+  private static void compareCredentials(String hostKey, CatalogueIndex.HostEntry baseHost,
+      CatalogueIndex.HostEntry host, List<Change> changes) {
+    for (CatalogueIndex.CredentialType type : CatalogueIndex.CredentialType.values()) {
+      Set<String> baseFingerprints = baseHost == null
+          ? new HashSet<>()
+          : new HashSet<>(baseHost.getCredentials(type));
+      if (host != null) {
+        for (String fingerprint : host.getCredentials(type)) {
+          if (!baseFingerprints.remove(fingerprint)) {
+            changes.add(createCredentialChange(Kind.ADDED, hostKey, host, type, fingerprint));
+          }
+        }
+      }
+      if (baseHost != null && !baseFingerprints.isEmpty()) {
+        // Reported in order of the previous version.
+        for (String fingerprint : baseHost.getCredentials(type)) {
+          if (baseFingerprints.contains(fingerprint)) {
+            changes.add(
+                createCredentialChange(Kind.REMOVED, hostKey, baseHost, type, fingerprint));
+          }
+        }
+      }
+    }
+  }
+
+  private static Change createCredentialChange(Kind kind, String hostKey,
+      CatalogueIndex.HostEntry host, CatalogueIndex.CredentialType type, String fingerprint) {
+    return new Change(Entity.CREDENTIAL, kind, fingerprint, hostKey, host.getHeiIds(),
+        Collections.singletonMap("type", type.getName()));
+  }
+
+  private static Map<String, CatalogueIndex.HostEntry> getHostsByKey(CatalogueIndex index) {
+    Map<String, CatalogueIndex.HostEntry> hosts = new LinkedHashMap<>();
+    Map<String, Integer> occurrences = new HashMap<>();
+    for (CatalogueIndex.HostEntry host : index.getHosts()) {
+      String key = getHostKey(host);
+      // Hosts with the same key are told apart by their order.
+      int occurrence = occurrences.merge(key, 1, Integer::sum);
+      hosts.put(occurrence == 1 ? key : key + '#' + occurrence, host);
+    }
+    return hosts;
+  }
+
+  private static String getHostKey(CatalogueIndex.HostEntry host) {
+    for (CatalogueIndex.ApiEntry api : host.getApis()) {
+      if ("discovery".equals(api.getName()) && api.getUrls().containsKey("url")) {
+        return api.getUrls().get("url");
+      }
+    }
+    for (CatalogueIndex.ApiEntry api : host.getApis()) {
+      if (!api.getUrls().isEmpty()) {
+        return api.getUrls().values().iterator().next();
+      }
+    }
+    if (!host.getAdminEmails().isEmpty()) {
+      return "mailto:" + host.getAdminEmails().get(0);
+    }
+    return "host";
+  }
+
+  private static boolean isSameHost(CatalogueIndex.HostEntry baseHost,
+      CatalogueIndex.HostEntry host) {
+    return new HashSet<>(baseHost.getHeiIds()).equals(new HashSet<>(host.getHeiIds()))
+        && new HashSet<>(baseHost.getAdminEmails()).equals(new HashSet<>(host.getAdminEmails()));
+  }
+
+  private static boolean isSameHei(CatalogueIndex.HeiEntry baseHei, CatalogueIndex.HeiEntry hei) {
+    if (!baseHei.getId().equals(hei.getId()) || !baseHei.getNames().equals(hei.getNames())
+        || baseHei.getOtherIds().size() != hei.getOtherIds().size()) {
+      return false;
+    }
+    for (int i = 0; i < hei.getOtherIds().size(); i++) {
+      CatalogueIndex.OtherId baseOtherId = baseHei.getOtherIds().get(i);
+      CatalogueIndex.OtherId otherId = hei.getOtherIds().get(i);
+      // The type attribute may be missing.
+      if (!Objects.equals(baseOtherId.getType(), otherId.getType())
+          || !Objects.equals(baseOtherId.getValue(), otherId.getValue())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  public String getBaseHash() {
+    return baseHash;
+  }
+
+  public String getHash() {
+    return hash;
+  }
+
+  public Instant getPublishedAt() {
+    return publishedAt;
+  }
+
+  public List<Change> getChanges() {
+    return changes;
+  }
+
+  /**
+   * Kinds of described entities.
+   */
+  public enum Entity {
+    HEI("hei"),
+    HOST("host"),
+    API("api"),
+    CREDENTIAL("credential");
+
+    private final String name;
+
+    Entity(String name) {
+      this.name = name;
+    }
+
+    /**
+     * @return name used in responses.
+     */
+    public String getName() {
+      return name;
+    }
+  }
+
+  /**
+   * Kinds of changes.
+   */
+  public enum Kind {
+    ADDED("added"),
+    REMOVED("removed"),
+    CHANGED("changed");
+
+    private final String name;
+
+    Kind(String name) {
+      this.name = name;
+    }
+
+    /**
+     * @return name used in responses.
+     */
+    public String getName() {
+      return name;
+    }
+  }
+
+  /**
+   * A single change of an entity.
+   */
+  public static class Change {
+    private final Entity entity;
+    private final Kind kind;
+    private final String id;
+    private final String host;
+    private final List<String> heiIds;
+    private final Map<String, String> details;
+
+    Change(Entity entity, Kind kind, String id, String host, List<String> heiIds,
+        Map<String, String> details) {
+      this.entity = entity;
+      this.kind = kind;
+      this.id = id;
+      this.host = host;
+      this.heiIds = heiIds;
+      this.details = details;
+    }
+
+    public Entity getEntity() {
+      return entity;
+    }
+
+    public Kind getKind() {
+      return kind;
+    }
+
+    /**
+     * @return HEI ID, host identifier, API name or credential fingerprint, depending on the
+     *         entity.
+     */
+    public String getId() {
+      return id;
+    }
+
+    /**
+     * @return identifier of the host of an API or a credential, null for other entities.
+     */
+    public String getHost() {
+      return host;
+    }
+
+    /**
+     * @return IDs of HEIs covered by the changed host, the changed HEI itself for HEIs. Hosts
+     *         that changed covered HEIs list them before and after the change.
+     */
+    public List<String> getHeiIds() {
+      return heiIds;
+    }
+
+    /**
+     * @return entity-specific details, e.g. namespace and version of an API or type of a
+     *         credential.
+     */
+    public Map<String, String> getDetails() {
+      return details;
+    }
+  }
+}
@@ -0,0 +1,223 @@
+package eu.erasmuswithoutpaper.catalogueserver.web;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Long-poll endpoint notifying subscribers about new versions of the Catalogue as soon as they are
+ * published, instead of letting them poll the whole Catalogue.
+ *
+ * <p>
+ * A subscriber sends the ETag of the version it has in 'If-None-Match' header. If a different
+ * version is current, it is described right away. Otherwise the request is held, without
+ * occupying a servlet thread, until a new version is published (200) or the timeout passes (304),
+ * and the subscriber sends the next request. The timeout should be shorter than timeouts of
+ * proxies in front of the server.
+ * </p>
+ *
+ * <p>
+ * With 'since' parameter, the endpoint serves changes made since a version, from
+ * {@link CatalogueChangeFeed}, so that clients can update their own data without parsing the whole
+ * Catalogue.
+ * </p>
+ */
+@RestController
+public class CatalogueChangesController<T extends CatalogueMetadata<T>> {
+  private static final int MAX_PAGE_SIZE = 1000;
+
+  private final CatalogueCopy<T> catalogueCopy;
+  private final CatalogueChangeFeed<T> changeFeed;
+  private final ApplicationErrorController errorController;
+  private final ObjectMapper objectMapper;
+  private final long timeoutMillis;
+  private final Set<DeferredResult<ResponseEntity<?>>> subscribers =
+      ConcurrentHashMap.newKeySet();
+
+  /**
+   * Creates the endpoint and subscribes it to publications of the copy.
+   *
+   * @param catalogueUpdater updater whose copy is watched.
+   * @param changeFeed       source of changes made since a version.
+   * @param errorController  source of 404 responses.
+   * @param objectMapper     JSON serializer.
+   * @param meterRegistry    registry of the subscribers gauge.
+   * @param timeoutSeconds   how long a request is held if no version is published.
+   */
+  @Autowired
+  public CatalogueChangesController(CatalogueUpdater<T> catalogueUpdater,
+      CatalogueChangeFeed<T> changeFeed, ApplicationErrorController errorController,
+      ObjectMapper objectMapper, MeterRegistry meterRegistry,
+      @Value("${app.catalogue.changes.timeout-seconds:55}") long timeoutSeconds) {
+    this.catalogueCopy = catalogueUpdater.getCatalogueCopy();
+    this.changeFeed = changeFeed;
+    this.errorController = errorController;
+    this.objectMapper = objectMapper;
+    this.timeoutMillis = timeoutSeconds * 1000;
+    this.catalogueCopy.addPublicationListener(this::onPublished);
+    Gauge.builder("catalogue.changes.subscribers", this.subscribers, Set::size)
+        .description("Requests waiting for a new version of the catalogue.")
+        .register(meterRegistry);
+  }
+
+  /**
+   * Waits for a version of the Catalogue other than the one identified by 'If-None-Match' header.
+   *
+   * @return 200 with JSON description of the new version and its ETag, or 304 if no version was
+   *         published before the timeout.
+   */
+  @RequestMapping(value = "/catalogue-v1/changes", params = "!since")
+  public DeferredResult<ResponseEntity<?>> waitForChange(ServletWebRequest webRequest) {
+    List<String> knownEtags = CatalogueEndpointController.getIfNoneMatchEtags(webRequest);
+    DeferredResult<ResponseEntity<?>> result = new DeferredResult<>(this.timeoutMillis);
+    CatalogueAndMetadata<T> current = this.catalogueCopy.getCatalogueAndMetadata();
+    if (current != null && !isKnown(current, knownEtags)) {
+      result.setResult(describe(current));
+      return result;
+    }
+
+    result.onTimeout(
+        () -> result.setResult(notModified(this.catalogueCopy.getCatalogueAndMetadata())));
+    result.onCompletion(() -> this.subscribers.remove(result));
+    this.subscribers.add(result);
+    // A version published after the check above, but before subscribing, would be missed.
+    CatalogueAndMetadata<T> latest = this.catalogueCopy.getCatalogueAndMetadata();
+    if (latest != null && !isKnown(latest, knownEtags)) {
+      result.setResult(describe(latest));
+    }
+    return result;
+  }
+
+  /**
+   * Lists changes made since a version, in order in which they were published. Changes made in
+   * different versions are not merged, e.g. an API added and then removed is listed twice.
+   *
+   * @param since  id of the version, as in its immutable URL, or its hash.
+   * @param offset number of changes to skip, taken from the 'next' link of the previous page.
+   * @param limit  maximal number of changes in the response.
+   * @return JSON page of changes, each with the id of the version that made it, and a link to the
+   *         next page, 404 if the version is not known, then the whole Catalogue should be
+   *         downloaded.
+   */
+  @RequestMapping(value = "/catalogue-v1/changes", params = "since")
+  public ResponseEntity<?> getChanges(@RequestParam("since") String since,
+      @RequestParam(value = "offset", defaultValue = "0") int offset,
+      @RequestParam(value = "limit", defaultValue = "500") int limit)
+      throws JsonProcessingException {
+    List<CatalogueChangeSet> changeSets = this.changeFeed.getChangeSetsSince(since);
+    if (changeSets == null) {
+      return this.errorController.get404();
+    }
+    // Ids are safe in URLs, unlike hashes.
+    String sinceId = CatalogueVersionStore.getVersionId(since);
+    int first = Math.max(offset, 0);
+    int end = first + Math.min(Math.max(limit, 1), MAX_PAGE_SIZE);
+    List<Map<String, Object>> changes = new ArrayList<>();
+    String until = sinceId;
+    int position = 0;
+    for (CatalogueChangeSet changeSet : changeSets) {
+      String versionId = CatalogueVersionStore.getVersionId(changeSet.getHash());
+      for (CatalogueChangeSet.Change change : changeSet.getChanges()) {
+        if (position >= first && position < end) {
+          changes.add(describeChange(versionId, changeSet, change));
+        }
+        position++;
+      }
+      if (position <= end) {
+        until = versionId;
+      }
+    }
+
+    Map<String, Object> result = new LinkedHashMap<>();
+    result.put("since", sinceId);
+    result.put("until", until);
+    result.put("changes", changes);
+    result.put("next", position > end
+        ? "/catalogue-v1/changes?since=" + sinceId + "&offset=" + end + "&limit=" + (end - first)
+        : null);
+    byte[] body = this.objectMapper.writeValueAsBytes(result);
+    // Conditional requests are evaluated by Spring, based on the ETag of the response.
+    return ResponseEntity.ok()
+        .contentType(MediaType.APPLICATION_JSON_UTF8)
+        .cacheControl(CacheControl.noCache())
+        .eTag("\"" + MetadataVerifier.getHash(body) + "\"")
+        .body(body);
+  }
+
+  private Map<String, Object> describeChange(String versionId, CatalogueChangeSet changeSet,
+      CatalogueChangeSet.Change change) {
+    Map<String, Object> description = new LinkedHashMap<>();
+    description.put("catalogueVersion", versionId);
+    description.put("publishedAt", changeSet.getPublishedAt().toString());
+    description.put("entity", change.getEntity().getName());
+    description.put("change", change.getKind().getName());
+    description.put("id", change.getId());
+    if (change.getHost() != null) {
+      description.put("host", change.getHost());
+    }
+    description.putAll(change.getDetails());
+    description.put("heiIds", change.getHeiIds());
+    return description;
+  }
+
+  private void onPublished(CatalogueAndMetadata<T> published) {
+    ResponseEntity<?> response = describe(published);
+    for (DeferredResult<ResponseEntity<?>> subscriber : this.subscribers) {
+      // Completion removes the subscriber, results of expired requests are ignored.
+      subscriber.setResult(response);
+    }
+  }
+
+  private boolean isKnown(CatalogueAndMetadata<T> snapshot, List<String> knownEtags) {
+    for (CatalogueEncoding encoding : CatalogueEncoding.values()) {
+      if (knownEtags.contains(snapshot.getEncodedCatalogue(encoding).getEtag())) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private ResponseEntity<?> describe(CatalogueAndMetadata<T> snapshot) {
+    T metadata = snapshot.getCatalogueMetadata();
+    Map<String, Object> description = new LinkedHashMap<>();
+    description.put("hash", metadata.getHash());
+    description.put("modificationDate", metadata.getModificationDate().toString());
+    description.put("url", "/catalogue-v1.xml");
+    description.put("versionUrl",
+        "/catalogue-v1/" + CatalogueVersionStore.getVersionId(metadata.getHash()) + ".xml");
+    return ResponseEntity.ok()
+        .contentType(MediaType.APPLICATION_JSON_UTF8)
+        .cacheControl(CacheControl.noStore())
+        .eTag(snapshot.getEncodedCatalogue(CatalogueEncoding.IDENTITY).getEtagHeader())
+        .body(description);
+  }
+
+  private ResponseEntity<?> notModified(CatalogueAndMetadata<T> snapshot) {
+    ResponseEntity.BodyBuilder response = ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+        .cacheControl(CacheControl.noStore());
+    if (snapshot != null) {
+      response.eTag(snapshot.getEncodedCatalogue(CatalogueEncoding.IDENTITY).getEtagHeader());
+    }
+    return response.build();
+  }
+}
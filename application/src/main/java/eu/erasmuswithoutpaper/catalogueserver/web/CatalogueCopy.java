@@ -1,7 +1,24 @@
 package eu.erasmuswithoutpaper.catalogueserver.web;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import javax.xml.stream.XMLStreamException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -10,36 +27,167 @@ import org.slf4j.LoggerFactory;
 /**
  * This class manages in-memory and on-filesystem copies of the Catalogue and its metadata.
  * It reads the catalogue from file at the beginning and saves it to file after an update.
+ *
+ * <p>
+ * Contents, metadata and encoded contents are stored together in a {@link CatalogueSnapshotFile},
+ * which is read at startup. Catalogue and metadata are also written to separate files, metadata
+ * file is updated after every fetch and both are read by external tools.
+ * </p>
+ *
+ * <p>
+ * The in-memory copy is an immutable {@link CatalogueAndMetadata} snapshot published through a
+ * single atomic reference. Readers get a consistent snapshot without locking, writers (updates are
+ * rare) are serialized, so that generation numbers of published snapshots are increasing.
+ * </p>
+ *
+ * <p>
+ * Contents of a few previous versions are kept in memory, every new version is published with
+ * {@link CatalogueDelta}s from them. The history is not persisted, it is empty after a restart.
+ * </p>
+ *
+ * <p>
+ * Every published version is also kept in a {@link CatalogueVersionStore}, from which it can be
+ * served by its hash and to which we can roll back. It is published with a {@link CatalogueIndex}
+ * of its contents. At startup the snapshot read from disk is published first and its index is
+ * built in the background, so the Catalogue is served before lookups are available.
+ * </p>
+ *
+ * <p>
+ * Optionally, fetched versions that differ from the current one only in formatting, as told by
+ * {@link CanonicalXml}, are not published. Clients keep the version they have, with its ETag, and
+ * only metadata of the source is updated.
+ * </p>
  */
 public class CatalogueCopy<T extends CatalogueMetadata<T>> {
   private static final Logger logger = LoggerFactory.getLogger(CatalogueCopy.class);
 
   private final String catalogueMetadataFilename;
   private final String catalogueCopyFilename;
+  private final String catalogueSnapshotFilename;
   private final String catalogueDirectory;
   private final Class<T> metadataClass;
-  private CatalogueAndMetadata<T> catalogueAndMetadata;
+  private final CatalogueStorage storage;
+  private final AtomicReference<CatalogueAndMetadata<T>> catalogueAndMetadata;
+  private final Duration metadataFlushInterval;
+  private final int deltaBaseVersions;
+  private final CatalogueVersionStore versionStore;
+  private final boolean ignoreFormattingChanges;
+  private final List<Consumer<CatalogueAndMetadata<T>>> publicationListeners =
+      new CopyOnWriteArrayList<>();
+  // Identity-encoded contents of previous versions by their hashes, the oldest first.
+  private final Map<String, EncodedCatalogue> previousVersions = new LinkedHashMap<>();
+  private Instant metadataFlushedAt;
+  // Written before the snapshot it describes is published, so that a health check reading the
+  // snapshot first never sees a snapshot newer than the record.
+  private volatile StoredMetadata storedMetadata = new StoredMetadata(0, null);
+  // Canonical hash of the current version, computed when it is first needed.
+  private String canonicalHash;
 
   /**
    * Create a CatalogueCopy object and read Catalogue contents and metadata from local files.
+   *
+   * @param metadataClass      class of stored metadata.
+   * @param catalogueDirectory directory where local files are stored. Fetched catalogues should
+   *                           be downloaded into temporary files in the same directory.
+   * @param storage            where in memory the catalogue should be kept.
+   * @param metadataFlushInterval how often metadata file is rewritten if only last fetch date has
+   *                           changed. External tools reading last fetch date from the file
+   *                           should allow it to be that old.
+   * @param deltaBaseVersions  number of previous versions from which deltas to the current version
+   *                           are computed, 0 disables deltas.
+   * @param versionStore       store of published versions.
+   * @param ignoreFormattingChanges whether fetched versions differing from the current one only
+   *                           in formatting are ignored.
    */
-  public CatalogueCopy(Class<T> metadataClass) {
-    this.catalogueDirectory = "/cache";
+  public CatalogueCopy(Class<T> metadataClass, String catalogueDirectory,
+      CatalogueStorage storage, Duration metadataFlushInterval, int deltaBaseVersions,
+      CatalogueVersionStore versionStore, boolean ignoreFormattingChanges) {
+    this.catalogueDirectory = catalogueDirectory;
     this.catalogueCopyFilename = "catalogue-v1.xml";
     this.catalogueMetadataFilename = "catalogue-v1-metadata.xml";
+    this.catalogueSnapshotFilename = "catalogue-v1.snapshot";
     this.metadataClass = metadataClass;
+    this.storage = storage;
+    this.metadataFlushInterval = metadataFlushInterval;
+    this.deltaBaseVersions = deltaBaseVersions;
+    this.versionStore = versionStore;
+    this.ignoreFormattingChanges = ignoreFormattingChanges;
 
-    this.catalogueAndMetadata = this.readCatalogueAndMetadataFromFilesystem();
+    // Temporary files might have been left if we were stopped during a download.
+    FileUtils.deleteTemporaryFiles(this.catalogueDirectory);
+    CatalogueAndMetadata<T> current = this.readCatalogueAndMetadataFromFilesystem();
+    if (current != null) {
+      ByteBuffer content =
+          current.getEncodedCatalogue(CatalogueEncoding.IDENTITY).getServedContent();
+      current = current.withIndex(CompletableFuture.supplyAsync(() -> buildIndex(content)));
+    }
+    this.catalogueAndMetadata = new AtomicReference<>(current);
+    if (current != null
+        && this.versionStore.getVersion(CatalogueVersionStore.getVersionId(
+            current.getCatalogueMetadata().getHash())) == null) {
+      // The store is empty after an upgrade or might have lost the current version.
+      storeVersion(current);
+    }
   }
 
+  /**
+   * Reads the snapshot, or the separate files if there is no snapshot, and records which version
+   * the metadata file describes. The metadata file is read once, afterwards it is written only by
+   * this object.
+   */
   private CatalogueAndMetadata<T> readCatalogueAndMetadataFromFilesystem() {
-    String catalogueContent = readCatalogueContent();
-    if (catalogueContent == null) {
+    T catalogueMetadata = readCatalogueMetadata();
+    CatalogueAndMetadata<T> snapshot = readSnapshot();
+    if (snapshot == null) {
+      // Snapshot is missing, e.g. it wasn't written by previous versions of the server. Separate
+      // Catalogue and metadata files are used instead and a snapshot is created from them.
+      snapshot = readCatalogueAndMetadataFiles(catalogueMetadata);
+      if (snapshot != null) {
+        saveSnapshot(snapshot);
+        recordStoredMetadata(snapshot);
+      }
+      return snapshot;
+    }
+
+    // Metadata file is written after every fetch, the snapshot only when the contents change.
+    // If the metadata file describes the same contents, it has more recent last fetch date.
+    if (catalogueMetadata != null
+        && catalogueMetadata.getHash().equals(snapshot.getCatalogueMetadata().getHash())) {
+      recordStoredMetadata(snapshot);
+      return snapshot.withCatalogueMetadata(snapshot.getGeneration(), catalogueMetadata);
+    }
+
+    // We were stopped after the snapshot was written, but before the other files were.
+    logger.info("Catalogue and metadata files are outdated, writing them from the snapshot.");
+    saveCatalogueToFile(snapshot);
+    if (saveMetadataToFile(snapshot.getCatalogueMetadata())) {
+      recordStoredMetadata(snapshot);
+    } else {
+      this.storedMetadata = new StoredMetadata(snapshot.getGeneration(),
+          catalogueMetadata == null ? null : catalogueMetadata.getHash());
+    }
+    return snapshot;
+  }
+
+  private CatalogueAndMetadata<T> readSnapshot() {
+    try {
+      return CatalogueSnapshotFile.read(this.catalogueDirectory, this.catalogueSnapshotFilename,
+          this.metadataClass, 1, this.storage);
+    } catch (FileUtils.ReadFileException e) {
+      return null;
+    }
+  }
+
+  private CatalogueAndMetadata<T> readCatalogueAndMetadataFiles(T catalogueMetadata) {
+    byte[] catalogueContent;
+    try {
+      catalogueContent =
+          FileUtils.readFileBytes(this.catalogueDirectory, this.catalogueCopyFilename);
+    } catch (FileUtils.ReadFileException e) {
       // Local copy of the Catalogue is not present.
       return null;
     }
 
-    T catalogueMetadata = readCatalogueMetadata();
     if (catalogueMetadata == null) {
       // Catalogue Metadata file is missing, even if there is a local copy of the catalogue we
       // won't be able to verify it's contents or tell how old it is. Local copy is ignored.
@@ -52,43 +200,271 @@ public class CatalogueCopy<T extends CatalogueMetadata<T>> {
       return null;
     }
 
-    return new CatalogueAndMetadata<T>(catalogueMetadata, catalogueContent);
+    return new CatalogueAndMetadata<T>(1, catalogueMetadata, catalogueContent, this.storage);
   }
 
+  /**
+   * @return latest published snapshot or null if no Catalogue is available.
+   */
   public CatalogueAndMetadata<T> getCatalogueAndMetadata() {
-    return this.catalogueAndMetadata;
+    return this.catalogueAndMetadata.get();
+  }
+
+  private long nextGeneration() {
+    CatalogueAndMetadata<T> current = this.catalogueAndMetadata.get();
+    return current == null ? 1 : current.getGeneration() + 1;
   }
 
   /**
    * Called when fetched catalogue is different than current version.
    *
-   * @param response CatalogueGetterResponse containing the new catalogue.
+   * @param response CatalogueGetterResponse containing the new catalogue, its temporary file is
+   *                 moved in place of the local copy.
+   * @return false if the new version differs only in formatting and is ignored, see
+   *         {@link CanonicalXml}. Metadata of the source is updated anyway.
    */
-  public void onCatalogueFetchedWithChanges(CatalogueGetterResponse<T> response) {
-    String newContent = response.content;
+  public synchronized boolean onCatalogueFetchedWithChanges(CatalogueGetterResponse<T> response) {
+    Path newContentFile = response.content;
     T newMetadata = response.metadata;
 
-    this.setCatalogueAndMetadata(newMetadata, newContent);
+    try {
+      byte[] newContent;
+      try {
+        newContent = Files.readAllBytes(newContentFile);
+      } catch (IOException e) {
+        throw new RuntimeException("Couldn't read fetched catalogue file.", e);
+      }
+      String newCanonicalHash = getCanonicalHash(newContent);
+      if (newCanonicalHash != null && newCanonicalHash.equals(getCurrentCanonicalHash())) {
+        CatalogueAndMetadata<T> current = this.catalogueAndMetadata.get();
+        this.setCatalogueMetadata(
+            newMetadata.withContentsOf(current.getCatalogueMetadata()), true);
+        return false;
+      }
+      this.setCatalogueAndMetadata(newMetadata, newContentFile, newContent);
+      this.canonicalHash = newCanonicalHash;
+      return true;
+    } finally {
+      // Temporary file is already gone if it was moved successfully.
+      FileUtils.deleteFile(newContentFile);
+    }
+  }
+
+  private String getCurrentCanonicalHash() {
+    CatalogueAndMetadata<T> current = this.catalogueAndMetadata.get();
+    if (this.canonicalHash == null && current != null) {
+      ByteBuffer content = current.getEncodedCatalogue(CatalogueEncoding.IDENTITY).getContent();
+      byte[] bytes = new byte[content.remaining()];
+      content.get(bytes);
+      this.canonicalHash = getCanonicalHash(bytes);
+    }
+    return this.canonicalHash;
+  }
+
+  private String getCanonicalHash(byte[] content) {
+    if (!this.ignoreFormattingChanges) {
+      return null;
+    }
+    try {
+      return CanonicalXml.getHash(content);
+    } catch (XMLStreamException e) {
+      // Such version is never considered equivalent to another one.
+      logger.warn("Cannot canonicalize the catalogue.", e);
+      return null;
+    }
   }
 
-  private void setCatalogueAndMetadata(T newMetadata, String newContent) {
-    boolean metadataSaved = saveMetadataToFile(newMetadata);
-    boolean catalogueSaved = saveCatalogueToFile(newContent);
-    if (!metadataSaved || !catalogueSaved) {
+  private void setCatalogueAndMetadata(T newMetadata, Path newContentFile, byte[] newContent) {
+    CatalogueAndMetadata<T> newCatalogueAndMetadata =
+        new CatalogueAndMetadata<T>(nextGeneration(), newMetadata, newContent, this.storage);
+
+    // The snapshot is written first, other files are recreated from it if we are stopped before
+    // they are written.
+    boolean saved = saveSnapshot(newCatalogueAndMetadata)
+        && moveCatalogueToFile(newContentFile)
+        && saveMetadataToFile(newMetadata);
+    if (!saved) {
       throw new RuntimeException("Couldn't perform a write to metadata or catalogue cache file. "
           + "Check your configuration. Is directory with those files writeable?");
     }
+    this.metadataFlushedAt = Instant.now();
+    recordStoredMetadata(newCatalogueAndMetadata);
+    publish(newCatalogueAndMetadata, newContent);
+  }
 
-    this.catalogueAndMetadata = new CatalogueAndMetadata<T>(newMetadata, newContent);
+  private void publish(CatalogueAndMetadata<T> newCatalogueAndMetadata, byte[] newContent) {
+    CatalogueAndMetadata<T> current = this.catalogueAndMetadata.get();
+    if (current != null) {
+      rememberVersion(current);
+    }
+    this.catalogueAndMetadata.set(newCatalogueAndMetadata
+        .withDeltas(
+            computeDeltas(newCatalogueAndMetadata.getCatalogueMetadata().getHash(), newContent))
+        .withIndex(CompletableFuture.completedFuture(buildIndex(ByteBuffer.wrap(newContent)))));
+    storeVersion(newCatalogueAndMetadata);
+    this.canonicalHash = null;
+    CatalogueAndMetadata<T> published = this.catalogueAndMetadata.get();
+    for (Consumer<CatalogueAndMetadata<T>> listener : this.publicationListeners) {
+      try {
+        listener.accept(published);
+      } catch (RuntimeException e) {
+        // The version is already served, other listeners still have to learn about it.
+        logger.error("Publication listener failed for generation {}.",
+            published.getGeneration(), e);
+      }
+    }
+  }
+
+  /**
+   * Registers a listener called whenever a new version is published, after a fetch or a rollback.
+   * It is not called when only metadata, e.g. last fetch date, changes. Listeners are called by
+   * the updating thread, they should return quickly. An exception thrown by a listener is
+   * logged and doesn't affect other listeners or the update.
+   *
+   * @param listener listener receiving the published snapshot.
+   */
+  public void addPublicationListener(Consumer<CatalogueAndMetadata<T>> listener) {
+    this.publicationListeners.add(listener);
+  }
+
+  private CatalogueIndex buildIndex(ByteBuffer content) {
+    long start = System.nanoTime();
+    try {
+      CatalogueIndex index = CatalogueIndex.build(content);
+      long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+      logger.info("Indexed {} hosts in {} ms.", index.getHosts().size(), elapsedMillis);
+      return index;
+    } catch (XMLStreamException e) {
+      // The Catalogue is still served, only lookups are unavailable.
+      logger.error("Cannot index the catalogue.", e);
+      return null;
+    }
+  }
+
+  private void storeVersion(CatalogueAndMetadata<T> snapshot) {
+    try {
+      this.versionStore.store(snapshot);
+    } catch (FileUtils.WriteFileException e) {
+      // The version is served anyway, it just won't be available by its hash.
+      logger.error("Cannot store catalogue version.", e);
+    }
+  }
+
+  /**
+   * Publishes a version from {@link CatalogueVersionStore} as the current one. The version stays
+   * current until a new version is fetched, versions already present in the source when we roll
+   * back are not fetched again.
+   *
+   * @param versionId id of a stored version.
+   * @return false if the version is not stored or cannot be read.
+   */
+  public synchronized boolean rollBackTo(String versionId) {
+    CatalogueVersionStore.Version version = this.versionStore.getVersion(versionId);
+    CatalogueAndMetadata<T> current = this.catalogueAndMetadata.get();
+    if (version == null || current == null) {
+      return false;
+    }
+
+    byte[] compressedContent;
+    byte[] content;
+    T storedMetadata;
+    try {
+      compressedContent = this.versionStore.readContent(version);
+      content = CatalogueEncoding.GZIP.decode(compressedContent);
+      storedMetadata = CatalogueMetadata.fromXmlString(this.versionStore.readMetadata(version),
+          this.metadataClass);
+    } catch (FileUtils.ReadFileException | IOException
+        | CatalogueMetadata.CatalogueMetadataParseException e) {
+      logger.error("Cannot read catalogue version {}.", versionId, e);
+      return false;
+    }
+    if (!MetadataVerifier.verifyMetadata(content, storedMetadata)) {
+      logger.error("Catalogue version {} doesn't match its hash.", versionId);
+      return false;
+    }
+
+    T newMetadata = current.getCatalogueMetadata().withContentsOf(storedMetadata);
+    Map<CatalogueEncoding, byte[]> encodedContents = new EnumMap<>(CatalogueEncoding.class);
+    encodedContents.put(CatalogueEncoding.IDENTITY, content);
+    encodedContents.put(CatalogueEncoding.GZIP, compressedContent);
+    CatalogueAndMetadata<T> newCatalogueAndMetadata = CatalogueAndMetadata.fromEncodedContents(
+        nextGeneration(), newMetadata, encodedContents, this.storage);
+
+    boolean saved = saveSnapshot(newCatalogueAndMetadata)
+        && saveCatalogueToFile(newCatalogueAndMetadata)
+        && saveMetadataToFile(newMetadata);
+    if (!saved) {
+      return false;
+    }
+    this.metadataFlushedAt = Instant.now();
+    recordStoredMetadata(newCatalogueAndMetadata);
+    logger.info("Rolled back to catalogue version {}.", versionId);
+    publish(newCatalogueAndMetadata, content);
+    return true;
+  }
+
+  private void rememberVersion(CatalogueAndMetadata<T> snapshot) {
+    if (this.deltaBaseVersions <= 0) {
+      return;
+    }
+    String hash = snapshot.getCatalogueMetadata().getHash();
+    // Re-inserted, so that a version that came back is evicted as the newest one.
+    this.previousVersions.remove(hash);
+    this.previousVersions.put(hash, snapshot.getEncodedCatalogue(CatalogueEncoding.IDENTITY));
+    Iterator<String> oldest = this.previousVersions.keySet().iterator();
+    while (this.previousVersions.size() > this.deltaBaseVersions) {
+      oldest.next();
+      oldest.remove();
+    }
+  }
+
+  private List<CatalogueDelta> computeDeltas(String hash, byte[] content) {
+    List<CatalogueDelta> deltas = new ArrayList<>();
+    for (Map.Entry<String, EncodedCatalogue> version : this.previousVersions.entrySet()) {
+      if (version.getKey().equals(hash)) {
+        continue;
+      }
+      ByteBuffer baseBuffer = version.getValue().getContent();
+      byte[] base = new byte[baseBuffer.remaining()];
+      baseBuffer.get(base);
+      CatalogueDelta delta = CatalogueDelta.create(version.getKey(), base, content);
+      if (delta != null) {
+        deltas.add(delta);
+      }
+    }
+    logger.info("Computed {} deltas from {} previous versions.", deltas.size(),
+        this.previousVersions.size());
+    return deltas;
   }
 
   /**
    * Called when fetched catalogue is identical to current version.
    */
-  public void onCatalogueFetchedWithoutChanges() {
-    T newMetadata =
-        this.catalogueAndMetadata.getCatalogueMetadata().withUpdatedLastFetchDate(Instant.now());
-    this.setCatalogueMetadata(newMetadata);
+  public synchronized void onCatalogueFetchedWithoutChanges() {
+    T newMetadata = this.catalogueAndMetadata.get().getCatalogueMetadata()
+        .withUpdatedLastFetchDate(Instant.now());
+    this.setCatalogueMetadata(newMetadata, false);
+  }
+
+  /**
+   * Tells whether the metadata file in the catalogue directory, which is served after a restart,
+   * describes the version of a snapshot. Only its last fetch date may be older. The file is read
+   * once at startup, then the hash it was last written with is used.
+   *
+   * @param snapshot snapshot returned by {@link #getCatalogueAndMetadata()}.
+   * @return false if the stored copy is of another version.
+   */
+  public boolean isStoredCopyOf(CatalogueAndMetadata<T> snapshot) {
+    StoredMetadata stored = this.storedMetadata;
+    // The file is written before a new version is published, a newer record means that the
+    // snapshot is being replaced.
+    return stored.generation > snapshot.getGeneration()
+        || snapshot.getCatalogueMetadata().getHash().equals(stored.hash);
+  }
+
+  private void recordStoredMetadata(CatalogueAndMetadata<T> snapshot) {
+    this.storedMetadata = new StoredMetadata(snapshot.getGeneration(),
+        snapshot.getCatalogueMetadata().getHash());
   }
 
   private T readCatalogueMetadata() {
@@ -109,18 +485,22 @@ public class CatalogueCopy<T extends CatalogueMetadata<T>> {
     }
   }
 
-  private String readCatalogueContent() {
+  private boolean moveCatalogueToFile(Path contentFile) {
     try {
-      return FileUtils.readFile(this.catalogueDirectory, this.catalogueCopyFilename);
-    } catch (FileUtils.ReadFileException e) {
-      return null;
+      FileUtils.moveAtomically(contentFile, this.catalogueDirectory, this.catalogueCopyFilename);
+    } catch (FileUtils.WriteFileException e) {
+      logger.error("Cannot write catalogue to file.", e);
+      return false;
     }
+    return true;
   }
 
-  private boolean saveCatalogueToFile(String content) {
+  private boolean saveCatalogueToFile(CatalogueAndMetadata<T> snapshot) {
+    ByteBuffer content = snapshot.getEncodedCatalogue(CatalogueEncoding.IDENTITY).getContent();
+    byte[] bytes = new byte[content.remaining()];
+    content.get(bytes);
     try {
-      FileUtils.writeToFile(this.catalogueDirectory, this.catalogueCopyFilename,
-          content.getBytes(StandardCharsets.UTF_8));
+      FileUtils.writeToFileAtomically(this.catalogueDirectory, this.catalogueCopyFilename, bytes);
     } catch (FileUtils.WriteFileException e) {
       logger.error("Cannot write catalogue to file.", e);
       return false;
@@ -128,6 +508,17 @@ public class CatalogueCopy<T extends CatalogueMetadata<T>> {
     return true;
   }
 
+  private boolean saveSnapshot(CatalogueAndMetadata<T> snapshot) {
+    try {
+      CatalogueSnapshotFile.write(this.catalogueDirectory, this.catalogueSnapshotFilename,
+          snapshot);
+    } catch (FileUtils.WriteFileException e) {
+      logger.error("Cannot write catalogue snapshot to file.", e);
+      return false;
+    }
+    return true;
+  }
+
   private boolean saveMetadataToFile(T catalogueMetadata) {
     String xmlCatalogueMetadata = null;
     try {
@@ -138,7 +529,7 @@ public class CatalogueCopy<T extends CatalogueMetadata<T>> {
     }
 
     try {
-      FileUtils.writeToFile(this.catalogueDirectory, this.catalogueMetadataFilename,
+      FileUtils.writeToFileAtomically(this.catalogueDirectory, this.catalogueMetadataFilename,
           xmlCatalogueMetadata.getBytes(StandardCharsets.UTF_8));
     } catch (FileUtils.WriteFileException e) {
       logger.error("Cannot write catalogue metadata to file.", e);
@@ -147,10 +538,31 @@ public class CatalogueCopy<T extends CatalogueMetadata<T>> {
     return true;
   }
 
-  private void setCatalogueMetadata(T catalogueMetadata) {
-    if (this.saveMetadataToFile(catalogueMetadata)) {
-      this.catalogueAndMetadata = new CatalogueAndMetadata<T>(catalogueMetadata,
-          this.catalogueAndMetadata.getCatalogueContents());
+  private void setCatalogueMetadata(T catalogueMetadata, boolean sourceChanged) {
+    CatalogueAndMetadata<T> updated = this.catalogueAndMetadata.get()
+        .withCatalogueMetadata(nextGeneration(), catalogueMetadata);
+    // If only last fetch date differs from the metadata on disk, it is enough to write it from
+    // time to time, instead of after every fetch.
+    Instant now = Instant.now();
+    if (sourceChanged || this.metadataFlushedAt == null
+        || !now.isBefore(this.metadataFlushedAt.plus(this.metadataFlushInterval))) {
+      if (!this.saveMetadataToFile(catalogueMetadata)) {
+        return;
+      }
+      this.metadataFlushedAt = now;
+      recordStoredMetadata(updated);
+    }
+    this.catalogueAndMetadata.set(updated);
+  }
+
+  private static class StoredMetadata {
+    // Generation of the snapshot published after the file was written.
+    final long generation;
+    final String hash;
+
+    StoredMetadata(long generation, String hash) {
+      this.generation = generation;
+      this.hash = hash;
     }
   }
 }
@@ -0,0 +1,144 @@
+package eu.erasmuswithoutpaper.catalogueserver.web;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.eclipse.jgit.diff.Edit;
+import org.eclipse.jgit.diff.EditList;
+import org.eclipse.jgit.diff.HistogramDiff;
+import org.eclipse.jgit.diff.RawText;
+import org.eclipse.jgit.diff.RawTextComparator;
+
+/**
+ * Difference between a previous version of the Catalogue and the current one, sent instead of the
+ * whole Catalogue to clients that already have the previous version (RFC 3229 delta encoding).
+ *
+ * <p>
+ * The difference is an ed script, the same as produced by 'diff -e' ('diffe' instance
+ * manipulation), so it can be applied with standard tools. Only a few lines of the Catalogue
+ * change between consecutive versions, so deltas are usually a tiny fraction of its size.
+ * </p>
+ */
+public class CatalogueDelta {
+  /**
+   * Instance manipulation used in 'A-IM' and 'IM' headers.
+   */
+  public static final String INSTANCE_MANIPULATION = "diffe";
+
+  private final String baseHash;
+  private final ByteBuffer content;
+
+  private CatalogueDelta(String baseHash, byte[] content) {
+    this.baseHash = baseHash;
+    this.content = ByteBuffer.wrap(content);
+  }
+
+  /**
+   * Computes a delta between two versions of the Catalogue.
+   *
+   * @param baseHash hash of the base version.
+   * @param base     contents of the base version.
+   * @param target   contents of the current version.
+   * @return delta, or null if the versions cannot be represented as an ed script (e.g. a line
+   *         consisting of a single dot is inserted) or the delta is not smaller than the target.
+   */
+  static CatalogueDelta create(String baseHash, byte[] base, byte[] target) {
+    RawText baseText = new RawText(base);
+    RawText targetText = new RawText(target);
+    if (baseText.isMissingNewlineAtEnd() || targetText.isMissingNewlineAtEnd()) {
+      // ed always terminates the last line, the result wouldn't be identical to the target.
+      return null;
+    }
+    EditList edits = new HistogramDiff().diff(RawTextComparator.DEFAULT, baseText, targetText);
+
+    ByteArrayOutputStream script = new ByteArrayOutputStream();
+    try {
+      // Edits are applied from the end, so that line numbers of the remaining edits stay valid.
+      for (int i = edits.size() - 1; i >= 0; i--) {
+        if (!writeEdit(script, edits.get(i), targetText)) {
+          return null;
+        }
+        if (script.size() >= target.length) {
+          return null;
+        }
+      }
+    } catch (IOException e) {
+      // ByteArrayOutputStream doesn't throw.
+      throw new IllegalStateException("Cannot write Catalogue delta.", e);
+    }
+    return new CatalogueDelta(baseHash, script.toByteArray());
+  }
+
+  private static boolean writeEdit(ByteArrayOutputStream script, Edit edit, RawText target)
+      throws IOException {
+    // ed numbers lines from 1, edits from 0 with exclusive ends.
+    String command;
+    switch (edit.getType()) {
+      case INSERT:
+        command = edit.getBeginA() + "a";
+        break;
+      case DELETE:
+        command = lineRange(edit) + "d";
+        break;
+      case REPLACE:
+        command = lineRange(edit) + "c";
+        break;
+      default:
+        return true;
+    }
+    script.write(command.getBytes(StandardCharsets.US_ASCII));
+    script.write('\n');
+    if (edit.getType() == Edit.Type.DELETE) {
+      return true;
+    }
+    for (int line = edit.getBeginB(); line < edit.getEndB(); line++) {
+      if (".".equals(target.getString(line))) {
+        // It would end the input mode of ed.
+        return false;
+      }
+      target.writeLine(script, line);
+      script.write('\n');
+    }
+    script.write('.');
+    script.write('\n');
+    return true;
+  }
+
+  private static String lineRange(Edit edit) {
+    int first = edit.getBeginA() + 1;
+    int last = edit.getEndA();
+    return first == last ? Integer.toString(first) : first + "," + last;
+  }
+
+  /**
+   * @return hash of the version to which the delta should be applied.
+   */
+  public String getBaseHash() {
+    return baseHash;
+  }
+
+  /**
+   * Each call returns a new read-only view of the delta, with independent position and limit.
+   *
+   * @return ed script transforming the base version into the current one.
+   */
+  public ByteBuffer getContent() {
+    return content.asReadOnlyBuffer();
+  }
+
+  /**
+   * Returns a view of the delta for writing it to a response, with access to its array. It must
+   * not be modified.
+   *
+   * @return ed script transforming the base version into the current one.
+   */
+  ByteBuffer getServedContent() {
+    return content.duplicate();
+  }
+
+  public int getContentLength() {
+    return content.remaining();
+  }
+}
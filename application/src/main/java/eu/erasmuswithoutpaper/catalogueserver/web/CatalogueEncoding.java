@@ -0,0 +1,150 @@
+package eu.erasmuswithoutpaper.catalogueserver.web;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.springframework.util.StreamUtils;
+
+/**
+ * Content codings in which the Catalogue is prepared and served.
+ *
+ * <p>
+ * Every version of the Catalogue is encoded in all of these codings once, when it is published,
+ * so that serving a request doesn't require any encoding work.
+ * </p>
+ */
+public enum CatalogueEncoding {
+  IDENTITY("identity", ""),
+  GZIP("gzip", "-gzip");
+
+  private final String contentCoding;
+  private final String etagSuffix;
+
+  CatalogueEncoding(String contentCoding, String etagSuffix) {
+    this.contentCoding = contentCoding;
+    this.etagSuffix = etagSuffix;
+  }
+
+  /**
+   * @return content-coding token, as used in 'Accept-Encoding' and 'Content-Encoding' headers.
+   */
+  public String getContentCoding() {
+    return contentCoding;
+  }
+
+  /**
+   * Creates a strong ETag of the Catalogue encoded with this coding. Identity-encoded
+   * Catalogue uses the hash itself, so ETags remembered by clients remain valid.
+   *
+   * @param hash hash of the Catalogue contents.
+   * @return ETag specific to this encoding.
+   */
+  public String getEtag(String hash) {
+    return hash + etagSuffix;
+  }
+
+  /**
+   * Encodes Catalogue contents with this coding.
+   *
+   * @param content UTF-8 encoded Catalogue contents.
+   * @return encoded contents.
+   */
+  public byte[] encode(byte[] content) {
+    if (this == IDENTITY) {
+      return content;
+    }
+    ByteArrayOutputStream encoded = new ByteArrayOutputStream(content.length / 4);
+    try (OutputStream gzip = new BestCompressionGzipOutputStream(encoded)) {
+      gzip.write(content);
+    } catch (IOException e) {
+      // ByteArrayOutputStream doesn't throw.
+      throw new IllegalStateException("Cannot gzip Catalogue contents.", e);
+    }
+    return encoded.toByteArray();
+  }
+
+  /**
+   * Decodes Catalogue contents encoded with this coding, e.g. versions read from
+   * {@link CatalogueVersionStore}.
+   *
+   * @param encoded contents encoded with this coding.
+   * @return UTF-8 encoded Catalogue contents.
+   * @throws IOException if the contents are malformed.
+   */
+  public byte[] decode(byte[] encoded) throws IOException {
+    if (this == IDENTITY) {
+      return encoded;
+    }
+    try (InputStream gzip = new GZIPInputStream(new ByteArrayInputStream(encoded))) {
+      return StreamUtils.copyToByteArray(gzip);
+    }
+  }
+
+  /**
+   * Selects encoding preferred by the client. Compressed encoding is chosen whenever the client
+   * accepts it with a quality not lower than identity.
+   *
+   * @param acceptEncoding value of the 'Accept-Encoding' header, may be null.
+   * @return selected encoding.
+   */
+  public static CatalogueEncoding select(String acceptEncoding) {
+    if (acceptEncoding == null || acceptEncoding.isEmpty()) {
+      return IDENTITY;
+    }
+    double identityQuality = -1;
+    double gzipQuality = -1;
+    double wildcardQuality = -1;
+    for (String element : acceptEncoding.split(",")) {
+      String[] parts = element.split(";");
+      String coding = parts[0].trim().toLowerCase(Locale.ROOT);
+      double quality = parseQuality(parts);
+      if (GZIP.contentCoding.equals(coding) || "x-gzip".equals(coding)) {
+        gzipQuality = Math.max(gzipQuality, quality);
+      } else if (IDENTITY.contentCoding.equals(coding)) {
+        identityQuality = quality;
+      } else if ("*".equals(coding)) {
+        wildcardQuality = quality;
+      }
+    }
+    if (gzipQuality < 0) {
+      gzipQuality = wildcardQuality;
+    }
+    if (identityQuality < 0) {
+      // Identity is acceptable unless explicitly excluded.
+      identityQuality = wildcardQuality == 0 ? 0 : 1;
+    }
+    if (gzipQuality > 0 && gzipQuality >= identityQuality) {
+      return GZIP;
+    }
+    return IDENTITY;
+  }
+
+  private static double parseQuality(String[] parts) {
+    for (int i = 1; i < parts.length; i++) {
+      String parameter = parts[i].trim();
+      if (parameter.startsWith("q=") || parameter.startsWith("Q=")) {
+        try {
+          return Double.parseDouble(parameter.substring(2).trim());
+        } catch (NumberFormatException ignored) {
+          return 0;
+        }
+      }
+    }
+    return 1;
+  }
+
+  private static class BestCompressionGzipOutputStream extends GZIPOutputStream {
+    BestCompressionGzipOutputStream(OutputStream out) throws IOException {
+      super(out);
+      // Encoding is done once per Catalogue version, we can afford the slowest level.
+      this.def.setLevel(Deflater.BEST_COMPRESSION);
+    }
+  }
+}
@@ -1,56 +1,338 @@
 package eu.erasmuswithoutpaper.catalogueserver.web;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletResponse;
+
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpRange;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
-import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.context.request.ServletWebRequest;
 
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.catalina.connector.CoyoteOutputStream;
+
 @RestController
 public class CatalogueEndpointController<T extends CatalogueMetadata<T>> {
+  // Delta encoding headers, RFC 3229.
+  private static final String A_IM = "A-IM";
+  private static final String IM = "IM";
+  private static final String DELTA_BASE = "Delta-Base";
+  // Set by nginx, trusted only in requests proxied from this host.
+  private static final String X_REAL_IP = "X-Real-IP";
+  private static final int MAX_USER_AGENT_LENGTH = 256;
+  // Size of chunks in which off-heap contents are copied when the container can't take a buffer.
+  private static final int WRITE_CHUNK_SIZE = 8192;
+
   private final CatalogueCopy<T> catalogueCopy;
+  // Sizes of sent bodies by encoding, registered up front so that serving only records a value.
+  private final Map<CatalogueEncoding, DistributionSummary> fullBodies =
+      new EnumMap<>(CatalogueEncoding.class);
+  private final Map<CatalogueEncoding, DistributionSummary> partialBodies =
+      new EnumMap<>(CatalogueEncoding.class);
+  private final DistributionSummary deltaBodies;
+  private final ClientPollingStatistics clientPollingStatistics;
 
+  /**
+   * Creates the controller. Latency and status codes of responses are recorded by Spring in
+   * 'http.server.requests' timer, this controller records sizes of sent bodies in
+   * 'catalogue.served.size' summary of the updater's registry. Requests of each client are
+   * counted in {@link ClientPollingStatistics}.
+   *
+   * @param catalogueUpdater        updater whose copy is served.
+   * @param clientPollingStatistics statistics of requests per client.
+   */
   @Autowired
-  public CatalogueEndpointController(CatalogueUpdater<T> catalogueUpdater) {
+  public CatalogueEndpointController(CatalogueUpdater<T> catalogueUpdater,
+      ClientPollingStatistics clientPollingStatistics) {
     this.catalogueCopy = catalogueUpdater.getCatalogueCopy();
+    this.clientPollingStatistics = clientPollingStatistics;
+    MeterRegistry meterRegistry = catalogueUpdater.getMeterRegistry();
+    for (CatalogueEncoding encoding : CatalogueEncoding.values()) {
+      this.fullBodies.put(encoding,
+          createBodySize(meterRegistry, HttpStatus.OK, encoding.getContentCoding()));
+      this.partialBodies.put(encoding,
+          createBodySize(meterRegistry, HttpStatus.PARTIAL_CONTENT, encoding.getContentCoding()));
+    }
+    this.deltaBodies = createBodySize(meterRegistry, HttpStatus.IM_USED,
+        CatalogueEncoding.IDENTITY.getContentCoding());
+  }
+
+  private static DistributionSummary createBodySize(MeterRegistry meterRegistry,
+      HttpStatus status, String contentCoding) {
+    return DistributionSummary.builder("catalogue.served.size")
+        .description("Sizes of Catalogue bodies sent, by status and content coding.")
+        .baseUnit("bytes")
+        .tag("status", String.valueOf(status.value()))
+        .tag("encoding", contentCoding)
+        .register(meterRegistry);
   }
 
   /**
-   * @return a HTTP response with the catalogue contents.
+   * Serves the catalogue in the encoding selected using 'Accept-Encoding' request header.
+   * Encoded contents are prepared in advance, so no encoding is performed here. Heap contents are
+   * written from their array and off-heap contents are passed to Tomcat as a buffer, in both cases
+   * without copying them into an intermediate array.
+   *
+   * <p>
+   * HEAD requests receive only headers. A single byte range of the selected encoding can be
+   * requested with 'Range' header (optionally guarded by 'If-Range'), e.g. to resume an
+   * interrupted download. Requests for multiple ranges receive the whole contents.
+   * </p>
+   *
+   * <p>
+   * Clients that accept 'diffe' instance manipulation in 'A-IM' header and send ETag of a recent
+   * version in 'If-None-Match' header receive only a {@link CatalogueDelta} from that version
+   * (226 IM Used), unless it is larger than the whole Catalogue in the selected encoding.
+   * </p>
    */
   @RequestMapping("/catalogue-v1.xml")
-  public ResponseEntity<String> getCatalogue(ServletWebRequest webRequest) {
-    HttpHeaders responseHeaders = new HttpHeaders();
-    responseHeaders.setCacheControl("max-age=300, must-revalidate");
-    responseHeaders.setContentType(MediaType.APPLICATION_XML);
-    responseHeaders.setExpires(System.currentTimeMillis() + 300000);
-
+  public void getCatalogue(ServletWebRequest webRequest, HttpServletResponse response)
+      throws IOException {
     CatalogueAndMetadata<T> catalogueAndMetadata = this.catalogueCopy.getCatalogueAndMetadata();
 
-    if (catalogueAndMetadata == null || catalogueAndMetadata.getCatalogueMetadata() == null
-        || catalogueAndMetadata.getCatalogueContents() == null) {
+    if (catalogueAndMetadata == null || catalogueAndMetadata.getCatalogueMetadata() == null) {
       throw new CatalogueNotAvailableException();
     }
-    String etag = catalogueAndMetadata.getCatalogueMetadata().getHash();
+    CatalogueEncoding encoding =
+        CatalogueEncoding.select(webRequest.getHeader(HttpHeaders.ACCEPT_ENCODING));
+    EncodedCatalogue encodedCatalogue = catalogueAndMetadata.getEncodedCatalogue(encoding);
+    if (encodedCatalogue == null) {
+      throw new CatalogueNotAvailableException();
+    }
+
+    response.setHeader(HttpHeaders.CACHE_CONTROL, "max-age=300, must-revalidate");
+    response.setContentType(MediaType.APPLICATION_XML_VALUE);
+    response.setDateHeader(HttpHeaders.EXPIRES, System.currentTimeMillis() + 300000);
+    // Response depends on 'Accept-Encoding', caches have to store each encoding separately.
+    response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING + ", " + A_IM);
+    response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
 
-    long modificationTimestampMillis =
-        catalogueAndMetadata.getCatalogueMetadata().getModificationDate().getEpochSecond() * 1000;
+    // Validators are precomputed in the snapshot, all values below come from the same version.
+    String etag = encodedCatalogue.getEtagHeader();
+    long modificationTimestampMillis = catalogueAndMetadata.getLastModifiedTimestamp();
+    response.setHeader(HttpHeaders.ETAG, etag);
+    response.setHeader(HttpHeaders.LAST_MODIFIED, catalogueAndMetadata.getLastModifiedHeader());
 
     // Check 'If-None-Match' and 'If-Modified-Since' headers if present.
-    // Additionally, this method attaches 'ETag' and 'Last-Modified' timestamps to webRequest,
-    // they are used later in response.
+    boolean conditional = webRequest.getHeader(HttpHeaders.IF_NONE_MATCH) != null
+        || webRequest.getHeader(HttpHeaders.IF_MODIFIED_SINCE) != null;
     if (webRequest.checkNotModified(etag, modificationTimestampMillis)) {
-      // Returning null results in HTTP 304 NOT MODIFIED response,
-      // that status was automatically set in checkNotModified.
+      // HTTP 304 NOT MODIFIED status was set in checkNotModified, no body is sent.
+      recordClient(webRequest, ClientPollingStatistics.Kind.NOT_MODIFIED);
+      return;
+    }
+    recordClient(webRequest, conditional ? ClientPollingStatistics.Kind.CHANGED
+        : ClientPollingStatistics.Kind.UNCONDITIONAL);
+
+    if (isDeltaAccepted(webRequest)) {
+      for (String baseEtag : getIfNoneMatchEtags(webRequest)) {
+        CatalogueDelta delta = catalogueAndMetadata.getDelta(baseEtag);
+        if (delta != null && delta.getContentLength() < encodedCatalogue.getContentLength()) {
+          sendDelta(webRequest, response, catalogueAndMetadata, delta, baseEtag);
+          return;
+        }
+      }
+    }
+
+    if (encoding != CatalogueEncoding.IDENTITY) {
+      response.setHeader(HttpHeaders.CONTENT_ENCODING, encoding.getContentCoding());
+    }
+
+    ByteBuffer content = encodedCatalogue.getServedContent();
+    int length = content.remaining();
+    DistributionSummary bodySize = this.fullBodies.get(encoding);
+    if (isRangeApplicable(webRequest, etag, modificationTimestampMillis)) {
+      HttpRange range = getSingleRange(webRequest);
+      if (range != null) {
+        long start = range.getRangeStart(length);
+        if (start >= length) {
+          response.setStatus(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value());
+          response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+          response.setContentLength(0);
+          return;
+        }
+        long end = range.getRangeEnd(length);
+        response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+        response.setHeader(HttpHeaders.CONTENT_RANGE,
+            "bytes " + start + "-" + end + "/" + length);
+        content.position((int) start);
+        content.limit((int) end + 1);
+        bodySize = this.partialBodies.get(encoding);
+      }
+    }
+
+    response.setContentLength(content.remaining());
+    if (HttpMethod.HEAD.matches(webRequest.getRequest().getMethod())) {
+      return;
+    }
+    writeBody(response, content, bodySize);
+  }
+
+  private void recordClient(ServletWebRequest webRequest, ClientPollingStatistics.Kind kind) {
+    String address = webRequest.getRequest().getRemoteAddr();
+    String realIp = webRequest.getHeader(X_REAL_IP);
+    if (realIp != null && isLoopback(address)) {
+      address = realIp;
+    }
+    String userAgent = webRequest.getHeader(HttpHeaders.USER_AGENT);
+    if (userAgent == null) {
+      userAgent = "";
+    } else if (userAgent.length() > MAX_USER_AGENT_LENGTH) {
+      userAgent = userAgent.substring(0, MAX_USER_AGENT_LENGTH);
+    }
+    this.clientPollingStatistics.record(address, userAgent, kind);
+  }
+
+  private static boolean isLoopback(String address) {
+    try {
+      // The remote address is a literal, so it is parsed without a lookup.
+      return InetAddress.getByName(address).isLoopbackAddress();
+    } catch (UnknownHostException e) {
+      return false;
+    }
+  }
+
+  private static void writeBody(HttpServletResponse response, ByteBuffer content,
+      DistributionSummary bodySize) throws IOException {
+    int size = content.remaining();
+    OutputStream output = response.getOutputStream();
+    if (content.hasArray()) {
+      output.write(content.array(), content.arrayOffset() + content.position(), size);
+    } else if (output instanceof CoyoteOutputStream) {
+      // Tomcat copies the buffer straight into its own output buffer.
+      ((CoyoteOutputStream) output).write(content);
+    } else {
+      byte[] chunk = new byte[Math.min(size, WRITE_CHUNK_SIZE)];
+      while (content.hasRemaining()) {
+        int length = Math.min(content.remaining(), chunk.length);
+        content.get(chunk, 0, length);
+        output.write(chunk, 0, length);
+      }
+    }
+    bodySize.record(size);
+  }
+
+  private void sendDelta(ServletWebRequest webRequest, HttpServletResponse response,
+      CatalogueAndMetadata<T> catalogueAndMetadata, CatalogueDelta delta, String baseEtag)
+      throws IOException {
+    response.setStatus(HttpStatus.IM_USED.value());
+    response.setHeader(IM, CatalogueDelta.INSTANCE_MANIPULATION);
+    response.setHeader(DELTA_BASE, "\"" + baseEtag + "\"");
+    // ETag identifies the instance obtained by applying the delta, i.e. the current Catalogue.
+    response.setHeader(HttpHeaders.ETAG,
+        catalogueAndMetadata.getEncodedCatalogue(CatalogueEncoding.IDENTITY).getEtagHeader());
+    // Caches that don't implement delta encoding must not store the delta as the Catalogue.
+    response.setHeader(HttpHeaders.CACHE_CONTROL, "no-store, im");
+
+    ByteBuffer content = delta.getServedContent();
+    response.setContentLength(content.remaining());
+    if (HttpMethod.HEAD.matches(webRequest.getRequest().getMethod())) {
+      return;
+    }
+    writeBody(response, content, this.deltaBodies);
+  }
+
+  private boolean isDeltaAccepted(ServletWebRequest webRequest) {
+    String[] acceptedManipulations = webRequest.getHeaderValues(A_IM);
+    if (acceptedManipulations == null) {
+      return false;
+    }
+    for (String header : acceptedManipulations) {
+      for (String element : header.split(",")) {
+        String[] parts = element.split(";");
+        if (CatalogueDelta.INSTANCE_MANIPULATION.equals(
+            parts[0].trim().toLowerCase(Locale.ROOT)) && !isRefused(parts)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private boolean isRefused(String[] parts) {
+    for (int i = 1; i < parts.length; i++) {
+      String parameter = parts[i].trim().toLowerCase(Locale.ROOT);
+      if (parameter.startsWith("q=")) {
+        try {
+          return Double.parseDouble(parameter.substring(2)) <= 0;
+        } catch (NumberFormatException e) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  static List<String> getIfNoneMatchEtags(ServletWebRequest webRequest) {
+    List<String> etags = new ArrayList<>();
+    String[] headers = webRequest.getHeaderValues(HttpHeaders.IF_NONE_MATCH);
+    if (headers == null) {
+      return etags;
+    }
+    for (String header : headers) {
+      for (String element : header.split(",")) {
+        String etag = element.trim();
+        // Weak comparison is used for 'If-None-Match'.
+        if (etag.startsWith("W/")) {
+          etag = etag.substring(2);
+        }
+        if (etag.length() > 1 && etag.startsWith("\"") && etag.endsWith("\"")) {
+          etags.add(etag.substring(1, etag.length() - 1));
+        }
+      }
+    }
+    return etags;
+  }
+
+  private HttpRange getSingleRange(ServletWebRequest webRequest) {
+    List<HttpRange> ranges;
+    try {
+      ranges = HttpRange.parseRanges(webRequest.getHeader(HttpHeaders.RANGE));
+    } catch (IllegalArgumentException e) {
+      // Invalid 'Range' header is ignored.
       return null;
     }
+    if (ranges.size() != 1) {
+      // We are allowed to ignore the 'Range' header and multipart responses are not worth it.
+      return null;
+    }
+    return ranges.get(0);
+  }
 
-    return new ResponseEntity<>(catalogueAndMetadata.getCatalogueContents(), responseHeaders,
-        HttpStatus.OK);
+  private boolean isRangeApplicable(ServletWebRequest webRequest, String etag,
+      long modificationTimestampMillis) {
+    // 'If-Range' makes sure that a resumed download doesn't mix parts of two different versions.
+    String ifRange = webRequest.getHeader(HttpHeaders.IF_RANGE);
+    if (ifRange == null) {
+      return true;
+    }
+    if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+      // Strong comparison is required, weak ETags never match.
+      return ifRange.equals(etag);
+    }
+    try {
+      long ifRangeTimestamp = webRequest.getRequest().getDateHeader(HttpHeaders.IF_RANGE);
+      return ifRangeTimestamp == modificationTimestampMillis;
+    } catch (IllegalArgumentException e) {
+      return false;
+    }
   }
 
   @ResponseStatus(code = HttpStatus.SERVICE_UNAVAILABLE,
@@ -0,0 +1,276 @@
+package eu.erasmuswithoutpaper.catalogueserver.web;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Fetches the Catalogue from several sources, e.g. GitHub, other catalogue servers and the
+ * registry, ranked by preference.
+ *
+ * <p>
+ * The most preferred source is asked first. If it fails, the next one is asked right away, and if
+ * it doesn't respond within the hedge delay, the next one is asked as well, without cancelling the
+ * first request. The first successful response is used, others are discarded. Getters of the
+ * sources are responsible for verifying the content they return.
+ * </p>
+ *
+ * <p>
+ * A source which has refused to serve us (403 Forbidden) or has rate limited us is skipped until
+ * it allows us again. Only when all sources are skipped, fetches are delayed as with a single
+ * source. Outcome and latency of each request are recorded in 'catalogue.source.request' timer and
+ * the source of each fetched response in 'catalogue.source.used' counter, both tagged with names of
+ * sources.
+ * </p>
+ */
+public class CatalogueGetterMultiSource<T extends CatalogueMetadata<T>>
+    implements CatalogueGetter<T>, Closeable {
+  private static final Logger logger = LoggerFactory.getLogger(CatalogueGetterMultiSource.class);
+  private static final Duration FORBIDDEN_DELAY = Duration.ofHours(1);
+
+  private final List<String> names;
+  private final List<CatalogueGetter<T>> getters;
+  private final Instant[] skippedUntil;
+  private final Duration hedgeDelay;
+  private final Duration fetchTimeout;
+  private final MeterRegistry meterRegistry;
+  // Requests outlive fetches which have been hedged, they are not interruptible.
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+
+  /**
+   * Creates the getter.
+   *
+   * @param sources       getters of the sources by their names, the most preferred first.
+   * @param hedgeDelay    time after which the next source is asked if no source has responded.
+   * @param fetchTimeout  time after which the fetch fails if no source has responded.
+   * @param meterRegistry registry of request metrics.
+   */
+  public CatalogueGetterMultiSource(Map<String, CatalogueGetter<T>> sources, Duration hedgeDelay,
+      Duration fetchTimeout, MeterRegistry meterRegistry) {
+    this.names = new ArrayList<>(sources.keySet());
+    this.getters = new ArrayList<>(sources.values());
+    this.skippedUntil = new Instant[sources.size()];
+    this.hedgeDelay = hedgeDelay;
+    this.fetchTimeout = fetchTimeout;
+    this.meterRegistry = meterRegistry;
+  }
+
+  /**
+   * Fetches the Catalogue from the first source which responds.
+   *
+   * @param metadata metadata of the local copy, passed to getters of the sources.
+   * @return the first OK or NOT_MODIFIED response, RATE_LIMITED response until the earliest
+   *         instant when a source can be asked again if all sources refuse to serve us.
+   * @throws CatalogueFetchException if no source has responded in time.
+   */
+  @Override
+  public synchronized CatalogueGetterResponse<T> fetchCatalogue(T metadata)
+      throws CatalogueFetchException {
+    long deadline = System.nanoTime() + this.fetchTimeout.toNanos();
+    List<Integer> candidates = getCandidates(Instant.now());
+    if (candidates.isEmpty()) {
+      return CatalogueGetterResponse.createRateLimited(getEarliestAllowedInstant());
+    }
+
+    Fetch fetch = new Fetch();
+    List<Future<?>> requests = new ArrayList<>();
+    Outcome result = null;
+    int pending = 0;
+    try {
+      while (result == null && (pending > 0 || requests.size() < candidates.size())) {
+        boolean canHedge = requests.size() < candidates.size();
+        if (pending == 0) {
+          requests.add(start(candidates.get(requests.size()), metadata, fetch));
+          pending++;
+          continue;
+        }
+        long timeout = deadline - System.nanoTime();
+        if (canHedge) {
+          timeout = Math.min(timeout, this.hedgeDelay.toNanos());
+        }
+        Outcome outcome = fetch.outcomes.poll(Math.max(timeout, 0), TimeUnit.NANOSECONDS);
+        if (outcome == null) {
+          if (!canHedge || System.nanoTime() - deadline >= 0) {
+            break;
+          }
+          int source = candidates.get(requests.size());
+          logger.info("No response within {} ms, asking {} as well.",
+              this.hedgeDelay.toMillis(), this.names.get(source));
+          requests.add(start(source, metadata, fetch));
+          pending++;
+        } else {
+          pending--;
+          result = onOutcome(outcome);
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new CatalogueFetchException("Interrupted while fetching the Catalogue.");
+    } finally {
+      fetch.finish();
+      for (Future<?> request : requests) {
+        request.cancel(true);
+      }
+    }
+
+    if (result == null) {
+      if (getCandidates(Instant.now()).isEmpty()) {
+        return CatalogueGetterResponse.createRateLimited(getEarliestAllowedInstant());
+      }
+      throw new CatalogueFetchException("No source of the Catalogue has responded.");
+    }
+    String name = this.names.get(result.source);
+    logger.info("Catalogue fetched from {}, status {}.", name, result.response.status);
+    Counter.builder("catalogue.source.used")
+        .description("Number of fetches in which the source responded first.")
+        .tag("source", name)
+        .register(this.meterRegistry)
+        .increment();
+    return result.response;
+  }
+
+  private List<Integer> getCandidates(Instant now) {
+    List<Integer> candidates = new ArrayList<>();
+    for (int i = 0; i < this.getters.size(); i++) {
+      if (this.skippedUntil[i] == null || !this.skippedUntil[i].isAfter(now)) {
+        candidates.add(i);
+      }
+    }
+    return candidates;
+  }
+
+  private Instant getEarliestAllowedInstant() {
+    Instant earliest = null;
+    for (Instant instant : this.skippedUntil) {
+      if (instant != null && (earliest == null || instant.isBefore(earliest))) {
+        earliest = instant;
+      }
+    }
+    return earliest;
+  }
+
+  private Future<?> start(int source, T metadata, Fetch fetch) {
+    CatalogueGetter<T> getter = this.getters.get(source);
+    return this.executor.submit(() -> {
+      long start = System.nanoTime();
+      Outcome outcome;
+      try {
+        outcome = new Outcome(source, getter.fetchCatalogue(metadata));
+      } catch (CatalogueFetchException | RuntimeException e) {
+        logger.error("Cannot fetch catalogue from {}.", this.names.get(source), e);
+        outcome = new Outcome(source, null);
+      }
+      recordRequest(outcome, start);
+      fetch.offer(outcome);
+    });
+  }
+
+  private void recordRequest(Outcome outcome, long start) {
+    String status = outcome.response == null
+        ? "error"
+        : outcome.response.status.name().toLowerCase(Locale.ROOT);
+    Timer.builder("catalogue.source.request")
+        .description("Time spent fetching the catalogue from a source.")
+        .tag("source", this.names.get(outcome.source))
+        .tag("outcome", status)
+        .register(this.meterRegistry)
+        .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+  }
+
+  private Outcome onOutcome(Outcome outcome) {
+    if (outcome.response == null) {
+      return null;
+    }
+    switch (outcome.response.status) {
+      case OK:
+      case NOT_MODIFIED:
+        return outcome;
+      case RATE_LIMITED:
+        skip(outcome.source, outcome.response.retryAfter);
+        return null;
+      case FORBIDDEN:
+        skip(outcome.source, Instant.now().plus(FORBIDDEN_DELAY));
+        return null;
+      default:
+        return null;
+    }
+  }
+
+  private void skip(int source, Instant until) {
+    logger.info("Source {} is skipped until {}.", this.names.get(source), until);
+    this.skippedUntil[source] = until;
+  }
+
+  /**
+   * Stops requests in progress and closes getters of the sources.
+   *
+   * @throws IOException if a getter cannot be closed.
+   */
+  @Override
+  public void close() throws IOException {
+    this.executor.shutdownNow();
+    for (CatalogueGetter<T> getter : this.getters) {
+      if (getter instanceof Closeable) {
+        ((Closeable) getter).close();
+      }
+    }
+  }
+
+  private class Outcome {
+    final int source;
+    final CatalogueGetterResponse<T> response;
+
+    Outcome(int source, CatalogueGetterResponse<T> response) {
+      this.source = source;
+      this.response = response;
+    }
+
+    void discard() {
+      if (this.response != null && this.response.content != null) {
+        FileUtils.deleteFile(this.response.content);
+      }
+    }
+  }
+
+  /**
+   * Outcomes of requests of a single fetch. Responses which arrive after the fetch has finished
+   * are discarded, so that their downloaded files are deleted.
+   */
+  private class Fetch {
+    final BlockingQueue<Outcome> outcomes = new LinkedBlockingQueue<>();
+    private boolean finished;
+
+    synchronized void offer(Outcome outcome) {
+      if (this.finished) {
+        outcome.discard();
+      } else {
+        this.outcomes.add(outcome);
+      }
+    }
+
+    synchronized void finish() {
+      this.finished = true;
+      Outcome outcome;
+      while ((outcome = this.outcomes.poll()) != null) {
+        outcome.discard();
+      }
+    }
+  }
+}
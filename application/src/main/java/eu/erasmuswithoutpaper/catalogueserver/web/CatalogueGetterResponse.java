@@ -1,28 +1,39 @@
 package eu.erasmuswithoutpaper.catalogueserver.web;
 
+import java.nio.file.Path;
 import java.time.Instant;
 
 public class CatalogueGetterResponse<T extends CatalogueMetadata<T>> {
 
   public final Status status;
-  public final String content;
+  public final Path content;
   public final Instant retryAfter;
   public final T metadata;
+  public final RateLimit rateLimit;
 
   /**
    * Describes a catalogue fetched by {@link CatalogueGetter}.
    *
-   * @param content  contents of fetched catalogue.
+   * @param content  temporary file with contents of fetched catalogue, created in the catalogue
+   *                 directory with {@link FileUtils#createTemporaryFile(String, String)}. The
+   *                 receiver of the response takes its ownership.
    * @param metadata metadata of fetched catalogue.
+   * @param rateLimit upstream call budget reported while fetching.
    */
-  private CatalogueGetterResponse(Status status, String content, Instant retryAfter, T metadata) {
+  private CatalogueGetterResponse(Status status, Path content, Instant retryAfter, T metadata,
+      RateLimit rateLimit) {
     this.status = status;
     this.content = content;
     this.metadata = metadata;
     this.retryAfter = retryAfter;
+    this.rateLimit = rateLimit;
   }
 
-  public static <T extends CatalogueMetadata<T>> CatalogueGetterResponse<T> createOk(String content,
+  private CatalogueGetterResponse(Status status, Path content, Instant retryAfter, T metadata) {
+    this(status, content, retryAfter, metadata, RateLimit.UNKNOWN);
+  }
+
+  public static <T extends CatalogueMetadata<T>> CatalogueGetterResponse<T> createOk(Path content,
       T metadata) {
     return new CatalogueGetterResponse<T>(Status.OK, content, null, metadata);
   }
@@ -40,6 +51,17 @@ public class CatalogueGetterResponse<T extends CatalogueMetadata<T>> {
     return new CatalogueGetterResponse<T>(Status.FORBIDDEN, null, null, null);
   }
 
+  /**
+   * Creates a copy of this response with upstream call budget.
+   *
+   * @param newRateLimit call budget reported by upstream.
+   * @return new CatalogueGetterResponse.
+   */
+  public CatalogueGetterResponse<T> withRateLimit(RateLimit newRateLimit) {
+    return new CatalogueGetterResponse<T>(this.status, this.content, this.retryAfter,
+        this.metadata, newRateLimit);
+  }
+
   public enum Status {
     OK,
     NOT_MODIFIED,
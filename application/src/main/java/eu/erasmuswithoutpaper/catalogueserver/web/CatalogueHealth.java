@@ -0,0 +1,154 @@
+package eu.erasmuswithoutpaper.catalogueserver.web;
+
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Decides whether the served snapshot of the Catalogue can be trusted, so that this node can be
+ * taken out of rotation (by the DNS watchdog or by the embedded DNS responder) when it cannot.
+ *
+ * <p>
+ * The verdict is computed in memory: the served contents are checked against the hash in their
+ * metadata (once per version), the metadata file in the cache directory has to describe the same
+ * version, so that it is served again after a restart, and the last fetch has to be recent. The
+ * file is not read, {@link CatalogueCopy} remembers what it has written, so a version being
+ * published is not reported as inconsistent while the file is already updated.
+ * </p>
+ */
+public class CatalogueHealth<T extends CatalogueMetadata<T>> {
+  private final CatalogueUpdater<T> catalogueUpdater;
+  private final CatalogueCopy<T> catalogueCopy;
+  private final Duration maxTimeSinceFetch;
+  // Served contents which were last checked against their hash, and the result.
+  private EncodedCatalogue verifiedContent;
+  private String verifiedHash;
+  private boolean contentValid;
+
+  /**
+   * Verdict about the served snapshot.
+   */
+  public enum Status {
+    /**
+     * The snapshot is consistent and was fetched recently.
+     */
+    OK,
+    /**
+     * The snapshot is consistent, but it wasn't fetched recently.
+     */
+    STALE,
+    /**
+     * The served contents don't match their hash or the stored copy.
+     */
+    INCONSISTENT,
+    /**
+     * Nothing is served.
+     */
+    UNAVAILABLE;
+
+    /**
+     * Name of the status used in responses.
+     *
+     * @return lower case name.
+     */
+    public String getName() {
+      return name().toLowerCase(Locale.ROOT);
+    }
+  }
+
+  /**
+   * Verdict and details of the snapshot it is based on.
+   */
+  public static class Report {
+    private final Status status;
+    private final Map<String, Object> details;
+
+    Report(Status status, Map<String, Object> details) {
+      this.status = status;
+      this.details = Collections.unmodifiableMap(details);
+    }
+
+    public Status getStatus() {
+      return this.status;
+    }
+
+    /**
+     * Details of the snapshot, empty if nothing is served.
+     *
+     * @return map from names of the details to their values, in a stable order.
+     */
+    public Map<String, Object> getDetails() {
+      return this.details;
+    }
+  }
+
+  /**
+   * Creates the health check.
+   *
+   * @param catalogueUpdater  updater whose copy is checked.
+   * @param maxTimeSinceFetch age of the last fetch after which the copy is stale, it has to be
+   *                          longer than the maximal polling interval.
+   */
+  public CatalogueHealth(CatalogueUpdater<T> catalogueUpdater, Duration maxTimeSinceFetch) {
+    this.catalogueUpdater = catalogueUpdater;
+    this.catalogueCopy = catalogueUpdater.getCatalogueCopy();
+    this.maxTimeSinceFetch = maxTimeSinceFetch;
+  }
+
+  /**
+   * Checks the served snapshot. Contents are hashed only when a new version is served, other
+   * checks are cheap enough to be made several times per second.
+   *
+   * @return verdict and details.
+   */
+  public Report check() {
+    Map<String, Object> details = new LinkedHashMap<>();
+    CatalogueAndMetadata<T> snapshot = this.catalogueCopy.getCatalogueAndMetadata();
+    if (snapshot == null) {
+      return new Report(Status.UNAVAILABLE, details);
+    }
+    T metadata = snapshot.getCatalogueMetadata();
+    Duration sinceFetch = Duration.between(metadata.getLastFetchDate(), Instant.now());
+    boolean contentVerified = isContentValid(snapshot);
+    boolean storedCopyMatches = this.catalogueCopy.isStoredCopyOf(snapshot);
+
+    details.put("generation", snapshot.getGeneration());
+    details.put("hash", metadata.getHash());
+    details.put("etag",
+        snapshot.getEncodedCatalogue(CatalogueEncoding.IDENTITY).getEtagHeader());
+    details.put("modificationDate", metadata.getModificationDate().toString());
+    details.put("lastFetchDate", metadata.getLastFetchDate().toString());
+    details.put("secondsSinceLastFetch", sinceFetch.getSeconds());
+    details.put("maxSecondsSinceLastFetch", this.maxTimeSinceFetch.getSeconds());
+    details.put("nextFetchDate", this.catalogueUpdater.getNextFetchInstant().toString());
+    details.put("contentVerified", contentVerified);
+    details.put("storedCopyMatches", storedCopyMatches);
+    Status status;
+    if (!contentVerified || !storedCopyMatches) {
+      status = Status.INCONSISTENT;
+    } else if (sinceFetch.compareTo(this.maxTimeSinceFetch) > 0) {
+      status = Status.STALE;
+    } else {
+      status = Status.OK;
+    }
+    return new Report(status, details);
+  }
+
+  private synchronized boolean isContentValid(CatalogueAndMetadata<T> snapshot) {
+    EncodedCatalogue content = snapshot.getEncodedCatalogue(CatalogueEncoding.IDENTITY);
+    String hash = snapshot.getCatalogueMetadata().getHash();
+    // Contents are shared by snapshots of the same version, they are hashed only when they change.
+    if (content != this.verifiedContent || !hash.equals(this.verifiedHash)) {
+      MessageDigest digest = MetadataVerifier.createDigest();
+      digest.update(content.getContent());
+      this.contentValid = MetadataVerifier.getHash(digest).equals(hash);
+      this.verifiedContent = content;
+      this.verifiedHash = hash;
+    }
+    return this.contentValid;
+  }
+}
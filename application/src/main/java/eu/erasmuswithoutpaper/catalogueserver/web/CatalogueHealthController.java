@@ -0,0 +1,64 @@
+package eu.erasmuswithoutpaper.catalogueserver.web;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Describes the served snapshot of the Catalogue and whether it can be trusted, for the DNS
+ * watchdog, which stops the DNS server of this node if the Catalogue is not served correctly.
+ *
+ * <p>
+ * The verdict is computed by {@link CatalogueHealth}. The response is a small JSON document, with
+ * 200 status code if the verdict is 'ok' and 503 otherwise.
+ * </p>
+ */
+@RestController
+public class CatalogueHealthController<T extends CatalogueMetadata<T>> {
+  private final CatalogueHealth<T> catalogueHealth;
+  private final ObjectMapper objectMapper;
+
+  /**
+   * Creates the controller.
+   *
+   * @param catalogueHealth health check of the served copy.
+   * @param objectMapper    JSON serializer.
+   */
+  @Autowired
+  public CatalogueHealthController(CatalogueHealth<T> catalogueHealth,
+      ObjectMapper objectMapper) {
+    this.catalogueHealth = catalogueHealth;
+    this.objectMapper = objectMapper;
+  }
+
+  /**
+   * Describes the served snapshot.
+   *
+   * @return JSON with 'status' 'ok', 'stale' (not fetched recently), 'inconsistent' (served
+   *         contents don't match their hash or the stored copy) or 'unavailable' (nothing is
+   *         served), and details of the snapshot.
+   */
+  @RequestMapping("/health/catalogue")
+  public ResponseEntity<String> getHealth() throws JsonProcessingException {
+    CatalogueHealth.Report report = this.catalogueHealth.check();
+    Map<String, Object> response = new LinkedHashMap<>();
+    response.put("status", report.getStatus().getName());
+    response.putAll(report.getDetails());
+    HttpStatus httpStatus = report.getStatus() == CatalogueHealth.Status.OK
+        ? HttpStatus.OK : HttpStatus.SERVICE_UNAVAILABLE;
+    return ResponseEntity.status(httpStatus)
+        .contentType(MediaType.APPLICATION_JSON_UTF8)
+        .cacheControl(CacheControl.noStore())
+        .body(this.objectMapper.writeValueAsString(response));
+  }
+}
@@ -0,0 +1,614 @@
+package eu.erasmuswithoutpaper.catalogueserver.web;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Immutable index of hosts, institutions and APIs described by a version of the Catalogue, so that
+ * a single HEI or API can be looked up without parsing the whole Catalogue.
+ *
+ * <p>
+ * The index is built with a single pass of a StAX parser, elements that are not indexed are
+ * skipped without building any tree. Strings repeated across hosts, such as API names, namespaces
+ * and versions, are shared.
+ * </p>
+ *
+ * <p>
+ * Fingerprints of client and server credentials are indexed too, so that a server authenticating
+ * a request can find hosts and HEIs using its certificate or key without scanning the Catalogue.
+ * </p>
+ */
+public class CatalogueIndex {
+  private static final XMLInputFactory XML_INPUT_FACTORY = createXmlInputFactory();
+
+  private final List<HostEntry> hosts;
+  // Keys are lower-cased, HEI IDs are case-insensitive.
+  private final Map<String, HeiEntry> heis;
+  private final Map<String, List<HostEntry>> hostsByHeiId;
+  private final Map<String, List<HostEntry>> hostsByApiName;
+  // Keys are lower-cased hex fingerprints.
+  private final Map<String, List<CredentialUse>> credentialUsesByFingerprint;
+
+  private CatalogueIndex(List<HostEntry> hosts, Map<String, HeiEntry> heis) {
+    this.hosts = Collections.unmodifiableList(hosts);
+    this.heis = Collections.unmodifiableMap(heis);
+    Map<String, List<HostEntry>> byHeiId = new HashMap<>();
+    Map<String, List<HostEntry>> byApiName = new HashMap<>();
+    Map<String, List<CredentialUse>> byFingerprint = new HashMap<>();
+    for (HostEntry host : hosts) {
+      for (String heiId : host.getHeiIds()) {
+        byHeiId.computeIfAbsent(normalizeHeiId(heiId), id -> new ArrayList<>(1)).add(host);
+      }
+      for (ApiEntry api : host.getApis()) {
+        List<HostEntry> apiHosts =
+            byApiName.computeIfAbsent(api.getName(), name -> new ArrayList<>());
+        if (apiHosts.isEmpty() || apiHosts.get(apiHosts.size() - 1) != host) {
+          apiHosts.add(host);
+        }
+      }
+      for (CredentialType type : CredentialType.values()) {
+        for (String fingerprint : host.getCredentials(type)) {
+          byFingerprint.computeIfAbsent(fingerprint, key -> new ArrayList<>(1))
+              .add(new CredentialUse(type, host));
+        }
+      }
+    }
+    this.hostsByHeiId = Collections.unmodifiableMap(byHeiId);
+    this.hostsByApiName = Collections.unmodifiableMap(byApiName);
+    this.credentialUsesByFingerprint = Collections.unmodifiableMap(byFingerprint);
+  }
+
+  private static XMLInputFactory createXmlInputFactory() {
+    XMLInputFactory factory = XMLInputFactory.newFactory();
+    // The Catalogue doesn't use DTDs, external entities must not be resolved.
+    factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+    return factory;
+  }
+
+  // Most lists and maps in the index have a single element, they are stored without spare capacity.
+  private static <E> List<E> compact(List<E> list) {
+    switch (list.size()) {
+      case 0:
+        return Collections.emptyList();
+      case 1:
+        return Collections.singletonList(list.get(0));
+      default:
+        return Collections.unmodifiableList(new ArrayList<>(list));
+    }
+  }
+
+  private static <K, V> Map<K, V> compact(Map<K, V> map) {
+    switch (map.size()) {
+      case 0:
+        return Collections.emptyMap();
+      case 1:
+        Map.Entry<K, V> entry = map.entrySet().iterator().next();
+        return Collections.singletonMap(entry.getKey(), entry.getValue());
+      default:
+        return Collections.unmodifiableMap(map);
+    }
+  }
+
+  private static String normalizeFingerprint(String fingerprint) {
+    return fingerprint.trim().toLowerCase(Locale.ROOT);
+  }
+
+  private static String normalizeHeiId(String heiId) {
+    return heiId.toLowerCase(Locale.ROOT);
+  }
+
+  /**
+   * Builds an index of the Catalogue.
+   *
+   * @param content UTF-8 encoded Catalogue contents.
+   * @return new CatalogueIndex.
+   * @throws XMLStreamException if the contents are not a well-formed Catalogue.
+   */
+  public static CatalogueIndex build(byte[] content) throws XMLStreamException {
+    return build(ByteBuffer.wrap(content));
+  }
+
+  /**
+   * Builds an index of the Catalogue kept in a buffer, e.g. contents of a published snapshot,
+   * without copying it.
+   *
+   * @param content UTF-8 encoded Catalogue contents, from position to limit. The buffer is not
+   *                modified.
+   * @return new CatalogueIndex.
+   * @throws XMLStreamException if the contents are not a well-formed Catalogue.
+   */
+  public static CatalogueIndex build(ByteBuffer content) throws XMLStreamException {
+    InputStream input;
+    if (content.hasArray()) {
+      input = new ByteArrayInputStream(content.array(),
+          content.arrayOffset() + content.position(), content.remaining());
+    } else {
+      input = new ByteBufferInputStream(content.duplicate());
+    }
+    XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(input);
+    try {
+      return new Parser(reader).parse();
+    } finally {
+      reader.close();
+    }
+  }
+
+  public List<HostEntry> getHosts() {
+    return hosts;
+  }
+
+  /**
+   * @return institutions described in the institutions section of the Catalogue, in no particular
+   *         order.
+   */
+  public Collection<HeiEntry> getHeis() {
+    return heis.values();
+  }
+
+  /**
+   * Finds an institution. HEIs covered by hosts, but not described in the institutions section of
+   * the Catalogue, are found as well, without names and other IDs.
+   *
+   * @param heiId HEI ID, compared case-insensitively.
+   * @return institution or null if no host covers it and it is not described.
+   */
+  public HeiEntry getHei(String heiId) {
+    String key = normalizeHeiId(heiId);
+    HeiEntry hei = heis.get(key);
+    if (hei == null && hostsByHeiId.containsKey(key)) {
+      return new HeiEntry(heiId, Collections.emptyMap(), Collections.emptyList());
+    }
+    return hei;
+  }
+
+  /**
+   * Finds hosts covering an institution.
+   *
+   * @param heiId HEI ID, compared case-insensitively.
+   * @return hosts, in order of the Catalogue, possibly empty.
+   */
+  public List<HostEntry> getHostsByHeiId(String heiId) {
+    List<HostEntry> result = hostsByHeiId.get(normalizeHeiId(heiId));
+    return result == null ? Collections.emptyList() : Collections.unmodifiableList(result);
+  }
+
+  /**
+   * @return local names of API elements implemented by any host, sorted.
+   */
+  public List<String> getApiNames() {
+    List<String> names = new ArrayList<>(hostsByApiName.keySet());
+    Collections.sort(names);
+    return names;
+  }
+
+  /**
+   * Finds hosts implementing an API.
+   *
+   * @param apiName local name of the API element, e.g. 'echo'.
+   * @return hosts, in order of the Catalogue, possibly empty.
+   */
+  public List<HostEntry> getHostsByApiName(String apiName) {
+    List<HostEntry> result = hostsByApiName.get(apiName);
+    return result == null ? Collections.emptyList() : Collections.unmodifiableList(result);
+  }
+
+  /**
+   * Finds uses of a certificate or an RSA key.
+   *
+   * @param sha256 hex-encoded SHA-256 fingerprint, compared case-insensitively.
+   * @return uses of the credential, in order of the Catalogue, possibly empty.
+   */
+  public List<CredentialUse> getCredentialUses(String sha256) {
+    List<CredentialUse> result = credentialUsesByFingerprint.get(normalizeFingerprint(sha256));
+    return result == null ? Collections.emptyList() : Collections.unmodifiableList(result);
+  }
+
+  /**
+   * Kinds of credentials listed for hosts in the Catalogue.
+   */
+  public enum CredentialType {
+    CLIENT_CERTIFICATE("client-certificate"),
+    CLIENT_RSA_KEY("client-rsa-public-key"),
+    SERVER_RSA_KEY("server-rsa-public-key");
+
+    private final String name;
+
+    CredentialType(String name) {
+      this.name = name;
+    }
+
+    /**
+     * @return name used in responses.
+     */
+    public String getName() {
+      return name;
+    }
+  }
+
+  /**
+   * A credential listed for a host.
+   */
+  public static class CredentialUse {
+    private final CredentialType type;
+    private final HostEntry host;
+
+    CredentialUse(CredentialType type, HostEntry host) {
+      this.type = type;
+      this.host = host;
+    }
+
+    public CredentialType getType() {
+      return type;
+    }
+
+    public HostEntry getHost() {
+      return host;
+    }
+  }
+
+  /**
+   * A host, i.e. a set of APIs covering a set of institutions.
+   */
+  public static class HostEntry {
+    private final List<String> adminEmails;
+    private final List<ApiEntry> apis;
+    private final List<String> heiIds;
+    private final Map<CredentialType, List<String>> credentials;
+
+    HostEntry(List<String> adminEmails, List<ApiEntry> apis, List<String> heiIds,
+        Map<CredentialType, List<String>> credentials) {
+      this.adminEmails = compact(adminEmails);
+      this.apis = compact(apis);
+      this.heiIds = compact(heiIds);
+      Map<CredentialType, List<String>> compacted = new EnumMap<>(CredentialType.class);
+      for (Map.Entry<CredentialType, List<String>> entry : credentials.entrySet()) {
+        compacted.put(entry.getKey(), compact(entry.getValue()));
+      }
+      this.credentials = compacted;
+    }
+
+    public List<String> getAdminEmails() {
+      return adminEmails;
+    }
+
+    public List<ApiEntry> getApis() {
+      return apis;
+    }
+
+    public List<String> getHeiIds() {
+      return heiIds;
+    }
+
+    /**
+     * @param type kind of credentials.
+     * @return lower-cased hex SHA-256 fingerprints of credentials of this kind, possibly empty.
+     */
+    public List<String> getCredentials(CredentialType type) {
+      List<String> result = credentials.get(type);
+      return result == null ? Collections.emptyList() : result;
+    }
+  }
+
+  /**
+   * An API implemented by a host.
+   */
+  public static class ApiEntry {
+    private final String name;
+    private final String namespace;
+    private final String version;
+    private final Map<String, String> urls;
+
+    ApiEntry(String name, String namespace, String version, Map<String, String> urls) {
+      this.name = name;
+      this.namespace = namespace;
+      this.version = version;
+      this.urls = compact(urls);
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public String getNamespace() {
+      return namespace;
+    }
+
+    /**
+     * @return value of the 'version' attribute, null if it is missing.
+     */
+    public String getVersion() {
+      return version;
+    }
+
+    /**
+     * @return URLs of the API by names of their elements, e.g. 'url' or 'get-url'.
+     */
+    public Map<String, String> getUrls() {
+      return urls;
+    }
+  }
+
+  /**
+   * An institution described in the Catalogue.
+   */
+  public static class HeiEntry {
+    private final String id;
+    private final Map<String, String> names;
+    private final List<OtherId> otherIds;
+
+    HeiEntry(String id, Map<String, String> names, List<OtherId> otherIds) {
+      this.id = id;
+      this.names = compact(names);
+      this.otherIds = compact(otherIds);
+    }
+
+    public String getId() {
+      return id;
+    }
+
+    /**
+     * @return names by their languages, an empty string is used if the language is not given.
+     */
+    public Map<String, String> getNames() {
+      return names;
+    }
+
+    public List<OtherId> getOtherIds() {
+      return otherIds;
+    }
+  }
+
+  /**
+   * Other identifier of an institution, e.g. its Erasmus code.
+   */
+  public static class OtherId {
+    private final String type;
+    private final String value;
+
+    OtherId(String type, String value) {
+      this.type = type;
+      this.value = value;
+    }
+
+    public String getType() {
+      return type;
+    }
+
+    public String getValue() {
+      return value;
+    }
+  }
+
+  private static class Parser {
+    private static final String XML_NAMESPACE = "http://www.w3.org/XML/1998/namespace";
+
+    private final XMLStreamReader reader;
+    private final Map<String, String> strings = new HashMap<>();
+    private final List<HostEntry> hosts = new ArrayList<>();
+    private final Map<String, HeiEntry> heis = new HashMap<>();
+
+    Parser(XMLStreamReader reader) {
+      this.reader = reader;
+    }
+
+    CatalogueIndex parse() throws XMLStreamException {
+      reader.nextTag();
+      while (nextChild()) {
+        switch (reader.getLocalName()) {
+          case "host":
+            readHost();
+            break;
+          case "institutions":
+            readInstitutions();
+            break;
+          default:
+            skipElement();
+        }
+      }
+      return new CatalogueIndex(hosts, heis);
+    }
+
+    /**
+     * Moves to the next child of the current element.
+     *
+     * @return true if the reader is at the start of a child, false if it is at the end of the
+     *         current element.
+     */
+    private boolean nextChild() throws XMLStreamException {
+      while (reader.hasNext()) {
+        int event = reader.next();
+        if (event == XMLStreamConstants.START_ELEMENT) {
+          return true;
+        }
+        if (event == XMLStreamConstants.END_ELEMENT) {
+          return false;
+        }
+      }
+      throw new XMLStreamException("Unexpected end of the Catalogue.");
+    }
+
+    private void skipElement() throws XMLStreamException {
+      int depth = 1;
+      while (depth > 0) {
+        int event = reader.next();
+        if (event == XMLStreamConstants.START_ELEMENT) {
+          depth++;
+        } else if (event == XMLStreamConstants.END_ELEMENT) {
+          depth--;
+        }
+      }
+    }
+
+    private String shared(String value) {
+      if (value == null) {
+        return null;
+      }
+      String existing = strings.putIfAbsent(value, value);
+      return existing == null ? value : existing;
+    }
+
+    private String readText() throws XMLStreamException {
+      return reader.getElementText().trim();
+    }
+
+    private void readHost() throws XMLStreamException {
+      List<String> adminEmails = new ArrayList<>(1);
+      List<ApiEntry> apis = new ArrayList<>();
+      List<String> heiIds = new ArrayList<>(1);
+      Map<CredentialType, List<String>> credentials = new EnumMap<>(CredentialType.class);
+      while (nextChild()) {
+        switch (reader.getLocalName()) {
+          case "admin-email":
+            adminEmails.add(readText());
+            break;
+          case "apis-implemented":
+            while (nextChild()) {
+              apis.add(readApi());
+            }
+            break;
+          case "institutions-covered":
+            readHeiIds(heiIds);
+            break;
+          case "client-credentials-in-use":
+            readCredentials(credentials, CredentialType.CLIENT_CERTIFICATE,
+                CredentialType.CLIENT_RSA_KEY);
+            break;
+          case "server-credentials-in-use":
+            readCredentials(credentials, null, CredentialType.SERVER_RSA_KEY);
+            break;
+          default:
+            skipElement();
+        }
+      }
+      hosts.add(new HostEntry(adminEmails, apis, heiIds, credentials));
+    }
+
+    private void readCredentials(Map<CredentialType, List<String>> credentials,
+        CredentialType certificateType, CredentialType keyType) throws XMLStreamException {
+      while (nextChild()) {
+        CredentialType type = null;
+        if ("certificate".equals(reader.getLocalName())) {
+          type = certificateType;
+        } else if ("rsa-public-key".equals(reader.getLocalName())) {
+          type = keyType;
+        }
+        String fingerprint = reader.getAttributeValue(null, "sha-256");
+        if (type != null && fingerprint != null) {
+          credentials.computeIfAbsent(type, key -> new ArrayList<>(1))
+              .add(normalizeFingerprint(fingerprint));
+        }
+        skipElement();
+      }
+    }
+
+    private ApiEntry readApi() throws XMLStreamException {
+      String name = shared(reader.getLocalName());
+      String namespace = shared(reader.getNamespaceURI());
+      String version = shared(reader.getAttributeValue(null, "version"));
+      Map<String, String> urls = new LinkedHashMap<>(2);
+      while (nextChild()) {
+        String element = reader.getLocalName();
+        if (element.endsWith("url")) {
+          urls.put(shared(element), readText());
+        } else {
+          skipElement();
+        }
+      }
+      return new ApiEntry(name, namespace, version, urls);
+    }
+
+    private void readHeiIds(List<String> heiIds) throws XMLStreamException {
+      while (nextChild()) {
+        if ("hei-id".equals(reader.getLocalName())) {
+          heiIds.add(shared(readText()));
+        } else {
+          skipElement();
+        }
+      }
+    }
+
+    private void readInstitutions() throws XMLStreamException {
+      while (nextChild()) {
+        if ("hei".equals(reader.getLocalName())) {
+          readHei();
+        } else {
+          skipElement();
+        }
+      }
+    }
+
+    private void readHei() throws XMLStreamException {
+      String id = shared(reader.getAttributeValue(null, "id"));
+      Map<String, String> names = new LinkedHashMap<>(2);
+      List<OtherId> otherIds = new ArrayList<>(1);
+      while (nextChild()) {
+        switch (reader.getLocalName()) {
+          case "name":
+            String language = reader.getAttributeValue(XML_NAMESPACE, "lang");
+            names.put(shared(language == null ? "" : language), readText());
+            break;
+          case "other-id":
+            String type = shared(reader.getAttributeValue(null, "type"));
+            otherIds.add(new OtherId(type, readText()));
+            break;
+          default:
+            skipElement();
+        }
+      }
+      if (id != null) {
+        heis.put(normalizeHeiId(id), new HeiEntry(id, names, otherIds));
+      }
+    }
+  }
+
+  /**
+   * Reads a buffer that has no accessible array, e.g. a direct buffer.
+   */
+  private static class ByteBufferInputStream extends InputStream {
+    private final ByteBuffer buffer;
+
+    ByteBufferInputStream(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+      return this.buffer.hasRemaining() ? this.buffer.get() & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) {
+      if (length == 0) {
+        return 0;
+      }
+      if (!this.buffer.hasRemaining()) {
+        return -1;
+      }
+      int read = Math.min(length, this.buffer.remaining());
+      this.buffer.get(bytes, offset, read);
+      return read;
+    }
+
+    @Override
+    public int available() {
+      return this.buffer.remaining();
+    }
+  }
+}
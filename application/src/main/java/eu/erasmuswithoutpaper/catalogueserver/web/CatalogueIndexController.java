@@ -0,0 +1,174 @@
+package eu.erasmuswithoutpaper.catalogueserver.web;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Serves small parts of the Catalogue from its {@link CatalogueIndex}, so that clients looking for
+ * a single institution, API or credential don't have to download and parse the whole Catalogue.
+ *
+ * <p>
+ * Responses are JSON documents with their own ETags, computed from their contents, so they remain
+ * valid as long as the described part of the Catalogue doesn't change.
+ * </p>
+ */
+@RestController
+public class CatalogueIndexController<T extends CatalogueMetadata<T>> {
+  private static final CacheControl CACHE_CONTROL =
+      CacheControl.maxAge(300, TimeUnit.SECONDS).mustRevalidate();
+
+  private final CatalogueCopy<T> catalogueCopy;
+  private final ApplicationErrorController errorController;
+  private final ObjectMapper objectMapper;
+
+  /**
+   * Creates the controller.
+   *
+   * @param catalogueUpdater updater whose copy is served.
+   * @param errorController  source of 404 responses.
+   * @param objectMapper     JSON serializer.
+   */
+  @Autowired
+  public CatalogueIndexController(CatalogueUpdater<T> catalogueUpdater,
+      ApplicationErrorController errorController, ObjectMapper objectMapper) {
+    this.catalogueCopy = catalogueUpdater.getCatalogueCopy();
+    this.errorController = errorController;
+    this.objectMapper = objectMapper;
+  }
+
+  /**
+   * Describes an institution and hosts covering it, with APIs they implement.
+   *
+   * @param heiId HEI ID, compared case-insensitively.
+   * @return JSON description, 404 if the institution is not in the Catalogue.
+   */
+  @RequestMapping("/catalogue-v1/heis/{heiId:.+}")
+  public ResponseEntity<?> getHei(@PathVariable String heiId) throws JsonProcessingException {
+    CatalogueIndex index = getIndex();
+    CatalogueIndex.HeiEntry hei = index.getHei(heiId);
+    if (hei == null) {
+      return this.errorController.get404();
+    }
+
+    Map<String, Object> result = new LinkedHashMap<>();
+    result.put("id", hei.getId());
+    result.put("names", hei.getNames());
+    List<Map<String, Object>> otherIds = new ArrayList<>();
+    for (CatalogueIndex.OtherId otherId : hei.getOtherIds()) {
+      Map<String, Object> description = new LinkedHashMap<>();
+      description.put("type", otherId.getType());
+      description.put("value", otherId.getValue());
+      otherIds.add(description);
+    }
+    result.put("otherIds", otherIds);
+    List<Map<String, Object>> hosts = new ArrayList<>();
+    for (CatalogueIndex.HostEntry host : index.getHostsByHeiId(heiId)) {
+      Map<String, Object> description = new LinkedHashMap<>();
+      description.put("adminEmails", host.getAdminEmails());
+      description.put("heiIds", host.getHeiIds());
+      List<Map<String, Object>> apis = new ArrayList<>();
+      for (CatalogueIndex.ApiEntry api : host.getApis()) {
+        apis.add(describeApi(api));
+      }
+      description.put("apis", apis);
+      hosts.add(description);
+    }
+    result.put("hosts", hosts);
+    return respond(result);
+  }
+
+  /**
+   * Lists implementations of an API.
+   *
+   * @param name local name of the API element in the Catalogue, e.g. 'echo'.
+   * @return JSON list of implementations with HEIs covered by them, possibly empty, or a list of
+   *         names of implemented APIs if the name is not given.
+   */
+  @RequestMapping("/catalogue-v1/apis")
+  public ResponseEntity<?> getApis(@RequestParam(value = "name", required = false) String name)
+      throws JsonProcessingException {
+    CatalogueIndex index = getIndex();
+    if (name == null) {
+      return respond(index.getApiNames());
+    }
+    List<Map<String, Object>> result = new ArrayList<>();
+    for (CatalogueIndex.HostEntry host : index.getHostsByApiName(name)) {
+      for (CatalogueIndex.ApiEntry api : host.getApis()) {
+        if (api.getName().equals(name)) {
+          Map<String, Object> description = describeApi(api);
+          description.put("heiIds", host.getHeiIds());
+          result.add(description);
+        }
+      }
+    }
+    return respond(result);
+  }
+
+  /**
+   * Describes hosts using a client certificate, a client RSA key or a server RSA key, e.g. to
+   * authenticate a request signed with it.
+   *
+   * @param sha256 hex-encoded SHA-256 fingerprint of the certificate or key.
+   * @return JSON list of uses with HEIs covered by hosts using the credential, 404 if the
+   *         credential is not in the Catalogue.
+   */
+  @RequestMapping("/catalogue-v1/credentials/{sha256}")
+  public ResponseEntity<?> getCredential(@PathVariable String sha256)
+      throws JsonProcessingException {
+    List<CatalogueIndex.CredentialUse> uses = getIndex().getCredentialUses(sha256);
+    if (uses.isEmpty()) {
+      return this.errorController.get404();
+    }
+    List<Map<String, Object>> result = new ArrayList<>();
+    for (CatalogueIndex.CredentialUse use : uses) {
+      Map<String, Object> description = new LinkedHashMap<>();
+      description.put("type", use.getType().getName());
+      description.put("heiIds", use.getHost().getHeiIds());
+      description.put("adminEmails", use.getHost().getAdminEmails());
+      result.add(description);
+    }
+    return respond(result);
+  }
+
+  private CatalogueIndex getIndex() {
+    CatalogueAndMetadata<T> catalogueAndMetadata = this.catalogueCopy.getCatalogueAndMetadata();
+    if (catalogueAndMetadata == null || catalogueAndMetadata.getIndex() == null) {
+      throw new CatalogueEndpointController.CatalogueNotAvailableException();
+    }
+    return catalogueAndMetadata.getIndex();
+  }
+
+  private Map<String, Object> describeApi(CatalogueIndex.ApiEntry api) {
+    Map<String, Object> description = new LinkedHashMap<>();
+    description.put("name", api.getName());
+    description.put("namespace", api.getNamespace());
+    description.put("version", api.getVersion());
+    description.put("urls", api.getUrls());
+    return description;
+  }
+
+  private ResponseEntity<byte[]> respond(Object result) throws JsonProcessingException {
+    byte[] body = this.objectMapper.writeValueAsBytes(result);
+    // Conditional requests are evaluated by Spring, based on the ETag of the response.
+    return ResponseEntity.ok()
+        .contentType(MediaType.APPLICATION_JSON_UTF8)
+        .cacheControl(CACHE_CONTROL)
+        .eTag("\"" + MetadataVerifier.getHash(body) + "\"")
+        .body(body);
+  }
+}
@@ -1,9 +1,8 @@
 package eu.erasmuswithoutpaper.catalogueserver.web;
 
-import java.io.StringReader;
 import java.time.Instant;
 
-import javax.xml.bind.JAXB;
+import javax.xml.bind.JAXBException;
 
 public interface CatalogueMetadata<U extends CatalogueMetadata<U>> {
   /**
@@ -16,8 +15,8 @@ public interface CatalogueMetadata<U extends CatalogueMetadata<U>> {
   static <T extends CatalogueMetadata<T>> T fromXmlString(
       String input, Class<T> metadataClass) throws CatalogueMetadataParseException {
     try {
-      return JAXB.unmarshal(new StringReader(input), metadataClass);
-    } catch (RuntimeException e) {
+      return CatalogueMetadataCodec.forClass(metadataClass).fromXmlString(input);
+    } catch (JAXBException | RuntimeException e) {
       throw new CatalogueMetadataParseException();
     }
   }
@@ -35,6 +34,13 @@ public interface CatalogueMetadata<U extends CatalogueMetadata<U>> {
    */
   U withUpdatedLastFetchDate(Instant newLastFetchDate);
 
+  /**
+   * Creates a copy of current metadata object describing contents of another version, e.g. when
+   * rolling back to it. Source-specific data, such as etags, is kept, so that the source is
+   * considered unchanged until a new version is published there.
+   */
+  U withContentsOf(U otherVersion);
+
   class CatalogueMetadataParseException extends Exception {
   }
 
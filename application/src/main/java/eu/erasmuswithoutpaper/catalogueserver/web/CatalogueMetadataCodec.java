@@ -0,0 +1,80 @@
+package eu.erasmuswithoutpaper.catalogueserver.web;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.transform.stream.StreamSource;
+
+/**
+ * Converts {@link CatalogueMetadata} to and from XML.
+ *
+ * <p>
+ * Creating a {@link JAXBContext} requires reflection over the metadata class and is by far the most
+ * expensive part of the conversion. Static {@link javax.xml.bind.JAXB} helpers keep it only in
+ * a weakly referenced cache, so here it is created once per class and shared. Codecs are thread
+ * safe, marshallers and unmarshallers, which are not, are cheap and created for every call.
+ * </p>
+ */
+public final class CatalogueMetadataCodec<T> {
+  private static final ConcurrentMap<Class<?>, CatalogueMetadataCodec<?>> codecs =
+      new ConcurrentHashMap<>();
+
+  private final Class<T> metadataClass;
+  private final JAXBContext context;
+
+  private CatalogueMetadataCodec(Class<T> metadataClass) {
+    this.metadataClass = metadataClass;
+    try {
+      this.context = JAXBContext.newInstance(metadataClass);
+    } catch (JAXBException e) {
+      throw new IllegalArgumentException(
+          "Cannot create JAXB context for " + metadataClass.getName(), e);
+    }
+  }
+
+  /**
+   * Returns a shared codec for a metadata class.
+   *
+   * @param metadataClass class annotated with JAXB annotations.
+   * @return codec for the class.
+   */
+  @SuppressWarnings("unchecked")
+  public static <T> CatalogueMetadataCodec<T> forClass(Class<T> metadataClass) {
+    return (CatalogueMetadataCodec<T>) codecs.computeIfAbsent(metadataClass,
+        CatalogueMetadataCodec::new);
+  }
+
+  /**
+   * Converts XML representation to metadata.
+   *
+   * @param input XML representation as a string.
+   * @return parsed metadata.
+   * @throws JAXBException if XML cannot be converted.
+   */
+  public T fromXmlString(String input) throws JAXBException {
+    return this.context.createUnmarshaller()
+        .unmarshal(new StreamSource(new StringReader(input)), this.metadataClass)
+        .getValue();
+  }
+
+  /**
+   * Converts metadata to its XML representation, formatted in the same way as by
+   * {@link javax.xml.bind.JAXB#marshal(Object, java.io.Writer)}.
+   *
+   * @param metadata metadata to convert.
+   * @return XML representation as a string.
+   * @throws JAXBException if metadata cannot be converted.
+   */
+  public String toXmlString(T metadata) throws JAXBException {
+    Marshaller marshaller = this.context.createMarshaller();
+    marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
+    StringWriter writer = new StringWriter();
+    marshaller.marshal(metadata, writer);
+    return writer.toString();
+  }
+}
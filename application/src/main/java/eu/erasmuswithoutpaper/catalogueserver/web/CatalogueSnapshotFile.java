@@ -0,0 +1,229 @@
+package eu.erasmuswithoutpaper.catalogueserver.web;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Single file containing everything needed to serve the Catalogue: its metadata, its contents and
+ * contents in every {@link CatalogueEncoding}.
+ *
+ * <p>
+ * The file is written to a temporary file, flushed to disk and then renamed in place of the
+ * previous snapshot, so after a crash there is always a complete snapshot, either the previous or
+ * the new one. It is validated with a CRC32 checksum when read, the contents are not hashed and
+ * encoded again, so a node that has a snapshot starts serving right after it is read.
+ * </p>
+ *
+ * <p>
+ * Layout of the file, all numbers are big-endian:
+ * </p>
+ * <pre>
+ * int    magic number
+ * int    format version
+ * int    metadata length, followed by metadata XML in UTF-8
+ * int    number of encodings, followed by that many sections:
+ *          UTF    content coding, as written by DataOutputStream.writeUTF
+ *          int    encoded contents length, followed by encoded contents
+ * long   CRC32 of everything above
+ * </pre>
+ */
+final class CatalogueSnapshotFile {
+  private static final Logger logger = LoggerFactory.getLogger(CatalogueSnapshotFile.class);
+  private static final int MAGIC = 0x45575043;
+  private static final int FORMAT_VERSION = 1;
+  private static final int CHECKSUM_LENGTH = 8;
+  private static final int WRITE_CHUNK_LENGTH = 64 * 1024;
+
+  private CatalogueSnapshotFile() {
+  }
+
+  /**
+   * Writes a snapshot atomically, it is on disk when this method returns.
+   *
+   * @param directory directory where the snapshot resides.
+   * @param fileName  name of the snapshot file.
+   * @param snapshot  snapshot to write.
+   * @throws FileUtils.WriteFileException if the snapshot cannot be written.
+   */
+  static void write(String directory, String fileName, CatalogueAndMetadata<?> snapshot)
+      throws FileUtils.WriteFileException {
+    byte[] metadata;
+    try {
+      metadata = snapshot.getCatalogueMetadata().toXmlString().getBytes(StandardCharsets.UTF_8);
+    } catch (CatalogueMetadata.CatalogueMetadataConversionException e) {
+      logger.error("Cannot convert catalogue metadata to XML.", e);
+      throw new FileUtils.WriteFileException();
+    }
+
+    Path temporaryFile = FileUtils.createTemporaryFile(directory, fileName);
+    try {
+      try (FileOutputStream fileStream = new FileOutputStream(temporaryFile.toFile())) {
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(fileStream));
+        CRC32 checksum = new CRC32();
+        DataOutputStream checkedOutput =
+            new DataOutputStream(new CheckedOutputStream(output, checksum));
+        writeSections(checkedOutput, metadata, snapshot);
+        checkedOutput.flush();
+        output.writeLong(checksum.getValue());
+        output.flush();
+        fileStream.getChannel().force(true);
+      }
+      FileUtils.moveAtomically(temporaryFile, directory, fileName);
+    } catch (IOException e) {
+      logger.error("Cannot write catalogue snapshot to {}.", temporaryFile, e);
+      throw new FileUtils.WriteFileException();
+    } finally {
+      FileUtils.deleteFile(temporaryFile);
+    }
+    FileUtils.syncDirectory(directory);
+  }
+
+  private static void writeSections(DataOutputStream output, byte[] metadata,
+      CatalogueAndMetadata<?> snapshot) throws IOException {
+    output.writeInt(MAGIC);
+    output.writeInt(FORMAT_VERSION);
+    output.writeInt(metadata.length);
+    output.write(metadata);
+    CatalogueEncoding[] encodings = CatalogueEncoding.values();
+    output.writeInt(encodings.length);
+    byte[] chunk = new byte[WRITE_CHUNK_LENGTH];
+    for (CatalogueEncoding encoding : encodings) {
+      // Contents may be kept in a direct buffer, they are copied in chunks.
+      ByteBuffer content = snapshot.getEncodedCatalogue(encoding).getContent();
+      output.writeUTF(encoding.getContentCoding());
+      output.writeInt(content.remaining());
+      while (content.hasRemaining()) {
+        int length = Math.min(chunk.length, content.remaining());
+        content.get(chunk, 0, length);
+        output.write(chunk, 0, length);
+      }
+    }
+  }
+
+  /**
+   * Reads and validates a snapshot.
+   *
+   * @param directory     directory where the snapshot resides.
+   * @param fileName      name of the snapshot file.
+   * @param metadataClass class of stored metadata.
+   * @param generation    generation of the created {@link CatalogueAndMetadata}.
+   * @param storage       where in memory the encoded contents should be kept.
+   * @return snapshot read from the file.
+   * @throws FileUtils.ReadFileException if the file is missing, malformed or its checksum doesn't
+   *                                     match.
+   */
+  static <T extends CatalogueMetadata<T>> CatalogueAndMetadata<T> read(String directory,
+      String fileName, Class<T> metadataClass, long generation, CatalogueStorage storage)
+      throws FileUtils.ReadFileException {
+    Path path = Paths.get(directory, fileName);
+    byte[] bytes;
+    try {
+      bytes = Files.readAllBytes(path);
+    } catch (NoSuchFileException e) {
+      logger.info("Catalogue snapshot doesn't exist: {}", path);
+      throw new FileUtils.ReadFileException();
+    } catch (IOException e) {
+      logger.error("Cannot read catalogue snapshot.", e);
+      throw new FileUtils.ReadFileException();
+    }
+
+    try {
+      if (bytes.length < CHECKSUM_LENGTH) {
+        throw new SnapshotFormatException("file is truncated");
+      }
+      ByteBuffer buffer = ByteBuffer.wrap(bytes);
+      int checkedLength = bytes.length - CHECKSUM_LENGTH;
+      CRC32 checksum = new CRC32();
+      checksum.update(bytes, 0, checkedLength);
+      if (checksum.getValue() != buffer.getLong(checkedLength)) {
+        throw new SnapshotFormatException("checksum doesn't match");
+      }
+      buffer.limit(checkedLength);
+      return readSections(buffer, metadataClass, generation, storage);
+    } catch (SnapshotFormatException | BufferUnderflowException
+        | IllegalArgumentException e) {
+      logger.error("Catalogue snapshot read from {} is invalid and will be ignored.", path, e);
+      throw new FileUtils.ReadFileException();
+    }
+  }
+
+  private static <T extends CatalogueMetadata<T>> CatalogueAndMetadata<T> readSections(
+      ByteBuffer buffer, Class<T> metadataClass, long generation, CatalogueStorage storage)
+      throws SnapshotFormatException {
+    if (buffer.getInt() != MAGIC) {
+      throw new SnapshotFormatException("not a catalogue snapshot");
+    }
+    int version = buffer.getInt();
+    if (version != FORMAT_VERSION) {
+      throw new SnapshotFormatException("unsupported format version " + version);
+    }
+
+    T metadata;
+    try {
+      metadata = CatalogueMetadata.fromXmlString(
+          new String(readBytes(buffer), StandardCharsets.UTF_8), metadataClass);
+    } catch (CatalogueMetadata.CatalogueMetadataParseException e) {
+      throw new SnapshotFormatException("metadata is malformed");
+    }
+
+    Map<CatalogueEncoding, byte[]> encodedContents = new EnumMap<>(CatalogueEncoding.class);
+    int encodingsCount = buffer.getInt();
+    for (int i = 0; i < encodingsCount; i++) {
+      String contentCoding = readUtf(buffer);
+      byte[] content = readBytes(buffer);
+      for (CatalogueEncoding encoding : CatalogueEncoding.values()) {
+        if (encoding.getContentCoding().equals(contentCoding)) {
+          encodedContents.put(encoding, content);
+        }
+      }
+    }
+    if (buffer.hasRemaining()) {
+      throw new SnapshotFormatException("unexpected data after the last section");
+    }
+    if (!encodedContents.containsKey(CatalogueEncoding.IDENTITY)) {
+      throw new SnapshotFormatException("contents are missing");
+    }
+    return CatalogueAndMetadata.fromEncodedContents(generation, metadata, encodedContents,
+        storage);
+  }
+
+  private static byte[] readBytes(ByteBuffer buffer) throws SnapshotFormatException {
+    int length = buffer.getInt();
+    if (length < 0 || length > buffer.remaining()) {
+      throw new SnapshotFormatException("invalid section length " + length);
+    }
+    byte[] bytes = new byte[length];
+    buffer.get(bytes);
+    return bytes;
+  }
+
+  private static String readUtf(ByteBuffer buffer) {
+    int length = buffer.getShort() & 0xFFFF;
+    byte[] bytes = new byte[length];
+    buffer.get(bytes);
+    // Content codings are ASCII tokens, modified UTF-8 is identical to UTF-8 for them.
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static class SnapshotFormatException extends Exception {
+    SnapshotFormatException(String message) {
+      super(message);
+    }
+  }
+}
@@ -0,0 +1,37 @@
+package eu.erasmuswithoutpaper.catalogueserver.web;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Describes where encoded Catalogue contents are kept in memory.
+ */
+public enum CatalogueStorage {
+  /**
+   * Contents are kept in byte arrays on the Java heap. Responses are written from the arrays.
+   */
+  HEAP,
+
+  /**
+   * Contents are kept in direct buffers, outside of the Java heap. Multi-megabyte Catalogue
+   * versions don't fill the old generation and are not copied by the garbage collector.
+   * Responses are written from the buffers into the output buffer of the servlet container.
+   */
+  OFF_HEAP;
+
+  /**
+   * Stores encoded contents according to this storage type.
+   *
+   * @param content encoded contents, the array is not used after this call in OFF_HEAP mode.
+   * @return buffer with the contents, it must not be modified. Heap buffers give access to their
+   *         array, so that it can be written without copying.
+   */
+  ByteBuffer store(byte[] content) {
+    if (this == HEAP) {
+      return ByteBuffer.wrap(content);
+    }
+    ByteBuffer buffer = ByteBuffer.allocateDirect(content.length);
+    buffer.put(content);
+    buffer.flip();
+    return buffer.asReadOnlyBuffer();
+  }
+}
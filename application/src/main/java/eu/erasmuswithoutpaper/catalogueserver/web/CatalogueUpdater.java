@@ -2,7 +2,15 @@ package eu.erasmuswithoutpaper.catalogueserver.web;
 
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -10,28 +18,132 @@ public class CatalogueUpdater<T extends CatalogueMetadata<T>> {
   private static final Logger logger = LoggerFactory.getLogger(CatalogueUpdater.class);
   private final CatalogueCopy<T> catalogueCopy;
   private final CatalogueGetter<T> catalogueGetter;
-  private Instant nextAllowedFetchInstant;
+  private final PollingSchedule pollingSchedule;
+  private final MeterRegistry meterRegistry;
+  private final Counter equivalentVersions;
+  private final AtomicBoolean updateRequested = new AtomicBoolean();
+  private final ReentrantLock updateLock = new ReentrantLock();
 
   /**
    * Used to fetch new catalogue and update cached content.
+   *
+   * @param catalogueCopy   local copy of the catalogue.
+   * @param catalogueGetter source of new versions of the catalogue.
+   * @param pollingSchedule decides when the catalogue is fetched.
+   * @param meterRegistry   registry of polling and upstream metrics.
    */
-  public CatalogueUpdater(CatalogueCopy<T> catalogueCopy, CatalogueGetter<T> catalogueGetter) {
+  public CatalogueUpdater(CatalogueCopy<T> catalogueCopy, CatalogueGetter<T> catalogueGetter,
+      PollingSchedule pollingSchedule, MeterRegistry meterRegistry) {
     this.catalogueCopy = catalogueCopy;
     this.catalogueGetter = catalogueGetter;
-    this.nextAllowedFetchInstant = Instant.now();
+    this.pollingSchedule = pollingSchedule;
+    this.meterRegistry = meterRegistry;
+
+    Gauge.builder("catalogue.poll.interval", pollingSchedule,
+        schedule -> schedule.getCurrentDelay().toMillis() / 1000.0)
+        .description("Delay between the last and the next fetch of the catalogue.")
+        .baseUnit("seconds")
+        .register(meterRegistry);
+    Gauge.builder("catalogue.upstream.rate-limit.remaining", pollingSchedule,
+        schedule -> toGaugeValue(schedule.getRateLimit().remaining))
+        .description("Upstream API calls remaining until the budget is reset.")
+        .register(meterRegistry);
+    Gauge.builder("catalogue.upstream.rate-limit.reset", pollingSchedule,
+        schedule -> toGaugeValue(schedule.getRateLimit().reset))
+        .description("Epoch second when the upstream API call budget is reset.")
+        .baseUnit("seconds")
+        .register(meterRegistry);
+    Gauge.builder("catalogue.last-fetch.age", catalogueCopy,
+        copy -> getSecondsSinceLastFetch(copy.getCatalogueAndMetadata()))
+        .description("Time since the last successful fetch of the catalogue, changed or not.")
+        .baseUnit("seconds")
+        .register(meterRegistry);
+    Gauge.builder("catalogue.generation", catalogueCopy,
+        copy -> getGeneration(copy.getCatalogueAndMetadata()))
+        .description("Generation of the served snapshot, incremented with each published version.")
+        .register(meterRegistry);
+    for (CatalogueEncoding encoding : CatalogueEncoding.values()) {
+      Gauge.builder("catalogue.size", catalogueCopy,
+          copy -> getSize(copy.getCatalogueAndMetadata(), encoding))
+          .description("Size of the served catalogue in the encoding.")
+          .tag("encoding", encoding.getContentCoding())
+          .baseUnit("bytes")
+          .register(meterRegistry);
+    }
+    this.equivalentVersions = Counter.builder("catalogue.upstream.equivalent")
+        .description("Fetched versions that differed from the served one only in formatting and "
+            + "were not published, sparing clients full downloads.")
+        .register(meterRegistry);
+  }
+
+  private static double getSecondsSinceLastFetch(CatalogueAndMetadata<?> snapshot) {
+    if (snapshot == null || snapshot.getCatalogueMetadata() == null) {
+      return Double.NaN;
+    }
+    Instant lastFetch = snapshot.getCatalogueMetadata().getLastFetchDate();
+    return (System.currentTimeMillis() - lastFetch.toEpochMilli()) / 1000.0;
+  }
+
+  private static double getGeneration(CatalogueAndMetadata<?> snapshot) {
+    return snapshot == null ? Double.NaN : snapshot.getGeneration();
+  }
+
+  private static double getSize(CatalogueAndMetadata<?> snapshot, CatalogueEncoding encoding) {
+    EncodedCatalogue encoded = snapshot == null ? null : snapshot.getEncodedCatalogue(encoding);
+    return encoded == null ? Double.NaN : encoded.getContentLength();
+  }
+
+  private static double toGaugeValue(Integer value) {
+    return value == null ? Double.NaN : value;
+  }
+
+  private static double toGaugeValue(Instant value) {
+    return value == null ? Double.NaN : value.getEpochSecond();
   }
 
   /**
    * Fetches new Catalogue and updates cached contents.
+   *
+   * <p>
+   * Concurrent calls (scheduler, webhook, etc.) are coalesced: only one fetch is in flight at a
+   * time. A call made while a fetch is in progress doesn't wait for it, instead it makes the
+   * fetching thread perform exactly one more fetch after the current one, as the current one might
+   * have started before the change that the caller was notified about. Any number of such calls is
+   * served by that single additional fetch.
+   * </p>
    */
   public void updateCatalogue() {
+    this.updateRequested.set(true);
+    while (this.updateRequested.get() && this.updateLock.tryLock()) {
+      try {
+        if (this.updateRequested.getAndSet(false)) {
+          fetchAndUpdateCatalogue();
+        }
+      } finally {
+        this.updateLock.unlock();
+      }
+    }
+  }
+
+  /**
+   * Called when upstream has notified us that the Catalogue has changed, before
+   * {@link #updateCatalogue()} is called. Fetches are made more frequently for a while, in case
+   * upstream serves the previous version for some time after the notification.
+   */
+  public void onChangeAnnounced() {
+    this.pollingSchedule.onChangeAnnounced();
+  }
+
+  private void fetchAndUpdateCatalogue() {
     logger.info("Fetching new Catalogue.");
 
-    if (Instant.now().isBefore(this.nextAllowedFetchInstant)) {
+    Instant now = Instant.now();
+    if (!this.pollingSchedule.isFetchAllowed(now)) {
       logger.info("Catalogue not fetched - we have been rate limited until {}",
-          this.nextAllowedFetchInstant);
+          this.pollingSchedule.getNextFetchInstant());
       return;
     }
+    this.pollingSchedule.onFetchStarted(now);
 
     CatalogueAndMetadata<T> catalogueAndMetadata = this.catalogueCopy.getCatalogueAndMetadata();
     T catalogueMetadata = null;
@@ -39,56 +151,115 @@ public class CatalogueUpdater<T extends CatalogueMetadata<T>> {
       catalogueMetadata = catalogueAndMetadata.getCatalogueMetadata();
     }
 
+    long fetchStart = System.nanoTime();
+    CatalogueGetterResponse<T> response;
     try {
-      CatalogueGetterResponse<T> response = this.catalogueGetter.fetchCatalogue(catalogueMetadata);
-      switch (response.status) {
-        case OK: {
-          onOkResponse(response);
-          break;
-        }
-        case NOT_MODIFIED: {
-          onNotModifiedResponse();
-          break;
-        }
-        case RATE_LIMITED: {
-          onRateLimited(response);
-          break;
-        }
-        case FORBIDDEN: {
-          onForbidden();
-          break;
-        }
-        default:
-          throw new CatalogueGetter.CatalogueFetchException("Unknown response status.");
-      }
+      response = this.catalogueGetter.fetchCatalogue(catalogueMetadata);
     } catch (CatalogueGetter.CatalogueFetchException e) {
-      logger.error("Cannot fetch catalogue.", e);
+      recordFetch("error", fetchStart);
+      this.pollingSchedule.onFailure(Instant.now());
+      logger.error("Cannot fetch catalogue. Next fetch scheduled at {}.",
+          this.pollingSchedule.getNextFetchInstant(), e);
+      return;
+    }
+    recordFetch(response.status.name().toLowerCase(Locale.ROOT), fetchStart);
+    this.pollingSchedule.onRateLimit(response.rateLimit);
+
+    switch (response.status) {
+      case OK: {
+        onOkResponse(response);
+        break;
+      }
+      case NOT_MODIFIED: {
+        onNotModifiedResponse();
+        break;
+      }
+      case RATE_LIMITED: {
+        onRateLimited(response);
+        break;
+      }
+      case FORBIDDEN: {
+        onForbidden();
+        break;
+      }
+      default:
+        this.pollingSchedule.onFailure(Instant.now());
+        logger.error("Cannot fetch catalogue. Unknown response status {}.", response.status);
     }
+    logger.info("Next Catalogue fetch scheduled at {}.",
+        this.pollingSchedule.getNextFetchInstant());
+  }
+
+  private void recordFetch(String outcome, long fetchStart) {
+    Timer.builder("catalogue.upstream.fetch")
+        .description("Time spent fetching the catalogue from upstream.")
+        .tag("outcome", outcome)
+        .register(this.meterRegistry)
+        .record(System.nanoTime() - fetchStart, TimeUnit.NANOSECONDS);
+  }
+
+  private void recordStore(String result, long storeStart) {
+    Timer.builder("catalogue.copy.store")
+        .description("Time spent updating the local copy with a fetched catalogue, including "
+            + "writing its files.")
+        .tag("result", result)
+        .register(this.meterRegistry)
+        .record(System.nanoTime() - storeStart, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * @return instant when the catalogue should be fetched next.
+   */
+  public Instant getNextFetchInstant() {
+    return this.pollingSchedule.getNextFetchInstant();
   }
 
   private void onOkResponse(CatalogueGetterResponse<T> response) {
-    this.catalogueCopy.onCatalogueFetchedWithChanges(response);
+    long storeStart = System.nanoTime();
+    boolean published = this.catalogueCopy.onCatalogueFetchedWithChanges(response);
+    recordStore(published ? "published" : "equivalent", storeStart);
+    if (!published) {
+      // Clients see no change, so polling slows down as if the catalogue was not modified.
+      this.pollingSchedule.onNotModified(Instant.now());
+      this.equivalentVersions.increment();
+      logger.info("Catalogue fetched - only formatting changed, current version is kept.");
+      return;
+    }
+    this.pollingSchedule.onChanged(Instant.now());
     logger.info("Catalogue fetched - changed.");
   }
 
   private void onNotModifiedResponse() {
+    long storeStart = System.nanoTime();
     this.catalogueCopy.onCatalogueFetchedWithoutChanges();
+    recordStore("unchanged", storeStart);
+    this.pollingSchedule.onNotModified(Instant.now());
     logger.info("Catalogue fetched - no changes.");
   }
 
   private void onRateLimited(CatalogueGetterResponse<T> response) {
     Instant retryAfter = response.retryAfter;
     logger.info("Catalogue not fetched - rate limited until {}.", retryAfter);
-    this.nextAllowedFetchInstant = retryAfter;
+    this.pollingSchedule.delayUntil(Instant.now(), retryAfter);
   }
 
   private void onForbidden() {
     Instant retryAfter = Instant.now().plus(1, ChronoUnit.HOURS);
     logger.info("Catalogue not fetched - forbidden. Delaying next fetch until {}.", retryAfter);
-    this.nextAllowedFetchInstant = retryAfter;
+    this.pollingSchedule.delayUntil(Instant.now(), retryAfter);
   }
 
   public CatalogueCopy<T> getCatalogueCopy() {
     return this.catalogueCopy;
   }
+
+  /**
+   * Registry of metrics of this catalogue, components serving the catalogue record their metrics
+   * in it too.
+   *
+   * @return the registry passed to the constructor.
+   */
+  public MeterRegistry getMeterRegistry() {
+    return this.meterRegistry;
+  }
 }
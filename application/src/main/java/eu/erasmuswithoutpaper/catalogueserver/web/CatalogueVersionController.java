@@ -0,0 +1,100 @@
+package eu.erasmuswithoutpaper.catalogueserver.web;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.util.zip.GZIPInputStream;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.ServletWebRequest;
+
+/**
+ * Serves versions of the Catalogue from {@link CatalogueVersionStore} under URLs containing their
+ * hashes. Contents behind such URL never change, so they can be cached without revalidation.
+ */
+@RestController
+public class CatalogueVersionController {
+  private static final String IMMUTABLE_CACHE_CONTROL = "public, max-age=31536000, immutable";
+
+  private final CatalogueVersionStore versionStore;
+  private final ApplicationErrorController errorController;
+
+  @Autowired
+  public CatalogueVersionController(CatalogueVersionStore versionStore,
+      ApplicationErrorController errorController) {
+    this.versionStore = versionStore;
+    this.errorController = errorController;
+  }
+
+  /**
+   * Serves a stored version of the Catalogue. Versions are stored gzip-compressed, they are sent
+   * as they are to clients accepting gzip and decompressed while sending to the other ones.
+   *
+   * @param versionId id of the version, see {@link CatalogueVersionStore#getVersionId(String)}.
+   */
+  @RequestMapping("/catalogue-v1/{versionId}.xml")
+  public void getVersion(@PathVariable String versionId, ServletWebRequest webRequest,
+      HttpServletResponse response) throws IOException {
+    CatalogueVersionStore.Version version = this.versionStore.getVersion(versionId);
+    if (version == null) {
+      sendNotFound(response);
+      return;
+    }
+    InputStream content;
+    try {
+      content = Files.newInputStream(this.versionStore.getContentFile(version));
+    } catch (NoSuchFileException e) {
+      // The version was evicted in the meantime.
+      sendNotFound(response);
+      return;
+    }
+
+    try (InputStream compressed = content) {
+      CatalogueEncoding encoding =
+          CatalogueEncoding.select(webRequest.getHeader(HttpHeaders.ACCEPT_ENCODING));
+      String etag = "\"" + encoding.getEtag(version.getHash()) + "\"";
+      response.setHeader(HttpHeaders.CACHE_CONTROL, IMMUTABLE_CACHE_CONTROL);
+      response.setContentType(MediaType.APPLICATION_XML_VALUE);
+      response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+      response.setHeader(HttpHeaders.ETAG, etag);
+      if (webRequest.checkNotModified(etag)) {
+        return;
+      }
+
+      InputStream body;
+      if (encoding == CatalogueEncoding.GZIP) {
+        response.setHeader(HttpHeaders.CONTENT_ENCODING, encoding.getContentCoding());
+        response.setContentLengthLong(version.getCompressedLength());
+        body = compressed;
+      } else {
+        if (version.getLength() >= 0) {
+          response.setContentLength(version.getLength());
+        }
+        body = new GZIPInputStream(compressed);
+      }
+      if (!HttpMethod.HEAD.matches(webRequest.getRequest().getMethod())) {
+        StreamUtils.copy(body, response.getOutputStream());
+      }
+    }
+  }
+
+  private void sendNotFound(HttpServletResponse response) throws IOException {
+    ResponseEntity<String> notFound = this.errorController.get404();
+    response.setStatus(notFound.getStatusCodeValue());
+    response.setContentType(MediaType.APPLICATION_XML_VALUE);
+    response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+    response.getWriter().write(notFound.getBody());
+  }
+}
@@ -0,0 +1,326 @@
+package eu.erasmuswithoutpaper.catalogueserver.web;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Content-addressed store of recent versions of the Catalogue.
+ *
+ * <p>
+ * Every version is identified by its SHA-256 hash, as computed by {@link MetadataVerifier}, encoded
+ * with URL-safe Base64 alphabet, so that it can be used in URLs and file names. Versions are kept
+ * gzip-compressed, together with their metadata, and never change, so they can be served with
+ * immutable URLs and used to roll back to a known-good version.
+ * </p>
+ *
+ * <p>
+ * An index file lists stored versions, oldest first, so the store is loaded at startup without
+ * reading the versions. If it is missing, it is rebuilt from the directory listing. The oldest
+ * versions are evicted when there are more versions than allowed or their compressed contents
+ * take more space than allowed, the newest version is always kept.
+ * </p>
+ */
+public class CatalogueVersionStore {
+  private static final Logger logger = LoggerFactory.getLogger(CatalogueVersionStore.class);
+  private static final String INDEX_FILE = "index";
+  private static final String CONTENT_SUFFIX = ".xml.gz";
+  private static final String METADATA_SUFFIX = ".metadata.xml";
+
+  private final String directory;
+  private final int maxVersions;
+  private final long maxBytes;
+  // Versions by their ids, the oldest first.
+  private final Map<String, Version> versions = new LinkedHashMap<>();
+  private long totalBytes;
+
+  /**
+   * Opens a store, the directory is created if it doesn't exist.
+   *
+   * @param directory   directory of the store.
+   * @param maxVersions maximal number of stored versions.
+   * @param maxBytes    maximal total size of compressed contents of stored versions.
+   */
+  public CatalogueVersionStore(String directory, int maxVersions, long maxBytes) {
+    this.directory = directory;
+    this.maxVersions = maxVersions;
+    this.maxBytes = maxBytes;
+    try {
+      Files.createDirectories(Paths.get(directory));
+    } catch (IOException e) {
+      logger.error("Cannot create catalogue version store directory {}.", directory, e);
+    }
+    if (!readIndex()) {
+      rebuildIndex();
+    }
+    logger.info("Catalogue version store contains {} versions, {} bytes.", this.versions.size(),
+        this.totalBytes);
+  }
+
+  /**
+   * Converts a hash of the Catalogue to the id of its version.
+   *
+   * @param hash Base64 encoded hash or an id. Spaces are taken for '+', which is decoded as a
+   *             space when a hash is sent unencoded in a query string.
+   * @return the hash in URL-safe Base64 alphabet, without padding.
+   */
+  public static String getVersionId(String hash) {
+    String id = hash.replace('+', '-').replace(' ', '-').replace('/', '_');
+    int end = id.length();
+    while (end > 0 && id.charAt(end - 1) == '=') {
+      end--;
+    }
+    return id.substring(0, end);
+  }
+
+  private static String getHash(String versionId) {
+    StringBuilder hash = new StringBuilder(versionId.replace('-', '+').replace('_', '/'));
+    while (hash.length() % 4 != 0) {
+      hash.append('=');
+    }
+    return hash.toString();
+  }
+
+  /**
+   * Stores a version of the Catalogue, if it isn't stored yet, and evicts the oldest versions if
+   * limits are exceeded.
+   *
+   * @param snapshot version to store.
+   * @throws FileUtils.WriteFileException if the version cannot be stored.
+   */
+  public synchronized void store(CatalogueAndMetadata<?> snapshot)
+      throws FileUtils.WriteFileException {
+    String hash = snapshot.getCatalogueMetadata().getHash();
+    String id = getVersionId(hash);
+    Version version = this.versions.remove(id);
+    if (version == null) {
+      version = writeVersion(id, hash, snapshot);
+    }
+    // Newly stored and restored versions are the newest ones.
+    this.versions.put(id, version);
+    this.totalBytes = this.versions.values().stream().mapToLong(Version::getCompressedLength).sum();
+    evict();
+    writeIndex();
+  }
+
+  private Version writeVersion(String id, String hash, CatalogueAndMetadata<?> snapshot)
+      throws FileUtils.WriteFileException {
+    String metadata;
+    try {
+      metadata = snapshot.getCatalogueMetadata().toXmlString();
+    } catch (CatalogueMetadata.CatalogueMetadataConversionException e) {
+      logger.error("Cannot convert catalogue metadata to XML.", e);
+      throw new FileUtils.WriteFileException();
+    }
+    ByteBuffer content = snapshot.getEncodedCatalogue(CatalogueEncoding.GZIP).getContent();
+    byte[] compressed = new byte[content.remaining()];
+    content.get(compressed);
+
+    // Metadata is written first, a version is available only when its contents are.
+    FileUtils.writeToFileAtomically(this.directory, id + METADATA_SUFFIX,
+        metadata.getBytes(StandardCharsets.UTF_8));
+    FileUtils.writeToFileAtomically(this.directory, id + CONTENT_SUFFIX, compressed);
+    logger.info("Stored catalogue version {}.", id);
+    return new Version(id, hash,
+        snapshot.getEncodedCatalogue(CatalogueEncoding.IDENTITY).getContentLength(),
+        compressed.length, Instant.now());
+  }
+
+  private void evict() {
+    Iterator<Version> oldest = this.versions.values().iterator();
+    while (this.versions.size() > 1
+        && (this.versions.size() > this.maxVersions || this.totalBytes > this.maxBytes)) {
+      Version version = oldest.next();
+      oldest.remove();
+      this.totalBytes -= version.getCompressedLength();
+      FileUtils.deleteFile(getContentFile(version));
+      FileUtils.deleteFile(Paths.get(this.directory, version.getId() + METADATA_SUFFIX));
+      logger.info("Evicted catalogue version {}.", version.getId());
+    }
+  }
+
+  /**
+   * Finds a stored version.
+   *
+   * @param id id of the version.
+   * @return the version or null if it is not stored.
+   */
+  public synchronized Version getVersion(String id) {
+    return this.versions.get(id);
+  }
+
+  /**
+   * Lists stored versions.
+   *
+   * @return stored versions, the newest first.
+   */
+  public synchronized List<Version> getVersions() {
+    List<Version> result = new ArrayList<>(this.versions.values());
+    Collections.reverse(result);
+    return result;
+  }
+
+  /**
+   * Returns the path of the gzip-compressed contents of a version. The file may be removed at any
+   * time, when the version is evicted.
+   *
+   * @param version stored version.
+   * @return path of the file.
+   */
+  public Path getContentFile(Version version) {
+    return Paths.get(this.directory, version.getId() + CONTENT_SUFFIX);
+  }
+
+  /**
+   * Reads the gzip-compressed contents of a version.
+   *
+   * @param version stored version.
+   * @return compressed contents.
+   * @throws FileUtils.ReadFileException if the version was evicted or cannot be read.
+   */
+  public byte[] readContent(Version version) throws FileUtils.ReadFileException {
+    return FileUtils.readFileBytes(this.directory, version.getId() + CONTENT_SUFFIX);
+  }
+
+  /**
+   * Reads metadata of a version.
+   *
+   * @param version stored version.
+   * @return metadata as XML.
+   * @throws FileUtils.ReadFileException if the version was evicted or cannot be read.
+   */
+  public String readMetadata(Version version) throws FileUtils.ReadFileException {
+    return FileUtils.readFile(this.directory, version.getId() + METADATA_SUFFIX);
+  }
+
+  private boolean readIndex() {
+    List<String> lines;
+    try {
+      lines = Files.readAllLines(Paths.get(this.directory, INDEX_FILE), StandardCharsets.UTF_8);
+    } catch (NoSuchFileException e) {
+      return false;
+    } catch (IOException e) {
+      logger.error("Cannot read catalogue version index, it will be rebuilt.", e);
+      return false;
+    }
+    try {
+      for (String line : lines) {
+        if (line.isEmpty()) {
+          continue;
+        }
+        String[] fields = line.split("\t");
+        Version version = new Version(fields[0], fields[1], Integer.parseInt(fields[2]),
+            Long.parseLong(fields[3]), Instant.ofEpochMilli(Long.parseLong(fields[4])));
+        this.versions.put(version.getId(), version);
+        this.totalBytes += version.getCompressedLength();
+      }
+    } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+      logger.error("Catalogue version index is malformed, it will be rebuilt.", e);
+      this.versions.clear();
+      this.totalBytes = 0;
+      return false;
+    }
+    return true;
+  }
+
+  private void rebuildIndex() {
+    List<Path> contentFiles = new ArrayList<>();
+    try (DirectoryStream<Path> stream =
+        Files.newDirectoryStream(Paths.get(this.directory), "*" + CONTENT_SUFFIX)) {
+      for (Path path : stream) {
+        contentFiles.add(path);
+      }
+    } catch (IOException e) {
+      logger.error("Cannot list catalogue versions.", e);
+      return;
+    }
+    contentFiles.sort(Comparator.comparing(path -> path.toFile().lastModified()));
+    for (Path path : contentFiles) {
+      File file = path.toFile();
+      String fileName = file.getName();
+      String id = fileName.substring(0, fileName.length() - CONTENT_SUFFIX.length());
+      // Uncompressed length is unknown, it is only used in listings.
+      Version version = new Version(id, getHash(id), -1, file.length(),
+          Instant.ofEpochMilli(file.lastModified()));
+      this.versions.put(id, version);
+      this.totalBytes += version.getCompressedLength();
+    }
+    try {
+      writeIndex();
+    } catch (FileUtils.WriteFileException e) {
+      logger.error("Cannot write catalogue version index.", e);
+    }
+  }
+
+  private void writeIndex() throws FileUtils.WriteFileException {
+    StringBuilder index = new StringBuilder();
+    for (Version version : this.versions.values()) {
+      index.append(version.getId()).append('\t')
+          .append(version.getHash()).append('\t')
+          .append(version.getLength()).append('\t')
+          .append(version.getCompressedLength()).append('\t')
+          .append(version.getStoredAt().toEpochMilli()).append('\n');
+    }
+    FileUtils.writeToFileAtomically(this.directory, INDEX_FILE,
+        index.toString().getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Describes a stored version of the Catalogue.
+   */
+  public static class Version {
+    private final String id;
+    private final String hash;
+    private final int length;
+    private final long compressedLength;
+    private final Instant storedAt;
+
+    Version(String id, String hash, int length, long compressedLength, Instant storedAt) {
+      this.id = id;
+      this.hash = hash;
+      this.length = length;
+      this.compressedLength = compressedLength;
+      this.storedAt = storedAt;
+    }
+
+    public String getId() {
+      return id;
+    }
+
+    public String getHash() {
+      return hash;
+    }
+
+    /**
+     * @return length of uncompressed contents or -1 if it is unknown.
+     */
+    public int getLength() {
+      return length;
+    }
+
+    public long getCompressedLength() {
+      return compressedLength;
+    }
+
+    public Instant getStoredAt() {
+      return storedAt;
+    }
+  }
+}
@@ -0,0 +1,77 @@
+package eu.erasmuswithoutpaper.catalogueserver.web;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.boot.actuate.endpoint.mvc.AbstractMvcEndpoint;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+/**
+ * Management endpoint listing versions from {@link CatalogueVersionStore} and rolling back to
+ * them. It is available on the management port only, like other actuator endpoints.
+ */
+public class CatalogueVersionsEndpoint extends AbstractMvcEndpoint {
+  private final CatalogueCopy<?> catalogueCopy;
+  private final CatalogueVersionStore versionStore;
+
+  /**
+   * Creates the endpoint at '/catalogue-versions'.
+   *
+   * @param catalogueCopy copy to which versions are rolled back.
+   * @param versionStore  store of versions.
+   */
+  public CatalogueVersionsEndpoint(CatalogueCopy<?> catalogueCopy,
+      CatalogueVersionStore versionStore) {
+    super("/catalogue-versions", true);
+    this.catalogueCopy = catalogueCopy;
+    this.versionStore = versionStore;
+  }
+
+  /**
+   * Lists stored versions.
+   *
+   * @return versions, the newest first, with the current one marked.
+   */
+  @RequestMapping(method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE)
+  @ResponseBody
+  public List<Map<String, Object>> getVersions() {
+    CatalogueAndMetadata<?> current = this.catalogueCopy.getCatalogueAndMetadata();
+    String currentHash = current == null ? null : current.getCatalogueMetadata().getHash();
+    List<Map<String, Object>> result = new ArrayList<>();
+    for (CatalogueVersionStore.Version version : this.versionStore.getVersions()) {
+      Map<String, Object> description = new LinkedHashMap<>();
+      description.put("id", version.getId());
+      description.put("url", "/catalogue-v1/" + version.getId() + ".xml");
+      description.put("hash", version.getHash());
+      description.put("current", version.getHash().equals(currentHash));
+      description.put("storedAt", version.getStoredAt().toString());
+      description.put("length", version.getLength());
+      description.put("compressedLength", version.getCompressedLength());
+      result.add(description);
+    }
+    return result;
+  }
+
+  /**
+   * Rolls back to a stored version, see {@link CatalogueCopy#rollBackTo(String)}.
+   *
+   * @param versionId id of the version.
+   * @return 204 if the version is current now, 404 if it cannot be rolled back to.
+   */
+  @RequestMapping(value = "/{versionId}/rollback", method = RequestMethod.POST)
+  @ResponseBody
+  public ResponseEntity<Void> rollBack(@PathVariable String versionId) {
+    if (!this.catalogueCopy.rollBackTo(versionId)) {
+      return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+    }
+    return new ResponseEntity<>(HttpStatus.NO_CONTENT);
+  }
+}
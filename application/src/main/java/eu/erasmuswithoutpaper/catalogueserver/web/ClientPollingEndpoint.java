@@ -0,0 +1,47 @@
+package eu.erasmuswithoutpaper.catalogueserver.web;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.boot.actuate.endpoint.mvc.AbstractMvcEndpoint;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+/**
+ * Management endpoint reporting the clients which request each catalogue most often, see
+ * {@link ClientPollingStatistics}. It is available on the management port only, like other
+ * actuator endpoints.
+ */
+public class ClientPollingEndpoint extends AbstractMvcEndpoint {
+  private final Map<String, ClientPollingStatistics> statistics;
+
+  /**
+   * Creates the endpoint at '/catalogue-clients'.
+   *
+   * @param statistics statistics of requests by the name of the catalogue, the main Catalogue and
+   *                   {@link AdditionalCatalogues}.
+   */
+  public ClientPollingEndpoint(Map<String, ClientPollingStatistics> statistics) {
+    super("/catalogue-clients", true);
+    this.statistics = Collections.unmodifiableMap(new LinkedHashMap<>(statistics));
+  }
+
+  /**
+   * Reports the clients with the most requests of each catalogue.
+   *
+   * @return map from names of the catalogues to their reports, see
+   *         {@link ClientPollingStatistics#getReport()}.
+   */
+  @RequestMapping(method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE)
+  @ResponseBody
+  public Map<String, Object> getClients() {
+    Map<String, Object> report = new LinkedHashMap<>();
+    for (Map.Entry<String, ClientPollingStatistics> entry : this.statistics.entrySet()) {
+      report.put(entry.getKey(), entry.getValue().getReport());
+    }
+    return report;
+  }
+}
@@ -0,0 +1,284 @@
+package eu.erasmuswithoutpaper.catalogueserver.web;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * Statistics of Catalogue requests per client (IP address and 'User-Agent'), in bounded memory,
+ * for finding clients which poll too often or never revalidate their copy.
+ *
+ * <p>
+ * Requests are counted in Count-Min sketches, one per {@link Kind} and one for all requests,
+ * whose cells are atomic counters spread over the whole array by the hashes of clients, so
+ * concurrent requests rarely update the same cell and never wait for each other. The column of a
+ * client in each row is taken from a 64-bit murmur3 hash of its address and 'User-Agent' with a
+ * seed of its own, chosen randomly for each instance, so clients colliding in one row are unlikely
+ * to collide in the others and cannot be chosen to collide on purpose. The sketches
+ * can only estimate counts of a known client (never underestimating them), so the clients with
+ * the highest estimates are kept as heavy-hitter candidates. A client replaces the weakest
+ * candidate when its estimate exceeds the candidate's, under a lock which is only tried, a
+ * request which doesn't get it leaves the replacement to the next one.
+ * </p>
+ *
+ * <p>
+ * Counts are kept in windows of fixed length, the current and the previous one are reported.
+ * </p>
+ */
+public class ClientPollingStatistics {
+  private static final int DEPTH = 4;
+
+  private final int width;
+  private final HashFunction[] rowHashes = new HashFunction[DEPTH];
+  private final int maxClients;
+  private final Duration windowLength;
+  private final AtomicReference<Window> current = new AtomicReference<>();
+  private volatile Window previous;
+
+  /**
+   * Kind of a served request.
+   */
+  public enum Kind {
+    /**
+     * The Catalogue was sent to a request without validators, the client doesn't revalidate.
+     */
+    UNCONDITIONAL("unconditional"),
+    /**
+     * The Catalogue (or a delta) was sent to a request with validators of an older version.
+     */
+    CHANGED("changed"),
+    /**
+     * The client revalidated its copy and got 304 Not Modified.
+     */
+    NOT_MODIFIED("notModified");
+
+    private final String name;
+
+    Kind(String name) {
+      this.name = name;
+    }
+  }
+
+  /**
+   * Creates empty statistics.
+   *
+   * @param width        number of counters in each row of the sketches, the error of an estimate
+   *                     exceeds e / width of all requests in the window with probability at most
+   *                     e^-4, as it has to exceed it in each of the four independently hashed
+   *                     rows, which happens with probability at most 1/e.
+   * @param maxClients   number of reported clients with the most requests.
+   * @param windowLength length of the window of counted requests.
+   */
+  public ClientPollingStatistics(int width, int maxClients, Duration windowLength) {
+    this.width = width;
+    this.maxClients = maxClients;
+    this.windowLength = windowLength;
+    for (int row = 0; row < DEPTH; row++) {
+      this.rowHashes[row] = Hashing.murmur3_128(ThreadLocalRandom.current().nextInt());
+    }
+    this.current.set(new Window(Instant.now()));
+  }
+
+  /**
+   * Counts a request.
+   *
+   * @param address   IP address of the client.
+   * @param userAgent 'User-Agent' header of the request, empty if missing.
+   * @param kind      kind of the response.
+   */
+  public void record(String address, String userAgent, Kind kind) {
+    Window window = getCurrentWindow();
+    int[] columns = getColumns(address, userAgent);
+    long estimate = window.add(columns, kind);
+    if (estimate > window.admissionThreshold) {
+      window.offer(new Client(address, userAgent, columns));
+    }
+  }
+
+  private int[] getColumns(String address, String userAgent) {
+    int[] columns = new int[DEPTH];
+    for (int row = 0; row < DEPTH; row++) {
+      // The address cannot contain a zero byte, so it separates the two values unambiguously.
+      long hash = this.rowHashes[row].newHasher()
+          .putString(address, StandardCharsets.UTF_8)
+          .putByte((byte) 0)
+          .putString(userAgent, StandardCharsets.UTF_8)
+          .hash().asLong();
+      columns[row] = (int) Math.floorMod(hash, (long) this.width);
+    }
+    return columns;
+  }
+
+  private Window getCurrentWindow() {
+    Window window = this.current.get();
+    long now = System.currentTimeMillis();
+    if (now < window.endMillis) {
+      return window;
+    }
+    Window next = new Window(Instant.ofEpochMilli(now));
+    if (this.current.compareAndSet(window, next)) {
+      this.previous = window;
+      return next;
+    }
+    return this.current.get();
+  }
+
+  /**
+   * Reports the clients with the most requests in the current and the previous window.
+   *
+   * @return map with 'current' and 'previous' windows (the latter only if there was one), each
+   *         with its start, number of requests, maximal error of estimates and the clients.
+   */
+  public Map<String, Object> getReport() {
+    Map<String, Object> report = new LinkedHashMap<>();
+    report.put("current", getCurrentWindow().describe());
+    Window previousWindow = this.previous;
+    if (previousWindow != null) {
+      report.put("previous", previousWindow.describe());
+    }
+    return report;
+  }
+
+  /**
+   * Client identified by its address and 'User-Agent'.
+   */
+  private static class Client {
+    final String address;
+    final String userAgent;
+    // Column of the client in each row of the sketches.
+    final int[] columns;
+
+    Client(String address, String userAgent, int[] columns) {
+      this.address = address;
+      this.userAgent = userAgent;
+      this.columns = columns;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof Client)) {
+        return false;
+      }
+      Client client = (Client) other;
+      return this.address.equals(client.address) && this.userAgent.equals(client.userAgent);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * this.address.hashCode() + this.userAgent.hashCode();
+    }
+  }
+
+  /**
+   * Sketches and heavy-hitter candidates of a window.
+   */
+  private class Window {
+    final Instant start;
+    final long endMillis;
+    // Sketch of all requests followed by a sketch for each kind, DEPTH rows of 'width' each.
+    final AtomicLongArray counts =
+        new AtomicLongArray((Kind.values().length + 1) * DEPTH * width);
+    final LongAdder requests = new LongAdder();
+    final Map<Client, Boolean> candidates = new ConcurrentHashMap<>();
+    final ReentrantLock candidatesLock = new ReentrantLock();
+    // Lowest estimate of a candidate when it was last computed, clients below it are not offered.
+    volatile long admissionThreshold;
+
+    Window(Instant start) {
+      this.start = start;
+      this.endMillis = start.plus(windowLength).toEpochMilli();
+    }
+
+    private int getIndex(int sketch, int row, int[] columns) {
+      return (sketch * DEPTH + row) * width + columns[row];
+    }
+
+    /**
+     * Counts a request and returns the estimate of all requests of the client.
+     */
+    long add(int[] columns, Kind kind) {
+      this.requests.increment();
+      long estimate = Long.MAX_VALUE;
+      for (int row = 0; row < DEPTH; row++) {
+        estimate = Math.min(estimate, this.counts.incrementAndGet(getIndex(0, row, columns)));
+        this.counts.incrementAndGet(getIndex(kind.ordinal() + 1, row, columns));
+      }
+      return estimate;
+    }
+
+    long estimate(int sketch, int[] columns) {
+      long estimate = Long.MAX_VALUE;
+      for (int row = 0; row < DEPTH; row++) {
+        estimate = Math.min(estimate, this.counts.get(getIndex(sketch, row, columns)));
+      }
+      return estimate;
+    }
+
+    void offer(Client client) {
+      if (this.candidates.containsKey(client) || !this.candidatesLock.tryLock()) {
+        return;
+      }
+      try {
+        if (this.candidates.size() >= maxClients) {
+          Client weakest = null;
+          long weakestEstimate = Long.MAX_VALUE;
+          for (Client candidate : this.candidates.keySet()) {
+            long candidateEstimate = estimate(0, candidate.columns);
+            if (candidateEstimate < weakestEstimate) {
+              weakest = candidate;
+              weakestEstimate = candidateEstimate;
+            }
+          }
+          this.admissionThreshold = weakestEstimate;
+          if (weakest == null || estimate(0, client.columns) <= weakestEstimate) {
+            return;
+          }
+          this.candidates.remove(weakest);
+        }
+        this.candidates.put(client, Boolean.TRUE);
+      } finally {
+        this.candidatesLock.unlock();
+      }
+    }
+
+    Map<String, Object> describe() {
+      List<Client> clients = new ArrayList<>(this.candidates.keySet());
+      Collections.sort(clients,
+          Comparator.comparingLong((Client client) -> estimate(0, client.columns)).reversed());
+      List<Map<String, Object>> described = new ArrayList<>();
+      for (Client client : clients) {
+        Map<String, Object> description = new LinkedHashMap<>();
+        description.put("address", client.address);
+        description.put("userAgent", client.userAgent);
+        description.put("requests", estimate(0, client.columns));
+        for (Kind kind : Kind.values()) {
+          description.put(kind.name, estimate(kind.ordinal() + 1, client.columns));
+        }
+        described.add(description);
+      }
+      long total = this.requests.sum();
+      Map<String, Object> result = new LinkedHashMap<>();
+      result.put("start", this.start.toString());
+      result.put("end", Instant.ofEpochMilli(this.endMillis).toString());
+      result.put("requests", total);
+      result.put("maxOverestimate", (long) Math.ceil(Math.E / width * total));
+      result.put("clients", described);
+      return result;
+    }
+  }
+}
@@ -0,0 +1,60 @@
+package eu.erasmuswithoutpaper.catalogueserver.web;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Catalogue contents encoded with a single {@link CatalogueEncoding}, ready to be sent to clients.
+ */
+public class EncodedCatalogue {
+  private final CatalogueEncoding encoding;
+  private final ByteBuffer content;
+  private final String etag;
+  private final String etagHeader;
+
+  EncodedCatalogue(CatalogueEncoding encoding, ByteBuffer content, String etag) {
+    this.encoding = encoding;
+    this.content = content;
+    this.etag = etag;
+    this.etagHeader = "\"" + etag + "\"";
+  }
+
+  public CatalogueEncoding getEncoding() {
+    return encoding;
+  }
+
+  /**
+   * Each call returns a new read-only view of the contents, with independent position and limit,
+   * so it can be consumed by a single request without copying the underlying data.
+   *
+   * @return encoded contents.
+   */
+  public ByteBuffer getContent() {
+    return content.asReadOnlyBuffer();
+  }
+
+  /**
+   * Returns a view of the contents for writing them to a response. Unlike
+   * {@link #getContent()}, a view of heap contents gives access to their array, it must not be
+   * modified.
+   *
+   * @return encoded contents.
+   */
+  ByteBuffer getServedContent() {
+    return content.duplicate();
+  }
+
+  public String getEtag() {
+    return etag;
+  }
+
+  /**
+   * @return value of the 'ETag' header, i.e. quoted ETag.
+   */
+  public String getEtagHeader() {
+    return etagHeader;
+  }
+
+  public int getContentLength() {
+    return content.remaining();
+  }
+}
@@ -1,17 +1,27 @@
 package eu.erasmuswithoutpaper.catalogueserver.web;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class FileUtils {
   private static final Logger logger = LoggerFactory.getLogger(FileUtils.class);
+  private static final String TEMPORARY_FILE_SUFFIX = ".tmp";
+  private static final SecureRandom RANDOM = new SecureRandom();
 
 
   public static class ReadFileException extends Exception {
@@ -23,6 +33,28 @@ public class FileUtils {
 
   }
 
+  /**
+   * Read a file from a directory as bytes.
+   *
+   * @param directory directory where the file resides.
+   * @param fileName  file name.
+   * @return contents of the file.
+   * @throws ReadFileException if file cannot be read.
+   */
+  public static byte[] readFileBytes(String directory, String fileName) throws ReadFileException {
+    Path path = Paths.get(directory, fileName);
+
+    try {
+      return Files.readAllBytes(path);
+    } catch (NoSuchFileException e) {
+      logger.info("Trying to read a file that doesn't exist: {}", path.toString());
+      throw new ReadFileException();
+    } catch (IOException e) {
+      logger.error("Cannot read file.", e);
+      throw new ReadFileException();
+    }
+  }
+
   /**
    * Read a file from a directory.
    *
@@ -62,4 +94,132 @@ public class FileUtils {
     }
   }
 
+  /**
+   * Write to a file in a directory atomically. Data is written to a temporary file, flushed to
+   * disk and then the temporary file is renamed to the final name, so after a crash the file has
+   * either its previous or its new contents.
+   *
+   * @param directory directory where the file resides.
+   * @param fileName  file name.
+   * @param content   data to write to the file.
+   * @throws WriteFileException if file cannot be written.
+   */
+  public static void writeToFileAtomically(String directory, String fileName, byte[] content)
+      throws WriteFileException {
+    Path temporaryFile = createTemporaryFile(directory, fileName);
+    try {
+      try (FileChannel channel = FileChannel.open(temporaryFile, StandardOpenOption.WRITE)) {
+        ByteBuffer buffer = ByteBuffer.wrap(content);
+        while (buffer.hasRemaining()) {
+          channel.write(buffer);
+        }
+        channel.force(true);
+      } catch (IOException e) {
+        logger.error("Cannot write to {}.", temporaryFile, e);
+        throw new WriteFileException();
+      }
+      moveAtomically(temporaryFile, directory, fileName);
+    } finally {
+      deleteFile(temporaryFile);
+    }
+    syncDirectory(directory);
+  }
+
+  /**
+   * Flush directory entries to disk, e.g. after a rename, errors are only logged. It is not
+   * supported on every platform.
+   *
+   * @param directory directory to flush.
+   */
+  public static void syncDirectory(String directory) {
+    try (FileChannel channel = FileChannel.open(Paths.get(directory), StandardOpenOption.READ)) {
+      channel.force(true);
+    } catch (IOException e) {
+      logger.debug("Cannot flush directory {}.", directory, e);
+    }
+  }
+
+  /**
+   * Create a new, empty temporary file in a directory. It can be later moved to its final
+   * location with {@link #moveAtomically(Path, String, String)}.
+   *
+   * @param directory directory where the file will be created, the same as its final location.
+   * @param prefix    prefix of the file name.
+   * @return path of the temporary file.
+   * @throws WriteFileException if file cannot be created.
+   */
+  public static Path createTemporaryFile(String directory, String prefix)
+      throws WriteFileException {
+    // Files.createTempFile is not used, files it creates are readable only by their owner, and
+    // temporary files become regular files readable by other tools once they are moved.
+    try {
+      while (true) {
+        String fileName = prefix + "." + Long.toUnsignedString(RANDOM.nextLong())
+            + TEMPORARY_FILE_SUFFIX;
+        try {
+          return Files.createFile(Paths.get(directory, fileName));
+        } catch (FileAlreadyExistsException ignored) {
+          // Try another name.
+        }
+      }
+    } catch (IOException e) {
+      logger.error("Cannot create temporary file in {}.", directory, e);
+      throw new WriteFileException();
+    }
+  }
+
+  /**
+   * Replace a file in a directory with another file, atomically. Readers of the file see either
+   * its previous or its new contents, never a partially written file.
+   *
+   * @param source    file to be moved, usually created by {@link #createTemporaryFile}.
+   * @param directory directory where the file resides.
+   * @param fileName  file name.
+   * @throws WriteFileException if file cannot be moved.
+   */
+  public static void moveAtomically(Path source, String directory, String fileName)
+      throws WriteFileException {
+    Path path = Paths.get(directory, fileName);
+    try {
+      Files.move(source, path, StandardCopyOption.ATOMIC_MOVE,
+          StandardCopyOption.REPLACE_EXISTING);
+    } catch (AtomicMoveNotSupportedException e) {
+      logger.error("Cannot atomically move {} to {}. Is it on a different file system?",
+          source, path, e);
+      throw new WriteFileException();
+    } catch (IOException e) {
+      logger.error("Cannot move {} to {}.", source, path, e);
+      throw new WriteFileException();
+    }
+  }
+
+  /**
+   * Delete a file, errors are only logged.
+   *
+   * @param path file to delete.
+   */
+  public static void deleteFile(Path path) {
+    try {
+      Files.deleteIfExists(path);
+    } catch (IOException e) {
+      logger.error("Cannot delete file {}.", path, e);
+    }
+  }
+
+  /**
+   * Delete temporary files left in a directory, e.g. by an interrupted download.
+   *
+   * @param directory directory to clean.
+   */
+  public static void deleteTemporaryFiles(String directory) {
+    String glob = "*" + TEMPORARY_FILE_SUFFIX;
+    try (DirectoryStream<Path> paths = Files.newDirectoryStream(Paths.get(directory), glob)) {
+      for (Path path : paths) {
+        logger.info("Deleting leftover temporary file {}.", path);
+        deleteFile(path);
+      }
+    } catch (IOException e) {
+      logger.error("Cannot list temporary files in {}.", directory, e);
+    }
+  }
 }
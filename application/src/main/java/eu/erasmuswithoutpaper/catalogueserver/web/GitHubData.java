@@ -17,6 +17,8 @@ public class GitHubData {
   private final String gitHubApiUrl;
   private final String gitHubRawUrl;
   private final String gitHubAuthHeader;
+  private final String gitHubAuthUserName;
+  private final String gitHubAuthUserToken;
 
   /**
    * Stores data used in communication with GitHub.
@@ -34,6 +36,8 @@ public class GitHubData {
     this.gitHubApiUrl = "api.github.com";
     this.gitHubRawUrl = "raw.githubusercontent.com";
     this.gitHubAuthHeader = createUserAuthHeader(gitHubAuthUserName, gitHubAuthUserToken);
+    this.gitHubAuthUserName = this.gitHubAuthHeader == null ? null : gitHubAuthUserName;
+    this.gitHubAuthUserToken = this.gitHubAuthHeader == null ? null : gitHubAuthUserToken;
   }
 
   public String getGitHubUserName() {
@@ -60,6 +64,14 @@ public class GitHubData {
     return gitHubAuthHeader;
   }
 
+  public String getGitHubAuthUserName() {
+    return gitHubAuthUserName;
+  }
+
+  public String getGitHubAuthUserToken() {
+    return gitHubAuthUserToken;
+  }
+
   private String createUserAuthHeader(String gitHubAuthUserName, String gitHubAuthUserToken) {
     boolean userNameProvided = gitHubAuthUserName != null && !gitHubAuthUserName.isEmpty();
     boolean userTokenProvided = gitHubAuthUserToken != null && !gitHubAuthUserToken.isEmpty();
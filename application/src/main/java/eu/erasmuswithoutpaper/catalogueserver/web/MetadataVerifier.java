@@ -19,22 +19,51 @@ public class MetadataVerifier {
   }
 
   /**
-   * Calculates hash of of given content.
+   * Verifies if metadata object was generated for given UTF-8 encoded catalogue content.
    */
-  public static String getHash(String content) {
-    return calculateHash(content);
+  public static <T extends CatalogueMetadata<T>> boolean verifyMetadata(byte[] catalogueContent,
+      CatalogueMetadata<T> metadata) {
+    return Objects.equals(metadata.getHash(), getHash(catalogueContent));
   }
 
-  private static String calculateHash(String content) {
-    MessageDigest digest = null;
+  /**
+   * Creates a digest which can be used to calculate the hash incrementally, e.g. while the content
+   * is being downloaded. The hash is then obtained with {@link #getHash(MessageDigest)}.
+   *
+   * @return new digest.
+   */
+  public static MessageDigest createDigest() {
     try {
-      digest = MessageDigest.getInstance("SHA-256");
+      return MessageDigest.getInstance("SHA-256");
     } catch (NoSuchAlgorithmException e) {
       throw new RuntimeException("SHA-256 hash not available.");
     }
-    byte[] contentBytes = content.getBytes(StandardCharsets.UTF_8);
-    byte[] hash = digest.digest(contentBytes);
-    return Base64.getEncoder().encodeToString(hash);
+  }
+
+  /**
+   * Calculates hash of of given content.
+   */
+  public static String getHash(String content) {
+    return getHash(content.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Calculates hash of given UTF-8 encoded content.
+   */
+  public static String getHash(byte[] content) {
+    MessageDigest digest = createDigest();
+    digest.update(content);
+    return getHash(digest);
+  }
+
+  /**
+   * Completes calculation of the hash of all data passed to the digest.
+   *
+   * @param digest digest created with {@link #createDigest()}.
+   * @return hash, the same as {@link #getHash(byte[])} would return for the data.
+   */
+  public static String getHash(MessageDigest digest) {
+    return Base64.getEncoder().encodeToString(digest.digest());
   }
 
 }
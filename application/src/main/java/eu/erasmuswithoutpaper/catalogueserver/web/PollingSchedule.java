@@ -0,0 +1,190 @@
+package eu.erasmuswithoutpaper.catalogueserver.web;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decides when the Catalogue should be fetched next.
+ *
+ * <p>
+ * Changes of the Catalogue come in bursts (e.g. a few HEIs updating their manifests one after
+ * another), so right after a change the Catalogue is polled every minimal interval, and the
+ * interval grows back to the regular one with every fetch that didn't find any changes. Failed
+ * fetches back off exponentially, up to the maximal interval.
+ * </p>
+ *
+ * <p>
+ * When upstream reports that its call budget is low, the interval is stretched so that the
+ * remaining calls last until the budget is reset. It prevents 403 responses, which block fetching
+ * for much longer than that. Every interval is randomized by {@value #JITTER_PERCENT}% so that
+ * servers started together don't poll upstream at the same moment.
+ * </p>
+ */
+public class PollingSchedule {
+  private static final int JITTER_PERCENT = 10;
+  private static final double GROWTH_FACTOR = 1.5;
+
+  private final Duration minInterval;
+  private final Duration interval;
+  private final Duration maxInterval;
+  private final int lowBudgetThreshold;
+
+  private Duration currentInterval;
+  private Duration currentDelay;
+  private Instant nextFetchInstant;
+  private Instant notBefore;
+  private RateLimit rateLimit;
+
+  /**
+   * Creates a schedule, the first fetch is scheduled immediately.
+   *
+   * @param minInterval        interval used right after the Catalogue has changed.
+   * @param interval           regular interval.
+   * @param maxInterval        maximal interval used after failures.
+   * @param lowBudgetThreshold number of remaining upstream calls below which polling slows down.
+   */
+  public PollingSchedule(Duration minInterval, Duration interval, Duration maxInterval,
+      int lowBudgetThreshold) {
+    this.minInterval = minInterval;
+    this.interval = interval;
+    this.maxInterval = maxInterval;
+    this.lowBudgetThreshold = lowBudgetThreshold;
+    this.currentInterval = interval;
+    this.currentDelay = Duration.ZERO;
+    this.nextFetchInstant = Instant.now();
+    this.notBefore = Instant.MIN;
+    this.rateLimit = RateLimit.UNKNOWN;
+  }
+
+  /**
+   * Called before a fetch. Schedules the next fetch at the regular interval, in case the fetch
+   * ends without reporting its outcome.
+   *
+   * @param now current instant.
+   */
+  public synchronized void onFetchStarted(Instant now) {
+    reschedule(now, this.interval);
+  }
+
+  /**
+   * Called when a new version of the Catalogue was fetched.
+   *
+   * @param now current instant.
+   */
+  public synchronized void onChanged(Instant now) {
+    this.currentInterval = this.minInterval;
+    reschedule(now, this.currentInterval);
+  }
+
+  /**
+   * Called when we were notified that the Catalogue has changed. Next fetches are made as if the
+   * Catalogue has just changed, the current schedule is kept until the next fetch.
+   */
+  public synchronized void onChangeAnnounced() {
+    this.currentInterval = this.minInterval;
+  }
+
+  /**
+   * Called when upstream reported that the Catalogue hasn't changed.
+   *
+   * @param now current instant.
+   */
+  public synchronized void onNotModified(Instant now) {
+    this.currentInterval = min(multiply(this.currentInterval, GROWTH_FACTOR), this.interval);
+    reschedule(now, this.currentInterval);
+  }
+
+  /**
+   * Called when the fetch has failed.
+   *
+   * @param now current instant.
+   */
+  public synchronized void onFailure(Instant now) {
+    Duration base = this.currentInterval.compareTo(this.interval) < 0
+        ? this.interval : this.currentInterval;
+    this.currentInterval = min(multiply(base, 2), this.maxInterval);
+    reschedule(now, this.currentInterval);
+  }
+
+  /**
+   * Called when upstream doesn't allow us to fetch the Catalogue until some instant.
+   *
+   * @param now     current instant.
+   * @param instant instant before which the Catalogue shouldn't be fetched.
+   */
+  public synchronized void delayUntil(Instant now, Instant instant) {
+    this.notBefore = instant;
+    reschedule(now, this.currentInterval);
+  }
+
+  /**
+   * Records the call budget reported by upstream, it is taken into account when the next fetch is
+   * scheduled.
+   *
+   * @param newRateLimit call budget, ignored if unknown.
+   */
+  public synchronized void onRateLimit(RateLimit newRateLimit) {
+    if (newRateLimit.isKnown()) {
+      this.rateLimit = newRateLimit;
+    }
+  }
+
+  public synchronized Instant getNextFetchInstant() {
+    return this.nextFetchInstant;
+  }
+
+  /**
+   * Checks if upstream allows us to fetch the Catalogue.
+   *
+   * @param now current instant.
+   * @return true if fetching is allowed.
+   */
+  public synchronized boolean isFetchAllowed(Instant now) {
+    return !now.isBefore(this.notBefore);
+  }
+
+  /**
+   * @return delay between the last fetch and the next one.
+   */
+  public synchronized Duration getCurrentDelay() {
+    return this.currentDelay;
+  }
+
+  public synchronized RateLimit getRateLimit() {
+    return this.rateLimit;
+  }
+
+  private void reschedule(Instant now, Duration baseDelay) {
+    Duration delay = stretchToBudget(now, baseDelay);
+    long jitterBound = delay.toMillis() * JITTER_PERCENT / 100;
+    if (jitterBound > 0) {
+      delay = delay.plusMillis(ThreadLocalRandom.current().nextLong(-jitterBound, jitterBound));
+    }
+    Instant next = now.plus(delay);
+    if (next.isBefore(this.notBefore)) {
+      next = this.notBefore;
+    }
+    this.currentDelay = Duration.between(now, next);
+    this.nextFetchInstant = next;
+  }
+
+  private Duration stretchToBudget(Instant now, Duration delay) {
+    if (!this.rateLimit.isKnown() || !this.rateLimit.reset.isAfter(now)
+        || this.rateLimit.remaining >= this.lowBudgetThreshold) {
+      return delay;
+    }
+    // Spread remaining calls evenly until the budget is reset, one call is kept in reserve.
+    Duration untilReset = Duration.between(now, this.rateLimit.reset);
+    Duration budgetDelay = untilReset.dividedBy(Math.max(this.rateLimit.remaining, 0) + 1L);
+    return budgetDelay.compareTo(delay) > 0 ? budgetDelay : delay;
+  }
+
+  private static Duration multiply(Duration duration, double factor) {
+    return Duration.ofMillis((long) (duration.toMillis() * factor));
+  }
+
+  private static Duration min(Duration first, Duration second) {
+    return first.compareTo(second) <= 0 ? first : second;
+  }
+}
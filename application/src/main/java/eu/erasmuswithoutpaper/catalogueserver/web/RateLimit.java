@@ -0,0 +1,29 @@
+package eu.erasmuswithoutpaper.catalogueserver.web;
+
+import java.time.Instant;
+
+/**
+ * State of the upstream API call budget, as reported in 'X-RateLimit-Remaining' and
+ * 'X-RateLimit-Reset' headers. Both values are null if the upstream didn't report them.
+ */
+public class RateLimit {
+  public static final RateLimit UNKNOWN = new RateLimit(null, null);
+
+  public final Integer remaining;
+  public final Instant reset;
+
+  /**
+   * Describes the call budget.
+   *
+   * @param remaining number of calls that can be made before the budget is reset.
+   * @param reset     instant when the budget is reset.
+   */
+  public RateLimit(Integer remaining, Instant reset) {
+    this.remaining = remaining;
+    this.reset = reset;
+  }
+
+  public boolean isKnown() {
+    return this.remaining != null && this.reset != null;
+  }
+}
@@ -0,0 +1,229 @@
+package eu.erasmuswithoutpaper.catalogueserver.web.githubcataloguesource;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.util.Iterator;
+
+import eu.erasmuswithoutpaper.catalogueserver.web.CatalogueGetter;
+import eu.erasmuswithoutpaper.catalogueserver.web.CatalogueGetterResponse;
+import eu.erasmuswithoutpaper.catalogueserver.web.FileUtils;
+import eu.erasmuswithoutpaper.catalogueserver.web.GitHubData;
+import eu.erasmuswithoutpaper.catalogueserver.web.MetadataVerifier;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.eclipse.jgit.api.FetchCommand;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.transport.FetchResult;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.transport.UsernamePasswordCredentialsProvider;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Fetches the Catalogue from a local bare mirror of the registry log repository.
+ *
+ * <p>
+ * The mirror is updated with a git fetch, which transfers only objects that are missing locally,
+ * so a poll that finds no changes costs one ref advertisement. The Catalogue and the date of the
+ * last commit that changed it are then read from the local object database, without additional
+ * API calls. The id of the Catalogue blob is stored in place of the GitHub etag, the contents are
+ * read only if it has changed.
+ * </p>
+ *
+ * <p>
+ * Each fetch is recorded in 'catalogue.upstream.request' timer as stage 'git-fetch', without a
+ * status code.
+ * </p>
+ */
+public class CatalogueGetterGit implements CatalogueGetter<CatalogueMetadataGitHub> {
+  private static final Logger logger = LoggerFactory.getLogger(CatalogueGetterGit.class);
+  private static final String DOWNLOAD_FILE_PREFIX = "catalogue-download";
+  // The same branch is used by CatalogueGetterGitHub.
+  private static final String BRANCH_REF = Constants.R_HEADS + "master";
+  private static final int FETCH_TIMEOUT_SECONDS = 30;
+  // Every fetch that brings new objects adds a pack, they are merged from time to time.
+  private static final int FETCHES_BETWEEN_GC = 100;
+
+  private final String remoteUrl;
+  private final File mirrorDirectory;
+  private final GitHubData gitHubData;
+  private final String downloadDirectory;
+  private final MeterRegistry meterRegistry;
+  private Repository repository;
+  private int fetchesSinceGc;
+
+  /**
+   * Creates a catalogue getter.
+   *
+   * @param remoteUrl         URL of the registry log repository, it may be a 'file://' URL.
+   * @param mirrorDirectory   directory of the bare mirror, it is created if it doesn't exist.
+   * @param gitHubData        path of the catalogue in the repository and GitHub credentials.
+   * @param downloadDirectory directory where fetched catalogues are written to temporary files.
+   *                          It should be the same directory where the local copy is stored, so
+   *                          that these files can be moved in its place atomically.
+   * @param meterRegistry     registry of 'catalogue.upstream.request' timer, tagged with the
+   *                          stage and outcome of each fetch.
+   */
+  public CatalogueGetterGit(String remoteUrl, File mirrorDirectory, GitHubData gitHubData,
+      String downloadDirectory, MeterRegistry meterRegistry) {
+    this.remoteUrl = remoteUrl;
+    this.mirrorDirectory = mirrorDirectory;
+    this.gitHubData = gitHubData;
+    this.downloadDirectory = downloadDirectory;
+    this.meterRegistry = meterRegistry;
+  }
+
+  /**
+   * Updates the mirror and reads the Catalogue from it.
+   *
+   * @param metadata CatalogueMetadata of the local copy, its etag is the id of the Catalogue blob.
+   * @return CatalogueGetterResponse describing the Catalogue on the tip of the branch.
+   * @throws CatalogueGetterGitHub.CatalogueFetchExceptionGitHub if the mirror cannot be updated or
+   *                                                             read.
+   */
+  @Override
+  public synchronized CatalogueGetterResponse<CatalogueMetadataGitHub> fetchCatalogue(
+      CatalogueMetadataGitHub metadata)
+      throws CatalogueGetterGitHub.CatalogueFetchExceptionGitHub {
+    try {
+      Repository mirror = openMirror();
+      updateMirror(mirror);
+      return readCatalogue(mirror, metadata);
+    } catch (IOException | GitAPIException e) {
+      logger.error("Exception while fetching new Catalogue from {}", this.remoteUrl, e);
+      throw new CatalogueGetterGitHub.CatalogueFetchExceptionGitHub(this.remoteUrl);
+    }
+  }
+
+  private Repository openMirror() throws IOException {
+    if (this.repository == null) {
+      FileRepositoryBuilder builder = new FileRepositoryBuilder();
+      builder.setGitDir(this.mirrorDirectory);
+      builder.setBare();
+      Repository mirror = builder.build();
+      if (!mirror.getObjectDatabase().exists()) {
+        logger.info("Creating a mirror of {} in {}", this.remoteUrl, this.mirrorDirectory);
+        mirror.create(true);
+      }
+      this.repository = mirror;
+    }
+    return this.repository;
+  }
+
+  private void updateMirror(Repository mirror) throws GitAPIException {
+    Git git = Git.wrap(mirror);
+    FetchCommand fetch = git.fetch()
+        .setRemote(this.remoteUrl)
+        .setRefSpecs(new RefSpec("+" + BRANCH_REF + ":" + BRANCH_REF))
+        .setTimeout(FETCH_TIMEOUT_SECONDS);
+    if (this.gitHubData.getGitHubAuthUserToken() != null) {
+      fetch.setCredentialsProvider(new UsernamePasswordCredentialsProvider(
+          this.gitHubData.getGitHubAuthUserName(), this.gitHubData.getGitHubAuthUserToken()));
+    }
+    long start = System.nanoTime();
+    FetchResult result;
+    try {
+      result = fetch.call();
+    } catch (GitAPIException e) {
+      GitHubRequests.recordRequest(this.meterRegistry, "git-fetch", "failed", 0, start);
+      throw e;
+    }
+    GitHubRequests.recordRequest(this.meterRegistry, "git-fetch", "completed", 0, start);
+    if (!result.getTrackingRefUpdates().isEmpty()) {
+      logger.info("Mirror updated: {}", result.getTrackingRefUpdates());
+      this.fetchesSinceGc++;
+      if (this.fetchesSinceGc >= FETCHES_BETWEEN_GC) {
+        git.gc().call();
+        this.fetchesSinceGc = 0;
+      }
+    }
+  }
+
+  private CatalogueGetterResponse<CatalogueMetadataGitHub> readCatalogue(Repository mirror,
+      CatalogueMetadataGitHub metadata) throws IOException {
+    Ref branch = mirror.exactRef(BRANCH_REF);
+    if (branch == null) {
+      throw new IOException("Branch " + BRANCH_REF + " doesn't exist in " + this.remoteUrl);
+    }
+
+    String filePath = this.gitHubData.getGitHubFilePath();
+    try (RevWalk walk = new RevWalk(mirror)) {
+      RevCommit head = walk.parseCommit(branch.getObjectId());
+      ObjectId blob;
+      try (TreeWalk treeWalk = TreeWalk.forPath(mirror, filePath, head.getTree())) {
+        if (treeWalk == null) {
+          throw new IOException("File " + filePath + " doesn't exist in " + head.name());
+        }
+        blob = treeWalk.getObjectId(0);
+      }
+
+      if (metadata != null && blob.name().equals(metadata.getGitHubEtag())) {
+        return CatalogueGetterResponse.createNotModified();
+      }
+      logger.info("Catalogue changed, blob {} in commit {}", blob.name(), head.name());
+      return writeCatalogue(mirror, blob, getModificationDate(mirror, head, filePath));
+    }
+  }
+
+  private Instant getModificationDate(Repository mirror, RevCommit head, String filePath)
+      throws IOException {
+    Iterator<RevCommit> commits;
+    try {
+      commits = Git.wrap(mirror).log().add(head).addPath(filePath).setMaxCount(1).call()
+          .iterator();
+    } catch (GitAPIException e) {
+      throw new IOException("Cannot find the last commit that changed " + filePath, e);
+    }
+    RevCommit lastChange = commits.hasNext() ? commits.next() : head;
+    return lastChange.getAuthorIdent().getWhen().toInstant();
+  }
+
+  private CatalogueGetterResponse<CatalogueMetadataGitHub> writeCatalogue(Repository mirror,
+      ObjectId blob, Instant modificationDate) throws IOException {
+    Path contentFile;
+    try {
+      contentFile = FileUtils.createTemporaryFile(this.downloadDirectory, DOWNLOAD_FILE_PREFIX);
+    } catch (FileUtils.WriteFileException e) {
+      throw new IOException("Cannot create a file for the fetched Catalogue.", e);
+    }
+
+    boolean written = false;
+    try {
+      MessageDigest digest = MetadataVerifier.createDigest();
+      try (OutputStream output = new DigestOutputStream(Files.newOutputStream(contentFile),
+          digest)) {
+        mirror.open(blob, Constants.OBJ_BLOB).copyTo(output);
+      }
+      CatalogueGetterResponse<CatalogueMetadataGitHub> result = CatalogueGetterResponse.createOk(
+          contentFile,
+          new CatalogueMetadataGitHub(
+              modificationDate,
+              Instant.now(),
+              MetadataVerifier.getHash(digest),
+              blob.name()
+          )
+      );
+      written = true;
+      return result;
+    } finally {
+      if (!written) {
+        FileUtils.deleteFile(contentFile);
+      }
+    }
+  }
+}
@@ -0,0 +1,356 @@
+package eu.erasmuswithoutpaper.catalogueserver.web.githubcataloguesource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import eu.erasmuswithoutpaper.catalogueserver.web.CatalogueGetter;
+import eu.erasmuswithoutpaper.catalogueserver.web.CatalogueGetterResponse;
+import eu.erasmuswithoutpaper.catalogueserver.web.FileUtils;
+import eu.erasmuswithoutpaper.catalogueserver.web.GitHubData;
+import eu.erasmuswithoutpaper.catalogueserver.web.MetadataVerifier;
+import eu.erasmuswithoutpaper.catalogueserver.web.RateLimit;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.client.methods.AsyncByteConsumer;
+import org.apache.http.nio.client.methods.HttpAsyncMethods;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
+import org.json.JSONException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Fetches the Catalogue file from GitHub like {@link CatalogueGetterGitHub}, but with a
+ * non-blocking HTTP client. The file and its modification date (from the commits API) are
+ * requested at the same time, so a fetch takes as long as the slower of the two requests, not
+ * their sum.
+ *
+ * <p>
+ * Each request has a deadline measured from when it is sent and the whole fetch has a deadline
+ * measured from its start, a hung connection fails the fetch instead of stopping updates. The
+ * commits API request is sent with every fetch only when it can be conditional, with the cached
+ * ETag of its previous response, so that it doesn't use the API call budget unless the file has
+ * changed. Until an ETag is cached, e.g. after a restart, it is sent only after the file request
+ * returns a new version, and its own deadline starts then. Durations of both requests are
+ * recorded in 'catalogue.upstream.request' timer, tagged with their stage and status.
+ * </p>
+ */
+public class CatalogueGetterGitHubAsync implements CatalogueGetter<CatalogueMetadataGitHub> {
+  private static final Logger logger = LoggerFactory.getLogger(CatalogueGetter.class);
+  private static final String DOWNLOAD_FILE_PREFIX = "catalogue-download";
+  // Bodies of responses other than the Catalogue are only logged.
+  private static final int MAX_LOGGED_BODY_LENGTH = 64 * 1024;
+  private final CloseableHttpAsyncClient httpClient;
+  private final GitHubRequests requests;
+  private final String downloadDirectory;
+  private final Duration requestTimeout;
+  private final Duration fetchTimeout;
+  private final MeterRegistry meterRegistry;
+  private volatile RateLimit rateLimit = RateLimit.UNKNOWN;
+  private volatile CommitDate lastCommitDate;
+
+  /**
+   * Creates a catalogue getter.
+   *
+   * @param httpClient        started client used to communicate with GitHub, it may be shared
+   *                          with other getters and is closed by its owner.
+   * @param gitHubData        location of the catalogue on GitHub.
+   * @param downloadDirectory directory where fetched catalogues are downloaded to temporary files,
+   *                          see {@link CatalogueGetterGitHub}.
+   * @param requestTimeout    deadline of each request, measured from when it is sent.
+   * @param fetchTimeout      deadline of the whole fetch, including download of the file and the
+   *                          commits request sent after it.
+   * @param meterRegistry     registry of request timers.
+   */
+  public CatalogueGetterGitHubAsync(CloseableHttpAsyncClient httpClient, GitHubData gitHubData,
+      String downloadDirectory, Duration requestTimeout, Duration fetchTimeout,
+      MeterRegistry meterRegistry) {
+    this.httpClient = httpClient;
+    this.requests = new GitHubRequests(gitHubData);
+    this.downloadDirectory = downloadDirectory;
+    this.requestTimeout = requestTimeout;
+    this.fetchTimeout = fetchTimeout;
+    this.meterRegistry = meterRegistry;
+  }
+
+  /**
+   * Fetches a catalogue from remote host. Sends etag in 'If-None-Match' header to save bandwidth.
+   * The calling thread waits for both requests, but they are executed by I/O threads of the
+   * client, without blocking.
+   *
+   * @param metadata CatalogueMetadata with etag to send in a 'If-None-Match' header.
+   * @return CatalogueGetterResponse describing the response, with the most recent API call budget
+   *         reported by GitHub.
+   * @throws CatalogueGetterGitHub.CatalogueFetchExceptionGitHub on connection error or timeout.
+   */
+  @Override
+  public CatalogueGetterResponse<CatalogueMetadataGitHub> fetchCatalogue(
+      CatalogueMetadataGitHub metadata) throws CatalogueGetterGitHub.CatalogueFetchExceptionGitHub {
+    long start = System.nanoTime();
+    long fetchDeadline = start + this.fetchTimeout.toNanos();
+
+    HttpGet fileRequest =
+        this.requests.getCatalogueFileRequest(metadata == null ? null : metadata.getGitHubEtag());
+    HttpGet commitsRequest = this.requests.getMetadataRequest();
+    CommitDate cachedCommitDate = this.lastCommitDate;
+    Future<Download> fileFuture = this.httpClient.execute(HttpAsyncMethods.create(fileRequest),
+        new DownloadConsumer(), new StageCallback<>("content", start));
+    // Without an ETag the request would be unconditional and use the budget with every fetch.
+    Future<HttpResponse> commitsFuture = null;
+    long commitsStart = start;
+    if (cachedCommitDate != null) {
+      commitsRequest.addHeader("If-None-Match", cachedCommitDate.etag);
+      commitsFuture = executeCommitsRequest(commitsRequest, commitsStart);
+    }
+
+    Path contentFile = null;
+    try {
+      Download download = await(fileFuture, fileRequest, start, fetchDeadline);
+      contentFile = download.file;
+      HttpResponse response = download.response;
+      logger.info("Response status line {}", response.getStatusLine());
+      recordRateLimit(response);
+      CatalogueGetterResponse<CatalogueMetadataGitHub> result;
+      switch (response.getStatusLine().getStatusCode()) {
+        case HttpStatus.SC_OK:
+          if (commitsFuture == null) {
+            commitsStart = System.nanoTime();
+            commitsFuture = executeCommitsRequest(commitsRequest, commitsStart);
+          }
+          HttpResponse commitsResponse =
+              await(commitsFuture, commitsRequest, commitsStart, fetchDeadline);
+          Instant modificationDate =
+              getModificationDate(commitsRequest, commitsResponse, cachedCommitDate);
+          result = CatalogueGetterResponse.createOk(contentFile, new CatalogueMetadataGitHub(
+              modificationDate, Instant.now(), download.hash, GitHubRequests.getEtag(response)));
+          // The response takes the ownership of the file.
+          contentFile = null;
+          break;
+        case HttpStatus.SC_NOT_MODIFIED:
+          result = CatalogueGetterResponse.createNotModified();
+          break;
+        case HttpStatus.SC_FORBIDDEN:
+          result = GitHubRequests.createForbiddenResponse(response, download.body);
+          break;
+        default:
+          logger.error("Unexpected response code while fetching new Catalogue: {}",
+              response.getStatusLine().getStatusCode());
+          throw new CatalogueGetterGitHub.CatalogueFetchExceptionGitHub(
+              fileRequest.getURI().toASCIIString(), response.getStatusLine().getStatusCode());
+      }
+      return result.withRateLimit(this.rateLimit);
+    } finally {
+      // Requests still in progress are not needed anymore, cancelling completed ones is a no-op.
+      fileFuture.cancel(true);
+      if (commitsFuture != null) {
+        commitsFuture.cancel(true);
+      }
+      if (contentFile != null) {
+        FileUtils.deleteFile(contentFile);
+      }
+    }
+  }
+
+  private Future<HttpResponse> executeCommitsRequest(HttpGet commitsRequest, long start) {
+    return this.httpClient.execute(commitsRequest, new StageCallback<>("commit-date", start));
+  }
+
+  /**
+   * Waits for a request sent at requestStart until its own deadline, but not after the deadline of
+   * the whole fetch.
+   */
+  private <R> R await(Future<R> future, HttpGet request, long requestStart, long fetchDeadline)
+      throws CatalogueGetterGitHub.CatalogueFetchExceptionGitHub {
+    String url = request.getURI().toASCIIString();
+    long deadline = Math.min(requestStart + this.requestTimeout.toNanos(), fetchDeadline);
+    try {
+      return future.get(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+    } catch (TimeoutException e) {
+      logger.error("Request to {} has not completed in time.", url);
+      throw new CatalogueGetterGitHub.CatalogueFetchExceptionGitHub(url);
+    } catch (ExecutionException e) {
+      logger.error("Exception while fetching from {}", url, e.getCause());
+      throw new CatalogueGetterGitHub.CatalogueFetchExceptionGitHub(url);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new CatalogueGetterGitHub.CatalogueFetchExceptionGitHub(url);
+    }
+  }
+
+  private Instant getModificationDate(HttpGet request, HttpResponse response,
+      CommitDate cachedCommitDate) throws CatalogueGetterGitHub.CatalogueFetchExceptionGitHub {
+    recordRateLimit(response);
+    int statusCode = response.getStatusLine().getStatusCode();
+    if (statusCode == HttpStatus.SC_NOT_MODIFIED && cachedCommitDate != null) {
+      return cachedCommitDate.date;
+    }
+    if (statusCode != HttpStatus.SC_OK) {
+      logger.error("Unexpected response code while fetching new Catalogue metadata: {}",
+          statusCode);
+      throw new CatalogueGetterGitHub.CatalogueFetchExceptionGitHub(
+          request.getURI().toASCIIString(), statusCode);
+    }
+    try {
+      Instant date =
+          GitHubRequests.parseModificationDate(EntityUtils.toString(response.getEntity()));
+      String etag = GitHubRequests.getEtag(response);
+      if (etag != null) {
+        this.lastCommitDate = new CommitDate(etag, date);
+      }
+      return date;
+    } catch (IOException | JSONException e) {
+      logger.error("Exception while fetching new Catalogue metadata from {}",
+          request.getURI().toASCIIString(), e);
+      throw new CatalogueGetterGitHub.CatalogueFetchExceptionGitHub(
+          request.getURI().toASCIIString());
+    }
+  }
+
+  private void recordRateLimit(HttpResponse response) {
+    RateLimit reported = GitHubRequests.getRateLimit(response);
+    if (reported != null) {
+      this.rateLimit = reported;
+    }
+  }
+
+  private static class CommitDate {
+    final String etag;
+    final Instant date;
+
+    CommitDate(String etag, Instant date) {
+      this.etag = etag;
+      this.date = date;
+    }
+  }
+
+  private static class Download {
+    final HttpResponse response;
+    final Path file;
+    final String hash;
+    final String body;
+
+    Download(HttpResponse response, Path file, String hash, String body) {
+      this.response = response;
+      this.file = file;
+      this.hash = hash;
+      this.body = body;
+    }
+  }
+
+  /**
+   * Streams the Catalogue into a temporary file and hashes it, as it is received by an I/O thread.
+   * The file is deleted if the download fails or is cancelled.
+   */
+  private class DownloadConsumer extends AsyncByteConsumer<Download> {
+    private HttpResponse response;
+    private Path file;
+    private FileChannel output;
+    private MessageDigest digest;
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    private boolean completed;
+
+    @Override
+    protected void onResponseReceived(HttpResponse receivedResponse) throws IOException {
+      this.response = receivedResponse;
+      if (receivedResponse.getStatusLine().getStatusCode() != HttpStatus.SC_OK) {
+        return;
+      }
+      try {
+        this.file = FileUtils.createTemporaryFile(downloadDirectory, DOWNLOAD_FILE_PREFIX);
+      } catch (FileUtils.WriteFileException e) {
+        throw new IOException("Cannot create a file for the downloaded Catalogue.", e);
+      }
+      this.output = FileChannel.open(this.file, StandardOpenOption.WRITE);
+      this.digest = MetadataVerifier.createDigest();
+    }
+
+    @Override
+    protected void onByteReceived(ByteBuffer buffer, IOControl ioControl) throws IOException {
+      if (this.output == null) {
+        byte[] chunk =
+            new byte[Math.min(buffer.remaining(), MAX_LOGGED_BODY_LENGTH - this.body.size())];
+        buffer.get(chunk);
+        this.body.write(chunk, 0, chunk.length);
+        buffer.position(buffer.limit());
+        return;
+      }
+      this.digest.update(buffer.duplicate());
+      while (buffer.hasRemaining()) {
+        this.output.write(buffer);
+      }
+    }
+
+    @Override
+    protected Download buildResult(HttpContext context) throws IOException {
+      String hash = null;
+      if (this.output != null) {
+        this.output.close();
+        hash = MetadataVerifier.getHash(this.digest);
+      }
+      this.completed = true;
+      return new Download(this.response, this.file, hash,
+          new String(this.body.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Override
+    protected void releaseResources() {
+      super.releaseResources();
+      if (this.output != null) {
+        try {
+          this.output.close();
+        } catch (IOException e) {
+          logger.warn("Cannot close downloaded Catalogue file.", e);
+        }
+      }
+      if (!this.completed && this.file != null) {
+        FileUtils.deleteFile(this.file);
+      }
+    }
+  }
+
+  private class StageCallback<R> implements FutureCallback<R> {
+    private final String stage;
+    private final long start;
+
+    StageCallback(String stage, long start) {
+      this.stage = stage;
+      this.start = start;
+    }
+
+    @Override
+    public void completed(R result) {
+      HttpResponse response =
+          result instanceof Download ? ((Download) result).response : (HttpResponse) result;
+      GitHubRequests.recordRequest(meterRegistry, this.stage, "completed",
+          response.getStatusLine().getStatusCode(), this.start);
+    }
+
+    @Override
+    public void failed(Exception exception) {
+      GitHubRequests.recordRequest(meterRegistry, this.stage, "failed", 0, this.start);
+    }
+
+    @Override
+    public void cancelled() {
+      GitHubRequests.recordRequest(meterRegistry, this.stage, "cancelled", 0, this.start);
+    }
+  }
+}
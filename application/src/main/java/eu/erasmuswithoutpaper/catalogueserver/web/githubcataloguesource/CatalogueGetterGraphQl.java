@@ -0,0 +1,292 @@
+package eu.erasmuswithoutpaper.catalogueserver.web.githubcataloguesource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+
+import eu.erasmuswithoutpaper.catalogueserver.web.CatalogueGetter;
+import eu.erasmuswithoutpaper.catalogueserver.web.CatalogueGetterResponse;
+import eu.erasmuswithoutpaper.catalogueserver.web.FileUtils;
+import eu.erasmuswithoutpaper.catalogueserver.web.GitHubData;
+import eu.erasmuswithoutpaper.catalogueserver.web.MetadataVerifier;
+import eu.erasmuswithoutpaper.catalogueserver.web.RateLimit;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.util.EntityUtils;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Fetches the Catalogue using GitHub GraphQL API.
+ *
+ * <p>
+ * A single query returns the id (OID) of the Catalogue blob on the tip of the branch, the date of
+ * the last commit that changed it and the remaining API call budget. The blob id is stored in
+ * place of the GitHub etag, like in {@link CatalogueGetterGit}, so a poll that finds no changes
+ * costs one query and no download. The commits API call made by {@link CatalogueGetterGitHub} for
+ * every new version is not needed.
+ * </p>
+ *
+ * <p>
+ * Text of blobs returned by GraphQL is truncated for files of the size of the Catalogue, so when
+ * the blob has changed, the file is downloaded from the raw content host at the commit returned
+ * by the query, which doesn't use the API call budget. The download is accepted only if its git
+ * blob id, computed while it is written, matches the one from the query. GitHub GraphQL API
+ * requires authentication, see {@link GitHubData}.
+ * </p>
+ *
+ * <p>
+ * The query and the download are recorded in 'catalogue.upstream.request' timer as stages
+ * 'graphql' and 'content'.
+ * </p>
+ */
+public class CatalogueGetterGraphQl implements CatalogueGetter<CatalogueMetadataGitHub> {
+  private static final Logger logger = LoggerFactory.getLogger(CatalogueGetter.class);
+  private static final String DOWNLOAD_FILE_PREFIX = "catalogue-download";
+  // The same branch is used by CatalogueGetterGitHub.
+  private static final String QUERY = "query($owner: String!, $name: String!, $path: String!) {"
+      + " repository(owner: $owner, name: $name) {"
+      + " ref(qualifiedName: \"refs/heads/master\") { target { ... on Commit {"
+      + " oid file(path: $path) { oid object { ... on Blob { byteSize } } }"
+      + " history(first: 1, path: $path) { nodes { authoredDate } } } } } }"
+      + " rateLimit { remaining resetAt } }";
+  private final CloseableHttpClient httpClient;
+  private final GitHubData gitHubData;
+  private final String graphQlUrl;
+  private final String rawContentUrl;
+  private final String downloadDirectory;
+  private final MeterRegistry meterRegistry;
+
+  /**
+   * Creates a catalogue getter.
+   *
+   * @param httpClient        client used to communicate with GitHub.
+   * @param gitHubData        location of the catalogue on GitHub and credentials.
+   * @param graphQlUrl        URL of GitHub GraphQL API endpoint.
+   * @param rawContentUrl     URL of the raw content host, e.g. 'https://raw.githubusercontent.com'.
+   * @param downloadDirectory directory where fetched catalogues are downloaded to temporary files,
+   *                          see {@link CatalogueGetterGitHub}.
+   * @param meterRegistry     registry of 'catalogue.upstream.request' timer, tagged with the
+   *                          stage and status of each request.
+   */
+  public CatalogueGetterGraphQl(CloseableHttpClient httpClient, GitHubData gitHubData,
+      String graphQlUrl, String rawContentUrl, String downloadDirectory,
+      MeterRegistry meterRegistry) {
+    this.httpClient = httpClient;
+    this.gitHubData = gitHubData;
+    this.graphQlUrl = graphQlUrl;
+    this.rawContentUrl = rawContentUrl;
+    this.downloadDirectory = downloadDirectory;
+    this.meterRegistry = meterRegistry;
+    if (gitHubData.getGitHubAuthHeader() == null) {
+      logger.warn("GitHub GraphQL API requires authentication, but no token is configured.");
+    }
+  }
+
+  /**
+   * Asks GraphQL API for the id of the Catalogue blob and downloads it if it has changed.
+   *
+   * @param metadata CatalogueMetadata of the local copy, its etag is the id of the Catalogue blob.
+   * @return CatalogueGetterResponse describing the Catalogue on the tip of the branch, with the
+   *         API call budget reported by the query.
+   * @throws CatalogueGetterGitHub.CatalogueFetchExceptionGitHub on connection error, unexpected
+   *         response or when the downloaded file doesn't match the blob id.
+   */
+  @Override
+  public CatalogueGetterResponse<CatalogueMetadataGitHub> fetchCatalogue(
+      CatalogueMetadataGitHub metadata) throws CatalogueGetterGitHub.CatalogueFetchExceptionGitHub {
+    String body;
+    long start = System.nanoTime();
+    int statusCode = 0;
+    try (CloseableHttpResponse response = this.httpClient.execute(createQueryRequest())) {
+      statusCode = response.getStatusLine().getStatusCode();
+      logger.info("Response status line {}", response.getStatusLine());
+      body = EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8);
+      GitHubRequests.recordRequest(this.meterRegistry, "graphql", "completed", statusCode, start);
+      if (statusCode == HttpStatus.SC_FORBIDDEN || isRateLimited(statusCode, body)) {
+        return GitHubRequests.createForbiddenResponse(response, body);
+      } else if (statusCode != HttpStatus.SC_OK) {
+        logger.error("Unexpected response code of GraphQL query: {}\n{}", statusCode, body);
+        throw new CatalogueGetterGitHub.CatalogueFetchExceptionGitHub(this.graphQlUrl,
+            statusCode);
+      }
+    } catch (IOException | JSONException e) {
+      GitHubRequests.recordRequest(this.meterRegistry, "graphql", "failed", statusCode, start);
+      logger.error("Exception while querying {}", this.graphQlUrl, e);
+      throw new CatalogueGetterGitHub.CatalogueFetchExceptionGitHub(this.graphQlUrl);
+    }
+
+    try {
+      JSONObject data = getData(body);
+      RateLimit rateLimit = parseRateLimit(data.optJSONObject("rateLimit"));
+      JSONObject commit = data.getJSONObject("repository").getJSONObject("ref")
+          .getJSONObject("target");
+      JSONObject file = commit.optJSONObject("file");
+      if (file == null) {
+        logger.error("File {} doesn't exist in commit {}", this.gitHubData.getGitHubFilePath(),
+            commit.getString("oid"));
+        throw new CatalogueGetterGitHub.CatalogueFetchExceptionGitHub(this.graphQlUrl);
+      }
+      String blobId = file.getString("oid");
+      if (metadata != null && blobId.equals(metadata.getGitHubEtag())) {
+        return CatalogueGetterResponse.<CatalogueMetadataGitHub>createNotModified()
+            .withRateLimit(rateLimit);
+      }
+      String commitId = commit.getString("oid");
+      long byteSize = file.getJSONObject("object").getLong("byteSize");
+      Instant modificationDate = parseDate(commit.getJSONObject("history").getJSONArray("nodes")
+          .getJSONObject(0).getString("authoredDate"));
+      logger.info("Catalogue changed, blob {} in commit {}", blobId, commitId);
+      return downloadCatalogue(commitId, blobId, byteSize, modificationDate)
+          .withRateLimit(rateLimit);
+    } catch (IOException | JSONException e) {
+      logger.error("Unexpected response of GraphQL query: {}", body, e);
+      throw new CatalogueGetterGitHub.CatalogueFetchExceptionGitHub(this.graphQlUrl);
+    }
+  }
+
+  private HttpPost createQueryRequest() throws JSONException {
+    JSONObject variables = new JSONObject()
+        .put("owner", this.gitHubData.getGitHubUserName())
+        .put("name", this.gitHubData.getGitHubRepositoryName())
+        .put("path", this.gitHubData.getGitHubFilePath());
+    JSONObject query = new JSONObject().put("query", QUERY).put("variables", variables);
+    HttpPost request = new HttpPost(this.graphQlUrl);
+    request.setEntity(new StringEntity(query.toString(), ContentType.APPLICATION_JSON));
+    if (this.gitHubData.getGitHubAuthHeader() != null) {
+      request.setHeader(HttpHeaders.AUTHORIZATION, this.gitHubData.getGitHubAuthHeader());
+    }
+    return request;
+  }
+
+  private static boolean isRateLimited(int statusCode, String body) {
+    // Exceeded budget is reported as an error of type RATE_LIMITED, with 200 or 403 status code.
+    return statusCode == HttpStatus.SC_OK && body.contains("\"RATE_LIMITED\"");
+  }
+
+  private static JSONObject getData(String body) throws IOException, JSONException {
+    JSONObject response = new JSONObject(body);
+    JSONArray errors = response.optJSONArray("errors");
+    JSONObject data = response.optJSONObject("data");
+    if (errors != null || data == null) {
+      throw new IOException("GraphQL query failed: " + errors);
+    }
+    return data;
+  }
+
+  private static RateLimit parseRateLimit(JSONObject rateLimit) throws JSONException {
+    if (rateLimit == null) {
+      return RateLimit.UNKNOWN;
+    }
+    return new RateLimit(rateLimit.getInt("remaining"),
+        parseDate(rateLimit.getString("resetAt")));
+  }
+
+  private static Instant parseDate(String date) {
+    return ZonedDateTime.parse(date, DateTimeFormatter.ISO_DATE_TIME).toInstant();
+  }
+
+  private String getRawFileUrl(String commitId) throws URISyntaxException {
+    URI base = new URI(this.rawContentUrl);
+    String path = String.format("/%s/%s/%s/%s", this.gitHubData.getGitHubUserName(),
+        this.gitHubData.getGitHubRepositoryName(), commitId, this.gitHubData.getGitHubFilePath());
+    return new URI(base.getScheme(), base.getAuthority(), path, null, null).toASCIIString();
+  }
+
+  private CatalogueGetterResponse<CatalogueMetadataGitHub> downloadCatalogue(String commitId,
+      String blobId, long byteSize, Instant modificationDate)
+      throws CatalogueGetterGitHub.CatalogueFetchExceptionGitHub {
+    String url;
+    try {
+      url = getRawFileUrl(commitId);
+    } catch (URISyntaxException e) {
+      logger.error("Cannot create an URL for fetching catalogue contents from {}",
+          this.rawContentUrl, e);
+      throw new CatalogueGetterGitHub.CatalogueFetchExceptionGitHub(this.rawContentUrl);
+    }
+    HttpGet request = new HttpGet(url);
+    if (this.gitHubData.getGitHubAuthHeader() != null) {
+      request.setHeader(HttpHeaders.AUTHORIZATION, this.gitHubData.getGitHubAuthHeader());
+    }
+
+    Path contentFile = null;
+    long start = System.nanoTime();
+    int statusCode = 0;
+    try (CloseableHttpResponse response = this.httpClient.execute(request)) {
+      statusCode = response.getStatusLine().getStatusCode();
+      if (statusCode != HttpStatus.SC_OK) {
+        GitHubRequests.recordRequest(this.meterRegistry, "content", "completed", statusCode,
+            start);
+        logger.error("Unexpected response code while fetching new Catalogue: {}", statusCode);
+        throw new CatalogueGetterGitHub.CatalogueFetchExceptionGitHub(url, statusCode);
+      }
+      contentFile = FileUtils.createTemporaryFile(this.downloadDirectory, DOWNLOAD_FILE_PREFIX);
+      MessageDigest digest = MetadataVerifier.createDigest();
+      MessageDigest blobDigest = createBlobDigest(byteSize);
+      long length;
+      try (InputStream input = response.getEntity().getContent();
+          OutputStream output = new DigestOutputStream(new DigestOutputStream(
+              Files.newOutputStream(contentFile), digest), blobDigest)) {
+        length = IOUtils.copyLarge(input, output);
+      }
+      GitHubRequests.recordRequest(this.meterRegistry, "content", "completed", statusCode, start);
+      String downloadedBlobId = ObjectId.fromRaw(blobDigest.digest()).name();
+      if (length != byteSize || !downloadedBlobId.equals(blobId)) {
+        logger.error("Catalogue downloaded from {} is blob {} of {} bytes, expected {} of {}.",
+            url, downloadedBlobId, length, blobId, byteSize);
+        throw new CatalogueGetterGitHub.CatalogueFetchExceptionGitHub(url);
+      }
+      CatalogueGetterResponse<CatalogueMetadataGitHub> result = CatalogueGetterResponse.createOk(
+          contentFile,
+          new CatalogueMetadataGitHub(modificationDate, Instant.now(),
+              MetadataVerifier.getHash(digest), blobId));
+      contentFile = null;
+      return result;
+    } catch (IOException | FileUtils.WriteFileException e) {
+      GitHubRequests.recordRequest(this.meterRegistry, "content", "failed", statusCode, start);
+      logger.error("Exception while fetching new Catalogue from {}", url, e);
+      throw new CatalogueGetterGitHub.CatalogueFetchExceptionGitHub(url);
+    } finally {
+      if (contentFile != null) {
+        FileUtils.deleteFile(contentFile);
+      }
+    }
+  }
+
+  /**
+   * Creates a digest of a git blob of the given size, its header is hashed before the contents,
+   * so the contents are hashed as they are downloaded.
+   */
+  private static MessageDigest createBlobDigest(long byteSize) {
+    MessageDigest digest = Constants.newMessageDigest();
+    digest.update(Constants.encodedTypeString(Constants.OBJ_BLOB));
+    digest.update((byte) ' ');
+    digest.update(Constants.encodeASCII(byteSize));
+    digest.update((byte) 0);
+    return digest;
+  }
+}
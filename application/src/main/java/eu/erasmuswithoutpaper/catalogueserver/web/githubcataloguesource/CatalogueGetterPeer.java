@@ -0,0 +1,168 @@
+package eu.erasmuswithoutpaper.catalogueserver.web.githubcataloguesource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Date;
+
+import eu.erasmuswithoutpaper.catalogueserver.web.CatalogueGetter;
+import eu.erasmuswithoutpaper.catalogueserver.web.CatalogueGetterResponse;
+import eu.erasmuswithoutpaper.catalogueserver.web.FileUtils;
+import eu.erasmuswithoutpaper.catalogueserver.web.MetadataVerifier;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.Header;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Fetches the Catalogue from another catalogue server, e.g. another secondary node or the
+ * registry, which serves it under a URL like 'https://host/catalogue-v1.xml'.
+ *
+ * <p>
+ * The server has to send the hash of the Catalogue, as in its metadata, in the 'ETag' header and
+ * its modification date in the 'Last-Modified' header, like this server does. Fetched content is
+ * accepted only if its hash matches the ETag, and only if it isn't older than the local copy, so
+ * that a server lagging behind cannot roll the local copy back.
+ * </p>
+ */
+public class CatalogueGetterPeer implements CatalogueGetter<CatalogueMetadataGitHub> {
+  private static final Logger logger = LoggerFactory.getLogger(CatalogueGetter.class);
+  private static final String DOWNLOAD_FILE_PREFIX = "catalogue-download";
+  private final CloseableHttpClient httpClient;
+  private final String url;
+  private final String downloadDirectory;
+
+  /**
+   * Creates a catalogue getter.
+   *
+   * @param httpClient        client used to communicate with the server.
+   * @param url               URL of the Catalogue on the server.
+   * @param downloadDirectory directory where fetched catalogues are downloaded to temporary files,
+   *                          see {@link CatalogueGetterGitHub}.
+   */
+  public CatalogueGetterPeer(CloseableHttpClient httpClient, String url,
+      String downloadDirectory) {
+    this.httpClient = httpClient;
+    this.url = url;
+    this.downloadDirectory = downloadDirectory;
+  }
+
+  /**
+   * Fetches a catalogue from the server. Sends the hash of the local copy in 'If-None-Match'
+   * header, so that it is downloaded only if the server has a different version.
+   *
+   * @param metadata CatalogueMetadata of the local copy, null if there is none.
+   * @return CatalogueGetterResponse describing the response, FORBIDDEN if the server refuses to
+   *         serve us. GitHub ETag of the local copy is kept in the metadata of fetched catalogue.
+   * @throws CatalogueGetterGitHub.CatalogueFetchExceptionGitHub on connection error, unexpected
+   *         response or when the content doesn't match its ETag.
+   */
+  @Override
+  public CatalogueGetterResponse<CatalogueMetadataGitHub> fetchCatalogue(
+      CatalogueMetadataGitHub metadata) throws CatalogueGetterGitHub.CatalogueFetchExceptionGitHub {
+    HttpGet request = new HttpGet(this.url);
+    // ETag of other encodings is not the hash.
+    request.setHeader(HttpHeaders.ACCEPT_ENCODING, "identity");
+    if (metadata != null) {
+      request.setHeader(HttpHeaders.IF_NONE_MATCH, "\"" + metadata.getHash() + "\"");
+    }
+
+    try (CloseableHttpResponse response = this.httpClient.execute(request)) {
+      int statusCode = response.getStatusLine().getStatusCode();
+      if (statusCode == HttpStatus.SC_NOT_MODIFIED) {
+        return CatalogueGetterResponse.createNotModified();
+      } else if (statusCode == HttpStatus.SC_FORBIDDEN) {
+        logger.error("FORBIDDEN 403 status code received from {}.", this.url);
+        return CatalogueGetterResponse.createForbidden();
+      } else if (statusCode != HttpStatus.SC_OK) {
+        logger.error("Unexpected response code while fetching new Catalogue from {}: {}",
+            this.url, statusCode);
+        throw new CatalogueGetterGitHub.CatalogueFetchExceptionGitHub(this.url, statusCode);
+      }
+      String etag = getEtag(response.getFirstHeader(HttpHeaders.ETAG));
+      Date lastModified = getDate(response.getFirstHeader(HttpHeaders.LAST_MODIFIED));
+      if (etag == null || lastModified == null) {
+        logger.error("Catalogue fetched from {} has no ETag or Last-Modified header.", this.url);
+        throw new CatalogueGetterGitHub.CatalogueFetchExceptionGitHub(this.url);
+      }
+      Instant modificationDate = lastModified.toInstant();
+      // Last-Modified has a precision of seconds.
+      if (metadata != null && modificationDate
+          .isBefore(metadata.getModificationDate().truncatedTo(ChronoUnit.SECONDS))) {
+        logger.info("{} serves an older version of the Catalogue, modified at {}.", this.url,
+            modificationDate);
+        return CatalogueGetterResponse.createNotModified();
+      }
+      return downloadCatalogue(response, etag, modificationDate,
+          metadata == null ? null : metadata.getGitHubEtag());
+    } catch (IOException e) {
+      logger.error("Exception while fetching new Catalogue from {}", this.url, e);
+      throw new CatalogueGetterGitHub.CatalogueFetchExceptionGitHub(this.url);
+    }
+  }
+
+  private CatalogueGetterResponse<CatalogueMetadataGitHub> downloadCatalogue(
+      CloseableHttpResponse response, String expectedHash, Instant modificationDate,
+      String gitHubEtag) throws IOException, CatalogueGetterGitHub.CatalogueFetchExceptionGitHub {
+    Path contentFile;
+    try {
+      contentFile = FileUtils.createTemporaryFile(this.downloadDirectory, DOWNLOAD_FILE_PREFIX);
+    } catch (FileUtils.WriteFileException e) {
+      throw new IOException("Cannot create a file for the downloaded Catalogue.", e);
+    }
+
+    boolean downloaded = false;
+    try {
+      MessageDigest digest = MetadataVerifier.createDigest();
+      try (InputStream input = response.getEntity().getContent();
+          OutputStream output = new DigestOutputStream(Files.newOutputStream(contentFile),
+              digest)) {
+        IOUtils.copy(input, output);
+      }
+      String hash = MetadataVerifier.getHash(digest);
+      if (!hash.equals(expectedHash)) {
+        logger.error("Catalogue fetched from {} doesn't match its ETag {}, its hash is {}.",
+            this.url, expectedHash, hash);
+        throw new CatalogueGetterGitHub.CatalogueFetchExceptionGitHub(this.url);
+      }
+      CatalogueGetterResponse<CatalogueMetadataGitHub> result = CatalogueGetterResponse.createOk(
+          contentFile,
+          new CatalogueMetadataGitHub(modificationDate, Instant.now(), hash, gitHubEtag));
+      downloaded = true;
+      return result;
+    } finally {
+      if (!downloaded) {
+        FileUtils.deleteFile(contentFile);
+      }
+    }
+  }
+
+  private static String getEtag(Header header) {
+    if (header == null) {
+      return null;
+    }
+    String etag = header.getValue().trim();
+    // Weak ETags don't identify the content.
+    if (etag.length() < 2 || !etag.startsWith("\"") || !etag.endsWith("\"")) {
+      return null;
+    }
+    return etag.substring(1, etag.length() - 1);
+  }
+
+  private static Date getDate(Header header) {
+    return header == null ? null : DateUtils.parseDate(header.getValue());
+  }
+}
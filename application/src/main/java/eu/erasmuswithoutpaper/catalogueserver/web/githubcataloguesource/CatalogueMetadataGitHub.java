@@ -1,9 +1,8 @@
 package eu.erasmuswithoutpaper.catalogueserver.web.githubcataloguesource;
 
-import java.io.StringWriter;
 import java.time.Instant;
 
-import javax.xml.bind.JAXB;
+import javax.xml.bind.JAXBException;
 import javax.xml.bind.annotation.XmlAccessType;
 import javax.xml.bind.annotation.XmlAccessorType;
 import javax.xml.bind.annotation.XmlElement;
@@ -11,6 +10,7 @@ import javax.xml.bind.annotation.XmlRootElement;
 import javax.xml.bind.annotation.adapters.XmlJavaTypeAdapter;
 
 import eu.erasmuswithoutpaper.catalogueserver.web.CatalogueMetadata;
+import eu.erasmuswithoutpaper.catalogueserver.web.CatalogueMetadataCodec;
 
 import io.github.threetenjaxb.core.InstantXmlAdapter;
 
@@ -58,10 +58,8 @@ public class CatalogueMetadataGitHub implements CatalogueMetadata<CatalogueMetad
    */
   public String toXmlString() throws CatalogueMetadataConversionException {
     try {
-      StringWriter writer = new StringWriter();
-      JAXB.marshal(this, writer);
-      return writer.toString();
-    } catch (RuntimeException e) {
+      return CatalogueMetadataCodec.forClass(CatalogueMetadataGitHub.class).toXmlString(this);
+    } catch (JAXBException | RuntimeException e) {
       throw new CatalogueMetadataConversionException(e);
     }
   }
@@ -83,6 +81,12 @@ public class CatalogueMetadataGitHub implements CatalogueMetadata<CatalogueMetad
     return new CatalogueMetadataGitHub(modificationDate, newLastFetchDate, hash, gitHubEtag);
   }
 
+  @Override
+  public CatalogueMetadataGitHub withContentsOf(CatalogueMetadataGitHub otherVersion) {
+    return new CatalogueMetadataGitHub(otherVersion.modificationDate, lastFetchDate,
+        otherVersion.hash, gitHubEtag);
+  }
+
   public String getGitHubEtag() {
     return gitHubEtag;
   }
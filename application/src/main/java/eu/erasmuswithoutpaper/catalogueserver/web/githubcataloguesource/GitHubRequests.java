@@ -0,0 +1,257 @@
+package eu.erasmuswithoutpaper.catalogueserver.web.githubcataloguesource;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.concurrent.TimeUnit;
+
+import eu.erasmuswithoutpaper.catalogueserver.web.CatalogueGetter;
+import eu.erasmuswithoutpaper.catalogueserver.web.CatalogueGetterResponse;
+import eu.erasmuswithoutpaper.catalogueserver.web.GitHubData;
+import eu.erasmuswithoutpaper.catalogueserver.web.RateLimit;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.http.Header;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Requests sent to GitHub by getters fetching the Catalogue file over HTTP, and interpretation of
+ * their responses, shared by blocking and asynchronous getters.
+ */
+class GitHubRequests {
+  private static final Logger logger = LoggerFactory.getLogger(CatalogueGetter.class);
+  private final GitHubData gitHubData;
+
+  GitHubRequests(GitHubData gitHubData) {
+    this.gitHubData = gitHubData;
+  }
+
+  /**
+   * Records duration of a request in 'catalogue.upstream.request' timer.
+   *
+   * @param stage      'content' for the Catalogue file, 'commit-date' for the commits API,
+   *                   'graphql' for the GraphQL query and 'git-fetch' for the git fetch.
+   * @param outcome    'completed', 'failed' or 'cancelled'.
+   * @param statusCode status code of the response, 0 if none was received.
+   * @param start      {@link System#nanoTime()} when the request was sent.
+   */
+  static void recordRequest(MeterRegistry meterRegistry, String stage, String outcome,
+      int statusCode, long start) {
+    Timer.builder("catalogue.upstream.request")
+        .description("Time spent on a request of a catalogue fetch, from the start of the fetch.")
+        .tag("stage", stage)
+        .tag("outcome", outcome)
+        .tag("status", statusCode == 0 ? "none" : String.valueOf(statusCode))
+        .register(meterRegistry)
+        .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+  }
+
+  private String createUriErrorMessage(String name, String path, String query) {
+    return String.format("Cannot create an URL for fetching catalogue %s. "
+            + "This is either configuration problem or programming error. "
+            + "Following parts were used to create the URL:%n"
+            + "GitHub user name: %s%n"
+            + "GitHub repository name: %s%n"
+            + "GitHub file path: %s%n"
+            + "Requested endpoint: %s%n"
+            + "Query params: %s%n",
+        name,
+        this.gitHubData.getGitHubUserName(),
+        this.gitHubData.getGitHubRepositoryName(),
+        this.gitHubData.getGitHubFilePath(),
+        path,
+        query);
+  }
+
+  private String getCatalogueFileUrl() {
+    String path = String
+        .format("/%s/%s/master/%s", this.gitHubData.getGitHubUserName(),
+            this.gitHubData.getGitHubRepositoryName(), this.gitHubData.getGitHubFilePath());
+    try {
+      URI uri = new URI("https", this.gitHubData.getGitHubRawUrl(), path, null, null);
+      return uri.toASCIIString();
+    } catch (URISyntaxException e) {
+      String error = createUriErrorMessage("contents", path, null);
+      logger.error(error, e);
+      throw new IllegalArgumentException();
+    }
+  }
+
+  private HttpGet createGetRequest(String url) {
+    HttpGet request = new HttpGet(url);
+    if (this.gitHubData.getGitHubAuthHeader() != null) {
+      request.setHeader(HttpHeaders.AUTHORIZATION, this.gitHubData.getGitHubAuthHeader());
+    }
+    return request;
+  }
+
+  HttpGet getCatalogueFileRequest(String etag) {
+    HttpGet request = createGetRequest(this.getCatalogueFileUrl());
+
+    if (etag != null) {
+      request.addHeader("If-None-Match", etag);
+    }
+
+    return request;
+  }
+
+  private String getMetadataUrl() {
+    String path = String.format(
+        "/repos/%s/%s/commits", this.gitHubData.getGitHubUserName(),
+        this.gitHubData.getGitHubRepositoryName()
+    );
+    String query = String.format("path=%s&page=1&per_page=1", this.gitHubData.getGitHubFilePath());
+    try {
+      URI uri = new URI("https", this.gitHubData.getGitHubApiUrl(), path, query, null);
+      return uri.toASCIIString();
+    } catch (URISyntaxException e) {
+      String error = createUriErrorMessage("metadata", path, query);
+      logger.error(error, e);
+      throw new IllegalArgumentException();
+    }
+  }
+
+  HttpGet getMetadataRequest() {
+    HttpGet request = createGetRequest(this.getMetadataUrl());
+    request.addHeader("Accept", "application/vnd.github.v3+json");
+    return request;
+  }
+
+  static String getEtag(HttpResponse response) {
+    Header etag = response.getFirstHeader("ETag");
+    return etag == null ? null : etag.getValue();
+  }
+
+  /**
+   * Reads modification date of the Catalogue from a response of the commits API.
+   *
+   * @param content JSON list of commits, the most recent one first.
+   * @return date of the most recent commit.
+   * @throws JSONException if the response is not a list of commits.
+   */
+  static Instant parseModificationDate(String content) throws JSONException {
+    JSONArray responseArray = new JSONArray(content);
+    String date = responseArray
+        .getJSONObject(0)
+        .getJSONObject("commit")
+        .getJSONObject("author")
+        .getString("date");
+    return ZonedDateTime.parse(date, DateTimeFormatter.ISO_DATE_TIME).toInstant();
+  }
+
+  /**
+   * Interprets 403 Forbidden response.
+   *
+   * @param response response with 403 status code.
+   * @param body     body of the response, logged.
+   * @return rate limited response if GitHub told us when to retry, forbidden response otherwise.
+   */
+  static CatalogueGetterResponse<CatalogueMetadataGitHub> createForbiddenResponse(
+      HttpResponse response, String body) {
+    Instant retryAfterSeconds = getNextAllowedCallInstant(response);
+    String retryAfterMessage = getRetryAfterMessage(retryAfterSeconds);
+
+    logger.error(
+        "FORBIDDEN 403 status code received.\n{}\n"
+                + "This might mean that GitHub has cut us out. {}.",
+        body,
+        retryAfterMessage
+    );
+
+    if (retryAfterSeconds != null) {
+      return CatalogueGetterResponse.createRateLimited(retryAfterSeconds);
+    } else {
+      return CatalogueGetterResponse.createForbidden();
+    }
+  }
+
+  private static String getRetryAfterMessage(Instant retryAfterSeconds) {
+    String retryAfterMessage;
+    if (retryAfterSeconds == null) {
+      retryAfterMessage = "No Retry-After nor X-RateLimit-Reset provided.";
+    } else {
+      retryAfterMessage = String.format("Allowed to retry after: %s", retryAfterSeconds);
+    }
+    return retryAfterMessage;
+  }
+
+  private static Integer parseIntegerHeader(HttpResponse response, String headerName) {
+    Header header = response.getFirstHeader(headerName);
+    if (header == null) {
+      return null;
+    }
+    try {
+      return Integer.valueOf(header.getValue());
+    } catch (NumberFormatException ignored) {
+      return null;
+    }
+  }
+
+  /**
+   * Reads API call budget from a response.
+   *
+   * @param response response of GitHub.
+   * @return reported budget, null if it is not reported.
+   */
+  static RateLimit getRateLimit(HttpResponse response) {
+    // API calls report the budget in every response, raw file downloads usually don't.
+    Integer remainingCalls = parseIntegerHeader(response, "X-RateLimit-Remaining");
+    Integer rateLimitReset = parseIntegerHeader(response, "X-RateLimit-Reset");
+    if (remainingCalls != null && rateLimitReset != null) {
+      return new RateLimit(remainingCalls, Instant.ofEpochSecond(rateLimitReset));
+    }
+    return null;
+  }
+
+  private static Instant getNextAllowedCallInstant(HttpResponse response) {
+    // If we have received 403 Forbidden it means that we have been rate limited - we have issued
+    // too much non-conditional requests to GitHub API. Headers in response inform us when can we
+    // issue another request without getting 403 Forbidden response again.
+    // GitHub gives 60 non-conditional API calls per hour for unauthenticated users and
+    // 5000 non-conditional API calls per hour for authenticated users.
+    // A API Call is considered conditional if it contains 'If-*' headers and received
+    // 304 Not Modified status, those calls do not decrease available API Call count.
+    // We are using conditional calls thus our limit is decreased only when the Catalogue
+    // is modified and it is very unlikely that we will hit that limit.
+    // We might however be temporarily blocked for other reasons, e.g. concurrent calls from the
+    // same IP, if we share IP address with another application that used GitHub API.
+    // X-RateLimit-Remaining contains a number of calls that we can issue before hitting the limit.
+    // If we have reached limit of API Calls from this IP/from this Client ID, then
+    // X-RateLimit-Reset indicates when our limit will be reset back to the default value.
+    // Retry-After header will contain number of seconds we have to wait before sending another
+    // request, it is used when we've been rate limited for different reason.
+    final Integer retryAfterSeconds = parseIntegerHeader(response, "Retry-After");
+    final Integer rateLimitReset = parseIntegerHeader(response, "X-RateLimit-Reset");
+    final Integer remainingCalls = parseIntegerHeader(response, "X-RateLimit-Remaining");
+    logger.info("Rate-Limit related headers: Retry-After: {}, X-RateLimit-Reset: {}, "
+        + "X-RateLimit-Remaining: {}", retryAfterSeconds, rateLimitReset, remainingCalls);
+    if (retryAfterSeconds != null) {
+      return Instant.now().plus(retryAfterSeconds + 1, ChronoUnit.SECONDS);
+    } else if (rateLimitReset != null) {
+      // It happens that, after we have been rate limited, GitHub returns 403 Forbidden for few
+      // seconds after resetting calls limit at 'X-RateLimit-Reset' time.
+      // The X-RateLimit-Remaining and X-RateLimit-Reset values, however, are given new values
+      // exactly at 'X-RateLimit-Remaining' time.
+      // Therefore, if we have received 403 Forbidden, but still have some calls left,
+      // we will wait for a minute instead of waiting until 'X-RateLimit-Reset'.
+      if (remainingCalls != null && remainingCalls > 0) {
+        return Instant.now().plus(30, ChronoUnit.SECONDS);
+      }
+      // Additionally, if we have really been rate limited, we will issue next call 30 seconds after
+      // 'X-RateLimit-Reset', to lower the chance of getting 403 just after X-RateLimit-Reset.
+      return Instant.ofEpochSecond(rateLimitReset).plus(30, ChronoUnit.SECONDS);
+    } else {
+      return null;
+    }
+  }
+}
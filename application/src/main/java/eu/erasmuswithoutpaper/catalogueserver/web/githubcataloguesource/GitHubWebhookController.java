@@ -0,0 +1,192 @@
+package eu.erasmuswithoutpaper.catalogueserver.web.githubcataloguesource;
+
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import eu.erasmuswithoutpaper.catalogueserver.web.CatalogueUpdater;
+import eu.erasmuswithoutpaper.catalogueserver.web.GitHubData;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.google.common.io.BaseEncoding;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Receives GitHub webhook deliveries, so that a new version of the Catalogue is fetched right after
+ * it is pushed, instead of on the next poll. Polling remains a safety net for missed deliveries.
+ *
+ * <p>
+ * The webhook should be configured with content type 'application/json' and a secret, the same as
+ * 'app.git-hub-webhook.secret' property. The endpoint is disabled if the property is not set.
+ * Deliveries are verified with 'X-Hub-Signature-256' header, only 'push' events to the branch
+ * and file that we serve trigger a fetch.
+ * </p>
+ */
+@RestController
+public class GitHubWebhookController {
+  private static final Logger logger = LoggerFactory.getLogger(GitHubWebhookController.class);
+  private static final String HMAC_ALGORITHM = "HmacSHA256";
+  private static final String SIGNATURE_PREFIX = "sha256=";
+  // The same branch is used by CatalogueGetterGitHub.
+  private static final String SERVED_REF = "refs/heads/master";
+  // GitHub includes at most 20 commits in a push event.
+  private static final int MAX_COMMITS_IN_EVENT = 20;
+
+  private final CatalogueUpdater<?> catalogueUpdater;
+  private final GitHubData gitHubData;
+  private final TaskExecutor taskExecutor;
+  private final MeterRegistry meterRegistry;
+  private final SecretKeySpec secretKey;
+
+  /**
+   * Creates a webhook endpoint.
+   *
+   * @param catalogueUpdater updater triggered by push events.
+   * @param gitHubData       repository and file that we serve.
+   * @param taskExecutor     executor running triggered updates.
+   * @param meterRegistry    registry of delivery metrics.
+   * @param secret           secret configured in GitHub webhook settings, endpoint is disabled if
+   *                         it is empty.
+   */
+  @Autowired
+  public GitHubWebhookController(CatalogueUpdater<?> catalogueUpdater, GitHubData gitHubData,
+      TaskExecutor taskExecutor, MeterRegistry meterRegistry,
+      @Value("${app.git-hub-webhook.secret:}") String secret) {
+    this.catalogueUpdater = catalogueUpdater;
+    this.gitHubData = gitHubData;
+    this.taskExecutor = taskExecutor;
+    this.meterRegistry = meterRegistry;
+    if (secret.isEmpty()) {
+      this.secretKey = null;
+    } else {
+      this.secretKey = new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), HMAC_ALGORITHM);
+    }
+  }
+
+  /**
+   * Handles a webhook delivery. An update is only scheduled, the response is sent before the
+   * Catalogue is fetched, as GitHub waits only a few seconds for it.
+   *
+   * @param event     value of 'X-GitHub-Event' header.
+   * @param signature value of 'X-Hub-Signature-256' header.
+   * @param body      event payload.
+   * @return 202 if an update was triggered, 204 if the event was ignored, 403 if the signature is
+   *         invalid and 404 if webhooks are disabled.
+   */
+  @RequestMapping(value = "/webhooks/github", method = RequestMethod.POST)
+  public ResponseEntity<Void> onEvent(
+      @RequestHeader(value = "X-GitHub-Event", required = false) String event,
+      @RequestHeader(value = "X-Hub-Signature-256", required = false) String signature,
+      @RequestBody(required = false) byte[] body) {
+    if (this.secretKey == null) {
+      return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+    }
+    if (body == null || !isSignatureValid(signature, body)) {
+      logger.warn("Rejected GitHub webhook delivery with invalid signature.");
+      return respond("rejected", HttpStatus.FORBIDDEN);
+    }
+    if (!"push".equals(event)) {
+      logger.info("Ignored GitHub webhook event {}.", event);
+      return respond("ignored", HttpStatus.NO_CONTENT);
+    }
+    if (!isServedFileChanged(body)) {
+      logger.info("Ignored GitHub push event that doesn't change the Catalogue.");
+      return respond("ignored", HttpStatus.NO_CONTENT);
+    }
+
+    logger.info("GitHub push event received, updating the Catalogue.");
+    this.catalogueUpdater.onChangeAnnounced();
+    this.taskExecutor.execute(this.catalogueUpdater::updateCatalogue);
+    return respond("accepted", HttpStatus.ACCEPTED);
+  }
+
+  private ResponseEntity<Void> respond(String result, HttpStatus status) {
+    this.meterRegistry.counter("catalogue.webhook.deliveries", "result", result).increment();
+    return new ResponseEntity<>(status);
+  }
+
+  private boolean isSignatureValid(String signature, byte[] body) {
+    if (signature == null || !signature.startsWith(SIGNATURE_PREFIX)) {
+      return false;
+    }
+    byte[] expected;
+    try {
+      Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+      mac.init(this.secretKey);
+      expected = mac.doFinal(body);
+    } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+      throw new IllegalStateException("Cannot compute webhook signature.", e);
+    }
+    byte[] actual;
+    try {
+      actual = BaseEncoding.base16().lowerCase()
+          .decode(signature.substring(SIGNATURE_PREFIX.length()));
+    } catch (IllegalArgumentException e) {
+      return false;
+    }
+    // Constant time comparison.
+    return MessageDigest.isEqual(expected, actual);
+  }
+
+  private boolean isServedFileChanged(byte[] body) {
+    try {
+      JSONObject push = new JSONObject(new String(body, StandardCharsets.UTF_8));
+      String repository = push.getJSONObject("repository").getString("full_name");
+      String servedRepository = this.gitHubData.getGitHubUserName() + "/"
+          + this.gitHubData.getGitHubRepositoryName();
+      if (!servedRepository.equalsIgnoreCase(repository)
+          || !SERVED_REF.equals(push.getString("ref"))) {
+        return false;
+      }
+      JSONArray commits = push.getJSONArray("commits");
+      if (commits.length() >= MAX_COMMITS_IN_EVENT) {
+        // The list might be truncated, we cannot tell if the file was changed.
+        return true;
+      }
+      for (int i = 0; i < commits.length(); i++) {
+        if (isServedFileChanged(commits.getJSONObject(i))) {
+          return true;
+        }
+      }
+      return false;
+    } catch (JSONException e) {
+      logger.warn("Cannot parse GitHub push event, the Catalogue will be updated anyway.", e);
+      return true;
+    }
+  }
+
+  private boolean isServedFileChanged(JSONObject commit) {
+    String servedFile = this.gitHubData.getGitHubFilePath();
+    for (String key : new String[] { "added", "modified", "removed" }) {
+      JSONArray files = commit.optJSONArray(key);
+      if (files == null) {
+        continue;
+      }
+      for (int i = 0; i < files.length(); i++) {
+        if (servedFile.equals(files.optString(i))) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+}
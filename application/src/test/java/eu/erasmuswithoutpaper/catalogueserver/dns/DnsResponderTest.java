@@ -0,0 +1,200 @@
+package eu.erasmuswithoutpaper.catalogueserver.dns;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * {@link DnsResponder} on localhost with a switchable health check, queried over UDP.
+ */
+public class DnsResponderTest {
+  private static final String ZONE = "registry.example.com";
+  private static final int TYPE_A = 1;
+  private static final int TYPE_NS = 2;
+  private static final int FAILURES_BEFORE_UNHEALTHY = 3;
+  private static final Duration CHECK_INTERVAL = Duration.ofMillis(20);
+  private static final long TIMEOUT_MILLIS = 10000;
+
+  private final AtomicBoolean healthy = new AtomicBoolean(true);
+  private final AtomicInteger checks = new AtomicInteger();
+  private DatagramSocket socket;
+  private DnsResponder responder;
+
+  @Before
+  public void setUp() throws Exception {
+    this.socket = new DatagramSocket();
+    this.socket.setSoTimeout(200);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    if (this.responder != null) {
+      this.responder.close();
+    }
+    this.socket.close();
+  }
+
+  private void startResponder(boolean dropWhenUnhealthy) throws IOException {
+    DnsZone zone = new DnsZone(ZONE, "ns1." + ZONE, "hostmaster." + ZONE,
+        Collections.singletonList(InetAddress.getByName("192.0.2.1")), 1, 2020032000L);
+    this.responder = new DnsResponder(new InetSocketAddress("127.0.0.1", 0), zone, () -> {
+      this.checks.incrementAndGet();
+      return this.healthy.get();
+    }, CHECK_INTERVAL, FAILURES_BEFORE_UNHEALTHY, dropWhenUnhealthy, new SimpleMeterRegistry());
+    this.responder.start();
+  }
+
+  @Test
+  public void answersQueriesAboutTheZone() throws Exception {
+    startResponder(false);
+
+    byte[] address = query(ZONE, TYPE_A);
+    assertThat(getRcode(address)).isEqualTo(DnsZone.RCODE_NOERROR);
+    assertThat(getShort(address, 6)).isEqualTo(1);
+    byte[] nameServer = query(ZONE, TYPE_NS);
+    assertThat(getRcode(nameServer)).isEqualTo(DnsZone.RCODE_NOERROR);
+    assertThat(getShort(nameServer, 10)).isEqualTo(1);
+    assertThat(getRcode(query("missing." + ZONE, TYPE_A))).isEqualTo(DnsZone.RCODE_NXDOMAIN);
+  }
+
+  @Test
+  public void singleFailedCheckIsNotNoticed() throws Exception {
+    startResponder(false);
+
+    this.healthy.set(false);
+    awaitChecks(1);
+    this.healthy.set(true);
+    awaitChecks(FAILURES_BEFORE_UNHEALTHY);
+
+    assertThat(this.responder.isServing()).isTrue();
+    assertThat(getRcode(query(ZONE, TYPE_A))).isEqualTo(DnsZone.RCODE_NOERROR);
+  }
+
+  @Test
+  public void servfailOnlyAfterConsecutiveFailures() throws Exception {
+    startResponder(false);
+
+    int checksBefore = this.checks.get();
+    this.healthy.set(false);
+    awaitRcode(DnsZone.RCODE_SERVFAIL);
+    assertThat(this.checks.get() - checksBefore).isGreaterThanOrEqualTo(FAILURES_BEFORE_UNHEALTHY);
+    assertThat(this.responder.isServing()).isFalse();
+
+    // A single passed check puts the node back in rotation.
+    this.healthy.set(true);
+    awaitRcode(DnsZone.RCODE_NOERROR);
+    assertThat(this.responder.isServing()).isTrue();
+  }
+
+  @Test
+  public void notServingWhenUnhealthyAtStartup() throws Exception {
+    this.healthy.set(false);
+    startResponder(false);
+
+    assertThat(this.responder.isServing()).isFalse();
+    assertThat(getRcode(query(ZONE, TYPE_A))).isEqualTo(DnsZone.RCODE_SERVFAIL);
+    awaitChecks(FAILURES_BEFORE_UNHEALTHY);
+    assertThat(this.responder.isServing()).isFalse();
+  }
+
+  @Test
+  public void dropsQueriesWhenConfigured() throws Exception {
+    this.healthy.set(false);
+    startResponder(true);
+
+    assertThatThrownBy(() -> query(ZONE, TYPE_A)).isInstanceOf(SocketTimeoutException.class);
+    this.healthy.set(true);
+    awaitRcode(DnsZone.RCODE_NOERROR);
+  }
+
+  @Test
+  public void rejectsNonPositiveFailureCount() throws Exception {
+    DnsZone zone = new DnsZone(ZONE, "ns1." + ZONE, "hostmaster." + ZONE,
+        Collections.singletonList(InetAddress.getByName("192.0.2.1")), 1, 2020032000L);
+    assertThatThrownBy(() -> new DnsResponder(new InetSocketAddress("127.0.0.1", 0), zone,
+        () -> true, CHECK_INTERVAL, 0, false, new SimpleMeterRegistry()))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  private void awaitChecks(int count) throws InterruptedException {
+    int target = this.checks.get() + count;
+    long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+    while (this.checks.get() < target) {
+      assertThat(System.currentTimeMillis()).isLessThan(deadline);
+      Thread.sleep(1);
+    }
+  }
+
+  private void awaitRcode(int rcode) throws IOException {
+    long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+    while (true) {
+      assertThat(System.currentTimeMillis()).isLessThan(deadline);
+      try {
+        if (getRcode(query(ZONE, TYPE_A)) == rcode) {
+          return;
+        }
+      } catch (SocketTimeoutException e) {
+        // Dropped query, ask again.
+      }
+    }
+  }
+
+  private byte[] query(String name, int type) throws IOException {
+    byte[] query = createQuery(type, name, type);
+    this.socket.send(
+        new DatagramPacket(query, query.length, this.responder.getLocalAddress()));
+    DatagramPacket response = new DatagramPacket(new byte[DnsZone.MAX_RESPONSE_SIZE],
+        DnsZone.MAX_RESPONSE_SIZE);
+    this.socket.receive(response);
+    byte[] data = new byte[response.getLength()];
+    System.arraycopy(response.getData(), 0, data, 0, data.length);
+    return data;
+  }
+
+  private static byte[] createQuery(int id, String name, int type) {
+    ByteArrayOutputStream query = new ByteArrayOutputStream();
+    // Header: id, RD flag, one question.
+    int[] header = {id, 0x0100, 1, 0, 0, 0};
+    for (int value : header) {
+      query.write(value >>> 8);
+      query.write(value);
+    }
+    for (String label : name.split("\\.")) {
+      byte[] bytes = label.getBytes(StandardCharsets.US_ASCII);
+      query.write(bytes.length);
+      query.write(bytes, 0, bytes.length);
+    }
+    query.write(0);
+    int[] question = {type, 1};
+    for (int value : question) {
+      query.write(value >>> 8);
+      query.write(value);
+    }
+    return query.toByteArray();
+  }
+
+  private static int getRcode(byte[] response) {
+    return response[3] & 0x0f;
+  }
+
+  private static int getShort(byte[] data, int offset) {
+    return (data[offset] & 0xff) << 8 | data[offset + 1] & 0xff;
+  }
+}
@@ -0,0 +1,115 @@
+package eu.erasmuswithoutpaper.catalogueserver.web;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import eu.erasmuswithoutpaper.catalogueserver.web.githubcataloguesource.CatalogueMetadataGitHub;
+
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Catalogues of other registries served by {@link AdditionalCataloguesController} under
+ * '/registries/{name}'.
+ */
+public class AdditionalCataloguesControllerTest {
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final byte[] test = TestCatalogues.generate(2, "test");
+  private final byte[] dev = TestCatalogues.generate(3, "dev");
+  private final Map<String, ClientPollingStatistics> statistics = new LinkedHashMap<>();
+  private MockMvc mockMvc;
+
+  @Before
+  public void setUp() throws Exception {
+    Map<String, CatalogueUpdater<?>> updaters = new LinkedHashMap<>();
+    updaters.put("test", createUpdater("test", this.test));
+    updaters.put("dev", createUpdater("dev", this.dev));
+    for (String name : updaters.keySet()) {
+      this.statistics.put(name, TestCatalogues.createClientPollingStatistics());
+    }
+    this.mockMvc = MockMvcBuilders.standaloneSetup(new AdditionalCataloguesController(
+        new AdditionalCatalogues(updaters, this.statistics),
+        new ApplicationErrorController(new DefaultResourceLoader()))).build();
+  }
+
+  private CatalogueUpdater<CatalogueMetadataGitHub> createUpdater(String name, byte[] catalogue)
+      throws Exception {
+    Path directory = Files.createDirectory(this.folder.getRoot().toPath().resolve(name));
+    CatalogueCopy<CatalogueMetadataGitHub> copy = TestCatalogues.openCopy(directory, false);
+    copy.onCatalogueFetchedWithChanges(TestCatalogues.createResponse(directory, catalogue));
+    return TestCatalogues.createUpdater(copy);
+  }
+
+  @SuppressWarnings("unchecked")
+  private long getRequests(String catalogue) {
+    Map<String, Object> current =
+        (Map<String, Object>) this.statistics.get(catalogue).getReport().get("current");
+    return (Long) current.get("requests");
+  }
+
+  @SuppressWarnings("unchecked")
+  private List<Map<String, Object>> getClients(String catalogue) {
+    Map<String, Object> current =
+        (Map<String, Object>) this.statistics.get(catalogue).getReport().get("current");
+    return (List<Map<String, Object>>) current.get("clients");
+  }
+
+  @Test
+  public void servesEachCatalogueUnderItsName() throws Exception {
+    this.mockMvc.perform(get("/registries/test/catalogue-v1.xml"))
+        .andExpect(status().isOk())
+        .andExpect(content().bytes(this.test));
+    this.mockMvc.perform(get("/registries/dev/catalogue-v1.xml"))
+        .andExpect(status().isOk())
+        .andExpect(content().bytes(this.dev));
+  }
+
+  @Test
+  public void unknownNameIsNotFound() throws Exception {
+    this.mockMvc.perform(get("/registries/missing/catalogue-v1.xml"))
+        .andExpect(status().isNotFound());
+    this.mockMvc.perform(get("/registries/catalogue-v1.xml"))
+        .andExpect(status().isNotFound());
+    assertThat(getRequests("test")).isZero();
+    assertThat(getRequests("dev")).isZero();
+  }
+
+  @Test
+  public void requestsAreCountedPerCatalogue() throws Exception {
+    for (int i = 0; i < 3; i++) {
+      this.mockMvc.perform(get("/registries/test/catalogue-v1.xml"))
+          .andExpect(status().isOk());
+    }
+    this.mockMvc.perform(get("/registries/dev/catalogue-v1.xml"))
+        .andExpect(status().isOk());
+
+    assertThat(getRequests("test")).isEqualTo(3);
+    assertThat(getRequests("dev")).isEqualTo(1);
+    assertThat(getClients("test")).hasSize(1);
+    assertThat(getClients("test").get(0).get("requests")).isEqualTo(3L);
+  }
+
+  @Test
+  public void statisticsHaveToMatchCatalogues() {
+    Map<String, CatalogueUpdater<?>> updaters = new LinkedHashMap<>();
+    assertThatThrownBy(() -> new AdditionalCatalogues(updaters, this.statistics))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+}
@@ -0,0 +1,66 @@
+package eu.erasmuswithoutpaper.catalogueserver.web;
+
+import java.nio.charset.StandardCharsets;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Hashes computed by {@link CanonicalXml} for differently formatted documents.
+ */
+public class CanonicalXmlTest {
+  private static final String DOCUMENT = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+      + "<catalogue xmlns=\"urn:catalogue\" xmlns:e=\"urn:echo\">\n"
+      + "    <host>\n"
+      + "        <e:echo version=\"2.1.0\" id=\"a\">\n"
+      + "            <e:url>https://example.com/echo?a=1&amp;b=2</e:url>\n"
+      + "        </e:echo>\n"
+      + "    </host>\n"
+      + "</catalogue>\n";
+
+  private static String hash(String document) throws XMLStreamException {
+    return CanonicalXml.getHash(document.getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void formattingDoesNotChangeHash() throws Exception {
+    String expected = hash(DOCUMENT);
+
+    // Indentation, line endings and the XML declaration.
+    assertThat(hash(DOCUMENT.replace("    ", "\t").replace("\n", "\r\n"))).isEqualTo(expected);
+    assertThat(hash(DOCUMENT.replaceAll("\n *", ""))).isEqualTo(expected);
+    assertThat(hash(DOCUMENT.substring(DOCUMENT.indexOf('\n') + 1))).isEqualTo(expected);
+    // Attribute order and namespace prefixes.
+    assertThat(hash(DOCUMENT.replace("version=\"2.1.0\" id=\"a\"", "id=\"a\" version=\"2.1.0\"")))
+        .isEqualTo(expected);
+    assertThat(hash(DOCUMENT.replace("xmlns:e=", "xmlns:echo=").replace("<e:", "<echo:")
+        .replace("</e:", "</echo:"))).isEqualTo(expected);
+    // Comments, character references and CDATA sections.
+    assertThat(hash(DOCUMENT.replace("<host>", "<host><!-- generated -->"))).isEqualTo(expected);
+    assertThat(hash(DOCUMENT.replace("https://", "&#104;ttps://"))).isEqualTo(expected);
+    assertThat(hash(DOCUMENT.replace("https://example.com/echo?a=1&amp;b=2",
+        "<![CDATA[https://example.com/echo?a=1&b=2]]>"))).isEqualTo(expected);
+  }
+
+  @Test
+  public void contentChangesChangeHash() throws Exception {
+    String original = hash(DOCUMENT);
+
+    assertThat(hash(DOCUMENT.replace("2.1.0", "2.1.1"))).isNotEqualTo(original);
+    assertThat(hash(DOCUMENT.replace("echo?a=1", "echo?a=2"))).isNotEqualTo(original);
+    assertThat(hash(DOCUMENT.replace("xmlns:e=\"urn:echo\"", "xmlns:e=\"urn:other\"")))
+        .isNotEqualTo(original);
+    assertThat(hash(DOCUMENT.replace("<host>", "<host>text"))).isNotEqualTo(original);
+    assertThat(hash(DOCUMENT.replace(" id=\"a\"", ""))).isNotEqualTo(original);
+  }
+
+  @Test
+  public void malformedDocumentIsRejected() {
+    assertThatThrownBy(() -> hash("<catalogue><host></catalogue>"))
+        .isInstanceOf(XMLStreamException.class);
+  }
+}
@@ -0,0 +1,183 @@
+package eu.erasmuswithoutpaper.catalogueserver.web;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+
+import eu.erasmuswithoutpaper.catalogueserver.web.githubcataloguesource.CatalogueMetadataGitHub;
+
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockAsyncContext;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Long-poll requests held by {@link CatalogueChangesController} until a version is published, and
+ * changes made since a version.
+ */
+public class CatalogueChangesControllerTest {
+  private static final String CHANGES = "/catalogue-v1/changes";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private Path directory;
+  private CatalogueCopy<CatalogueMetadataGitHub> copy;
+  private CatalogueUpdater<CatalogueMetadataGitHub> updater;
+  private MockMvc mockMvc;
+
+  @Before
+  public void setUp() throws Exception {
+    this.directory = this.folder.getRoot().toPath();
+    start();
+    publish("v1");
+  }
+
+  /**
+   * Opens the copy and creates the endpoint, as at startup of the server.
+   */
+  private void start() {
+    CatalogueVersionStore versionStore = TestCatalogues.openVersionStore(this.directory);
+    this.copy = TestCatalogues.openCopy(this.directory, versionStore, false);
+    // The feed rebuilds its changes once the index of the stored version is built.
+    TestCatalogues.awaitIndex(this.copy);
+    Duration interval = Duration.ofSeconds(10);
+    this.updater = new CatalogueUpdater<>(this.copy,
+        metadata -> CatalogueGetterResponse.createNotModified(),
+        new PollingSchedule(interval, interval, interval, 0), new SimpleMeterRegistry());
+    this.mockMvc = MockMvcBuilders.standaloneSetup(new CatalogueChangesController<>(this.updater,
+        new CatalogueChangeFeed<>(this.copy, versionStore, 10),
+        new ApplicationErrorController(new DefaultResourceLoader()), new ObjectMapper(),
+        new SimpleMeterRegistry(), 55)).build();
+  }
+
+  private String getCurrentHash() {
+    return this.copy.getCatalogueAndMetadata().getCatalogueMetadata().getHash();
+  }
+
+  private void publish(String version) throws Exception {
+    assertThat(this.copy.onCatalogueFetchedWithChanges(
+        TestCatalogues.createResponse(this.directory, TestCatalogues.generate(2, version))))
+        .isTrue();
+  }
+
+  private String getCurrentEtag() {
+    return this.copy.getCatalogueAndMetadata().getEncodedCatalogue(CatalogueEncoding.IDENTITY)
+        .getEtagHeader();
+  }
+
+  private MvcResult startWaiting() throws Exception {
+    return this.mockMvc.perform(get(CHANGES).header(HttpHeaders.IF_NONE_MATCH, getCurrentEtag()))
+        .andExpect(request().asyncStarted())
+        .andReturn();
+  }
+
+  @Test
+  public void unknownVersionIsDescribedRightAway() throws Exception {
+    MvcResult result = this.mockMvc.perform(get(CHANGES)
+        .header(HttpHeaders.IF_NONE_MATCH, "\"older\""))
+        .andReturn();
+
+    this.mockMvc.perform(asyncDispatch(result))
+        .andExpect(status().isOk())
+        .andExpect(header().string(HttpHeaders.ETAG, getCurrentEtag()))
+        .andExpect(jsonPath("$.hash")
+            .value(this.copy.getCatalogueAndMetadata().getCatalogueMetadata().getHash()));
+  }
+
+  @Test
+  public void pendingRequestCompletesOnPublish() throws Exception {
+    MvcResult result = startWaiting();
+    assertThatThrownBy(() -> result.getAsyncResult(100))
+        .isInstanceOf(IllegalStateException.class);
+
+    publish("v2");
+
+    this.mockMvc.perform(asyncDispatch(result))
+        .andExpect(status().isOk())
+        .andExpect(header().string(HttpHeaders.ETAG, getCurrentEtag()))
+        .andExpect(jsonPath("$.versionUrl").value("/catalogue-v1/" + CatalogueVersionStore
+            .getVersionId(this.copy.getCatalogueAndMetadata().getCatalogueMetadata().getHash())
+            + ".xml"));
+  }
+
+  @Test
+  public void pendingRequestTimesOutWithNotModified() throws Exception {
+    String etag = getCurrentEtag();
+    MvcResult result = startWaiting();
+
+    MockAsyncContext asyncContext = (MockAsyncContext) result.getRequest().getAsyncContext();
+    for (AsyncListener listener : asyncContext.getListeners()) {
+      listener.onTimeout(new AsyncEvent(asyncContext));
+    }
+
+    this.mockMvc.perform(asyncDispatch(result))
+        .andExpect(status().isNotModified())
+        .andExpect(header().string(HttpHeaders.ETAG, etag));
+  }
+
+  @Test
+  public void changesSinceVersionAreListed() throws Exception {
+    String since = getCurrentHash();
+    publish("v2");
+
+    this.mockMvc.perform(get(CHANGES).param("since", since))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.since").value(CatalogueVersionStore.getVersionId(since)))
+        .andExpect(jsonPath("$.until").value(CatalogueVersionStore.getVersionId(getCurrentHash())))
+        .andExpect(jsonPath("$.changes[0].entity").value("hei"));
+    this.mockMvc.perform(get(CHANGES).param("since", "unknown"))
+        .andExpect(status().isNotFound());
+  }
+
+  @Test
+  public void hashWithPlusDecodedAsSpaceIsAccepted() throws Exception {
+    String since = getCurrentHash();
+    int version = 2;
+    while (since.indexOf('+') < 0) {
+      publish("v" + version++);
+      since = getCurrentHash();
+    }
+    publish("v" + version);
+
+    // A client putting the hash in a query string unencoded sends '+', decoded as a space.
+    this.mockMvc.perform(get(CHANGES).param("since", since.replace('+', ' ')))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.since").value(CatalogueVersionStore.getVersionId(since)));
+  }
+
+  @Test
+  public void changesAreRebuiltAfterRestart() throws Exception {
+    String since = getCurrentHash();
+    publish("v2");
+    publish("v3");
+    String until = getCurrentHash();
+
+    start();
+
+    this.mockMvc.perform(get(CHANGES).param("since", since))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.until").value(CatalogueVersionStore.getVersionId(until)))
+        .andExpect(jsonPath("$.changes.length()").value(4));
+  }
+}
@@ -0,0 +1,112 @@
+package eu.erasmuswithoutpaper.catalogueserver.web;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+
+import eu.erasmuswithoutpaper.catalogueserver.web.githubcataloguesource.CatalogueMetadataGitHub;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Writes of the metadata file by {@link CatalogueCopy} when only metadata of the served version
+ * changes: a fetch without changes within the flush interval is kept in memory only, a changed
+ * ETag of the source is always written.
+ */
+public class CatalogueCopyMetadataFlushTest {
+  private static final String METADATA_FILE = "catalogue-v1-metadata.xml";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final byte[] catalogue = TestCatalogues.generate(3, "v1");
+  private Path directory;
+
+  @Before
+  public void setUp() {
+    this.directory = this.folder.getRoot().toPath();
+  }
+
+  private CatalogueCopy<CatalogueMetadataGitHub> openCopy(Duration metadataFlushInterval)
+      throws Exception {
+    CatalogueCopy<CatalogueMetadataGitHub> copy = new CatalogueCopy<>(
+        CatalogueMetadataGitHub.class, this.directory.toString(), CatalogueStorage.HEAP,
+        metadataFlushInterval, 0, TestCatalogues.openVersionStore(this.directory), true);
+    copy.onCatalogueFetchedWithChanges(fetched(this.catalogue, "\"etag-1\""));
+    return copy;
+  }
+
+  private CatalogueGetterResponse<CatalogueMetadataGitHub> fetched(byte[] content, String etag)
+      throws Exception {
+    Instant now = Instant.now();
+    return CatalogueGetterResponse.createOk(
+        TestCatalogues.createResponse(this.directory, content).content,
+        new CatalogueMetadataGitHub(now, now, MetadataVerifier.getHash(content), etag));
+  }
+
+  private byte[] readMetadataFile() throws Exception {
+    return Files.readAllBytes(this.directory.resolve(METADATA_FILE));
+  }
+
+  private CatalogueMetadataGitHub readStoredMetadata() throws Exception {
+    return CatalogueMetadata.fromXmlString(new String(readMetadataFile(), StandardCharsets.UTF_8),
+        CatalogueMetadataGitHub.class);
+  }
+
+  private CatalogueMetadataGitHub getServedMetadata(CatalogueCopy<CatalogueMetadataGitHub> copy) {
+    return copy.getCatalogueAndMetadata().getCatalogueMetadata();
+  }
+
+  @Test
+  public void notModifiedWithinFlushIntervalSkipsWrite() throws Exception {
+    CatalogueCopy<CatalogueMetadataGitHub> copy = openCopy(Duration.ofHours(1));
+    final byte[] written = readMetadataFile();
+    final Instant firstFetch = getServedMetadata(copy).getLastFetchDate();
+    Thread.sleep(5);
+
+    copy.onCatalogueFetchedWithoutChanges();
+    copy.onCatalogueFetchedWithoutChanges();
+
+    assertThat(readMetadataFile()).isEqualTo(written);
+    // Only the served metadata knows about the fetches.
+    assertThat(getServedMetadata(copy).getLastFetchDate()).isGreaterThan(firstFetch);
+    assertThat(copy.isStoredCopyOf(copy.getCatalogueAndMetadata())).isTrue();
+  }
+
+  @Test
+  public void notModifiedAfterFlushIntervalIsWritten() throws Exception {
+    CatalogueCopy<CatalogueMetadataGitHub> copy = openCopy(Duration.ZERO);
+    byte[] written = readMetadataFile();
+    Thread.sleep(5);
+
+    copy.onCatalogueFetchedWithoutChanges();
+
+    assertThat(readMetadataFile()).isNotEqualTo(written);
+    assertThat(readStoredMetadata().getLastFetchDate())
+        .isEqualTo(getServedMetadata(copy).getLastFetchDate());
+  }
+
+  @Test
+  public void changedSourceEtagIsWrittenWithinFlushInterval() throws Exception {
+    CatalogueCopy<CatalogueMetadataGitHub> copy = openCopy(Duration.ofHours(1));
+    copy.onCatalogueFetchedWithoutChanges();
+
+    // The version differs only in formatting, so only metadata of the source is updated.
+    boolean published = copy.onCatalogueFetchedWithChanges(
+        fetched(TestCatalogues.reformat(this.catalogue), "\"etag-2\""));
+
+    assertThat(published).isFalse();
+    CatalogueMetadataGitHub stored = readStoredMetadata();
+    assertThat(stored.getGitHubEtag()).isEqualTo("\"etag-2\"");
+    assertThat(stored.getHash()).isEqualTo(MetadataVerifier.getHash(this.catalogue));
+    assertThat(getServedMetadata(copy).getGitHubEtag()).isEqualTo("\"etag-2\"");
+    assertThat(copy.isStoredCopyOf(copy.getCatalogueAndMetadata())).isTrue();
+  }
+}
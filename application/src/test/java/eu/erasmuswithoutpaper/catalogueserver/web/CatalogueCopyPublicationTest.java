@@ -0,0 +1,151 @@
+package eu.erasmuswithoutpaper.catalogueserver.web;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import eu.erasmuswithoutpaper.catalogueserver.web.githubcataloguesource.CatalogueMetadataGitHub;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Readers racing with publication of new versions, in the spirit of a jcstress test: every
+ * snapshot a reader gets has to be internally consistent (contents, encodings, ETags and metadata
+ * of the same version), described by the stored metadata file, as the health check expects, and
+ * generations seen by a reader must never go back.
+ */
+public class CatalogueCopyPublicationTest {
+  private static final int VERSIONS = 30;
+  private static final int READERS = 4;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void readersNeverSeeMixedOrOlderSnapshots() throws Exception {
+    Path directory = this.folder.getRoot().toPath();
+    CatalogueCopy<CatalogueMetadataGitHub> copy = TestCatalogues.openCopy(directory, false);
+    copy.onCatalogueFetchedWithChanges(
+        TestCatalogues.createResponse(directory, TestCatalogues.generate(20, "v0")));
+
+    AtomicBoolean publishing = new AtomicBoolean(true);
+    AtomicLong snapshotsRead = new AtomicLong();
+    ConcurrentLinkedQueue<String> failures = new ConcurrentLinkedQueue<>();
+    CountDownLatch started = new CountDownLatch(READERS);
+    List<Thread> readers = new ArrayList<>();
+    for (int i = 0; i < READERS; i++) {
+      Thread reader = new Thread(() -> {
+        started.countDown();
+        long lastGeneration = 0;
+        while (publishing.get()) {
+          CatalogueAndMetadata<CatalogueMetadataGitHub> snapshot = copy.getCatalogueAndMetadata();
+          String failure = checkSnapshot(snapshot, lastGeneration);
+          if (failure == null && !copy.isStoredCopyOf(snapshot)) {
+            failure = "stored metadata doesn't match generation " + snapshot.getGeneration();
+          }
+          if (failure != null) {
+            failures.add(failure);
+            return;
+          }
+          lastGeneration = snapshot.getGeneration();
+          snapshotsRead.incrementAndGet();
+        }
+      });
+      readers.add(reader);
+      reader.start();
+    }
+    started.await();
+
+    for (int version = 1; version <= VERSIONS; version++) {
+      copy.onCatalogueFetchedWithChanges(TestCatalogues.createResponse(directory,
+          TestCatalogues.generate(20 + version % 3, "v" + version)));
+      copy.onCatalogueFetchedWithoutChanges();
+    }
+    publishing.set(false);
+    for (Thread reader : readers) {
+      reader.join();
+    }
+
+    assertThat(failures).isEmpty();
+    assertThat(snapshotsRead.get()).isGreaterThan(0);
+    assertThat(copy.getCatalogueAndMetadata().getCatalogueMetadata().getHash())
+        .isEqualTo(MetadataVerifier.getHash(TestCatalogues.generate(20, "v" + VERSIONS)));
+  }
+
+  @Test
+  public void storedMetadataIsComparedAfterRestart() throws Exception {
+    Path directory = this.folder.getRoot().toPath();
+    CatalogueCopy<CatalogueMetadataGitHub> copy = TestCatalogues.openCopy(directory, false);
+    copy.onCatalogueFetchedWithChanges(
+        TestCatalogues.createResponse(directory, TestCatalogues.generate(20, "v0")));
+
+    CatalogueCopy<CatalogueMetadataGitHub> reopened = TestCatalogues.openCopy(directory, false);
+    CatalogueAndMetadata<CatalogueMetadataGitHub> snapshot = reopened.getCatalogueAndMetadata();
+    assertThat(reopened.isStoredCopyOf(snapshot)).isTrue();
+
+    byte[] other = TestCatalogues.generate(20, "v1");
+    CatalogueAndMetadata<CatalogueMetadataGitHub> unrelated = new CatalogueAndMetadata<>(
+        snapshot.getGeneration(), TestCatalogues.createMetadata(other), other,
+        CatalogueStorage.HEAP);
+    assertThat(reopened.isStoredCopyOf(unrelated)).isFalse();
+  }
+
+  @Test
+  public void failingListenerDoesNotStopOtherListeners() throws Exception {
+    Path directory = this.folder.getRoot().toPath();
+    CatalogueCopy<CatalogueMetadataGitHub> copy = TestCatalogues.openCopy(directory, false);
+    List<Long> published = new ArrayList<>();
+    copy.addPublicationListener(snapshot -> {
+      throw new IllegalStateException("Listener failure.");
+    });
+    copy.addPublicationListener(snapshot -> published.add(snapshot.getGeneration()));
+
+    // The updater isn't aborted, the version is published as usual.
+    assertThat(copy.onCatalogueFetchedWithChanges(
+        TestCatalogues.createResponse(directory, TestCatalogues.generate(20, "v1")))).isTrue();
+    assertThat(copy.onCatalogueFetchedWithChanges(
+        TestCatalogues.createResponse(directory, TestCatalogues.generate(20, "v2")))).isTrue();
+
+    assertThat(published).containsExactly(1L, 2L);
+    assertThat(copy.getCatalogueAndMetadata().getGeneration()).isEqualTo(2);
+    assertThat(copy.isStoredCopyOf(copy.getCatalogueAndMetadata())).isTrue();
+  }
+
+  private static String checkSnapshot(CatalogueAndMetadata<CatalogueMetadataGitHub> snapshot,
+      long lastGeneration) {
+    if (snapshot.getGeneration() < lastGeneration) {
+      return "generation went back from " + lastGeneration + " to " + snapshot.getGeneration();
+    }
+    String hash = snapshot.getCatalogueMetadata().getHash();
+    byte[] identity = TestCatalogues.toBytes(
+        snapshot.getEncodedCatalogue(CatalogueEncoding.IDENTITY).getContent());
+    if (!MetadataVerifier.getHash(identity).equals(hash)) {
+      return "contents don't match metadata in generation " + snapshot.getGeneration();
+    }
+    for (CatalogueEncoding encoding : CatalogueEncoding.values()) {
+      EncodedCatalogue encoded = snapshot.getEncodedCatalogue(encoding);
+      if (!encoded.getEtag().equals(encoding.getEtag(hash))) {
+        return encoding + " ETag doesn't match metadata in generation "
+            + snapshot.getGeneration();
+      }
+      try {
+        byte[] decoded = encoding.decode(TestCatalogues.toBytes(encoded.getContent()));
+        if (!MetadataVerifier.getHash(decoded).equals(hash)) {
+          return encoding + " contents don't match in generation " + snapshot.getGeneration();
+        }
+      } catch (IOException e) {
+        return encoding + " contents cannot be decoded: " + e;
+      }
+    }
+    return null;
+  }
+}
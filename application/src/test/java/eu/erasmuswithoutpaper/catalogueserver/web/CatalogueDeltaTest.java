@@ -0,0 +1,236 @@
+package eu.erasmuswithoutpaper.catalogueserver.web;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import eu.erasmuswithoutpaper.catalogueserver.web.githubcataloguesource.CatalogueMetadataGitHub;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.web.servlet.MockMvc;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Ed scripts of {@link CatalogueDelta}, applied with a minimal ed interpreter, and their delivery
+ * to clients accepting 'diffe' instance manipulation.
+ */
+public class CatalogueDeltaTest {
+  private static final Pattern COMMAND = Pattern.compile("(\\d+)(?:,(\\d+))?([acd])");
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final byte[] base = TestCatalogues.generate(20, "v1");
+
+  private static List<String> toLines(byte[] text) {
+    String string = new String(text, StandardCharsets.UTF_8);
+    if (string.isEmpty()) {
+      return new ArrayList<>();
+    }
+    assertThat(string).endsWith("\n");
+    return new ArrayList<>(
+        Arrays.asList(string.substring(0, string.length() - 1).split("\n", -1)));
+  }
+
+  private static byte[] fromLines(List<String> lines) {
+    StringBuilder text = new StringBuilder();
+    for (String line : lines) {
+      text.append(line).append('\n');
+    }
+    return text.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  private byte[] edit(Consumer<List<String>> change) {
+    List<String> lines = toLines(this.base);
+    change.accept(lines);
+    return fromLines(lines);
+  }
+
+  /**
+   * Applies an ed script the way 'ed' does, with the commands produced by 'diff -e'.
+   */
+  private static byte[] applyScript(byte[] base, CatalogueDelta delta) {
+    List<String> buffer = toLines(base);
+    List<String> script = toLines(TestCatalogues.toBytes(delta.getContent()));
+    int position = 0;
+    while (position < script.size()) {
+      Matcher matcher = COMMAND.matcher(script.get(position++));
+      assertThat(matcher.matches()).isTrue();
+      int first = Integer.parseInt(matcher.group(1));
+      int last = matcher.group(2) == null ? first : Integer.parseInt(matcher.group(2));
+      String command = matcher.group(3);
+      List<String> input = new ArrayList<>();
+      if (!"d".equals(command)) {
+        String line;
+        while (!".".equals(line = script.get(position++))) {
+          input.add(line);
+        }
+      }
+      switch (command) {
+        case "a":
+          buffer.addAll(first, input);
+          break;
+        case "d":
+          buffer.subList(first - 1, last).clear();
+          break;
+        default:
+          buffer.subList(first - 1, last).clear();
+          buffer.addAll(first - 1, input);
+      }
+    }
+    return fromLines(buffer);
+  }
+
+  private CatalogueDelta assertDeltaApplies(byte[] target) {
+    CatalogueDelta delta =
+        CatalogueDelta.create(MetadataVerifier.getHash(this.base), this.base, target);
+    assertThat(delta).isNotNull();
+    assertThat(delta.getBaseHash()).isEqualTo(MetadataVerifier.getHash(this.base));
+    assertThat(delta.getContentLength()).isLessThan(target.length);
+    assertThat(MetadataVerifier.getHash(applyScript(this.base, delta)))
+        .isEqualTo(MetadataVerifier.getHash(target));
+    return delta;
+  }
+
+  private static String getScript(CatalogueDelta delta) {
+    return new String(TestCatalogues.toBytes(delta.getContent()), StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void insertsAtStartMiddleAndEnd() {
+    CatalogueDelta start = assertDeltaApplies(edit(lines -> lines.add(0, "<!-- start -->")));
+    assertThat(getScript(start)).startsWith("0a\n");
+    assertDeltaApplies(edit(lines -> lines.add(lines.size() / 2, "<!-- middle -->")));
+    CatalogueDelta end = assertDeltaApplies(edit(lines -> lines.add("<!-- end -->")));
+    assertThat(getScript(end)).startsWith(toLines(this.base).size() + "a\n");
+  }
+
+  @Test
+  public void deletesAtStartMiddleAndEnd() {
+    assertThat(getScript(assertDeltaApplies(edit(lines -> lines.remove(0)))))
+        .isEqualTo("1d\n");
+    assertDeltaApplies(edit(lines -> lines.subList(10, 13).clear()));
+    assertDeltaApplies(edit(lines -> lines.remove(lines.size() - 1)));
+  }
+
+  @Test
+  public void replacesAtStartMiddleAndEnd() {
+    assertDeltaApplies(edit(lines -> lines.set(0, "<?xml version=\"1.0\"?>")));
+    assertDeltaApplies(edit(lines -> {
+      lines.set(20, "<!-- first -->");
+      lines.set(21, "<!-- second -->");
+    }));
+    assertDeltaApplies(edit(lines -> lines.set(lines.size() - 1, "</catalogue> ")));
+  }
+
+  @Test
+  public void combinesEditsInOneScript() {
+    CatalogueDelta delta = assertDeltaApplies(edit(lines -> {
+      lines.remove(lines.size() - 2);
+      lines.set(30, "<!-- replaced -->");
+      lines.add(15, "<!-- inserted -->");
+      lines.add(0, "<!-- first -->");
+    }));
+    // Later edits come first, so that line numbers of the earlier ones stay valid.
+    assertThat(getScript(delta)).endsWith("0a\n<!-- first -->\n.\n");
+  }
+
+  @Test
+  public void appliesToNewVersionOfGeneratedCatalogue() {
+    assertDeltaApplies(TestCatalogues.generate(21, "v1"));
+    assertDeltaApplies(TestCatalogues.generate(19, "v1"));
+  }
+
+  @Test
+  public void identicalVersionsGiveEmptyScript() {
+    assertThat(assertDeltaApplies(this.base).getContentLength()).isZero();
+  }
+
+  @Test
+  public void lineWithSingleDotCannotBeInserted() {
+    byte[] target = edit(lines -> lines.add(5, "."));
+    assertThat(CatalogueDelta.create("base", this.base, target)).isNull();
+  }
+
+  @Test
+  public void missingNewlineAtEndIsNotSupported() {
+    byte[] target = Arrays.copyOf(this.base, this.base.length - 1);
+    assertThat(CatalogueDelta.create("base", this.base, target)).isNull();
+    assertThat(CatalogueDelta.create("base", target, this.base)).isNull();
+  }
+
+  @Test
+  public void deltaNotSmallerThanTargetIsNotCreated() {
+    byte[] small = "<a/>\n".getBytes(StandardCharsets.UTF_8);
+    byte[] other = "<b/>\n".getBytes(StandardCharsets.UTF_8);
+    assertThat(CatalogueDelta.create("base", small, other)).isNull();
+    // Every line is replaced, the script contains the whole target and its commands.
+    byte[] rewritten = edit(lines -> lines.replaceAll(line -> line + " "));
+    assertThat(CatalogueDelta.create("base", this.base, rewritten)).isNull();
+  }
+
+  private MockMvc createMockMvc(byte[] current) throws Exception {
+    Path directory = this.folder.getRoot().toPath();
+    CatalogueCopy<CatalogueMetadataGitHub> copy = TestCatalogues.openCopy(directory, false);
+    copy.onCatalogueFetchedWithChanges(TestCatalogues.createResponse(directory, this.base));
+    copy.onCatalogueFetchedWithChanges(TestCatalogues.createResponse(directory, current));
+    return TestCatalogues.createEndpoint(TestCatalogues.createUpdater(copy));
+  }
+
+  @Test
+  public void sendsDeltaToClientAcceptingDiffe() throws Exception {
+    byte[] current = edit(lines -> lines.add(10, "<!-- new -->"));
+    MockMvc mockMvc = createMockMvc(current);
+    String baseEtag = "\"" + MetadataVerifier.getHash(this.base) + "\"";
+    String currentEtag = "\"" + MetadataVerifier.getHash(current) + "\"";
+
+    byte[] delta = mockMvc.perform(get("/catalogue-v1.xml")
+        .header("A-IM", "vcdiff, diffe")
+        .header(HttpHeaders.IF_NONE_MATCH, baseEtag))
+        .andExpect(status().is(226))
+        .andExpect(header().string("IM", "diffe"))
+        .andExpect(header().string("Delta-Base", baseEtag))
+        .andExpect(header().string(HttpHeaders.ETAG, currentEtag))
+        .andExpect(header().string(HttpHeaders.CACHE_CONTROL, "no-store, im"))
+        .andReturn().getResponse().getContentAsByteArray();
+
+    CatalogueDelta expected =
+        CatalogueDelta.create(MetadataVerifier.getHash(this.base), this.base, current);
+    assertThat(delta).isEqualTo(TestCatalogues.toBytes(expected.getContent()));
+    assertThat(applyScript(this.base, expected)).isEqualTo(current);
+  }
+
+  @Test
+  public void sendsWholeCatalogueWhenDeltaIsRefusedOrBaseIsUnknown() throws Exception {
+    byte[] current = edit(lines -> lines.add(10, "<!-- new -->"));
+    MockMvc mockMvc = createMockMvc(current);
+    String baseEtag = "\"" + MetadataVerifier.getHash(this.base) + "\"";
+
+    mockMvc.perform(get("/catalogue-v1.xml")
+        .header("A-IM", "diffe;q=0")
+        .header(HttpHeaders.IF_NONE_MATCH, baseEtag))
+        .andExpect(status().isOk())
+        .andExpect(header().doesNotExist("IM"))
+        .andExpect(content().bytes(current));
+    mockMvc.perform(get("/catalogue-v1.xml")
+        .header("A-IM", "diffe")
+        .header(HttpHeaders.IF_NONE_MATCH, "\"unknown\""))
+        .andExpect(status().isOk())
+        .andExpect(header().doesNotExist("Delta-Base"))
+        .andExpect(content().bytes(current));
+  }
+}
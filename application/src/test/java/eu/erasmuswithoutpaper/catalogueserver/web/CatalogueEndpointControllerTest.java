@@ -0,0 +1,243 @@
+package eu.erasmuswithoutpaper.catalogueserver.web;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+
+import eu.erasmuswithoutpaper.catalogueserver.web.githubcataloguesource.CatalogueMetadataGitHub;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.ResultActions;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.head;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Responses of {@link CatalogueEndpointController} to HEAD and 'Range' requests, and selection of
+ * their content coding.
+ */
+public class CatalogueEndpointControllerTest {
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final byte[] catalogue = TestCatalogues.generate(20, "v1");
+  private final String length = String.valueOf(this.catalogue.length);
+  private Path directory;
+  private CatalogueCopy<CatalogueMetadataGitHub> copy;
+  private MockMvc mockMvc;
+
+  @Before
+  public void setUp() throws Exception {
+    this.directory = this.folder.getRoot().toPath();
+    this.copy = TestCatalogues.openCopy(this.directory, false);
+    this.copy.onCatalogueFetchedWithChanges(
+        TestCatalogues.createResponse(this.directory, this.catalogue));
+    this.mockMvc = TestCatalogues.createEndpoint(TestCatalogues.createUpdater(this.copy));
+  }
+
+  private String getEtag() {
+    return getEtag(CatalogueEncoding.IDENTITY);
+  }
+
+  private String getEtag(CatalogueEncoding encoding) {
+    return this.copy.getCatalogueAndMetadata().getEncodedCatalogue(encoding).getEtagHeader();
+  }
+
+  private void assertServedEncoding(String acceptEncoding, CatalogueEncoding expected)
+      throws Exception {
+    ResultActions result = this.mockMvc.perform(get("/catalogue-v1.xml")
+        .header(HttpHeaders.ACCEPT_ENCODING, acceptEncoding))
+        .andExpect(status().isOk())
+        .andExpect(header().string(HttpHeaders.ETAG, getEtag(expected)));
+    if (expected == CatalogueEncoding.IDENTITY) {
+      result.andExpect(header().doesNotExist(HttpHeaders.CONTENT_ENCODING));
+    } else {
+      result.andExpect(header().string(HttpHeaders.CONTENT_ENCODING,
+          expected.getContentCoding()));
+    }
+  }
+
+  @Test
+  public void gzipIsServedWhenAccepted() throws Exception {
+    MockHttpServletResponse response = this.mockMvc.perform(get("/catalogue-v1.xml")
+        .header(HttpHeaders.ACCEPT_ENCODING, "gzip, deflate"))
+        .andExpect(status().isOk())
+        .andExpect(header().string(HttpHeaders.CONTENT_ENCODING, "gzip"))
+        .andExpect(header().string(HttpHeaders.VARY, "Accept-Encoding, A-IM"))
+        .andExpect(header().string(HttpHeaders.ETAG, getEtag(CatalogueEncoding.GZIP)))
+        .andReturn().getResponse();
+
+    byte[] body = response.getContentAsByteArray();
+    assertThat(body.length).isLessThan(this.catalogue.length);
+    assertThat(response.getHeader(HttpHeaders.CONTENT_LENGTH))
+        .isEqualTo(String.valueOf(body.length));
+    assertThat(CatalogueEncoding.GZIP.decode(body)).isEqualTo(this.catalogue);
+  }
+
+  @Test
+  public void identityIsServedWithoutAcceptEncoding() throws Exception {
+    this.mockMvc.perform(get("/catalogue-v1.xml"))
+        .andExpect(status().isOk())
+        .andExpect(header().doesNotExist(HttpHeaders.CONTENT_ENCODING))
+        .andExpect(header().string(HttpHeaders.VARY, "Accept-Encoding, A-IM"))
+        .andExpect(header().string(HttpHeaders.CONTENT_LENGTH, this.length))
+        .andExpect(content().bytes(this.catalogue));
+  }
+
+  @Test
+  public void encodingIsSelectedByQuality() throws Exception {
+    assertServedEncoding("gzip;q=0", CatalogueEncoding.IDENTITY);
+    assertServedEncoding("gzip;q=0, *", CatalogueEncoding.IDENTITY);
+    assertServedEncoding("*", CatalogueEncoding.GZIP);
+    assertServedEncoding("*;q=0.5, identity", CatalogueEncoding.IDENTITY);
+    assertServedEncoding("identity;q=0, gzip;q=0.1", CatalogueEncoding.GZIP);
+    assertServedEncoding("gzip;q=0.5, identity;q=0.8", CatalogueEncoding.IDENTITY);
+    assertServedEncoding("GZIP;Q=0.8, identity;q=0.8", CatalogueEncoding.GZIP);
+    assertServedEncoding("x-gzip", CatalogueEncoding.GZIP);
+    assertServedEncoding("br", CatalogueEncoding.IDENTITY);
+    // Nothing acceptable is offered, identity is served anyway.
+    assertServedEncoding("identity;q=0", CatalogueEncoding.IDENTITY);
+  }
+
+  @Test
+  public void etagIsSpecificToEncoding() throws Exception {
+    assertThat(getEtag(CatalogueEncoding.GZIP)).isNotEqualTo(getEtag());
+
+    this.mockMvc.perform(get("/catalogue-v1.xml").header(HttpHeaders.ACCEPT_ENCODING, "gzip")
+        .header(HttpHeaders.IF_NONE_MATCH, getEtag(CatalogueEncoding.GZIP)))
+        .andExpect(status().isNotModified());
+    this.mockMvc.perform(get("/catalogue-v1.xml")
+        .header(HttpHeaders.IF_NONE_MATCH, getEtag()))
+        .andExpect(status().isNotModified());
+    // A cache holding the other encoding has to receive this one.
+    this.mockMvc.perform(get("/catalogue-v1.xml").header(HttpHeaders.ACCEPT_ENCODING, "gzip")
+        .header(HttpHeaders.IF_NONE_MATCH, getEtag()))
+        .andExpect(status().isOk())
+        .andExpect(header().string(HttpHeaders.CONTENT_ENCODING, "gzip"));
+    this.mockMvc.perform(get("/catalogue-v1.xml")
+        .header(HttpHeaders.IF_NONE_MATCH, getEtag(CatalogueEncoding.GZIP)))
+        .andExpect(status().isOk())
+        .andExpect(content().bytes(this.catalogue));
+  }
+
+  @Test
+  public void singleRangeGivesPartialContent() throws Exception {
+    this.mockMvc.perform(get("/catalogue-v1.xml").header(HttpHeaders.RANGE, "bytes=10-109"))
+        .andExpect(status().isPartialContent())
+        .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 10-109/" + this.length))
+        .andExpect(header().string(HttpHeaders.CONTENT_LENGTH, "100"))
+        .andExpect(header().string(HttpHeaders.ETAG, getEtag()))
+        .andExpect(content().bytes(Arrays.copyOfRange(this.catalogue, 10, 110)));
+  }
+
+  @Test
+  public void suffixRangeGivesEndOfContents() throws Exception {
+    int start = this.catalogue.length - 50;
+    this.mockMvc.perform(get("/catalogue-v1.xml").header(HttpHeaders.RANGE, "bytes=-50"))
+        .andExpect(status().isPartialContent())
+        .andExpect(header().string(HttpHeaders.CONTENT_RANGE,
+            "bytes " + start + "-" + (this.catalogue.length - 1) + "/" + this.length))
+        .andExpect(content().bytes(Arrays.copyOfRange(this.catalogue, start,
+            this.catalogue.length)));
+  }
+
+  @Test
+  public void matchingIfRangeGivesPartialContent() throws Exception {
+    this.mockMvc.perform(get("/catalogue-v1.xml").header(HttpHeaders.RANGE, "bytes=0-9")
+        .header(HttpHeaders.IF_RANGE, getEtag()))
+        .andExpect(status().isPartialContent())
+        .andExpect(content().bytes(Arrays.copyOfRange(this.catalogue, 0, 10)));
+  }
+
+  @Test
+  public void mismatchedIfRangeGivesWholeContents() throws Exception {
+    this.mockMvc.perform(get("/catalogue-v1.xml").header(HttpHeaders.RANGE, "bytes=0-9")
+        .header(HttpHeaders.IF_RANGE, "\"other-version\""))
+        .andExpect(status().isOk())
+        .andExpect(header().doesNotExist(HttpHeaders.CONTENT_RANGE))
+        .andExpect(header().string(HttpHeaders.CONTENT_LENGTH, this.length))
+        .andExpect(content().bytes(this.catalogue));
+    // Weak ETags never match 'If-Range'.
+    this.mockMvc.perform(get("/catalogue-v1.xml").header(HttpHeaders.RANGE, "bytes=0-9")
+        .header(HttpHeaders.IF_RANGE, "W/" + getEtag()))
+        .andExpect(status().isOk())
+        .andExpect(content().bytes(this.catalogue));
+  }
+
+  @Test
+  public void rangeAfterEndIsNotSatisfiable() throws Exception {
+    this.mockMvc.perform(get("/catalogue-v1.xml")
+        .header(HttpHeaders.RANGE, "bytes=" + this.catalogue.length + "-"))
+        .andExpect(status().isRequestedRangeNotSatisfiable())
+        .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes */" + this.length))
+        .andExpect(content().bytes(new byte[0]));
+  }
+
+  @Test
+  public void multipleRangesGiveWholeContents() throws Exception {
+    this.mockMvc.perform(get("/catalogue-v1.xml").header(HttpHeaders.RANGE, "bytes=0-9,20-29"))
+        .andExpect(status().isOk())
+        .andExpect(header().doesNotExist(HttpHeaders.CONTENT_RANGE))
+        .andExpect(content().bytes(this.catalogue));
+  }
+
+  @Test
+  public void headGivesHeadersWithoutBody() throws Exception {
+    this.mockMvc.perform(head("/catalogue-v1.xml"))
+        .andExpect(status().isOk())
+        .andExpect(header().string(HttpHeaders.CONTENT_LENGTH, this.length))
+        .andExpect(header().string(HttpHeaders.ETAG, getEtag()))
+        .andExpect(header().string(HttpHeaders.ACCEPT_RANGES, "bytes"))
+        .andExpect(content().bytes(new byte[0]));
+    this.mockMvc.perform(head("/catalogue-v1.xml").header(HttpHeaders.RANGE, "bytes=0-9"))
+        .andExpect(status().isPartialContent())
+        .andExpect(header().string(HttpHeaders.CONTENT_LENGTH, "10"))
+        .andExpect(content().bytes(new byte[0]));
+  }
+
+  @Test
+  public void offHeapContentsAreServedWholeAndInRanges() throws Exception {
+    Path offHeapDirectory = this.folder.newFolder("off-heap").toPath();
+    CatalogueCopy<CatalogueMetadataGitHub> offHeapCopy =
+        new CatalogueCopy<>(CatalogueMetadataGitHub.class, offHeapDirectory.toString(),
+            CatalogueStorage.OFF_HEAP, Duration.ofSeconds(30), 10,
+            TestCatalogues.openVersionStore(offHeapDirectory), false);
+    offHeapCopy.onCatalogueFetchedWithChanges(
+        TestCatalogues.createResponse(offHeapDirectory, this.catalogue));
+    MockMvc offHeapMockMvc =
+        TestCatalogues.createEndpoint(TestCatalogues.createUpdater(offHeapCopy));
+
+    offHeapMockMvc.perform(get("/catalogue-v1.xml"))
+        .andExpect(status().isOk())
+        .andExpect(content().bytes(this.catalogue));
+    offHeapMockMvc.perform(get("/catalogue-v1.xml").header(HttpHeaders.RANGE, "bytes=100-"))
+        .andExpect(status().isPartialContent())
+        .andExpect(content().bytes(Arrays.copyOfRange(this.catalogue, 100,
+            this.catalogue.length)));
+  }
+
+  @Test
+  public void servingDoesNotChangeStoredContents() throws Exception {
+    this.mockMvc.perform(get("/catalogue-v1.xml").header(HttpHeaders.RANGE, "bytes=10-19"))
+        .andExpect(status().isPartialContent());
+    this.mockMvc.perform(get("/catalogue-v1.xml"))
+        .andExpect(status().isOk());
+
+    EncodedCatalogue stored =
+        this.copy.getCatalogueAndMetadata().getEncodedCatalogue(CatalogueEncoding.IDENTITY);
+    assertThat(stored.getContent().isReadOnly()).isTrue();
+    assertThat(stored.getContentLength()).isEqualTo(this.catalogue.length);
+    assertThat(TestCatalogues.toBytes(stored.getContent())).isEqualTo(this.catalogue);
+  }
+}
@@ -0,0 +1,224 @@
+package eu.erasmuswithoutpaper.catalogueserver.web;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import eu.erasmuswithoutpaper.catalogueserver.web.githubcataloguesource.CatalogueGetterPeer;
+import eu.erasmuswithoutpaper.catalogueserver.web.githubcataloguesource.CatalogueMetadataGitHub;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * {@link CatalogueGetterMultiSource} fetching from stub catalogue servers on localhost, one in the
+ * role of GitHub and one of a peer catalogue server.
+ */
+public class CatalogueGetterMultiSourceTest {
+  private static final Duration HEDGE_DELAY = Duration.ofSeconds(1);
+  private static final Duration FETCH_TIMEOUT = Duration.ofSeconds(10);
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private final byte[] catalogue = TestCatalogues.generate(2, "v1");
+  private Path downloads;
+  private CloseableHttpClient httpClient;
+  private StubServer upstream;
+  private StubServer peer;
+  private CatalogueGetterMultiSource<CatalogueMetadataGitHub> getter;
+
+  @Before
+  public void setUp() throws Exception {
+    this.downloads = this.folder.getRoot().toPath();
+    this.httpClient = HttpClients.createDefault();
+    Instant modified = Instant.parse("2020-01-01T00:00:00Z");
+    this.upstream = new StubServer(this.catalogue, modified);
+    this.peer = new StubServer(this.catalogue, modified);
+    Map<String, CatalogueGetter<CatalogueMetadataGitHub>> sources = new LinkedHashMap<>();
+    sources.put("upstream", createPeerGetter(this.upstream));
+    sources.put("peer", createPeerGetter(this.peer));
+    this.getter = new CatalogueGetterMultiSource<>(sources, HEDGE_DELAY, FETCH_TIMEOUT,
+        this.meterRegistry);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    this.upstream.stop();
+    this.peer.stop();
+    this.getter.close();
+    this.httpClient.close();
+  }
+
+  private CatalogueGetterPeer createPeerGetter(StubServer server) {
+    return new CatalogueGetterPeer(this.httpClient, server.getUrl(), this.downloads.toString());
+  }
+
+  private double getUsedCount(String source) {
+    return this.meterRegistry.get("catalogue.source.used").tag("source", source).counter()
+        .count();
+  }
+
+  private void assertFetchedCatalogue(CatalogueGetterResponse<CatalogueMetadataGitHub> response)
+      throws IOException {
+    assertThat(response.status).isEqualTo(CatalogueGetterResponse.Status.OK);
+    assertThat(Files.readAllBytes(response.content)).isEqualTo(this.catalogue);
+    assertThat(response.metadata.getHash()).isEqualTo(MetadataVerifier.getHash(this.catalogue));
+  }
+
+  @Test
+  public void preferredSourceIsUsedWhenItResponds() throws Exception {
+    assertFetchedCatalogue(this.getter.fetchCatalogue(null));
+
+    assertThat(getUsedCount("upstream")).isEqualTo(1);
+    assertThat(this.peer.requests.get()).isZero();
+  }
+
+  @Test
+  public void peerIsAskedRightAwayWhenPreferredSourceFails() throws Exception {
+    this.upstream.status = 500;
+
+    long start = System.nanoTime();
+    assertFetchedCatalogue(this.getter.fetchCatalogue(null));
+
+    assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(HEDGE_DELAY);
+    assertThat(getUsedCount("peer")).isEqualTo(1);
+  }
+
+  @Test
+  public void forbiddingSourceIsSkipped() throws Exception {
+    this.upstream.status = 403;
+
+    assertFetchedCatalogue(this.getter.fetchCatalogue(null));
+    assertFetchedCatalogue(this.getter.fetchCatalogue(null));
+
+    assertThat(this.upstream.requests.get()).isEqualTo(1);
+    assertThat(getUsedCount("peer")).isEqualTo(2);
+  }
+
+  @Test
+  public void hangingSourceIsHedged() throws Exception {
+    this.upstream.hang = new CountDownLatch(1);
+
+    long start = System.nanoTime();
+    assertFetchedCatalogue(this.getter.fetchCatalogue(null));
+
+    Duration elapsed = Duration.ofNanos(System.nanoTime() - start);
+    assertThat(elapsed).isGreaterThanOrEqualTo(HEDGE_DELAY).isLessThan(FETCH_TIMEOUT);
+    assertThat(getUsedCount("peer")).isEqualTo(1);
+  }
+
+  @Test
+  public void peerContentNotMatchingItsEtagIsRejected() throws Exception {
+    this.upstream.status = 403;
+    this.peer.tampered = true;
+
+    assertThatThrownBy(() -> this.getter.fetchCatalogue(null))
+        .isInstanceOf(CatalogueGetter.CatalogueFetchException.class);
+    assertThat(this.downloads.toFile().list()).isEmpty();
+  }
+
+  @Test
+  public void peerLaggingBehindIsNotUsedToRollBack() throws Exception {
+    this.upstream.status = 500;
+    CatalogueMetadataGitHub local = new CatalogueMetadataGitHub(
+        Instant.parse("2020-02-01T00:00:00Z"), Instant.now(), "newer", "\"etag\"");
+
+    CatalogueGetterResponse<CatalogueMetadataGitHub> response = this.getter.fetchCatalogue(local);
+
+    assertThat(response.status).isEqualTo(CatalogueGetterResponse.Status.NOT_MODIFIED);
+    assertThat(this.downloads.toFile().list()).isEmpty();
+  }
+
+  /**
+   * Serves the Catalogue like a catalogue server, with its hash in 'ETag' header.
+   */
+  private static class StubServer {
+    final AtomicInteger requests = new AtomicInteger();
+    private final HttpServer server;
+    private final byte[] content;
+    private final Date modified;
+    volatile int status = 200;
+    volatile CountDownLatch hang;
+    volatile boolean tampered;
+
+    StubServer(byte[] content, Instant modified) throws IOException {
+      this.content = content;
+      this.modified = Date.from(modified);
+      this.server = HttpServer.create(new InetSocketAddress(0), 0);
+      this.server.createContext("/catalogue-v1.xml", this::handle);
+      // Requests to a hanging server must not block requests to the other one.
+      this.server.setExecutor(Executors.newCachedThreadPool());
+      this.server.start();
+    }
+
+    String getUrl() {
+      return "http://localhost:" + this.server.getAddress().getPort() + "/catalogue-v1.xml";
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+      this.requests.incrementAndGet();
+      try {
+        CountDownLatch hangUntil = this.hang;
+        if (hangUntil != null) {
+          hangUntil.await(30, TimeUnit.SECONDS);
+        }
+        if (this.status != 200) {
+          exchange.sendResponseHeaders(this.status, -1);
+          return;
+        }
+        String etag = "\"" + MetadataVerifier.getHash(this.content) + "\"";
+        exchange.getResponseHeaders().set("ETag", etag);
+        exchange.getResponseHeaders().set("Last-Modified", DateUtils.formatDate(this.modified));
+        if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+          exchange.sendResponseHeaders(304, -1);
+          return;
+        }
+        byte[] body = this.content.clone();
+        if (this.tampered) {
+          body[body.length - 2] = 'X';
+        }
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+          output.write(body);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } finally {
+        exchange.close();
+      }
+    }
+
+    void stop() {
+      CountDownLatch hangUntil = this.hang;
+      if (hangUntil != null) {
+        hangUntil.countDown();
+      }
+      this.server.stop(0);
+    }
+  }
+}
@@ -0,0 +1,184 @@
+package eu.erasmuswithoutpaper.catalogueserver.web;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Locale;
+
+import eu.erasmuswithoutpaper.catalogueserver.web.githubcataloguesource.CatalogueMetadataGitHub;
+
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Institutions and APIs served by {@link CatalogueIndexController}.
+ */
+public class CatalogueIndexControllerTest {
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private Path directory;
+  private CatalogueCopy<CatalogueMetadataGitHub> copy;
+  private MockMvc mockMvc;
+
+  @Before
+  public void setUp() throws Exception {
+    this.directory = this.folder.getRoot().toPath();
+    this.copy = TestCatalogues.openCopy(this.directory, false);
+    this.copy.onCatalogueFetchedWithChanges(
+        TestCatalogues.createResponse(this.directory, TestCatalogues.generateDescribed()));
+    this.mockMvc = createMockMvc(this.copy);
+  }
+
+  private static MockMvc createMockMvc(CatalogueCopy<CatalogueMetadataGitHub> copy) {
+    return MockMvcBuilders.standaloneSetup(new CatalogueIndexController<>(
+        TestCatalogues.createUpdater(copy),
+        new ApplicationErrorController(new DefaultResourceLoader()), new ObjectMapper())).build();
+  }
+
+  @Test
+  public void heiIsFoundCaseInsensitively() throws Exception {
+    this.mockMvc.perform(get("/catalogue-v1/heis/UW.EDU.PL"))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.id").value("uw.edu.pl"))
+        .andExpect(jsonPath("$.names.en").value("University of Warsaw"))
+        .andExpect(jsonPath("$.otherIds[0].type").value("erasmus"))
+        .andExpect(jsonPath("$.otherIds[0].value").value("PL WARSZAW01"))
+        .andExpect(jsonPath("$.hosts.length()").value(2))
+        .andExpect(jsonPath("$.hosts[0].adminEmails[0]").value("admin@uw.edu.pl"))
+        .andExpect(jsonPath("$.hosts[0].apis[0].name").value("echo"))
+        .andExpect(jsonPath("$.hosts[0].apis[0].urls.url").value("https://ewp.uw.edu.pl/echo"));
+  }
+
+  @Test
+  public void coveredHeiIsDescribedWithoutNames() throws Exception {
+    this.mockMvc.perform(get("/catalogue-v1/heis/covered.example.com"))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.id").value("covered.example.com"))
+        .andExpect(jsonPath("$.names").isEmpty())
+        .andExpect(jsonPath("$.otherIds").isEmpty())
+        .andExpect(jsonPath("$.hosts.length()").value(1))
+        .andExpect(jsonPath("$.hosts[0].heiIds[1]").value("covered.example.com"));
+  }
+
+  @Test
+  public void unknownHeiIsNotFound() throws Exception {
+    this.mockMvc.perform(get("/catalogue-v1/heis/missing.example.com"))
+        .andExpect(status().isNotFound());
+  }
+
+  @Test
+  public void apiNamesAreListedWithoutName() throws Exception {
+    this.mockMvc.perform(get("/catalogue-v1/apis"))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.length()").value(2))
+        .andExpect(jsonPath("$[0]").value("echo"))
+        .andExpect(jsonPath("$[1]").value("institutions"));
+  }
+
+  @Test
+  public void implementationsAreListedByName() throws Exception {
+    this.mockMvc.perform(get("/catalogue-v1/apis").param("name", "echo"))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.length()").value(2))
+        .andExpect(jsonPath("$[0].version").value("2.1.0"))
+        .andExpect(jsonPath("$[0].heiIds[0]").value("uw.edu.pl"))
+        .andExpect(jsonPath("$[1].version").value("2.0.0"))
+        .andExpect(jsonPath("$[1].urls.url").value("https://ewp.example.com/echo"));
+    this.mockMvc.perform(get("/catalogue-v1/apis").param("name", "missing"))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$").isEmpty());
+  }
+
+  @Test
+  public void credentialIsDescribedWithHostsUsingIt() throws Exception {
+    this.mockMvc.perform(get("/catalogue-v1/credentials/" + TestCatalogues.CLIENT_KEY_SHA256))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.length()").value(2))
+        .andExpect(jsonPath("$[0].type").value("client-rsa-public-key"))
+        .andExpect(jsonPath("$[0].heiIds[0]").value("uw.edu.pl"))
+        .andExpect(jsonPath("$[0].adminEmails[0]").value("admin@uw.edu.pl"))
+        .andExpect(jsonPath("$[1].type").value("server-rsa-public-key"))
+        .andExpect(jsonPath("$[1].heiIds.length()").value(2))
+        .andExpect(jsonPath("$[1].adminEmails[0]").value("admin@example.com"));
+    this.mockMvc.perform(get("/catalogue-v1/credentials/"
+        + TestCatalogues.CLIENT_CERTIFICATE_SHA256.toUpperCase(Locale.ROOT)))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.length()").value(1))
+        .andExpect(jsonPath("$[0].type").value("client-certificate"))
+        .andExpect(jsonPath("$[0].heiIds[0]").value("uw.edu.pl"));
+    this.mockMvc.perform(get("/catalogue-v1/credentials/" + TestCatalogues.SERVER_KEY_SHA256))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.length()").value(1))
+        .andExpect(jsonPath("$[0].type").value("server-rsa-public-key"))
+        .andExpect(jsonPath("$[0].heiIds[0]").value("uw.edu.pl"));
+  }
+
+  @Test
+  public void unknownCredentialIsNotFound() throws Exception {
+    this.mockMvc.perform(get("/catalogue-v1/credentials/"
+        + TestCatalogues.CLIENT_CERTIFICATE_SHA256.replace('1', '0')))
+        .andExpect(status().isNotFound());
+  }
+
+  @Test
+  public void matchingEtagGivesNotModified() throws Exception {
+    String etag = this.mockMvc.perform(get("/catalogue-v1/heis/uw.edu.pl"))
+        .andExpect(status().isOk())
+        .andExpect(header().string(HttpHeaders.CACHE_CONTROL, "max-age=300, must-revalidate"))
+        .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+    assertThat(etag).startsWith("\"");
+
+    this.mockMvc.perform(get("/catalogue-v1/heis/uw.edu.pl")
+        .header(HttpHeaders.IF_NONE_MATCH, etag))
+        .andExpect(status().isNotModified())
+        .andExpect(content().bytes(new byte[0]));
+    // The ETag describes the response, not the whole Catalogue.
+    this.mockMvc.perform(get("/catalogue-v1/heis/covered.example.com")
+        .header(HttpHeaders.IF_NONE_MATCH, etag))
+        .andExpect(status().isOk());
+  }
+
+  @Test
+  public void etagOfUnchangedPartSurvivesNewVersion() throws Exception {
+    String etag = this.mockMvc.perform(get("/catalogue-v1/apis"))
+        .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+    byte[] changed = new String(TestCatalogues.generateDescribed(), StandardCharsets.UTF_8)
+        .replace("University of Warsaw", "Warsaw University").getBytes(StandardCharsets.UTF_8);
+    this.copy.onCatalogueFetchedWithChanges(
+        TestCatalogues.createResponse(this.directory, changed));
+
+    this.mockMvc.perform(get("/catalogue-v1/apis").header(HttpHeaders.IF_NONE_MATCH, etag))
+        .andExpect(status().isNotModified());
+    this.mockMvc.perform(get("/catalogue-v1/heis/uw.edu.pl"))
+        .andExpect(jsonPath("$.names.en").value("Warsaw University"));
+  }
+
+  @Test
+  public void storedVersionIsIndexedAfterRestart() throws Exception {
+    CatalogueCopy<CatalogueMetadataGitHub> restarted =
+        TestCatalogues.openCopy(this.directory, false);
+    // The stored version is published before its index is built.
+    assertThat(restarted.getCatalogueAndMetadata()).isNotNull();
+    TestCatalogues.awaitIndex(restarted);
+
+    createMockMvc(restarted).perform(get("/catalogue-v1/heis/uw.edu.pl"))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.hosts.length()").value(2));
+  }
+}
@@ -0,0 +1,180 @@
+package eu.erasmuswithoutpaper.catalogueserver.web;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Lookups of institutions and APIs in a {@link CatalogueIndex}, and comparison of indexed
+ * institutions by {@link CatalogueChangeSet}.
+ */
+public class CatalogueIndexTest {
+  private final byte[] catalogue = TestCatalogues.generateDescribed();
+
+  private CatalogueIndex build() throws XMLStreamException {
+    return CatalogueIndex.build(this.catalogue);
+  }
+
+  @Test
+  public void heiIsFoundCaseInsensitively() throws Exception {
+    CatalogueIndex index = build();
+
+    CatalogueIndex.HeiEntry hei = index.getHei("UW.edu.PL");
+    assertThat(hei.getId()).isEqualTo("uw.edu.pl");
+    assertThat(hei.getNames()).containsEntry("en", "University of Warsaw")
+        .containsEntry("pl", "Uniwersytet Warszawski");
+    assertThat(hei.getOtherIds()).hasSize(1);
+    assertThat(hei.getOtherIds().get(0).getType()).isEqualTo("erasmus");
+    assertThat(hei.getOtherIds().get(0).getValue()).isEqualTo("PL WARSZAW01");
+    // Both hosts cover it, one of them with an upper-cased ID.
+    assertThat(index.getHostsByHeiId("uw.EDU.pl")).hasSize(2);
+  }
+
+  @Test
+  public void coveredHeiIsFoundWithoutDescription() throws Exception {
+    CatalogueIndex index = build();
+
+    CatalogueIndex.HeiEntry hei = index.getHei("Covered.example.com");
+    assertThat(hei.getId()).isEqualTo("Covered.example.com");
+    assertThat(hei.getNames()).isEmpty();
+    assertThat(hei.getOtherIds()).isEmpty();
+    assertThat(index.getHostsByHeiId("covered.example.com")).hasSize(1);
+    assertThat(index.getHeis()).hasSize(1);
+  }
+
+  @Test
+  public void unknownHeiIsNotFound() throws Exception {
+    CatalogueIndex index = build();
+
+    assertThat(index.getHei("missing.example.com")).isNull();
+    assertThat(index.getHostsByHeiId("missing.example.com")).isEmpty();
+  }
+
+  @Test
+  public void apisAreFoundByName() throws Exception {
+    CatalogueIndex index = build();
+
+    assertThat(index.getApiNames()).containsExactly("echo", "institutions");
+    assertThat(index.getHostsByApiName("echo")).hasSize(2);
+    CatalogueIndex.HostEntry host = index.getHostsByApiName("institutions").get(0);
+    assertThat(host.getAdminEmails()).containsExactly("admin@uw.edu.pl");
+    CatalogueIndex.ApiEntry api = host.getApis().get(1);
+    assertThat(api.getName()).isEqualTo("institutions");
+    assertThat(api.getVersion()).isEqualTo("2.0.0");
+    assertThat(api.getNamespace()).endsWith("ewp-specs-api-institutions/tree/stable-v2");
+    assertThat(api.getUrls()).containsEntry("url", "https://ewp.uw.edu.pl/institutions");
+    assertThat(index.getHostsByApiName("missing")).isEmpty();
+  }
+
+  @Test
+  public void credentialsMapToHostsUsingThem() throws Exception {
+    CatalogueIndex index = build();
+
+    List<CatalogueIndex.CredentialUse> certificateUses =
+        index.getCredentialUses(TestCatalogues.CLIENT_CERTIFICATE_SHA256);
+    assertThat(certificateUses).hasSize(1);
+    assertThat(certificateUses.get(0).getType())
+        .isEqualTo(CatalogueIndex.CredentialType.CLIENT_CERTIFICATE);
+    assertThat(certificateUses.get(0).getHost().getHeiIds()).containsExactly("uw.edu.pl");
+
+    List<CatalogueIndex.CredentialUse> serverKeyUses =
+        index.getCredentialUses(TestCatalogues.SERVER_KEY_SHA256);
+    assertThat(serverKeyUses).hasSize(1);
+    assertThat(serverKeyUses.get(0).getType())
+        .isEqualTo(CatalogueIndex.CredentialType.SERVER_RSA_KEY);
+    assertThat(serverKeyUses.get(0).getHost().getHeiIds()).containsExactly("uw.edu.pl");
+
+    // The same key is a client key of one host and a server key of another.
+    List<CatalogueIndex.CredentialUse> keyUses =
+        index.getCredentialUses(TestCatalogues.CLIENT_KEY_SHA256);
+    assertThat(keyUses).hasSize(2);
+    assertThat(keyUses.get(0).getType()).isEqualTo(CatalogueIndex.CredentialType.CLIENT_RSA_KEY);
+    assertThat(keyUses.get(0).getHost().getHeiIds()).containsExactly("uw.edu.pl");
+    assertThat(keyUses.get(1).getType()).isEqualTo(CatalogueIndex.CredentialType.SERVER_RSA_KEY);
+    assertThat(keyUses.get(1).getHost().getHeiIds())
+        .containsExactly("UW.EDU.PL", "covered.example.com");
+
+    CatalogueIndex.HostEntry host = index.getHosts().get(0);
+    assertThat(host.getCredentials(CatalogueIndex.CredentialType.CLIENT_CERTIFICATE))
+        .containsExactly(TestCatalogues.CLIENT_CERTIFICATE_SHA256);
+    assertThat(index.getHosts().get(1)
+        .getCredentials(CatalogueIndex.CredentialType.CLIENT_CERTIFICATE)).isEmpty();
+  }
+
+  @Test
+  public void credentialLookupIgnoresCaseAndWhitespace() throws Exception {
+    CatalogueIndex index = build();
+
+    assertThat(index.getCredentialUses(
+        " " + TestCatalogues.CLIENT_CERTIFICATE_SHA256.toUpperCase(Locale.ROOT) + "\n"))
+        .hasSize(1);
+    assertThat(index.getCredentialUses(TestCatalogues.SERVER_KEY_SHA256.toUpperCase(Locale.ROOT)))
+        .hasSize(1);
+    assertThat(index.getCredentialUses("0000")).isEmpty();
+  }
+
+  @Test
+  public void directBufferIsIndexedLikeArray() throws Exception {
+    ByteBuffer direct = ByteBuffer.allocateDirect(this.catalogue.length);
+    direct.put(this.catalogue).flip();
+
+    CatalogueIndex index = CatalogueIndex.build(direct.asReadOnlyBuffer());
+
+    assertThat(direct.position()).isZero();
+    assertThat(index.getHosts()).hasSize(2);
+    assertThat(index.getHei("uw.edu.pl").getNames()).hasSize(2);
+    assertThat(index.getApiNames()).isEqualTo(build().getApiNames());
+  }
+
+  private static CatalogueIndex buildWithUntypedOtherId(String value) throws XMLStreamException {
+    String catalogue = new String(TestCatalogues.generateDescribed(), StandardCharsets.UTF_8)
+        .replace("<other-id type=\"erasmus\">PL WARSZAW01</other-id>",
+            "<other-id>" + value + "</other-id>");
+    return CatalogueIndex.build(catalogue.getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void otherIdWithoutTypeIsIndexed() throws Exception {
+    CatalogueIndex index = buildWithUntypedOtherId("PL WARSZAW01");
+
+    List<CatalogueIndex.OtherId> otherIds = index.getHei("uw.edu.pl").getOtherIds();
+    assertThat(otherIds).hasSize(1);
+    assertThat(otherIds.get(0).getType()).isNull();
+    assertThat(otherIds.get(0).getValue()).isEqualTo("PL WARSZAW01");
+  }
+
+  @Test
+  public void otherIdWithoutTypeIsComparedInChangeSet() throws Exception {
+    CatalogueIndex base = buildWithUntypedOtherId("PL WARSZAW01");
+
+    assertThat(CatalogueChangeSet.compute("base", base, "same",
+        buildWithUntypedOtherId("PL WARSZAW01")).getChanges()).isEmpty();
+
+    List<CatalogueChangeSet.Change> changes = CatalogueChangeSet.compute("base", base, "changed",
+        buildWithUntypedOtherId("PL WARSZAW02")).getChanges();
+    assertThat(changes).hasSize(1);
+    assertThat(changes.get(0).getEntity()).isEqualTo(CatalogueChangeSet.Entity.HEI);
+    assertThat(changes.get(0).getKind()).isEqualTo(CatalogueChangeSet.Kind.CHANGED);
+    assertThat(changes.get(0).getId()).isEqualTo("uw.edu.pl");
+
+    // Missing type differs from any type.
+    assertThat(CatalogueChangeSet.compute("base", build(), "untyped", base).getChanges())
+        .extracting(CatalogueChangeSet.Change::getId).containsExactly("uw.edu.pl");
+  }
+
+  @Test
+  public void malformedCatalogueIsRejected() {
+    byte[] malformed = "<catalogue><host></catalogue>".getBytes(StandardCharsets.UTF_8);
+
+    assertThatThrownBy(() -> CatalogueIndex.build(malformed))
+        .isInstanceOf(XMLStreamException.class);
+  }
+}
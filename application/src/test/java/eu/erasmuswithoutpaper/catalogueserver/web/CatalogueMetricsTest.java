@@ -0,0 +1,171 @@
+package eu.erasmuswithoutpaper.catalogueserver.web;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import eu.erasmuswithoutpaper.catalogueserver.web.githubcataloguesource.CatalogueMetadataGitHub;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.web.servlet.MockMvc;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * 'catalogue.*' meters of {@link CatalogueUpdater} and {@link CatalogueEndpointController}
+ * registered in a {@link SimpleMeterRegistry}, before the first fetch and after fetches and
+ * served requests.
+ */
+public class CatalogueMetricsTest {
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final Deque<CatalogueGetterResponse<CatalogueMetadataGitHub>> upstream =
+      new ArrayDeque<>();
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private final byte[] catalogue = TestCatalogues.generate(20, "v1");
+  private Path directory;
+  private CatalogueUpdater<CatalogueMetadataGitHub> updater;
+  private MockMvc mockMvc;
+
+  @Before
+  public void setUp() {
+    this.directory = this.folder.getRoot().toPath();
+    CatalogueCopy<CatalogueMetadataGitHub> copy = TestCatalogues.openCopy(this.directory, false);
+    this.updater = new CatalogueUpdater<>(copy, metadata -> this.upstream.removeFirst(),
+        new PollingSchedule(Duration.ofSeconds(10), Duration.ofSeconds(100),
+            Duration.ofSeconds(1000), 0),
+        this.meterRegistry);
+    this.mockMvc = TestCatalogues.createEndpoint(this.updater);
+  }
+
+  private void fetch(CatalogueGetterResponse<CatalogueMetadataGitHub> response) {
+    this.upstream.add(response);
+    this.updater.updateCatalogue();
+  }
+
+  /**
+   * Fetches the catalogue as if it was last fetched a minute ago, with the given API call budget.
+   */
+  private void fetchCatalogue(RateLimit rateLimit) throws Exception {
+    Instant minuteAgo = Instant.now().minusSeconds(60);
+    CatalogueMetadataGitHub metadata = new CatalogueMetadataGitHub(minuteAgo, minuteAgo,
+        MetadataVerifier.getHash(this.catalogue), "\"etag-1\"");
+    fetch(CatalogueGetterResponse.createOk(
+        TestCatalogues.createResponse(this.directory, this.catalogue).content, metadata)
+        .withRateLimit(rateLimit));
+  }
+
+  private double getGauge(String name) {
+    return this.meterRegistry.get(name).gauge().value();
+  }
+
+  private Timer getTimer(String name, String tag, String value) {
+    return this.meterRegistry.get(name).tag(tag, value).timer();
+  }
+
+  private DistributionSummary getServedSize(int status, CatalogueEncoding encoding) {
+    return this.meterRegistry.get("catalogue.served.size")
+        .tag("status", String.valueOf(status))
+        .tag("encoding", encoding.getContentCoding())
+        .summary();
+  }
+
+  @Test
+  public void metersAreRegisteredBeforeFirstFetch() {
+    assertThat(getGauge("catalogue.poll.interval")).isNotNaN();
+    assertThat(getGauge("catalogue.upstream.rate-limit.remaining")).isNaN();
+    assertThat(getGauge("catalogue.upstream.rate-limit.reset")).isNaN();
+    assertThat(getGauge("catalogue.last-fetch.age")).isNaN();
+    assertThat(getGauge("catalogue.generation")).isNaN();
+    assertThat(this.meterRegistry.get("catalogue.upstream.equivalent").counter().count())
+        .isZero();
+    for (CatalogueEncoding encoding : CatalogueEncoding.values()) {
+      assertThat(this.meterRegistry.get("catalogue.size")
+          .tag("encoding", encoding.getContentCoding()).gauge().value()).isNaN();
+      assertThat(getServedSize(200, encoding).count()).isZero();
+      assertThat(getServedSize(206, encoding).count()).isZero();
+    }
+    assertThat(getServedSize(226, CatalogueEncoding.IDENTITY).count()).isZero();
+  }
+
+  @Test
+  public void fetchesRecordFetchAndStoreTimers() throws Exception {
+    fetchCatalogue(RateLimit.UNKNOWN);
+    fetch(CatalogueGetterResponse.createNotModified());
+    fetch(CatalogueGetterResponse.createNotModified());
+
+    assertThat(getTimer("catalogue.upstream.fetch", "outcome", "ok").count()).isEqualTo(1);
+    assertThat(getTimer("catalogue.upstream.fetch", "outcome", "not_modified").count())
+        .isEqualTo(2);
+    assertThat(getTimer("catalogue.copy.store", "result", "published").count()).isEqualTo(1);
+    assertThat(getTimer("catalogue.copy.store", "result", "unchanged").count()).isEqualTo(2);
+    // Snapshots with updated last fetch date are published as new generations too.
+    assertThat(getGauge("catalogue.generation")).isEqualTo(3);
+    assertThat(this.meterRegistry.get("catalogue.size")
+        .tag("encoding", CatalogueEncoding.IDENTITY.getContentCoding()).gauge().value())
+        .isEqualTo(this.catalogue.length);
+  }
+
+  @Test
+  public void lastFetchAgeIsResetByFetchWithoutChanges() throws Exception {
+    fetchCatalogue(RateLimit.UNKNOWN);
+    assertThat(getGauge("catalogue.last-fetch.age")).isCloseTo(60, within(5.0));
+
+    fetch(CatalogueGetterResponse.createNotModified());
+
+    assertThat(getGauge("catalogue.last-fetch.age")).isBetween(0.0, 5.0);
+  }
+
+  @Test
+  public void rateLimitGaugesFollowReportedBudget() throws Exception {
+    Instant reset = Instant.now().plusSeconds(3600);
+    fetchCatalogue(new RateLimit(4321, reset));
+
+    assertThat(getGauge("catalogue.upstream.rate-limit.remaining")).isEqualTo(4321);
+    assertThat(getGauge("catalogue.upstream.rate-limit.reset"))
+        .isEqualTo(reset.getEpochSecond());
+
+    // Unknown budget doesn't replace the reported one.
+    fetch(CatalogueGetterResponse.<CatalogueMetadataGitHub>createNotModified()
+        .withRateLimit(RateLimit.UNKNOWN));
+
+    assertThat(getGauge("catalogue.upstream.rate-limit.remaining")).isEqualTo(4321);
+  }
+
+  @Test
+  public void servedBodiesAreRecordedByStatusAndEncoding() throws Exception {
+    fetchCatalogue(RateLimit.UNKNOWN);
+    double gzipSize = this.meterRegistry.get("catalogue.size")
+        .tag("encoding", CatalogueEncoding.GZIP.getContentCoding()).gauge().value();
+
+    this.mockMvc.perform(get("/catalogue-v1.xml")).andExpect(status().isOk());
+    this.mockMvc.perform(get("/catalogue-v1.xml").header(HttpHeaders.ACCEPT_ENCODING, "gzip"))
+        .andExpect(status().isOk());
+    this.mockMvc.perform(get("/catalogue-v1.xml").header(HttpHeaders.RANGE, "bytes=10-109"))
+        .andExpect(status().isPartialContent());
+
+    DistributionSummary identity = getServedSize(200, CatalogueEncoding.IDENTITY);
+    assertThat(identity.count()).isEqualTo(1);
+    assertThat(identity.totalAmount()).isEqualTo(this.catalogue.length);
+    DistributionSummary gzip = getServedSize(200, CatalogueEncoding.GZIP);
+    assertThat(gzip.count()).isEqualTo(1);
+    assertThat(gzip.totalAmount()).isEqualTo(gzipSize);
+    DistributionSummary partial = getServedSize(206, CatalogueEncoding.IDENTITY);
+    assertThat(partial.count()).isEqualTo(1);
+    assertThat(partial.totalAmount()).isEqualTo(100);
+  }
+}
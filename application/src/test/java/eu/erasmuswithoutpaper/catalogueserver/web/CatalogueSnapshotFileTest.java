@@ -0,0 +1,147 @@
+package eu.erasmuswithoutpaper.catalogueserver.web;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import eu.erasmuswithoutpaper.catalogueserver.web.githubcataloguesource.CatalogueMetadataGitHub;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Reading and validation of {@link CatalogueSnapshotFile} and how {@link CatalogueCopy} recovers
+ * from an invalid snapshot or outdated separate files at startup.
+ */
+public class CatalogueSnapshotFileTest {
+  private static final String SNAPSHOT_FILE = "catalogue-v1.snapshot";
+  private static final String CATALOGUE_FILE = "catalogue-v1.xml";
+  private static final String METADATA_FILE = "catalogue-v1-metadata.xml";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final byte[] catalogue = TestCatalogues.generate(20, "v1");
+  private Path directory;
+  private Path snapshotFile;
+
+  @Before
+  public void setUp() throws Exception {
+    this.directory = this.folder.getRoot().toPath();
+    this.snapshotFile = this.directory.resolve(SNAPSHOT_FILE);
+    TestCatalogues.openCopy(this.directory, false).onCatalogueFetchedWithChanges(
+        TestCatalogues.createResponse(this.directory, this.catalogue));
+  }
+
+  private CatalogueAndMetadata<CatalogueMetadataGitHub> readSnapshot() throws Exception {
+    return CatalogueSnapshotFile.read(this.directory.toString(), SNAPSHOT_FILE,
+        CatalogueMetadataGitHub.class, 1, CatalogueStorage.HEAP);
+  }
+
+  private void assertSnapshotIsRejected() {
+    assertThatThrownBy(this::readSnapshot).isInstanceOf(FileUtils.ReadFileException.class);
+  }
+
+  @Test
+  public void writtenSnapshotIsReadBack() throws Exception {
+    CatalogueAndMetadata<CatalogueMetadataGitHub> snapshot = readSnapshot();
+
+    assertThat(snapshot.getGeneration()).isEqualTo(1);
+    assertThat(snapshot.getCatalogueMetadata().getHash())
+        .isEqualTo(MetadataVerifier.getHash(this.catalogue));
+    assertThat(TestCatalogues.toBytes(
+        snapshot.getEncodedCatalogue(CatalogueEncoding.IDENTITY).getContent()))
+        .isEqualTo(this.catalogue);
+    for (CatalogueEncoding encoding : CatalogueEncoding.values()) {
+      assertThat(snapshot.getEncodedCatalogue(encoding).getContentLength()).isPositive();
+    }
+  }
+
+  @Test
+  public void corruptedSnapshotFailsChecksum() throws Exception {
+    byte[] bytes = Files.readAllBytes(this.snapshotFile);
+    bytes[bytes.length / 2] ^= 0x01;
+    Files.write(this.snapshotFile, bytes);
+
+    assertSnapshotIsRejected();
+  }
+
+  @Test
+  public void truncatedSnapshotIsRejected() throws Exception {
+    byte[] bytes = Files.readAllBytes(this.snapshotFile);
+    Files.write(this.snapshotFile, Arrays.copyOf(bytes, bytes.length / 2));
+    assertSnapshotIsRejected();
+
+    Files.write(this.snapshotFile, Arrays.copyOf(bytes, 4));
+    assertSnapshotIsRejected();
+
+    Files.write(this.snapshotFile, new byte[0]);
+    assertSnapshotIsRejected();
+  }
+
+  @Test
+  public void missingSnapshotIsRejected() throws Exception {
+    Files.delete(this.snapshotFile);
+
+    assertSnapshotIsRejected();
+  }
+
+  @Test
+  public void separateFilesAreUsedWhenSnapshotIsInvalid() throws Exception {
+    byte[] bytes = Files.readAllBytes(this.snapshotFile);
+    bytes[bytes.length - 1] ^= 0x01;
+    Files.write(this.snapshotFile, bytes);
+
+    CatalogueCopy<CatalogueMetadataGitHub> copy = TestCatalogues.openCopy(this.directory, false);
+
+    CatalogueAndMetadata<CatalogueMetadataGitHub> current = copy.getCatalogueAndMetadata();
+    assertThat(TestCatalogues.toBytes(
+        current.getEncodedCatalogue(CatalogueEncoding.IDENTITY).getContent()))
+        .isEqualTo(this.catalogue);
+    assertThat(copy.isStoredCopyOf(current)).isTrue();
+    // The snapshot is created again from the separate files.
+    assertThat(readSnapshot().getCatalogueMetadata().getHash())
+        .isEqualTo(current.getCatalogueMetadata().getHash());
+  }
+
+  @Test
+  public void separateFilesAreUsedWhenSnapshotIsMissing() throws Exception {
+    Files.delete(this.snapshotFile);
+
+    CatalogueCopy<CatalogueMetadataGitHub> copy = TestCatalogues.openCopy(this.directory, false);
+
+    assertThat(copy.getCatalogueAndMetadata().getCatalogueMetadata().getHash())
+        .isEqualTo(MetadataVerifier.getHash(this.catalogue));
+    assertThat(Files.exists(this.snapshotFile)).isTrue();
+  }
+
+  @Test
+  public void outdatedSeparateFilesAreRewrittenFromSnapshot() throws Exception {
+    byte[] oldCatalogueFile = Files.readAllBytes(this.directory.resolve(CATALOGUE_FILE));
+    byte[] oldMetadataFile = Files.readAllBytes(this.directory.resolve(METADATA_FILE));
+    byte[] newCatalogue = TestCatalogues.generate(21, "v2");
+    TestCatalogues.openCopy(this.directory, false).onCatalogueFetchedWithChanges(
+        TestCatalogues.createResponse(this.directory, newCatalogue));
+    // As if we were stopped after the snapshot was written, but before the other files were.
+    Files.write(this.directory.resolve(CATALOGUE_FILE), oldCatalogueFile);
+    Files.write(this.directory.resolve(METADATA_FILE), oldMetadataFile);
+
+    CatalogueCopy<CatalogueMetadataGitHub> copy = TestCatalogues.openCopy(this.directory, false);
+
+    CatalogueAndMetadata<CatalogueMetadataGitHub> current = copy.getCatalogueAndMetadata();
+    assertThat(current.getCatalogueMetadata().getHash())
+        .isEqualTo(MetadataVerifier.getHash(newCatalogue));
+    assertThat(copy.isStoredCopyOf(current)).isTrue();
+    assertThat(Files.readAllBytes(this.directory.resolve(CATALOGUE_FILE)))
+        .isEqualTo(newCatalogue);
+    assertThat(new String(Files.readAllBytes(this.directory.resolve(METADATA_FILE)),
+        StandardCharsets.UTF_8))
+        .contains(MetadataVerifier.getHash(newCatalogue));
+  }
+}
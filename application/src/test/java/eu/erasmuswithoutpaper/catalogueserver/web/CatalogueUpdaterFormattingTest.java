@@ -0,0 +1,96 @@
+package eu.erasmuswithoutpaper.catalogueserver.web;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import eu.erasmuswithoutpaper.catalogueserver.web.githubcataloguesource.CatalogueMetadataGitHub;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Fetched versions differing from the served one only in formatting, with formatting changes
+ * ignored.
+ */
+public class CatalogueUpdaterFormattingTest {
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final Deque<byte[]> upstream = new ArrayDeque<>();
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private Path directory;
+  private CatalogueCopy<CatalogueMetadataGitHub> copy;
+  private PollingSchedule pollingSchedule;
+  private CatalogueUpdater<CatalogueMetadataGitHub> updater;
+
+  @Before
+  public void setUp() throws Exception {
+    this.directory = this.folder.getRoot().toPath();
+    this.copy = TestCatalogues.openCopy(this.directory, true);
+    this.pollingSchedule = new PollingSchedule(Duration.ofSeconds(10), Duration.ofSeconds(100),
+        Duration.ofSeconds(1000), 0);
+    this.updater = new CatalogueUpdater<>(this.copy, metadata -> fetch(),
+        this.pollingSchedule, this.meterRegistry);
+  }
+
+  private CatalogueGetterResponse<CatalogueMetadataGitHub> fetch() {
+    try {
+      return TestCatalogues.createResponse(this.directory, this.upstream.removeFirst());
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private String getServedHash() {
+    return this.copy.getCatalogueAndMetadata().getCatalogueMetadata().getHash();
+  }
+
+  private String getServedEtag() {
+    return this.copy.getCatalogueAndMetadata().getEncodedCatalogue(CatalogueEncoding.IDENTITY)
+        .getEtag();
+  }
+
+  @Test
+  public void formattingOnlyChangeKeepsVersionAndSlowsPolling() throws Exception {
+    byte[] catalogue = TestCatalogues.generate(3, "v1");
+    this.upstream.add(catalogue);
+    this.updater.updateCatalogue();
+    String etag = getServedEtag();
+    assertThat(this.pollingSchedule.getCurrentDelay()).isLessThan(Duration.ofSeconds(12));
+
+    this.upstream.add(TestCatalogues.reformat(catalogue));
+    this.updater.updateCatalogue();
+
+    assertThat(getServedEtag()).isEqualTo(etag);
+    assertThat(getServedHash()).isEqualTo(MetadataVerifier.getHash(catalogue));
+    assertThat(this.meterRegistry.get("catalogue.upstream.equivalent").counter().count())
+        .isEqualTo(1);
+    // The interval grows as after a fetch without changes, instead of staying at the minimum.
+    assertThat(this.pollingSchedule.getCurrentDelay()).isGreaterThan(Duration.ofSeconds(13));
+  }
+
+  @Test
+  public void realChangeIsPublishedDespiteFormattingChanges() throws Exception {
+    byte[] catalogue = TestCatalogues.generate(3, "v1");
+    this.upstream.add(catalogue);
+    this.updater.updateCatalogue();
+    String etag = getServedEtag();
+
+    byte[] changed = TestCatalogues.reformat(TestCatalogues.generate(3, "v2"));
+    this.upstream.add(changed);
+    this.updater.updateCatalogue();
+
+    assertThat(getServedEtag()).isNotEqualTo(etag);
+    assertThat(getServedHash()).isEqualTo(MetadataVerifier.getHash(changed));
+    assertThat(this.pollingSchedule.getCurrentDelay()).isLessThan(Duration.ofSeconds(12));
+  }
+}
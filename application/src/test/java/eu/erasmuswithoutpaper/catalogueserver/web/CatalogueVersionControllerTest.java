@@ -0,0 +1,91 @@
+package eu.erasmuswithoutpaper.catalogueserver.web;
+
+import java.io.ByteArrayInputStream;
+import java.util.zip.GZIPInputStream;
+
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.util.StreamUtils;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Stored versions served by {@link CatalogueVersionController} under immutable URLs.
+ */
+public class CatalogueVersionControllerTest {
+  private static final String IMMUTABLE = "public, max-age=31536000, immutable";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final byte[] catalogue = TestCatalogues.generate(3, "v1");
+  private CatalogueVersionStore store;
+  private MockMvc mockMvc;
+  private String url;
+
+  @Before
+  public void setUp() throws Exception {
+    this.store = new CatalogueVersionStore(this.folder.getRoot().toString(), 2, Long.MAX_VALUE);
+    this.store.store(CatalogueVersionStoreTest.createSnapshot(this.catalogue));
+    this.url = "/catalogue-v1/"
+        + CatalogueVersionStore.getVersionId(MetadataVerifier.getHash(this.catalogue)) + ".xml";
+    this.mockMvc = MockMvcBuilders.standaloneSetup(new CatalogueVersionController(this.store,
+        new ApplicationErrorController(new DefaultResourceLoader()))).build();
+  }
+
+  @Test
+  public void servesVersionDecompressedWithImmutableCaching() throws Exception {
+    this.mockMvc.perform(get(this.url))
+        .andExpect(status().isOk())
+        .andExpect(header().string(HttpHeaders.CACHE_CONTROL, IMMUTABLE))
+        .andExpect(header().string(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING))
+        .andExpect(header().doesNotExist(HttpHeaders.CONTENT_ENCODING))
+        .andExpect(content().bytes(this.catalogue));
+  }
+
+  @Test
+  public void servesStoredGzipToClientsAcceptingIt() throws Exception {
+    MvcResult result = this.mockMvc.perform(get(this.url)
+        .header(HttpHeaders.ACCEPT_ENCODING, "gzip"))
+        .andExpect(status().isOk())
+        .andExpect(header().string(HttpHeaders.CONTENT_ENCODING, "gzip"))
+        .andExpect(header().string(HttpHeaders.CACHE_CONTROL, IMMUTABLE))
+        .andReturn();
+
+    byte[] body = result.getResponse().getContentAsByteArray();
+    assertThat(StreamUtils.copyToByteArray(new GZIPInputStream(new ByteArrayInputStream(body))))
+        .isEqualTo(this.catalogue);
+  }
+
+  @Test
+  public void revalidatesWithEtag() throws Exception {
+    String etag = this.mockMvc.perform(get(this.url)).andReturn().getResponse()
+        .getHeader(HttpHeaders.ETAG);
+
+    this.mockMvc.perform(get(this.url).header(HttpHeaders.IF_NONE_MATCH, etag))
+        .andExpect(status().isNotModified())
+        .andExpect(header().string(HttpHeaders.CACHE_CONTROL, IMMUTABLE));
+  }
+
+  @Test
+  public void unknownAndEvictedVersionsAreNotFound() throws Exception {
+    this.mockMvc.perform(get("/catalogue-v1/unknown.xml")).andExpect(status().isNotFound());
+
+    this.store.store(CatalogueVersionStoreTest.createSnapshot(TestCatalogues.generate(3, "v2")));
+    this.store.store(CatalogueVersionStoreTest.createSnapshot(TestCatalogues.generate(3, "v3")));
+
+    this.mockMvc.perform(get(this.url)).andExpect(status().isNotFound());
+  }
+}
@@ -0,0 +1,144 @@
+package eu.erasmuswithoutpaper.catalogueserver.web;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+
+import eu.erasmuswithoutpaper.catalogueserver.web.githubcataloguesource.CatalogueMetadataGitHub;
+
+import org.springframework.util.StreamUtils;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Storing, reopening and evicting versions in {@link CatalogueVersionStore}.
+ */
+public class CatalogueVersionStoreTest {
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  static CatalogueAndMetadata<CatalogueMetadataGitHub> createSnapshot(byte[] catalogue) {
+    return new CatalogueAndMetadata<>(1, TestCatalogues.createMetadata(catalogue), catalogue,
+        CatalogueStorage.HEAP);
+  }
+
+  private static List<String> getIds(CatalogueVersionStore store) {
+    return store.getVersions().stream().map(CatalogueVersionStore.Version::getId)
+        .collect(Collectors.toList());
+  }
+
+  @Test
+  public void storesVersionsUnderUrlSafeIds() throws Exception {
+    CatalogueVersionStore store =
+        new CatalogueVersionStore(this.folder.getRoot().toString(), 10, Long.MAX_VALUE);
+    byte[] catalogue = TestCatalogues.generate(3, "v1");
+    String hash = MetadataVerifier.getHash(catalogue);
+
+    store.store(createSnapshot(catalogue));
+
+    String id = CatalogueVersionStore.getVersionId(hash);
+    assertThat(id).matches("[A-Za-z0-9_-]+");
+    CatalogueVersionStore.Version version = store.getVersion(id);
+    assertThat(version.getHash()).isEqualTo(hash);
+    assertThat(version.getLength()).isEqualTo(catalogue.length);
+    assertThat(StreamUtils.copyToByteArray(
+        new GZIPInputStream(new ByteArrayInputStream(store.readContent(version)))))
+        .isEqualTo(catalogue);
+    assertThat(store.readMetadata(version)).contains(hash);
+  }
+
+  @Test
+  public void evictsOldestVersionsAboveMaxCount() throws Exception {
+    CatalogueVersionStore store =
+        new CatalogueVersionStore(this.folder.getRoot().toString(), 3, Long.MAX_VALUE);
+    List<String> ids = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      CatalogueAndMetadata<CatalogueMetadataGitHub> snapshot =
+          createSnapshot(TestCatalogues.generate(3, "v" + i));
+      store.store(snapshot);
+      ids.add(CatalogueVersionStore.getVersionId(snapshot.getCatalogueMetadata().getHash()));
+    }
+
+    assertThat(getIds(store)).containsExactly(ids.get(4), ids.get(3), ids.get(2));
+    assertThat(store.getVersion(ids.get(0))).isNull();
+    assertThat(Files.exists(this.folder.getRoot().toPath().resolve(ids.get(0) + ".xml.gz")))
+        .isFalse();
+  }
+
+  @Test
+  public void evictsOldestVersionsAboveMaxSize() throws Exception {
+    Path directory = this.folder.getRoot().toPath();
+    List<CatalogueAndMetadata<CatalogueMetadataGitHub>> snapshots = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      snapshots.add(createSnapshot(TestCatalogues.generate(20, "v" + i)));
+    }
+    long compressedLength =
+        snapshots.get(0).getEncodedCatalogue(CatalogueEncoding.GZIP).getContentLength();
+    // Room for two versions, but not for three.
+    CatalogueVersionStore store =
+        new CatalogueVersionStore(directory.toString(), 100, compressedLength * 5 / 2);
+
+    for (CatalogueAndMetadata<CatalogueMetadataGitHub> snapshot : snapshots) {
+      store.store(snapshot);
+    }
+
+    assertThat(getIds(store)).hasSize(2).containsExactly(
+        CatalogueVersionStore.getVersionId(snapshots.get(3).getCatalogueMetadata().getHash()),
+        CatalogueVersionStore.getVersionId(snapshots.get(2).getCatalogueMetadata().getHash()));
+  }
+
+  @Test
+  public void keepsNewestVersionEvenIfItExceedsMaxSize() throws Exception {
+    CatalogueVersionStore store =
+        new CatalogueVersionStore(this.folder.getRoot().toString(), 10, 1);
+
+    store.store(createSnapshot(TestCatalogues.generate(3, "v1")));
+    store.store(createSnapshot(TestCatalogues.generate(3, "v2")));
+
+    assertThat(store.getVersions()).hasSize(1);
+  }
+
+  @Test
+  public void restoredVersionBecomesNewestAndSurvivesReopening() throws Exception {
+    String directory = this.folder.getRoot().toString();
+    CatalogueVersionStore store = new CatalogueVersionStore(directory, 2, Long.MAX_VALUE);
+    CatalogueAndMetadata<CatalogueMetadataGitHub> first =
+        createSnapshot(TestCatalogues.generate(3, "v1"));
+    CatalogueAndMetadata<CatalogueMetadataGitHub> second =
+        createSnapshot(TestCatalogues.generate(3, "v2"));
+    store.store(first);
+    store.store(second);
+    store.store(first);
+    store.store(createSnapshot(TestCatalogues.generate(3, "v3")));
+
+    CatalogueVersionStore reopened = new CatalogueVersionStore(directory, 2, Long.MAX_VALUE);
+
+    assertThat(getIds(reopened)).isEqualTo(getIds(store)).hasSize(2)
+        .contains(CatalogueVersionStore.getVersionId(first.getCatalogueMetadata().getHash()));
+  }
+
+  @Test
+  public void rebuildsMissingIndexFromDirectory() throws Exception {
+    Path directory = this.folder.getRoot().toPath();
+    CatalogueVersionStore store =
+        new CatalogueVersionStore(directory.toString(), 10, Long.MAX_VALUE);
+    byte[] catalogue = TestCatalogues.generate(3, "v1");
+    store.store(createSnapshot(catalogue));
+    Files.delete(directory.resolve("index"));
+
+    CatalogueVersionStore rebuilt =
+        new CatalogueVersionStore(directory.toString(), 10, Long.MAX_VALUE);
+
+    assertThat(getIds(rebuilt)).isEqualTo(getIds(store));
+    assertThat(rebuilt.getVersions().get(0).getHash())
+        .isEqualTo(MetadataVerifier.getHash(catalogue));
+  }
+}
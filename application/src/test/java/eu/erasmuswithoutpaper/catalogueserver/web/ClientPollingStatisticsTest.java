@@ -0,0 +1,153 @@
+package eu.erasmuswithoutpaper.catalogueserver.web;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import eu.erasmuswithoutpaper.catalogueserver.web.githubcataloguesource.CatalogueMetadataGitHub;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.web.servlet.MockMvc;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Estimates and heavy-hitter candidates of {@link ClientPollingStatistics}.
+ */
+public class ClientPollingStatisticsTest {
+  private static final String USER_AGENT = "ewp-client/1.0";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @SuppressWarnings("unchecked")
+  private static Map<String, Object> getWindow(ClientPollingStatistics statistics,
+      String window) {
+    return (Map<String, Object>) statistics.getReport().get(window);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static List<Map<String, Object>> getClients(Map<String, Object> window) {
+    return (List<Map<String, Object>>) window.get("clients");
+  }
+
+  private static Map<String, Object> findClient(List<Map<String, Object>> clients,
+      String address) {
+    for (Map<String, Object> client : clients) {
+      if (client.get("address").equals(address)) {
+        return client;
+      }
+    }
+    return null;
+  }
+
+  @Test
+  public void estimatesAreNeverBelowTrueCounts() {
+    // Narrow rows, so that many clients share counters.
+    ClientPollingStatistics statistics =
+        new ClientPollingStatistics(16, 1000, Duration.ofHours(1));
+    ClientPollingStatistics.Kind[] kinds = ClientPollingStatistics.Kind.values();
+    Map<String, long[]> counts = new HashMap<>();
+    Random random = new Random(42);
+    for (int i = 0; i < 5000; i++) {
+      String address = "10.0.0." + random.nextInt(200);
+      ClientPollingStatistics.Kind kind = kinds[random.nextInt(kinds.length)];
+      statistics.record(address, USER_AGENT, kind);
+      counts.computeIfAbsent(address, key -> new long[kinds.length + 1])[0]++;
+      counts.get(address)[kind.ordinal() + 1]++;
+    }
+
+    List<Map<String, Object>> clients = getClients(getWindow(statistics, "current"));
+    assertThat(clients).hasSize(counts.size());
+    for (Map<String, Object> client : clients) {
+      long[] expected = counts.get((String) client.get("address"));
+      assertThat((Long) client.get("requests")).isGreaterThanOrEqualTo(expected[0]);
+      assertThat((Long) client.get("unconditional")).isGreaterThanOrEqualTo(expected[1]);
+      assertThat((Long) client.get("changed")).isGreaterThanOrEqualTo(expected[2]);
+      assertThat((Long) client.get("notModified")).isGreaterThanOrEqualTo(expected[3]);
+    }
+  }
+
+  @Test
+  public void heavyHitterSurvivesManyLightClients() {
+    ClientPollingStatistics statistics =
+        new ClientPollingStatistics(1024, 10, Duration.ofHours(1));
+    for (int i = 0; i < 20000; i++) {
+      statistics.record("192.0.2." + i % 250, "client-" + i, ClientPollingStatistics.Kind.CHANGED);
+      if (i % 20 == 0) {
+        statistics.record("198.51.100.1", USER_AGENT, ClientPollingStatistics.Kind.UNCONDITIONAL);
+      }
+    }
+
+    List<Map<String, Object>> clients = getClients(getWindow(statistics, "current"));
+    assertThat(clients).hasSize(10);
+    Map<String, Object> heaviest = clients.get(0);
+    assertThat(heaviest.get("address")).isEqualTo("198.51.100.1");
+    assertThat(heaviest.get("userAgent")).isEqualTo(USER_AGENT);
+    assertThat((Long) heaviest.get("requests")).isBetween(1000L,
+        1000L + (Long) getWindow(statistics, "current").get("maxOverestimate"));
+  }
+
+  @Test
+  public void windowRotationMovesCurrentToPrevious() throws Exception {
+    ClientPollingStatistics statistics =
+        new ClientPollingStatistics(1024, 10, Duration.ofMillis(100));
+    statistics.record("192.0.2.1", USER_AGENT, ClientPollingStatistics.Kind.NOT_MODIFIED);
+    assertThat(statistics.getReport()).doesNotContainKey("previous");
+    String start = (String) getWindow(statistics, "current").get("start");
+
+    Thread.sleep(150);
+    statistics.record("192.0.2.2", USER_AGENT, ClientPollingStatistics.Kind.NOT_MODIFIED);
+
+    Map<String, Object> previous = getWindow(statistics, "previous");
+    assertThat(previous.get("start")).isEqualTo(start);
+    assertThat(previous.get("requests")).isEqualTo(1L);
+    assertThat(findClient(getClients(previous), "192.0.2.1")).isNotNull();
+    Map<String, Object> current = getWindow(statistics, "current");
+    assertThat(current.get("requests")).isEqualTo(1L);
+    assertThat(findClient(getClients(current), "192.0.2.1")).isNull();
+    assertThat(findClient(getClients(current), "192.0.2.2")).isNotNull();
+  }
+
+  @Test
+  public void servedAndNotModifiedResponsesAreCountedSeparately() throws Exception {
+    Path directory = this.folder.getRoot().toPath();
+    CatalogueCopy<CatalogueMetadataGitHub> copy = TestCatalogues.openCopy(directory, false);
+    copy.onCatalogueFetchedWithChanges(
+        TestCatalogues.createResponse(directory, TestCatalogues.generate(3, "v1")));
+    ClientPollingStatistics statistics = TestCatalogues.createClientPollingStatistics();
+    MockMvc mockMvc =
+        TestCatalogues.createEndpoint(TestCatalogues.createUpdater(copy), statistics);
+    String etag = copy.getCatalogueAndMetadata().getEncodedCatalogue(CatalogueEncoding.IDENTITY)
+        .getEtagHeader();
+
+    mockMvc.perform(get("/catalogue-v1.xml").header(HttpHeaders.USER_AGENT, USER_AGENT))
+        .andExpect(status().isOk());
+    for (int i = 0; i < 3; i++) {
+      mockMvc.perform(get("/catalogue-v1.xml").header(HttpHeaders.USER_AGENT, USER_AGENT)
+          .header(HttpHeaders.IF_NONE_MATCH, etag))
+          .andExpect(status().isNotModified());
+    }
+    mockMvc.perform(get("/catalogue-v1.xml").header(HttpHeaders.USER_AGENT, USER_AGENT)
+        .header(HttpHeaders.IF_NONE_MATCH, "\"older\""))
+        .andExpect(status().isOk());
+
+    Map<String, Object> client =
+        findClient(getClients(getWindow(statistics, "current")), "127.0.0.1");
+    assertThat(client).isNotNull();
+    assertThat(client.get("userAgent")).isEqualTo(USER_AGENT);
+    assertThat(client.get("requests")).isEqualTo(5L);
+    assertThat(client.get("unconditional")).isEqualTo(1L);
+    assertThat(client.get("changed")).isEqualTo(1L);
+    assertThat(client.get("notModified")).isEqualTo(3L);
+  }
+}
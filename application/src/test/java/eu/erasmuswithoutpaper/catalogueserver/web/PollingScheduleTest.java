@@ -0,0 +1,159 @@
+package eu.erasmuswithoutpaper.catalogueserver.web;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Intervals chosen by {@link PollingSchedule} after changes, failures and rate limits.
+ */
+public class PollingScheduleTest {
+  private static final Duration MIN_INTERVAL = Duration.ofSeconds(10);
+  private static final Duration INTERVAL = Duration.ofSeconds(60);
+  private static final Duration MAX_INTERVAL = Duration.ofSeconds(300);
+
+  private final Instant now = Instant.parse("2026-01-01T12:00:00Z");
+  private final PollingSchedule schedule =
+      new PollingSchedule(MIN_INTERVAL, INTERVAL, MAX_INTERVAL, 10);
+
+  /**
+   * Checks the delay of the next fetch, allowing for jitter of 10%.
+   */
+  private void assertDelay(long expectedMillis) {
+    long jitter = expectedMillis / 10;
+    assertThat(this.schedule.getCurrentDelay().toMillis())
+        .isBetween(expectedMillis - jitter, expectedMillis + jitter);
+    assertThat(this.schedule.getNextFetchInstant())
+        .isEqualTo(this.now.plus(this.schedule.getCurrentDelay()));
+  }
+
+  @Test
+  public void intervalGrowsFromMinimalToRegularAfterChange() {
+    this.schedule.onChanged(this.now);
+    assertDelay(10_000);
+
+    this.schedule.onNotModified(this.now);
+    assertDelay(15_000);
+    this.schedule.onNotModified(this.now);
+    assertDelay(22_500);
+    this.schedule.onNotModified(this.now);
+    assertDelay(33_750);
+    this.schedule.onNotModified(this.now);
+    assertDelay(50_625);
+    this.schedule.onNotModified(this.now);
+    assertDelay(60_000);
+    this.schedule.onNotModified(this.now);
+    assertDelay(60_000);
+  }
+
+  @Test
+  public void announcedChangeShortensIntervalAfterNextFetch() {
+    this.schedule.onNotModified(this.now);
+    assertDelay(60_000);
+
+    this.schedule.onChangeAnnounced();
+    // The current schedule is kept.
+    assertDelay(60_000);
+    this.schedule.onNotModified(this.now);
+    assertDelay(15_000);
+  }
+
+  @Test
+  public void failuresBackOffUpToMaximalInterval() {
+    this.schedule.onChanged(this.now);
+
+    // Backoff starts from the regular interval, even right after a change.
+    this.schedule.onFailure(this.now);
+    assertDelay(120_000);
+    this.schedule.onFailure(this.now);
+    assertDelay(240_000);
+    this.schedule.onFailure(this.now);
+    assertDelay(300_000);
+    this.schedule.onFailure(this.now);
+    assertDelay(300_000);
+
+    // A successful fetch shortens the interval back to the regular one.
+    this.schedule.onNotModified(this.now);
+    assertDelay(60_000);
+    this.schedule.onChanged(this.now);
+    assertDelay(10_000);
+  }
+
+  @Test
+  public void fetchIsDelayedUntilAllowed() {
+    Instant allowed = this.now.plus(Duration.ofHours(1));
+
+    this.schedule.delayUntil(this.now, allowed);
+
+    assertThat(this.schedule.getNextFetchInstant()).isEqualTo(allowed);
+    assertThat(this.schedule.getCurrentDelay()).isEqualTo(Duration.ofHours(1));
+    assertThat(this.schedule.isFetchAllowed(this.now)).isFalse();
+    assertThat(this.schedule.isFetchAllowed(allowed.minusMillis(1))).isFalse();
+    assertThat(this.schedule.isFetchAllowed(allowed)).isTrue();
+
+    // Later outcomes don't schedule the fetch before the allowed instant.
+    this.schedule.onChanged(this.now);
+    assertThat(this.schedule.getNextFetchInstant()).isEqualTo(allowed);
+
+    // Once it has passed, the regular schedule applies.
+    this.schedule.onNotModified(allowed);
+    assertThat(this.schedule.getCurrentDelay().toMillis()).isBetween(13_500L, 16_500L);
+  }
+
+  @Test
+  public void intervalIsStretchedToRemainingBudget() {
+    Instant reset = this.now.plus(Duration.ofMinutes(60));
+
+    // Above the threshold the budget is ignored.
+    this.schedule.onRateLimit(new RateLimit(10, reset));
+    this.schedule.onNotModified(this.now);
+    assertDelay(60_000);
+
+    // 5 remaining calls and one in reserve are spread over an hour.
+    this.schedule.onRateLimit(new RateLimit(5, reset));
+    this.schedule.onNotModified(this.now);
+    assertDelay(600_000);
+
+    // Unknown budget doesn't replace the reported one.
+    this.schedule.onRateLimit(RateLimit.UNKNOWN);
+    this.schedule.onNotModified(this.now);
+    assertDelay(600_000);
+
+    // Exhausted budget delays the fetch until the reset.
+    this.schedule.onRateLimit(new RateLimit(0, reset));
+    this.schedule.onNotModified(this.now);
+    assertDelay(3_600_000);
+
+    // A budget that was already reset doesn't slow polling down.
+    this.schedule.onNotModified(reset);
+    assertThat(this.schedule.getCurrentDelay().toMillis()).isBetween(54_000L, 66_000L);
+  }
+
+  @Test
+  public void budgetNeverShortensInterval() {
+    this.schedule.onRateLimit(new RateLimit(1, this.now.plus(Duration.ofSeconds(30))));
+    this.schedule.onFailure(this.now);
+
+    assertDelay(120_000);
+  }
+
+  @Test
+  public void jitterStaysWithinTenPercent() {
+    long shortest = Long.MAX_VALUE;
+    long longest = Long.MIN_VALUE;
+    for (int i = 0; i < 1000; i++) {
+      this.schedule.onNotModified(this.now);
+      long delay = this.schedule.getCurrentDelay().toMillis();
+      shortest = Math.min(shortest, delay);
+      longest = Math.max(longest, delay);
+    }
+
+    assertThat(shortest).isGreaterThanOrEqualTo(54_000L);
+    assertThat(longest).isLessThan(66_000L);
+    // Delays are spread over the range, not fixed.
+    assertThat(longest - shortest).isGreaterThan(6_000L);
+  }
+}
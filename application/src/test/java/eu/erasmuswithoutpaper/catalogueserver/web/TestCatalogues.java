@@ -0,0 +1,273 @@
+package eu.erasmuswithoutpaper.catalogueserver.web;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Locale;
+
+import eu.erasmuswithoutpaper.catalogueserver.web.githubcataloguesource.CatalogueMetadataGitHub;
+
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Small catalogues and local copies used by tests.
+ */
+public final class TestCatalogues {
+  public static final String CATALOGUE_NAMESPACE =
+      "https://github.com/erasmus-without-paper/ewp-specs-api-registry/tree/stable-v1";
+  // Fingerprints of credentials in the catalogue generated by generateDescribed().
+  public static final String CLIENT_CERTIFICATE_SHA256 =
+      "1f8a3c0ee25b4d7f9a6c2b1d0e3f4a5b6c7d8e9f0a1b2c3d4e5f60718293a4b5";
+  public static final String CLIENT_KEY_SHA256 =
+      "2e9b4d1ff36c5e80ab7d3c2e1f405b6c7d8e9fa01b2c3d4e5f60718293a4b5c6";
+  public static final String SERVER_KEY_SHA256 =
+      "3fac5e2a047d6f91bc8e4d3f2a516c7d8e9fa0b12c3d4e5f60718293a4b5c6d7";
+
+  private TestCatalogues() {
+  }
+
+  /**
+   * Generates a catalogue with a few hosts, each covering one HEI.
+   *
+   * @param hosts   number of hosts.
+   * @param version text included in the catalogue, so that versions differ.
+   * @return UTF-8 encoded catalogue.
+   */
+  public static byte[] generate(int hosts, String version) {
+    StringBuilder catalogue = new StringBuilder();
+    catalogue.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+        .append("<catalogue xmlns=\"").append(CATALOGUE_NAMESPACE).append("\">\n");
+    StringBuilder institutions = new StringBuilder();
+    for (int host = 0; host < hosts; host++) {
+      String domain = "host" + host + ".example.com";
+      catalogue.append("    <host>\n")
+          .append("        <apis-implemented>\n")
+          .append("            <echo xmlns=\"https://github.com/erasmus-without-paper/")
+          .append("ewp-specs-api-echo/tree/stable-v2\" version=\"2.1.0\">\n")
+          .append("                <url>https://").append(domain).append("/echo</url>\n")
+          .append("            </echo>\n")
+          .append("        </apis-implemented>\n")
+          .append("        <institutions-covered>\n")
+          .append("            <hei-id>hei.").append(domain).append("</hei-id>\n")
+          .append("        </institutions-covered>\n")
+          .append("    </host>\n");
+      institutions.append("        <hei id=\"hei.").append(domain).append("\">\n")
+          .append("            <name>University ").append(version).append(' ').append(host)
+          .append("</name>\n")
+          .append("        </hei>\n");
+    }
+    catalogue.append("    <institutions>\n").append(institutions).append("    </institutions>\n")
+        .append("</catalogue>\n");
+    return catalogue.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Catalogue describing institutions in detail: a HEI covered by two hosts, with names and other
+   * IDs, a HEI covered but not described in the institutions section, and hosts implementing
+   * different APIs and using client and server credentials. The client key of the first host is
+   * the server key of the second one.
+   *
+   * @return UTF-8 encoded catalogue.
+   */
+  public static byte[] generateDescribed() {
+    String catalogue = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+        + "<catalogue xmlns=\"" + CATALOGUE_NAMESPACE + "\">\n"
+        + "  <host>\n"
+        + "    <admin-email>admin@uw.edu.pl</admin-email>\n"
+        + "    <apis-implemented>\n"
+        + "      <echo xmlns=\"https://github.com/erasmus-without-paper/ewp-specs-api-echo/tree/"
+        + "stable-v2\" version=\"2.1.0\">\n"
+        + "        <url>https://ewp.uw.edu.pl/echo</url>\n"
+        + "      </echo>\n"
+        + "      <institutions xmlns=\"https://github.com/erasmus-without-paper/"
+        + "ewp-specs-api-institutions/tree/stable-v2\" version=\"2.0.0\">\n"
+        + "        <url>https://ewp.uw.edu.pl/institutions</url>\n"
+        + "      </institutions>\n"
+        + "    </apis-implemented>\n"
+        + "    <institutions-covered>\n"
+        + "      <hei-id>uw.edu.pl</hei-id>\n"
+        + "    </institutions-covered>\n"
+        + "    <client-credentials-in-use>\n"
+        + "      <certificate sha-256=\"" + CLIENT_CERTIFICATE_SHA256.toUpperCase(Locale.ROOT)
+        + "\"/>\n"
+        + "      <rsa-public-key sha-256=\"" + CLIENT_KEY_SHA256 + "\"/>\n"
+        + "    </client-credentials-in-use>\n"
+        + "    <server-credentials-in-use>\n"
+        + "      <rsa-public-key sha-256=\"" + SERVER_KEY_SHA256 + "\"/>\n"
+        + "    </server-credentials-in-use>\n"
+        + "  </host>\n"
+        + "  <host>\n"
+        + "    <admin-email>admin@example.com</admin-email>\n"
+        + "    <apis-implemented>\n"
+        + "      <echo xmlns=\"https://github.com/erasmus-without-paper/ewp-specs-api-echo/tree/"
+        + "stable-v2\" version=\"2.0.0\">\n"
+        + "        <url>https://ewp.example.com/echo</url>\n"
+        + "      </echo>\n"
+        + "    </apis-implemented>\n"
+        + "    <institutions-covered>\n"
+        + "      <hei-id>UW.EDU.PL</hei-id>\n"
+        + "      <hei-id>covered.example.com</hei-id>\n"
+        + "    </institutions-covered>\n"
+        + "    <server-credentials-in-use>\n"
+        + "      <rsa-public-key sha-256=\" " + CLIENT_KEY_SHA256 + " \"/>\n"
+        + "    </server-credentials-in-use>\n"
+        + "  </host>\n"
+        + "  <institutions>\n"
+        + "    <hei id=\"uw.edu.pl\">\n"
+        + "      <other-id type=\"erasmus\">PL WARSZAW01</other-id>\n"
+        + "      <name xml:lang=\"en\">University of Warsaw</name>\n"
+        + "      <name xml:lang=\"pl\">Uniwersytet Warszawski</name>\n"
+        + "    </hei>\n"
+        + "  </institutions>\n"
+        + "</catalogue>\n";
+    return catalogue.getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Changes formatting of a generated catalogue: indentation, line endings and a comment, its
+   * canonical form stays the same.
+   *
+   * @param catalogue generated catalogue.
+   * @return the same catalogue formatted differently.
+   */
+  public static byte[] reformat(byte[] catalogue) {
+    String reformatted = new String(catalogue, StandardCharsets.UTF_8)
+        .replace("    ", "\t").replace("\n", "\r\n")
+        .replace("<institutions>", "<!-- Generated by the registry. --><institutions>");
+    return reformatted.getBytes(StandardCharsets.UTF_8);
+  }
+
+  public static CatalogueMetadataGitHub createMetadata(byte[] catalogue) {
+    Instant now = Instant.now();
+    return new CatalogueMetadataGitHub(now, now, MetadataVerifier.getHash(catalogue),
+        "\"" + now.toEpochMilli() + "\"");
+  }
+
+  /**
+   * Opens a local copy in the directory, keeping 50 versions and deltas from 10 of them.
+   *
+   * @param directory               directory of the copy.
+   * @param ignoreFormattingChanges see {@link CatalogueCopy}.
+   * @return the copy.
+   */
+  public static CatalogueCopy<CatalogueMetadataGitHub> openCopy(Path directory,
+      boolean ignoreFormattingChanges) {
+    return openCopy(directory, openVersionStore(directory), ignoreFormattingChanges);
+  }
+
+  /**
+   * Opens a local copy in the directory, keeping deltas from 10 versions.
+   *
+   * @param directory               directory of the copy.
+   * @param versionStore            store of published versions.
+   * @param ignoreFormattingChanges see {@link CatalogueCopy}.
+   * @return the copy.
+   */
+  public static CatalogueCopy<CatalogueMetadataGitHub> openCopy(Path directory,
+      CatalogueVersionStore versionStore, boolean ignoreFormattingChanges) {
+    return new CatalogueCopy<>(CatalogueMetadataGitHub.class, directory.toString(),
+        CatalogueStorage.HEAP, Duration.ofSeconds(30), 10, versionStore,
+        ignoreFormattingChanges);
+  }
+
+  /**
+   * Opens the store of versions of the copy in the directory, keeping 50 versions.
+   *
+   * @param directory directory of the copy.
+   * @return the store.
+   */
+  public static CatalogueVersionStore openVersionStore(Path directory) {
+    return new CatalogueVersionStore(directory.resolve("versions").toString(), 50,
+        256L * 1024 * 1024);
+  }
+
+  /**
+   * Writes the catalogue to a temporary file, as a getter would, and describes it.
+   *
+   * @param directory directory of the local copy.
+   * @param catalogue contents of fetched catalogue.
+   * @return response with a new temporary file.
+   * @throws IOException if the file cannot be written.
+   */
+  public static CatalogueGetterResponse<CatalogueMetadataGitHub> createResponse(Path directory,
+      byte[] catalogue) throws IOException {
+    Path content = Files.createTempFile(directory, "catalogue-download", ".tmp");
+    Files.write(content, catalogue);
+    return CatalogueGetterResponse.createOk(content, createMetadata(catalogue));
+  }
+
+  /**
+   * Creates an updater of the copy that never fetches on its own, its schedule is only used to
+   * compute delays.
+   *
+   * @param copy the updated copy.
+   * @return the updater.
+   */
+  public static CatalogueUpdater<CatalogueMetadataGitHub> createUpdater(
+      CatalogueCopy<CatalogueMetadataGitHub> copy) {
+    return createUpdater(copy, new SimpleMeterRegistry());
+  }
+
+  /**
+   * Creates an updater like {@link #createUpdater(CatalogueCopy)} with the given registry.
+   *
+   * @param copy          the updated copy.
+   * @param meterRegistry registry of metrics of the updater and of endpoints serving its copy.
+   * @return the updater.
+   */
+  public static CatalogueUpdater<CatalogueMetadataGitHub> createUpdater(
+      CatalogueCopy<CatalogueMetadataGitHub> copy, MeterRegistry meterRegistry) {
+    return new CatalogueUpdater<>(copy, metadata -> null,
+        new PollingSchedule(Duration.ofSeconds(10), Duration.ofSeconds(100),
+            Duration.ofSeconds(1000), 0), meterRegistry);
+  }
+
+  /**
+   * Waits until the index of the current version, built in the background after the copy is
+   * opened, is available.
+   *
+   * @param copy the copy.
+   */
+  public static void awaitIndex(CatalogueCopy<?> copy) {
+    CatalogueAndMetadata<?> current = copy.getCatalogueAndMetadata();
+    if (current != null) {
+      current.getBuiltIndex().join();
+    }
+  }
+
+  public static ClientPollingStatistics createClientPollingStatistics() {
+    return new ClientPollingStatistics(1024, 10, Duration.ofHours(1));
+  }
+
+  /**
+   * Sets up {@link CatalogueEndpointController} serving the copy of the updater.
+   *
+   * @param updater    updater whose copy is served.
+   * @param statistics statistics of requests per client.
+   * @return MockMvc of the controller.
+   */
+  public static <T extends CatalogueMetadata<T>> MockMvc createEndpoint(
+      CatalogueUpdater<T> updater, ClientPollingStatistics statistics) {
+    return MockMvcBuilders
+        .standaloneSetup(new CatalogueEndpointController<>(updater, statistics)).build();
+  }
+
+  public static <T extends CatalogueMetadata<T>> MockMvc createEndpoint(
+      CatalogueUpdater<T> updater) {
+    return createEndpoint(updater, createClientPollingStatistics());
+  }
+
+  public static byte[] toBytes(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.remaining()];
+    buffer.duplicate().get(bytes);
+    return bytes;
+  }
+}
@@ -0,0 +1,295 @@
+package eu.erasmuswithoutpaper.catalogueserver.web.githubcataloguesource;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import eu.erasmuswithoutpaper.catalogueserver.web.CatalogueGetterResponse;
+import eu.erasmuswithoutpaper.catalogueserver.web.GitHubData;
+import eu.erasmuswithoutpaper.catalogueserver.web.MetadataVerifier;
+import eu.erasmuswithoutpaper.catalogueserver.web.TestCatalogues;
+
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.DnsResolver;
+import org.apache.http.conn.SchemePortResolver;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.ManagedNHttpClientConnectionFactory;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.nio.conn.NoopIOSessionStrategy;
+import org.apache.http.nio.conn.SchemeIOSessionStrategy;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * {@link CatalogueGetterGitHubAsync} against {@link StubGitHub}. GitHub hosts are resolved to the
+ * stub and HTTPS is replaced with plain HTTP by the connection manager of the client, the getter
+ * builds the same URLs as in production.
+ */
+public class CatalogueGetterGitHubAsyncTest {
+  private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(2);
+  private static final Duration FETCH_TIMEOUT = Duration.ofSeconds(5);
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private final byte[] catalogue = TestCatalogues.generate(50, "v1");
+  private Path downloads;
+  private StubGitHub gitHub;
+  private CloseableHttpAsyncClient httpClient;
+
+  @Before
+  public void setUp() throws Exception {
+    this.downloads = this.folder.getRoot().toPath();
+    this.gitHub = new StubGitHub(this.catalogue);
+    int port = this.gitHub.getPort();
+    SchemePortResolver stubPort = host -> port;
+    DnsResolver loopback = host -> new InetAddress[] {InetAddress.getLoopbackAddress()};
+    PoolingNHttpClientConnectionManager connectionManager =
+        new PoolingNHttpClientConnectionManager(new DefaultConnectingIOReactor(),
+            ManagedNHttpClientConnectionFactory.INSTANCE,
+            RegistryBuilder.<SchemeIOSessionStrategy>create()
+                .register("https", NoopIOSessionStrategy.INSTANCE)
+                .build(),
+            stubPort, loopback, -1, TimeUnit.MILLISECONDS);
+    this.httpClient = HttpAsyncClients.custom()
+        .setConnectionManager(connectionManager)
+        .setSchemePortResolver(stubPort)
+        .build();
+    this.httpClient.start();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    this.gitHub.stop();
+    this.httpClient.close();
+  }
+
+  private CatalogueGetterGitHubAsync createGetter(Duration requestTimeout,
+      Duration fetchTimeout) {
+    GitHubData gitHubData =
+        new GitHubData("owner", "registry-log", "catalogue-v1.xml", "user", "token");
+    return new CatalogueGetterGitHubAsync(this.httpClient, gitHubData, this.downloads.toString(),
+        requestTimeout, fetchTimeout, this.meterRegistry);
+  }
+
+  private CatalogueGetterGitHubAsync createGetter() {
+    return createGetter(REQUEST_TIMEOUT, FETCH_TIMEOUT);
+  }
+
+  private long countDownloads() throws IOException {
+    try (Stream<Path> files = Files.list(this.downloads)) {
+      return files.filter(file -> file.getFileName().toString().startsWith("catalogue-download"))
+          .count();
+    }
+  }
+
+  private void awaitNoDownloads() throws Exception {
+    // Cancelled downloads are cleaned up by an I/O thread of the client.
+    long deadline = System.currentTimeMillis() + 5000;
+    while (countDownloads() > 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertThat(countDownloads()).isZero();
+  }
+
+  private void assertRequestRecorded(String stage, String outcome, String status)
+      throws InterruptedException {
+    // Callbacks run on an I/O thread of the client after the future is completed.
+    long deadline = System.currentTimeMillis() + 5000;
+    while (getRequestCount(stage, outcome, status) == 0
+        && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertThat(getRequestCount(stage, outcome, status)).isPositive();
+  }
+
+  private long getRequestCount(String stage, String outcome, String status) {
+    Timer timer = this.meterRegistry.find("catalogue.upstream.request")
+        .tag("stage", stage).tag("outcome", outcome).tag("status", status)
+        .timer();
+    return timer == null ? 0 : timer.count();
+  }
+
+  @Test
+  public void firstFetchDownloadsFileAndAsksForCommitDate() throws Exception {
+    CatalogueGetterResponse<CatalogueMetadataGitHub> response =
+        createGetter().fetchCatalogue(null);
+
+    assertThat(response.status).isEqualTo(CatalogueGetterResponse.Status.OK);
+    assertThat(Files.readAllBytes(response.content)).isEqualTo(this.catalogue);
+    assertThat(response.metadata.getHash())
+        .isEqualTo(MetadataVerifier.getHash(this.catalogue));
+    assertThat(response.metadata.getGitHubEtag()).isEqualTo(this.gitHub.getFileEtag());
+    assertThat(response.metadata.getModificationDate())
+        .isEqualTo(Instant.parse(StubGitHub.COMMIT_DATE));
+    assertThat(response.rateLimit.remaining).isEqualTo(4999);
+    assertThat(this.gitHub.commitsRequests.get()).isEqualTo(1);
+    assertThat(this.gitHub.lastCommitsIfNoneMatch).isNull();
+    assertRequestRecorded("content", "completed", "200");
+    assertRequestRecorded("commit-date", "completed", "200");
+  }
+
+  @Test
+  public void notModifiedFileWithoutCachedEtagSendsNoCommitsRequest() throws Exception {
+    CatalogueMetadataGitHub metadata = new CatalogueMetadataGitHub(
+        Instant.parse(StubGitHub.COMMIT_DATE), Instant.now(),
+        MetadataVerifier.getHash(this.catalogue), this.gitHub.getFileEtag());
+
+    CatalogueGetterResponse<CatalogueMetadataGitHub> response =
+        createGetter().fetchCatalogue(metadata);
+
+    assertThat(response.status).isEqualTo(CatalogueGetterResponse.Status.NOT_MODIFIED);
+    assertThat(this.gitHub.fileRequests.get()).isEqualTo(1);
+    assertThat(this.gitHub.commitsRequests.get()).isZero();
+    assertRequestRecorded("content", "completed", "304");
+  }
+
+  @Test
+  public void requestsOverlapWhenCommitEtagIsCached() throws Exception {
+    CatalogueGetterGitHubAsync getter = createGetter();
+    CatalogueGetterResponse<CatalogueMetadataGitHub> first = getter.fetchCatalogue(null);
+    Files.delete(first.content);
+    this.gitHub.setContent(TestCatalogues.generate(50, "v2"));
+    this.gitHub.fileDelayMillis = 500;
+    this.gitHub.commitsDelayMillis = 500;
+
+    long start = System.nanoTime();
+    CatalogueGetterResponse<CatalogueMetadataGitHub> second =
+        getter.fetchCatalogue(first.metadata);
+    long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+    assertThat(second.status).isEqualTo(CatalogueGetterResponse.Status.OK);
+    assertThat(this.gitHub.lastCommitsIfNoneMatch).isEqualTo(StubGitHub.COMMITS_ETAG);
+    // Both requests were received before either of them was answered.
+    assertThat(this.gitHub.commitsReceivedNanos).isLessThan(this.gitHub.fileAnsweredNanos);
+    // The fetch takes as long as the slower request, not as both of them.
+    assertThat(elapsedMillis).isBetween(500L, 950L);
+    assertThat(second.metadata.getModificationDate())
+        .isEqualTo(Instant.parse(StubGitHub.COMMIT_DATE));
+    assertRequestRecorded("commit-date", "completed", "304");
+  }
+
+  @Test
+  public void requestDeadlineFailsFetchAndDeletesPartialDownload() throws Exception {
+    this.gitHub.stall = new CountDownLatch(1);
+    try {
+      assertThatThrownBy(() -> createGetter(Duration.ofMillis(500), FETCH_TIMEOUT)
+          .fetchCatalogue(null))
+          .isInstanceOf(CatalogueGetterGitHub.CatalogueFetchExceptionGitHub.class);
+      awaitNoDownloads();
+    } finally {
+      this.gitHub.stall.countDown();
+    }
+  }
+
+  @Test
+  public void commitsRequestSentAfterDownloadHasItsOwnDeadline() throws Exception {
+    // Without a cached ETag the commits request is sent when the file has been downloaded, both
+    // requests together take longer than the deadline of one of them.
+    this.gitHub.fileDelayMillis = 700;
+    this.gitHub.commitsDelayMillis = 700;
+
+    CatalogueGetterResponse<CatalogueMetadataGitHub> response =
+        createGetter(Duration.ofMillis(1000), FETCH_TIMEOUT).fetchCatalogue(null);
+
+    assertThat(response.status).isEqualTo(CatalogueGetterResponse.Status.OK);
+    assertThat(response.metadata.getModificationDate())
+        .isEqualTo(Instant.parse(StubGitHub.COMMIT_DATE));
+  }
+
+  @Test
+  public void fetchDeadlineFailsFetchAndDeletesDownloadedFile() throws Exception {
+    // The file is downloaded, the commit date doesn't come before the deadline of the fetch.
+    this.gitHub.commitsDelayMillis = 3000;
+    long start = System.nanoTime();
+
+    assertThatThrownBy(() -> createGetter(REQUEST_TIMEOUT, Duration.ofMillis(500))
+        .fetchCatalogue(null))
+        .isInstanceOf(CatalogueGetterGitHub.CatalogueFetchExceptionGitHub.class);
+
+    assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isLessThan(2000);
+    assertThat(this.gitHub.fileRequests.get()).isEqualTo(1);
+    awaitNoDownloads();
+  }
+
+  @Test
+  public void interruptedFetchCancelsDownloadAndDeletesFile() throws Exception {
+    this.gitHub.stall = new CountDownLatch(1);
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      CatalogueGetterGitHubAsync getter = createGetter();
+      Future<CatalogueGetterResponse<CatalogueMetadataGitHub>> fetch =
+          executor.submit(() -> getter.fetchCatalogue(null));
+      long deadline = System.currentTimeMillis() + 5000;
+      while (countDownloads() == 0 && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      }
+      assertThat(countDownloads()).isEqualTo(1);
+
+      fetch.cancel(true);
+      awaitNoDownloads();
+      executor.shutdown();
+      assertThat(executor.awaitTermination(5, TimeUnit.SECONDS)).isTrue();
+      assertRequestRecorded("content", "cancelled", "none");
+    } finally {
+      this.gitHub.stall.countDown();
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void unexpectedStatusOfFileFailsFetch() throws Exception {
+    this.gitHub.fileStatus = 500;
+
+    assertThatThrownBy(() -> createGetter().fetchCatalogue(null))
+        .isInstanceOf(CatalogueGetterGitHub.CatalogueFetchExceptionGitHub.class);
+
+    assertThat(this.gitHub.commitsRequests.get()).isZero();
+    assertThat(countDownloads()).isZero();
+    assertRequestRecorded("content", "completed", "500");
+  }
+
+  @Test
+  public void unexpectedStatusOfCommitsFailsFetchAndDeletesDownloadedFile() throws Exception {
+    this.gitHub.commitsStatus = 502;
+
+    assertThatThrownBy(() -> createGetter().fetchCatalogue(null))
+        .isInstanceOf(CatalogueGetterGitHub.CatalogueFetchExceptionGitHub.class);
+
+    assertThat(this.gitHub.fileRequests.get()).isEqualTo(1);
+    awaitNoDownloads();
+    assertRequestRecorded("commit-date", "completed", "502");
+  }
+
+  @Test
+  public void forbiddenFileGivesRateLimitedResponse() throws Exception {
+    this.gitHub.fileStatus = 403;
+
+    CatalogueGetterResponse<CatalogueMetadataGitHub> response =
+        createGetter().fetchCatalogue(null);
+
+    assertThat(response.status).isEqualTo(CatalogueGetterResponse.Status.RATE_LIMITED);
+    assertThat(this.gitHub.commitsRequests.get()).isZero();
+    assertThat(countDownloads()).isZero();
+  }
+}
@@ -0,0 +1,159 @@
+package eu.erasmuswithoutpaper.catalogueserver.web.githubcataloguesource;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import eu.erasmuswithoutpaper.catalogueserver.web.CatalogueCopy;
+import eu.erasmuswithoutpaper.catalogueserver.web.CatalogueGetterResponse;
+import eu.erasmuswithoutpaper.catalogueserver.web.GitHubData;
+import eu.erasmuswithoutpaper.catalogueserver.web.MetadataVerifier;
+import eu.erasmuswithoutpaper.catalogueserver.web.TestCatalogues;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.DnsResolver;
+import org.apache.http.conn.SchemePortResolver;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Streaming download of {@link CatalogueGetterGitHub} against {@link StubGitHub}. As in
+ * {@link CatalogueGetterGitHubAsyncTest}, GitHub hosts are resolved to the stub and HTTPS is
+ * replaced with plain HTTP by the connection manager of the client.
+ */
+public class CatalogueGetterGitHubTest {
+  private static final int SOCKET_TIMEOUT_MILLIS = 500;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  // Large enough to be streamed in many buffers.
+  private final byte[] catalogue = TestCatalogues.generate(500, "v1");
+  private Path downloads;
+  private StubGitHub gitHub;
+  private CloseableHttpClient httpClient;
+  private CatalogueGetterGitHub getter;
+
+  @Before
+  public void setUp() throws Exception {
+    this.downloads = this.folder.getRoot().toPath();
+    this.gitHub = new StubGitHub(this.catalogue);
+    int port = this.gitHub.getPort();
+    SchemePortResolver stubPort = host -> port;
+    DnsResolver loopback = host -> new InetAddress[] {InetAddress.getLoopbackAddress()};
+    PoolingHttpClientConnectionManager connectionManager =
+        new PoolingHttpClientConnectionManager(
+            RegistryBuilder.<ConnectionSocketFactory>create()
+                .register("https", PlainConnectionSocketFactory.getSocketFactory())
+                .build(),
+            null, stubPort, loopback, -1, TimeUnit.MILLISECONDS);
+    this.httpClient = HttpClients.custom()
+        .setConnectionManager(connectionManager)
+        .setSchemePortResolver(stubPort)
+        .setDefaultRequestConfig(
+            RequestConfig.custom().setSocketTimeout(SOCKET_TIMEOUT_MILLIS).build())
+        .build();
+    GitHubData gitHubData =
+        new GitHubData("owner", "registry-log", "catalogue-v1.xml", "user", "token");
+    this.getter = new CatalogueGetterGitHub(this.httpClient, gitHubData,
+        this.downloads.toString(), new SimpleMeterRegistry());
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    this.gitHub.stop();
+    this.httpClient.close();
+  }
+
+  private long countDownloads() throws IOException {
+    try (Stream<Path> files = Files.list(this.downloads)) {
+      return files.filter(file -> file.getFileName().toString().startsWith("catalogue-download"))
+          .count();
+    }
+  }
+
+  @Test
+  public void hashComputedWhileDownloadingMatchesFile() throws Exception {
+    CatalogueGetterResponse<CatalogueMetadataGitHub> response = this.getter.fetchCatalogue(null);
+
+    assertThat(response.status).isEqualTo(CatalogueGetterResponse.Status.OK);
+    byte[] downloaded = Files.readAllBytes(response.content);
+    assertThat(downloaded).isEqualTo(this.catalogue);
+    assertThat(response.metadata.getHash())
+        .isEqualTo(MetadataVerifier.getHash(downloaded))
+        .isEqualTo(MetadataVerifier.getHash(this.catalogue));
+    assertThat(response.content.getParent()).isEqualTo(this.downloads);
+  }
+
+  @Test
+  public void unexpectedStatusOfFileLeavesNoDownloadedFile() throws Exception {
+    this.gitHub.fileStatus = 500;
+
+    assertThatThrownBy(() -> this.getter.fetchCatalogue(null))
+        .isInstanceOf(CatalogueGetterGitHub.CatalogueFetchExceptionGitHub.class);
+
+    assertThat(countDownloads()).isZero();
+  }
+
+  @Test
+  public void unexpectedStatusOfCommitsDeletesDownloadedFile() throws Exception {
+    this.gitHub.commitsStatus = 502;
+
+    assertThatThrownBy(() -> this.getter.fetchCatalogue(null))
+        .isInstanceOf(CatalogueGetterGitHub.CatalogueFetchExceptionGitHub.class);
+
+    assertThat(this.gitHub.fileRequests.get()).isEqualTo(1);
+    assertThat(countDownloads()).isZero();
+  }
+
+  @Test
+  public void readErrorDuringDownloadDeletesDownloadedFile() throws Exception {
+    // Half of the file is written and the rest doesn't come before the socket timeout.
+    this.gitHub.stall = new CountDownLatch(1);
+    try {
+      assertThatThrownBy(() -> this.getter.fetchCatalogue(null))
+          .isInstanceOf(CatalogueGetterGitHub.CatalogueFetchExceptionGitHub.class);
+
+      assertThat(this.gitHub.commitsRequests.get()).isZero();
+      assertThat(countDownloads()).isZero();
+    } finally {
+      this.gitHub.stall.countDown();
+    }
+  }
+
+  @Test
+  public void downloadedFileIsMovedInPlaceOfLocalCopy() throws Exception {
+    CatalogueCopy<CatalogueMetadataGitHub> copy = TestCatalogues.openCopy(this.downloads, false);
+    CatalogueGetterResponse<CatalogueMetadataGitHub> response = this.getter.fetchCatalogue(null);
+    Object downloadedFile =
+        Files.readAttributes(response.content, BasicFileAttributes.class).fileKey();
+
+    assertThat(copy.onCatalogueFetchedWithChanges(response)).isTrue();
+
+    Path copyFile = this.downloads.resolve("catalogue-v1.xml");
+    assertThat(Files.exists(response.content)).isFalse();
+    assertThat(countDownloads()).isZero();
+    assertThat(Files.readAllBytes(copyFile)).isEqualTo(this.catalogue);
+    // The same file was renamed, not copied.
+    assertThat(Files.readAttributes(copyFile, BasicFileAttributes.class).fileKey())
+        .isEqualTo(downloadedFile);
+  }
+}
@@ -0,0 +1,135 @@
+package eu.erasmuswithoutpaper.catalogueserver.web.githubcataloguesource;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Date;
+import java.util.TimeZone;
+
+import eu.erasmuswithoutpaper.catalogueserver.web.CatalogueGetterResponse;
+import eu.erasmuswithoutpaper.catalogueserver.web.GitHubData;
+import eu.erasmuswithoutpaper.catalogueserver.web.MetadataVerifier;
+import eu.erasmuswithoutpaper.catalogueserver.web.TestCatalogues;
+
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * {@link CatalogueGetterGit} mirroring a repository created in a temporary directory.
+ */
+public class CatalogueGetterGitTest {
+  private static final String FILE_PATH = "catalogue-v1.xml";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private Git origin;
+  private Path downloads;
+  private CatalogueGetterGit getter;
+
+  @Before
+  public void setUp() throws Exception {
+    File originDirectory = this.folder.newFolder("origin");
+    this.origin = Git.init().setDirectory(originDirectory).call();
+    this.downloads = this.folder.newFolder("downloads").toPath();
+    this.getter = createGetter(originDirectory.toURI().toString());
+  }
+
+  @After
+  public void tearDown() {
+    this.origin.close();
+  }
+
+  private CatalogueGetterGit createGetter(String remoteUrl) throws Exception {
+    return new CatalogueGetterGit(remoteUrl, this.folder.newFolder(), new GitHubData(
+        "erasmus-without-paper", "ewp-registry-log-prod", FILE_PATH, null, null),
+        this.downloads.toString(), this.meterRegistry);
+  }
+
+  private long getFetchCount(String outcome) {
+    Timer timer = this.meterRegistry.find("catalogue.upstream.request")
+        .tag("stage", "git-fetch").tag("outcome", outcome).tag("status", "none")
+        .timer();
+    return timer == null ? 0 : timer.count();
+  }
+
+  private void commit(String path, byte[] contents, Instant date) throws Exception {
+    Files.write(this.origin.getRepository().getWorkTree().toPath().resolve(path), contents);
+    this.origin.add().addFilepattern(path).call();
+    PersonIdent author = new PersonIdent("Registry", "registry@example.com", Date.from(date),
+        TimeZone.getTimeZone("UTC"));
+    this.origin.commit().setAuthor(author).setCommitter(author).setMessage("Update " + path)
+        .call();
+  }
+
+  @Test
+  public void fetchesCatalogueAndDateOfItsLastChange() throws Exception {
+    byte[] catalogue = TestCatalogues.generate(3, "v1");
+    Instant changed = Instant.parse("2020-01-02T03:04:05Z");
+    commit(FILE_PATH, catalogue, changed);
+    commit("README.md", new byte[] {'x'}, Instant.parse("2020-02-01T00:00:00Z"));
+
+    CatalogueGetterResponse<CatalogueMetadataGitHub> response = this.getter.fetchCatalogue(null);
+
+    assertThat(response.status).isEqualTo(CatalogueGetterResponse.Status.OK);
+    assertThat(Files.readAllBytes(response.content)).isEqualTo(catalogue);
+    assertThat(response.content.getParent()).isEqualTo(this.downloads);
+    assertThat(response.metadata.getHash()).isEqualTo(MetadataVerifier.getHash(catalogue));
+    assertThat(response.metadata.getModificationDate()).isEqualTo(changed);
+  }
+
+  @Test
+  public void reportsNotModifiedUntilTheCatalogueChanges() throws Exception {
+    commit(FILE_PATH, TestCatalogues.generate(3, "v1"), Instant.parse("2020-01-01T00:00:00Z"));
+    CatalogueMetadataGitHub metadata = this.getter.fetchCatalogue(null).metadata;
+
+    assertThat(this.getter.fetchCatalogue(metadata).status)
+        .isEqualTo(CatalogueGetterResponse.Status.NOT_MODIFIED);
+    commit("README.md", new byte[] {'x'}, Instant.parse("2020-01-02T00:00:00Z"));
+    assertThat(this.getter.fetchCatalogue(metadata).status)
+        .isEqualTo(CatalogueGetterResponse.Status.NOT_MODIFIED);
+
+    byte[] changed = TestCatalogues.generate(3, "v2");
+    commit(FILE_PATH, changed, Instant.parse("2020-01-03T00:00:00Z"));
+    CatalogueGetterResponse<CatalogueMetadataGitHub> response =
+        this.getter.fetchCatalogue(metadata);
+    assertThat(response.status).isEqualTo(CatalogueGetterResponse.Status.OK);
+    assertThat(Files.readAllBytes(response.content)).isEqualTo(changed);
+    assertThat(response.metadata.getModificationDate())
+        .isEqualTo(Instant.parse("2020-01-03T00:00:00Z"));
+    assertThat(response.metadata.getGitHubEtag()).isNotEqualTo(metadata.getGitHubEtag());
+    assertThat(getFetchCount("completed")).isEqualTo(4);
+  }
+
+  @Test
+  public void failsIfTheCatalogueIsMissing() throws Exception {
+    commit("README.md", new byte[] {'x'}, Instant.parse("2020-01-01T00:00:00Z"));
+
+    assertThatThrownBy(() -> this.getter.fetchCatalogue(null))
+        .isInstanceOf(CatalogueGetterGitHub.CatalogueFetchExceptionGitHub.class);
+    assertThat(this.downloads.toFile().list()).isEmpty();
+  }
+
+  @Test
+  public void failsIfTheRemoteIsUnavailable() throws Exception {
+    CatalogueGetterGit unavailable =
+        createGetter(new File(this.folder.getRoot(), "missing").toURI().toString());
+
+    assertThatThrownBy(() -> unavailable.fetchCatalogue(null))
+        .isInstanceOf(CatalogueGetterGitHub.CatalogueFetchExceptionGitHub.class);
+    assertThat(getFetchCount("failed")).isEqualTo(1);
+    assertThat(getFetchCount("completed")).isZero();
+  }
+}
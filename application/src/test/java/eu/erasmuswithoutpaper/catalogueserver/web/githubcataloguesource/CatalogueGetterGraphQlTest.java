@@ -0,0 +1,138 @@
+package eu.erasmuswithoutpaper.catalogueserver.web.githubcataloguesource;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+
+import eu.erasmuswithoutpaper.catalogueserver.web.CatalogueGetterResponse;
+import eu.erasmuswithoutpaper.catalogueserver.web.GitHubData;
+import eu.erasmuswithoutpaper.catalogueserver.web.MetadataVerifier;
+import eu.erasmuswithoutpaper.catalogueserver.web.TestCatalogues;
+
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * {@link CatalogueGetterGraphQl} against {@link StubGitHub}.
+ */
+public class CatalogueGetterGraphQlTest {
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private Path downloads;
+  private CloseableHttpClient httpClient;
+  private StubGitHub gitHub;
+  private CatalogueGetterGraphQl getter;
+
+  @Before
+  public void setUp() throws Exception {
+    this.downloads = this.folder.getRoot().toPath();
+    this.httpClient = HttpClients.createDefault();
+    this.gitHub = new StubGitHub(TestCatalogues.generate(2, "v1"));
+    GitHubData gitHubData =
+        new GitHubData("owner", "registry-log", "catalogue-v1.xml", "user", "token");
+    this.getter = new CatalogueGetterGraphQl(this.httpClient, gitHubData,
+        this.gitHub.getUrl() + "/graphql", this.gitHub.getUrl(), this.downloads.toString(),
+        this.meterRegistry);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    this.gitHub.stop();
+    this.httpClient.close();
+  }
+
+  private long getRequestCount(String stage, String outcome, String status) {
+    Timer timer = this.meterRegistry.find("catalogue.upstream.request")
+        .tag("stage", stage).tag("outcome", outcome).tag("status", status)
+        .timer();
+    return timer == null ? 0 : timer.count();
+  }
+
+  @Test
+  public void newVersionIsDownloadedOnce() throws Exception {
+    byte[] catalogue = TestCatalogues.generate(2, "v1");
+    this.gitHub.setContent(catalogue);
+
+    CatalogueGetterResponse<CatalogueMetadataGitHub> response = this.getter.fetchCatalogue(null);
+
+    assertThat(response.status).isEqualTo(CatalogueGetterResponse.Status.OK);
+    assertThat(Files.readAllBytes(response.content)).isEqualTo(catalogue);
+    assertThat(response.metadata.getHash()).isEqualTo(MetadataVerifier.getHash(catalogue));
+    assertThat(response.metadata.getGitHubEtag()).isEqualTo(StubGitHub.getBlobId(catalogue));
+    assertThat(response.metadata.getModificationDate()).isEqualTo(Instant.parse(StubGitHub.COMMIT_DATE));
+    assertThat(response.rateLimit.remaining).isEqualTo(4999);
+    assertThat(this.gitHub.fileRequests.get()).isEqualTo(1);
+    assertThat(this.gitHub.lastFilePath)
+        .isEqualTo("/owner/registry-log/" + StubGitHub.COMMIT_ID + "/catalogue-v1.xml");
+    assertThat(this.gitHub.lastAuthorization).isNotNull();
+  }
+
+  @Test
+  public void unchangedBlobCostsOneQueryAndNoDownload() throws Exception {
+    this.gitHub.setContent(TestCatalogues.generate(2, "v1"));
+    CatalogueMetadataGitHub metadata = this.getter.fetchCatalogue(null).metadata;
+
+    for (int poll = 0; poll < 3; poll++) {
+      assertThat(this.getter.fetchCatalogue(metadata).status)
+          .isEqualTo(CatalogueGetterResponse.Status.NOT_MODIFIED);
+    }
+    byte[] changed = TestCatalogues.generate(2, "v2");
+    this.gitHub.setContent(changed);
+    CatalogueGetterResponse<CatalogueMetadataGitHub> response =
+        this.getter.fetchCatalogue(metadata);
+
+    assertThat(response.status).isEqualTo(CatalogueGetterResponse.Status.OK);
+    assertThat(Files.readAllBytes(response.content)).isEqualTo(changed);
+    assertThat(this.gitHub.queries.get()).isEqualTo(5);
+    assertThat(this.gitHub.fileRequests.get()).isEqualTo(2);
+    assertThat(getRequestCount("graphql", "completed", "200")).isEqualTo(5);
+    assertThat(getRequestCount("content", "completed", "200")).isEqualTo(2);
+  }
+
+  @Test
+  public void downloadNotMatchingBlobIdIsRejected() throws Exception {
+    this.gitHub.setContent(TestCatalogues.generate(2, "v1"));
+    this.gitHub.tampered = true;
+
+    assertThatThrownBy(() -> this.getter.fetchCatalogue(null))
+        .isInstanceOf(CatalogueGetterGitHub.CatalogueFetchExceptionGitHub.class);
+    assertThat(this.downloads.toFile().list()).isEmpty();
+    // The download itself completed, only its contents were rejected.
+    assertThat(getRequestCount("content", "completed", "200")).isEqualTo(1);
+  }
+
+  @Test
+  public void exceededBudgetDelaysFetches() throws Exception {
+    this.gitHub.setContent(TestCatalogues.generate(2, "v1"));
+    this.gitHub.rateLimited = true;
+
+    CatalogueGetterResponse<CatalogueMetadataGitHub> response = this.getter.fetchCatalogue(null);
+
+    assertThat(response.status).isEqualTo(CatalogueGetterResponse.Status.RATE_LIMITED);
+    assertThat(response.retryAfter).isGreaterThan(Instant.now());
+    assertThat(this.gitHub.fileRequests.get()).isZero();
+    assertThat(getRequestCount("graphql", "completed", "200")).isEqualTo(1);
+    assertThat(getRequestCount("content", "completed", "200")).isZero();
+  }
+
+  @Test
+  public void unreachableEndpointIsRecordedAsFailedQuery() throws Exception {
+    this.gitHub.stop();
+
+    assertThatThrownBy(() -> this.getter.fetchCatalogue(null))
+        .isInstanceOf(CatalogueGetterGitHub.CatalogueFetchExceptionGitHub.class);
+    assertThat(getRequestCount("graphql", "failed", "none")).isEqualTo(1);
+  }
+}
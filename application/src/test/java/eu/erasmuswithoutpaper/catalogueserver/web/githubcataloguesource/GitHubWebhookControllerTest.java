@@ -0,0 +1,168 @@
+package eu.erasmuswithoutpaper.catalogueserver.web.githubcataloguesource;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import eu.erasmuswithoutpaper.catalogueserver.web.CatalogueCopy;
+import eu.erasmuswithoutpaper.catalogueserver.web.CatalogueGetter;
+import eu.erasmuswithoutpaper.catalogueserver.web.CatalogueGetterResponse;
+import eu.erasmuswithoutpaper.catalogueserver.web.CatalogueUpdater;
+import eu.erasmuswithoutpaper.catalogueserver.web.GitHubData;
+import eu.erasmuswithoutpaper.catalogueserver.web.PollingSchedule;
+import eu.erasmuswithoutpaper.catalogueserver.web.TestCatalogues;
+
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.core.task.SyncTaskExecutor;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.ResultActions;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import com.google.common.io.BaseEncoding;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Deliveries sent to {@link GitHubWebhookController} as GitHub would send them.
+ */
+public class GitHubWebhookControllerTest {
+  private static final String SECRET = "webhook secret";
+  private static final String PUSH = "{\"ref\":\"refs/heads/master\","
+      + "\"repository\":{\"full_name\":\"erasmus-without-paper/ewp-registry-log-prod\"},"
+      + "\"commits\":[{\"added\":[],\"modified\":[\"%s\"],\"removed\":[]}]}";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final GitHubData gitHubData = new GitHubData("erasmus-without-paper",
+      "ewp-registry-log-prod", "catalogue-v1.xml", null, null);
+  private final AtomicInteger fetches = new AtomicInteger();
+  private volatile CountDownLatch fetchReleased = new CountDownLatch(0);
+  private CatalogueUpdater<CatalogueMetadataGitHub> updater;
+
+  @Before
+  public void setUp() throws Exception {
+    Path directory = this.folder.getRoot().toPath();
+    CatalogueCopy<CatalogueMetadataGitHub> copy = TestCatalogues.openCopy(directory, false);
+    copy.onCatalogueFetchedWithChanges(
+        TestCatalogues.createResponse(directory, TestCatalogues.generate(2, "v1")));
+    CatalogueGetter<CatalogueMetadataGitHub> getter = metadata -> {
+      this.fetches.incrementAndGet();
+      try {
+        this.fetchReleased.await(10, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      return CatalogueGetterResponse.createNotModified();
+    };
+    Duration interval = Duration.ofSeconds(10);
+    this.updater = new CatalogueUpdater<>(copy, getter,
+        new PollingSchedule(interval, interval, interval, 0), new SimpleMeterRegistry());
+  }
+
+  private MockMvc createMockMvc(String secret, TaskExecutor taskExecutor) {
+    return MockMvcBuilders.standaloneSetup(new GitHubWebhookController(this.updater,
+        this.gitHubData, taskExecutor, new SimpleMeterRegistry(), secret)).build();
+  }
+
+  private static ResultActions deliver(MockMvc mockMvc, String event, String body,
+      String signature) throws Exception {
+    return mockMvc.perform(post("/webhooks/github")
+        .header("X-GitHub-Event", event)
+        .header("X-Hub-Signature-256", signature)
+        .content(body.getBytes(StandardCharsets.UTF_8)));
+  }
+
+  private static String sign(String secret, String body) throws Exception {
+    Mac mac = Mac.getInstance("HmacSHA256");
+    mac.init(new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+    return "sha256=" + BaseEncoding.base16().lowerCase()
+        .encode(mac.doFinal(body.getBytes(StandardCharsets.UTF_8)));
+  }
+
+  @Test
+  public void signedPushChangingTheCatalogueTriggersFetch() throws Exception {
+    MockMvc mockMvc = createMockMvc(SECRET, new SyncTaskExecutor());
+    String body = String.format(PUSH, "catalogue-v1.xml");
+
+    deliver(mockMvc, "push", body, sign(SECRET, body)).andExpect(status().isAccepted());
+
+    assertThat(this.fetches.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void invalidSignaturesAreRejected() throws Exception {
+    MockMvc mockMvc = createMockMvc(SECRET, new SyncTaskExecutor());
+    String body = String.format(PUSH, "catalogue-v1.xml");
+
+    deliver(mockMvc, "push", body, sign("other secret", body)).andExpect(status().isForbidden());
+    deliver(mockMvc, "push", body + " ", sign(SECRET, body)).andExpect(status().isForbidden());
+    deliver(mockMvc, "push", body, "sha256=not-hex").andExpect(status().isForbidden());
+    deliver(mockMvc, "push", body, sign(SECRET, body).substring(7))
+        .andExpect(status().isForbidden());
+
+    assertThat(this.fetches.get()).isZero();
+  }
+
+  @Test
+  public void eventsNotChangingTheCatalogueAreIgnored() throws Exception {
+    MockMvc mockMvc = createMockMvc(SECRET, new SyncTaskExecutor());
+    String otherFile = String.format(PUSH, "README.md");
+    String otherBranch = String.format(PUSH, "catalogue-v1.xml")
+        .replace("refs/heads/master", "refs/heads/test");
+
+    deliver(mockMvc, "push", otherFile, sign(SECRET, otherFile))
+        .andExpect(status().isNoContent());
+    deliver(mockMvc, "push", otherBranch, sign(SECRET, otherBranch))
+        .andExpect(status().isNoContent());
+    deliver(mockMvc, "ping", "{}", sign(SECRET, "{}")).andExpect(status().isNoContent());
+
+    assertThat(this.fetches.get()).isZero();
+  }
+
+  @Test
+  public void endpointIsDisabledWithoutSecret() throws Exception {
+    MockMvc mockMvc = createMockMvc("", new SyncTaskExecutor());
+    String body = String.format(PUSH, "catalogue-v1.xml");
+
+    deliver(mockMvc, "push", body, sign(SECRET, body)).andExpect(status().isNotFound());
+
+    assertThat(this.fetches.get()).isZero();
+  }
+
+  @Test
+  public void deliveriesDuringFetchAreCoalescedIntoOneMoreFetch() throws Exception {
+    this.fetchReleased = new CountDownLatch(1);
+    Thread scheduled = new Thread(this.updater::updateCatalogue);
+    scheduled.start();
+    while (this.fetches.get() == 0) {
+      Thread.sleep(1);
+    }
+
+    MockMvc mockMvc = createMockMvc(SECRET, new SimpleAsyncTaskExecutor());
+    String body = String.format(PUSH, "catalogue-v1.xml");
+    for (int i = 0; i < 10; i++) {
+      deliver(mockMvc, "push", body, sign(SECRET, body)).andExpect(status().isAccepted());
+    }
+    // Give the executor threads time to request their updates while the fetch is blocked.
+    Thread.sleep(200);
+    this.fetchReleased.countDown();
+    scheduled.join();
+
+    assertThat(this.fetches.get()).isEqualTo(2);
+  }
+}
@@ -0,0 +1,190 @@
+package eu.erasmuswithoutpaper.catalogueserver.web.githubcataloguesource;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import eu.erasmuswithoutpaper.catalogueserver.web.MetadataVerifier;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectInserter;
+
+/**
+ * Stub of GitHub on localhost, shared by tests of getters. It serves the Catalogue file of
+ * 'owner/registry-log' repository under its raw content path at any ref, its last commit under
+ * the commits API path and answers GraphQL queries, all on the same port.
+ */
+class StubGitHub {
+  static final String COMMITS_ETAG = "\"commits-1\"";
+  static final String COMMIT_ID = "0123456789abcdef0123456789abcdef01234567";
+  static final String COMMIT_DATE = "2026-01-01T12:00:00Z";
+
+  final AtomicInteger fileRequests = new AtomicInteger();
+  final AtomicInteger commitsRequests = new AtomicInteger();
+  final AtomicInteger queries = new AtomicInteger();
+  private final HttpServer server;
+  private volatile byte[] content;
+  volatile int fileStatus = 200;
+  volatile long fileDelayMillis;
+  // Set to stall the file body after its first half.
+  volatile CountDownLatch stall;
+  // Set to serve other contents than those described by ETags and blob ids.
+  volatile boolean tampered;
+  volatile String lastFilePath;
+  volatile int commitsStatus = 200;
+  volatile long commitsDelayMillis;
+  volatile String lastCommitsIfNoneMatch;
+  volatile long commitsReceivedNanos;
+  volatile long fileAnsweredNanos;
+  volatile boolean rateLimited;
+  volatile String lastAuthorization;
+
+  StubGitHub(byte[] content) throws IOException {
+    this.content = content;
+    this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    this.server.createContext("/owner/registry-log/", this::handleFile);
+    this.server.createContext("/repos/owner/registry-log/commits", this::handleCommits);
+    this.server.createContext("/graphql", this::handleQuery);
+    // Requests of one fetch are served concurrently.
+    this.server.setExecutor(Executors.newCachedThreadPool());
+    this.server.start();
+  }
+
+  /**
+   * Computes the id of a git blob with the contents, as reported by GitHub GraphQL API.
+   *
+   * @param content contents of the blob.
+   * @return hex-encoded blob id.
+   */
+  static String getBlobId(byte[] content) {
+    return new ObjectInserter.Formatter().idFor(Constants.OBJ_BLOB, content).name();
+  }
+
+  int getPort() {
+    return this.server.getAddress().getPort();
+  }
+
+  String getUrl() {
+    return "http://127.0.0.1:" + getPort();
+  }
+
+  void setContent(byte[] content) {
+    this.content = content;
+  }
+
+  String getFileEtag() {
+    return "\"" + MetadataVerifier.getHash(this.content) + "\"";
+  }
+
+  void stop() {
+    this.server.stop(0);
+  }
+
+  private static void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static void send(HttpExchange exchange, byte[] body) throws IOException {
+    exchange.sendResponseHeaders(200, body.length);
+    try (OutputStream output = exchange.getResponseBody()) {
+      output.write(body);
+    }
+  }
+
+  private void handleFile(HttpExchange exchange) throws IOException {
+    this.fileRequests.incrementAndGet();
+    this.lastFilePath = exchange.getRequestURI().getPath();
+    sleep(this.fileDelayMillis);
+    this.fileAnsweredNanos = System.nanoTime();
+    if (this.fileStatus == 403) {
+      exchange.getResponseHeaders().set("Retry-After", "60");
+    }
+    if (this.fileStatus != 200) {
+      byte[] body = "error".getBytes(StandardCharsets.UTF_8);
+      exchange.sendResponseHeaders(this.fileStatus, body.length);
+      exchange.getResponseBody().write(body);
+      exchange.close();
+      return;
+    }
+    byte[] body = this.tampered
+        ? "<catalogue>tampered</catalogue>".getBytes(StandardCharsets.UTF_8)
+        : this.content;
+    String etag = getFileEtag();
+    exchange.getResponseHeaders().set("ETag", etag);
+    if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+      exchange.sendResponseHeaders(304, -1);
+      exchange.close();
+      return;
+    }
+    exchange.sendResponseHeaders(200, body.length);
+    try (OutputStream output = exchange.getResponseBody()) {
+      CountDownLatch stallUntil = this.stall;
+      if (stallUntil != null) {
+        output.write(body, 0, body.length / 2);
+        output.flush();
+        stallUntil.await(30, TimeUnit.SECONDS);
+        output.write(body, body.length / 2, body.length - body.length / 2);
+      } else {
+        output.write(body);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (IOException e) {
+      // The client has given up.
+    }
+  }
+
+  private void handleCommits(HttpExchange exchange) throws IOException {
+    this.commitsRequests.incrementAndGet();
+    this.commitsReceivedNanos = System.nanoTime();
+    this.lastCommitsIfNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+    sleep(this.commitsDelayMillis);
+    exchange.getResponseHeaders().set("X-RateLimit-Remaining", "4999");
+    exchange.getResponseHeaders().set("X-RateLimit-Reset",
+        String.valueOf(Instant.now().plusSeconds(3600).getEpochSecond()));
+    if (this.commitsStatus != 200) {
+      exchange.sendResponseHeaders(this.commitsStatus, -1);
+      exchange.close();
+      return;
+    }
+    exchange.getResponseHeaders().set("ETag", COMMITS_ETAG);
+    if (COMMITS_ETAG.equals(this.lastCommitsIfNoneMatch)) {
+      exchange.sendResponseHeaders(304, -1);
+      exchange.close();
+      return;
+    }
+    exchange.getResponseHeaders().set("Content-Type", "application/json");
+    send(exchange, ("[{\"commit\": {\"author\": {\"date\": \"" + COMMIT_DATE + "\"}}}]")
+        .getBytes(StandardCharsets.UTF_8));
+  }
+
+  private void handleQuery(HttpExchange exchange) throws IOException {
+    int query = this.queries.incrementAndGet();
+    this.lastAuthorization = exchange.getRequestHeaders().getFirst("Authorization");
+    if (this.rateLimited) {
+      exchange.getResponseHeaders().set("Retry-After", "60");
+      send(exchange, ("{\"errors\": [{\"type\": \"RATE_LIMITED\","
+          + "\"message\": \"API rate limit exceeded\"}]}").getBytes(StandardCharsets.UTF_8));
+      return;
+    }
+    byte[] blob = this.content;
+    send(exchange, ("{\"data\": {\"repository\": {\"ref\": {\"target\": {"
+        + "\"oid\": \"" + COMMIT_ID + "\", \"file\": {\"oid\": \"" + getBlobId(blob) + "\","
+        + "\"object\": {\"byteSize\": " + blob.length + "}},"
+        + "\"history\": {\"nodes\": [{\"authoredDate\": \"" + COMMIT_DATE + "\"}]}}}},"
+        + "\"rateLimit\": {\"remaining\": " + (5000 - query) + ","
+        + "\"resetAt\": \"2026-01-01T13:00:00Z\"}}}").getBytes(StandardCharsets.UTF_8));
+  }
+}
@@ -0,0 +1,174 @@
+package eu.erasmuswithoutpaper.catalogueserver.benchmarks;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import eu.erasmuswithoutpaper.catalogueserver.web.CatalogueCopy;
+import eu.erasmuswithoutpaper.catalogueserver.web.CatalogueGetterResponse;
+import eu.erasmuswithoutpaper.catalogueserver.web.CatalogueStorage;
+import eu.erasmuswithoutpaper.catalogueserver.web.CatalogueVersionStore;
+import eu.erasmuswithoutpaper.catalogueserver.web.MetadataVerifier;
+import eu.erasmuswithoutpaper.catalogueserver.web.githubcataloguesource.CatalogueMetadataGitHub;
+
+/**
+ * Synthetic catalogues and local copies used by benchmarks.
+ */
+final class BenchmarkCatalogues {
+  static final Duration METADATA_FLUSH_INTERVAL = Duration.ofSeconds(30);
+  static final int DELTA_BASE_VERSIONS = 10;
+  static final int STORED_VERSIONS = 50;
+  static final long STORED_VERSIONS_BYTES = 256L * 1024 * 1024;
+
+  private static final String CATALOGUE_NAMESPACE =
+      "https://github.com/erasmus-without-paper/ewp-specs-api-registry/tree/stable-v1";
+  private static final String TYPES_NAMESPACE = "https://github.com/erasmus-without-paper/"
+      + "ewp-specs-architecture/blob/stable-v1/common-types.xsd";
+  private static final String[][] APIS = {
+      { "discovery", "ewp-specs-api-discovery/tree/stable-v6", "6.0.0", "manifest.xml" },
+      { "echo", "ewp-specs-api-echo/tree/stable-v2", "2.1.0", "echo" },
+      { "institutions", "ewp-specs-api-institutions/tree/stable-v2", "2.2.0", "institutions" },
+      { "organizational-units", "ewp-specs-api-ounits/tree/stable-v2", "2.1.0", "ounits" },
+      { "courses", "ewp-specs-api-courses/tree/stable-v0", "0.7.1", "courses" },
+      { "iias", "ewp-specs-api-iias/blob/stable-v6", "6.2.0", "iias" },
+      { "omobilities", "ewp-specs-api-omobilities/blob/stable-v2", "2.0.0", "omobilities" },
+  };
+
+  private BenchmarkCatalogues() {
+  }
+
+  /**
+   * Generates a catalogue that looks like the real one: hosts implementing a few APIs, covering
+   * some institutions and using a few certificates and keys, identified by random hashes, followed
+   * by descriptions of the institutions.
+   *
+   * @param megabytes approximate size of generated catalogue.
+   * @return UTF-8 encoded catalogue.
+   */
+  static byte[] generate(int megabytes) {
+    long targetLength = megabytes * 1024L * 1024L;
+    Random random = new Random(megabytes);
+    StringBuilder catalogue = new StringBuilder((int) targetLength + 4096);
+    catalogue.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+        .append("<catalogue xmlns=\"").append(CATALOGUE_NAMESPACE)
+        .append("\" xmlns:ewp=\"").append(TYPES_NAMESPACE).append("\">\n");
+    StringBuilder institutions = new StringBuilder();
+    for (int host = 0; catalogue.length() + institutions.length() < targetLength; host++) {
+      appendHost(catalogue, institutions, host, random);
+    }
+    catalogue.append("    <institutions>\n").append(institutions).append("    </institutions>\n")
+        .append("</catalogue>\n");
+    return catalogue.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static void appendHost(StringBuilder catalogue, StringBuilder institutions, int host,
+      Random random) {
+    String domain = "host" + host + ".example.com";
+    catalogue.append("    <host>\n")
+        .append("        <ewp:admin-email>admin@").append(domain).append("</ewp:admin-email>\n")
+        .append("        <apis-implemented>\n");
+    for (String[] api : APIS) {
+      catalogue.append("            <").append(api[0])
+          .append(" xmlns=\"https://github.com/erasmus-without-paper/").append(api[1])
+          .append("\" version=\"").append(api[2]).append("\">\n")
+          .append("                <url>https://").append(domain).append('/').append(api[3])
+          .append("</url>\n")
+          .append("            </").append(api[0]).append(">\n");
+    }
+    catalogue.append("        </apis-implemented>\n")
+        .append("        <institutions-covered>\n");
+    int coveredHeis = 1 + random.nextInt(5);
+    for (int i = 0; i < coveredHeis; i++) {
+      catalogue.append("            <hei-id>hei").append(i).append('.').append(domain)
+          .append("</hei-id>\n");
+      institutions.append("        <hei id=\"hei").append(i).append('.').append(domain)
+          .append("\">\n")
+          .append("            <other-id type=\"erasmus\">EX HOST").append(host).append('-')
+          .append(i).append("</other-id>\n")
+          .append("            <name xml:lang=\"en\">University ").append(i).append(" of ")
+          .append(domain).append("</name>\n")
+          .append("        </hei>\n");
+    }
+    catalogue.append("        </institutions-covered>\n")
+        .append("        <client-credentials-in-use>\n");
+    int credentials = 1 + random.nextInt(3);
+    for (int i = 0; i < credentials; i++) {
+      catalogue.append("            <certificate sha-256=\"").append(randomHash(random))
+          .append("\"/>\n")
+          .append("            <rsa-public-key sha-256=\"").append(randomHash(random))
+          .append("\"/>\n");
+    }
+    catalogue.append("        </client-credentials-in-use>\n")
+        .append("    </host>\n");
+  }
+
+  private static String randomHash(Random random) {
+    StringBuilder hash = new StringBuilder(64);
+    for (int i = 0; i < 4; i++) {
+      hash.append(String.format(Locale.ROOT, "%016x", random.nextLong()));
+    }
+    return hash.toString();
+  }
+
+  static CatalogueMetadataGitHub createMetadata(byte[] catalogue) {
+    Instant now = Instant.now();
+    return new CatalogueMetadataGitHub(now, now, MetadataVerifier.getHash(catalogue),
+        "\"" + now.toEpochMilli() + "\"");
+  }
+
+  static Path createDirectory() throws IOException {
+    return Files.createTempDirectory("catalogue-benchmark");
+  }
+
+  /**
+   * Creates a local copy of the catalogue, as if it was fetched once.
+   *
+   * @param directory empty directory of the copy.
+   * @param catalogue contents of the copy.
+   * @param storage   where in memory the contents are kept.
+   * @return local copy, its directory contains the snapshot and catalogue files.
+   * @throws IOException if the catalogue cannot be written.
+   */
+  static CatalogueCopy<CatalogueMetadataGitHub> createCopy(Path directory, byte[] catalogue,
+      CatalogueStorage storage) throws IOException {
+    CatalogueCopy<CatalogueMetadataGitHub> copy = openCopy(directory, storage);
+    copy.onCatalogueFetchedWithChanges(createResponse(directory, catalogue));
+    return copy;
+  }
+
+  static CatalogueCopy<CatalogueMetadataGitHub> openCopy(Path directory,
+      CatalogueStorage storage) {
+    return new CatalogueCopy<>(CatalogueMetadataGitHub.class, directory.toString(), storage,
+        METADATA_FLUSH_INTERVAL, DELTA_BASE_VERSIONS,
+        new CatalogueVersionStore(directory.resolve("versions").toString(), STORED_VERSIONS,
+            STORED_VERSIONS_BYTES), false);
+  }
+
+  /**
+   * Writes the catalogue to a temporary file, as a getter would, and describes it.
+   *
+   * @param directory directory of the local copy.
+   * @param catalogue contents of fetched catalogue.
+   * @return response with a new temporary file.
+   * @throws IOException if the file cannot be written.
+   */
+  static CatalogueGetterResponse<CatalogueMetadataGitHub> createResponse(Path directory,
+      byte[] catalogue) throws IOException {
+    Path content = Files.createTempFile(directory, "catalogue-download", ".tmp");
+    Files.write(content, catalogue);
+    return CatalogueGetterResponse.createOk(content, createMetadata(catalogue));
+  }
+
+  static void deleteDirectory(Path directory) throws IOException {
+    try (Stream<Path> paths = Files.walk(directory)) {
+      paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+    }
+  }
+}
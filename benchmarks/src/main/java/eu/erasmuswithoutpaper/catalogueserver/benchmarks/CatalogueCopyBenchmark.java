@@ -0,0 +1,102 @@
+package eu.erasmuswithoutpaper.catalogueserver.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import eu.erasmuswithoutpaper.catalogueserver.web.CatalogueCopy;
+import eu.erasmuswithoutpaper.catalogueserver.web.CatalogueGetterResponse;
+import eu.erasmuswithoutpaper.catalogueserver.web.CatalogueStorage;
+import eu.erasmuswithoutpaper.catalogueserver.web.githubcataloguesource.CatalogueMetadataGitHub;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Loading the local copy of the catalogue at startup and storing fetched versions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class CatalogueCopyBenchmark {
+  @Param({ "1", "10", "50" })
+  public int sizeMegabytes;
+
+  @Param({ "HEAP", "OFF_HEAP" })
+  public CatalogueStorage storage;
+
+  private byte[] catalogue;
+  private Path directory;
+  private CatalogueCopy<CatalogueMetadataGitHub> copy;
+
+  /**
+   * Creates a local copy of a synthetic catalogue.
+   *
+   * @throws IOException if the local copy cannot be created.
+   */
+  @Setup
+  public void setUp() throws IOException {
+    this.catalogue = BenchmarkCatalogues.generate(this.sizeMegabytes);
+    this.directory = BenchmarkCatalogues.createDirectory();
+    this.copy = BenchmarkCatalogues.createCopy(this.directory, this.catalogue, this.storage);
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    BenchmarkCatalogues.deleteDirectory(this.directory);
+  }
+
+  /**
+   * Startup: reading and validating the snapshot file.
+   */
+  @Benchmark
+  public CatalogueCopy<CatalogueMetadataGitHub> load() {
+    return BenchmarkCatalogues.openCopy(this.directory, this.storage);
+  }
+
+  /**
+   * New version fetched: encoding it, writing the snapshot, the catalogue and metadata files.
+   */
+  @Benchmark
+  public CatalogueCopy<CatalogueMetadataGitHub> storeChanged(FetchedVersion fetched) {
+    this.copy.onCatalogueFetchedWithChanges(fetched.response);
+    return this.copy;
+  }
+
+  /**
+   * Catalogue fetched without changes: only last fetch date is updated.
+   */
+  @Benchmark
+  public CatalogueCopy<CatalogueMetadataGitHub> storeUnchanged() {
+    this.copy.onCatalogueFetchedWithoutChanges();
+    return this.copy;
+  }
+
+  /**
+   * Fetched version, its temporary file is moved in place of the local copy, so a new one is
+   * written before every invocation.
+   */
+  @State(Scope.Thread)
+  public static class FetchedVersion {
+    private CatalogueGetterResponse<CatalogueMetadataGitHub> response;
+
+    @Setup(Level.Invocation)
+    public void setUp(CatalogueCopyBenchmark benchmark) throws IOException {
+      this.response = BenchmarkCatalogues.createResponse(benchmark.directory, benchmark.catalogue);
+    }
+  }
+}
@@ -0,0 +1,146 @@
+package eu.erasmuswithoutpaper.catalogueserver.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+
+import eu.erasmuswithoutpaper.catalogueserver.web.CatalogueCopy;
+import eu.erasmuswithoutpaper.catalogueserver.web.CatalogueEncoding;
+import eu.erasmuswithoutpaper.catalogueserver.web.CatalogueEndpointController;
+import eu.erasmuswithoutpaper.catalogueserver.web.CatalogueStorage;
+import eu.erasmuswithoutpaper.catalogueserver.web.CatalogueUpdater;
+import eu.erasmuswithoutpaper.catalogueserver.web.ClientPollingStatistics;
+import eu.erasmuswithoutpaper.catalogueserver.web.PollingSchedule;
+import eu.erasmuswithoutpaper.catalogueserver.web.githubcataloguesource.CatalogueMetadataGitHub;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Serving the catalogue with {@link CatalogueEndpointController#getCatalogue}, without the
+ * servlet container. Response bodies are discarded, so only the work done by the controller is
+ * measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class CatalogueEndpointBenchmark {
+  private static final Duration INTERVAL = Duration.ofSeconds(10);
+
+  @Param({ "1", "10", "50" })
+  public int sizeMegabytes;
+
+  @Param({ "identity", "gzip" })
+  public String acceptEncoding;
+
+  @Param({ "HEAP", "OFF_HEAP" })
+  public CatalogueStorage storage;
+
+  private Path directory;
+  private CatalogueEndpointController<CatalogueMetadataGitHub> controller;
+  private String etag;
+
+  /**
+   * Creates a controller serving a local copy of a synthetic catalogue.
+   *
+   * @throws IOException if the local copy cannot be created.
+   */
+  @Setup
+  public void setUp() throws IOException {
+    this.directory = BenchmarkCatalogues.createDirectory();
+    CatalogueCopy<CatalogueMetadataGitHub> copy = BenchmarkCatalogues.createCopy(this.directory,
+        BenchmarkCatalogues.generate(this.sizeMegabytes), this.storage);
+    CatalogueUpdater<CatalogueMetadataGitHub> updater = new CatalogueUpdater<>(copy,
+        metadata -> {
+          throw new IllegalStateException("Catalogue is not fetched in this benchmark.");
+        },
+        new PollingSchedule(INTERVAL, INTERVAL, INTERVAL, 0), new SimpleMeterRegistry());
+    this.controller = new CatalogueEndpointController<>(updater,
+        new ClientPollingStatistics(2048, 100, Duration.ofHours(1)));
+    this.etag = copy.getCatalogueAndMetadata()
+        .getEncodedCatalogue(CatalogueEncoding.select(this.acceptEncoding)).getEtagHeader();
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    BenchmarkCatalogues.deleteDirectory(this.directory);
+  }
+
+  /**
+   * Request without validators, the whole catalogue is sent.
+   */
+  @Benchmark
+  public MockHttpServletResponse fullResponse() throws IOException {
+    MockHttpServletRequest request = createRequest();
+    MockHttpServletResponse response = new DiscardingResponse();
+    this.controller.getCatalogue(new ServletWebRequest(request, response), response);
+    return response;
+  }
+
+  /**
+   * Request with a matching 'If-None-Match' header, only headers are sent.
+   */
+  @Benchmark
+  public MockHttpServletResponse notModified() throws IOException {
+    MockHttpServletRequest request = createRequest();
+    request.addHeader(HttpHeaders.IF_NONE_MATCH, this.etag);
+    MockHttpServletResponse response = new DiscardingResponse();
+    this.controller.getCatalogue(new ServletWebRequest(request, response), response);
+    return response;
+  }
+
+  private MockHttpServletRequest createRequest() {
+    MockHttpServletRequest request = new MockHttpServletRequest("GET", "/catalogue-v1.xml");
+    request.addHeader(HttpHeaders.ACCEPT_ENCODING, this.acceptEncoding);
+    return request;
+  }
+
+  private static class DiscardingResponse extends MockHttpServletResponse {
+    private final ServletOutputStream outputStream = new ServletOutputStream() {
+      @Override
+      public boolean isReady() {
+        return true;
+      }
+
+      @Override
+      public void setWriteListener(WriteListener writeListener) {
+      }
+
+      @Override
+      public void write(int b) {
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) {
+      }
+    };
+
+    @Override
+    public ServletOutputStream getOutputStream() {
+      return this.outputStream;
+    }
+  }
+}
@@ -0,0 +1,85 @@
+package eu.erasmuswithoutpaper.catalogueserver.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.stream.XMLStreamException;
+
+import eu.erasmuswithoutpaper.catalogueserver.web.CatalogueChangeSet;
+import eu.erasmuswithoutpaper.catalogueserver.web.CatalogueIndex;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Building the index of the catalogue, done for every fetched version, lookups served from it and
+ * computing changes between indexes of two versions. Versions compared are equal, so that every
+ * entry is compared.
+ *
+ * <p>
+ * Memory allocated while building is reported by the 'gc' profiler (-prof gc). Heap retained by
+ * the index is measured once per catalogue size and printed in the output of the trial.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class CatalogueIndexBenchmark {
+  @Param({ "1", "10", "50" })
+  public int sizeMegabytes;
+
+  private byte[] catalogue;
+  private CatalogueIndex index;
+  private CatalogueIndex otherIndex;
+
+  /**
+   * Generates the catalogue and builds its index, printing heap retained by the index.
+   *
+   * @throws XMLStreamException never, the catalogue is well-formed.
+   */
+  @Setup
+  public void setUp() throws XMLStreamException {
+    this.catalogue = BenchmarkCatalogues.generate(this.sizeMegabytes);
+    long before = usedHeap();
+    this.index = CatalogueIndex.build(this.catalogue);
+    long retained = usedHeap() - before;
+    System.out.printf("Index of %d MB catalogue retains %d KB of heap.%n", this.sizeMegabytes,
+        retained / 1024);
+    this.otherIndex = CatalogueIndex.build(this.catalogue);
+  }
+
+  private static long usedHeap() {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  @Benchmark
+  public CatalogueIndex build() throws XMLStreamException {
+    return CatalogueIndex.build(this.catalogue);
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public Object lookUpHei() {
+    return this.index.getHostsByHeiId("hei0.host1.example.com");
+  }
+
+  @Benchmark
+  public CatalogueChangeSet computeChanges() {
+    return CatalogueChangeSet.compute("base", this.otherIndex, "new", this.index);
+  }
+}
@@ -0,0 +1,59 @@
+package eu.erasmuswithoutpaper.catalogueserver.benchmarks;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.bind.JAXB;
+
+import eu.erasmuswithoutpaper.catalogueserver.web.CatalogueMetadata;
+import eu.erasmuswithoutpaper.catalogueserver.web.githubcataloguesource.CatalogueMetadataGitHub;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Converting catalogue metadata to XML and back, done after every fetch. Static {@link JAXB}
+ * helpers, used before metadata codecs were introduced, are measured for comparison.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class CatalogueMetadataBenchmark {
+  private CatalogueMetadataGitHub metadata;
+
+  @Setup
+  public void setUp() {
+    this.metadata = BenchmarkCatalogues.createMetadata(BenchmarkCatalogues.generate(1));
+  }
+
+  /**
+   * Round-trip through {@link eu.erasmuswithoutpaper.catalogueserver.web.CatalogueMetadataCodec}.
+   */
+  @Benchmark
+  public CatalogueMetadataGitHub codecRoundTrip() throws Exception {
+    String xml = this.metadata.toXmlString();
+    return CatalogueMetadata.fromXmlString(xml, CatalogueMetadataGitHub.class);
+  }
+
+  /**
+   * Round-trip through static {@link JAXB} helpers.
+   */
+  @Benchmark
+  public CatalogueMetadataGitHub staticJaxbRoundTrip() {
+    StringWriter writer = new StringWriter();
+    JAXB.marshal(this.metadata, writer);
+    return JAXB.unmarshal(new StringReader(writer.toString()), CatalogueMetadataGitHub.class);
+  }
+}
@@ -0,0 +1,90 @@
+package eu.erasmuswithoutpaper.catalogueserver.benchmarks;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import eu.erasmuswithoutpaper.catalogueserver.web.CatalogueGetter;
+import eu.erasmuswithoutpaper.catalogueserver.web.CatalogueGetterResponse;
+import eu.erasmuswithoutpaper.catalogueserver.web.CatalogueStorage;
+import eu.erasmuswithoutpaper.catalogueserver.web.CatalogueUpdater;
+import eu.erasmuswithoutpaper.catalogueserver.web.PollingSchedule;
+import eu.erasmuswithoutpaper.catalogueserver.web.githubcataloguesource.CatalogueMetadataGitHub;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The whole {@link CatalogueUpdater#updateCatalogue()} cycle against an in-process getter, which
+ * reports either a new version or no changes. A new version is written to a temporary file and
+ * hashed by the getter, as it would be when downloaded.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class CatalogueUpdaterBenchmark {
+  @Param({ "1", "10", "50" })
+  public int sizeMegabytes;
+
+  @Param({ "HEAP", "OFF_HEAP" })
+  public CatalogueStorage storage;
+
+  @Param({ "true", "false" })
+  public boolean changed;
+
+  private Path directory;
+  private CatalogueUpdater<CatalogueMetadataGitHub> updater;
+
+  /**
+   * Creates an updater of a local copy of a synthetic catalogue.
+   *
+   * @throws IOException if the local copy cannot be created.
+   */
+  @Setup
+  public void setUp() throws IOException {
+    byte[] catalogue = BenchmarkCatalogues.generate(this.sizeMegabytes);
+    this.directory = BenchmarkCatalogues.createDirectory();
+    CatalogueGetter<CatalogueMetadataGitHub> getter = metadata -> {
+      if (!this.changed) {
+        return CatalogueGetterResponse.createNotModified();
+      }
+      try {
+        return BenchmarkCatalogues.createResponse(this.directory, catalogue);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    };
+    // Fetches are triggered by the benchmark, the schedule never delays them.
+    Duration interval = Duration.ofSeconds(10);
+    this.updater = new CatalogueUpdater<>(
+        BenchmarkCatalogues.createCopy(this.directory, catalogue, this.storage), getter,
+        new PollingSchedule(interval, interval, interval, 0), new SimpleMeterRegistry());
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    BenchmarkCatalogues.deleteDirectory(this.directory);
+  }
+
+  @Benchmark
+  public CatalogueUpdater<CatalogueMetadataGitHub> updateCatalogue() {
+    this.updater.updateCatalogue();
+    return this.updater;
+  }
+}
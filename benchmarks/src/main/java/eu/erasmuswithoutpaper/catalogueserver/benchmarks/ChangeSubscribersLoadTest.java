@@ -0,0 +1,123 @@
+package eu.erasmuswithoutpaper.catalogueserver.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Load test of the long-poll endpoint: opens many idle subscriptions to a running server and
+ * reports how much heap and how many threads they cost, as seen in the server metrics.
+ *
+ * <p>
+ * Arguments: server URL (default http://localhost:8080), management URL (default
+ * http://127.0.0.1:8081), number of subscribers (default 2000) and optionally the PID of the
+ * server. If the PID is given, a full GC is requested with 'jcmd' before each measurement, which
+ * makes heap measurements much more accurate.
+ * </p>
+ */
+public final class ChangeSubscribersLoadTest {
+  private static final int SETTLE_MILLIS = 3000;
+
+  private ChangeSubscribersLoadTest() {
+  }
+
+  /**
+   * Runs the test.
+   *
+   * @param args see the class description.
+   * @throws Exception if the server cannot be reached.
+   */
+  public static void main(String[] args) throws Exception {
+    URL serverUrl = new URL(args.length > 0 ? args[0] : "http://localhost:8080");
+    String managementUrl = args.length > 1 ? args[1] : "http://127.0.0.1:8081";
+    int count = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+    String pid = args.length > 3 ? args[3] : null;
+
+    String etag = getCurrentEtag(new URL(serverUrl, "/catalogue-v1/changes"));
+    Measurement before = measure(managementUrl, pid);
+    List<Socket> subscribers = new ArrayList<>(count);
+    try {
+      for (int i = 0; i < count; i++) {
+        subscribers.add(subscribe(serverUrl, etag));
+      }
+      Thread.sleep(SETTLE_MILLIS);
+      Measurement after = measure(managementUrl, pid);
+      System.out.printf(Locale.ROOT, "Subscribers waiting: %.0f of %d%n",
+          after.subscribers, count);
+      System.out.printf(Locale.ROOT, "Heap: %.1f MB -> %.1f MB, %.0f bytes per subscriber%n",
+          before.heap / 1e6, after.heap / 1e6, (after.heap - before.heap) / count);
+      System.out.printf(Locale.ROOT, "Live threads: %.0f -> %.0f%n", before.threads,
+          after.threads);
+    } finally {
+      for (Socket subscriber : subscribers) {
+        subscriber.close();
+      }
+    }
+  }
+
+  private static String getCurrentEtag(URL changesUrl) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) changesUrl.openConnection();
+    try {
+      if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+        throw new IOException("Unexpected response " + connection.getResponseCode());
+      }
+      return connection.getHeaderField("ETag");
+    } finally {
+      connection.disconnect();
+    }
+  }
+
+  private static Socket subscribe(URL serverUrl, String etag) throws IOException {
+    int port = serverUrl.getPort() == -1 ? serverUrl.getDefaultPort() : serverUrl.getPort();
+    Socket socket = new Socket(serverUrl.getHost(), port);
+    String request = "GET /catalogue-v1/changes HTTP/1.1\r\n"
+        + "Host: " + serverUrl.getHost() + "\r\n"
+        + "If-None-Match: " + etag + "\r\n"
+        + "\r\n";
+    OutputStream output = socket.getOutputStream();
+    output.write(request.getBytes(StandardCharsets.US_ASCII));
+    output.flush();
+    return socket;
+  }
+
+  private static Measurement measure(String managementUrl, String pid) throws Exception {
+    if (pid != null) {
+      Process gc = new ProcessBuilder("jcmd", pid, "GC.run").inheritIO().start();
+      gc.waitFor();
+    }
+    Measurement measurement = new Measurement();
+    URL metrics = new URL(managementUrl + "/prometheus");
+    try (BufferedReader reader = new BufferedReader(
+        new InputStreamReader(metrics.openStream(), StandardCharsets.UTF_8))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (line.startsWith("jvm_memory_used_bytes{area=\"heap\"")) {
+          measurement.heap += parseValue(line);
+        } else if (line.startsWith("jvm_threads_live")) {
+          measurement.threads = parseValue(line);
+        } else if (line.startsWith("catalogue_changes_subscribers")) {
+          measurement.subscribers = parseValue(line);
+        }
+      }
+    }
+    return measurement;
+  }
+
+  private static double parseValue(String line) {
+    return Double.parseDouble(line.substring(line.lastIndexOf(' ') + 1));
+  }
+
+  private static class Measurement {
+    double heap;
+    double threads;
+    double subscribers;
+  }
+}
@@ -0,0 +1,74 @@
+package eu.erasmuswithoutpaper.catalogueserver.benchmarks;
+
+import java.time.Duration;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import eu.erasmuswithoutpaper.catalogueserver.web.ClientPollingStatistics;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Counting a Catalogue request in {@link ClientPollingStatistics} from concurrent threads, as done
+ * by the endpoint for each request. Clients are drawn from a skewed distribution, a few of them
+ * send most requests, so that the candidates of heavy hitters keep changing at the bottom.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+public class ClientPollingStatisticsBenchmark {
+  private static final int REQUESTS = 1 << 16;
+  private static final ClientPollingStatistics.Kind[] KINDS = ClientPollingStatistics.Kind.values();
+
+  @Param({ "100", "10000" })
+  public int clients;
+
+  private ClientPollingStatistics statistics;
+  private String[] addresses;
+
+  /**
+   * Creates empty statistics and the sequence of requesting clients.
+   */
+  @Setup
+  public void setUp() {
+    this.statistics = new ClientPollingStatistics(2048, 100, Duration.ofHours(1));
+    Random random = new Random(0);
+    this.addresses = new String[REQUESTS];
+    for (int i = 0; i < REQUESTS; i++) {
+      // Squaring a uniform number puts most of the requests on low client numbers.
+      double skewed = random.nextDouble();
+      int client = (int) (skewed * skewed * this.clients);
+      this.addresses[i] = "10." + (client >> 16) + "." + (client >> 8 & 0xff) + "."
+          + (client & 0xff);
+    }
+  }
+
+  /**
+   * Per-thread position in the sequence of clients.
+   */
+  @State(Scope.Thread)
+  public static class Position {
+    int next;
+  }
+
+  @Benchmark
+  public void record(Position position) {
+    int index = position.next++ & REQUESTS - 1;
+    this.statistics.record(this.addresses[index], "EWP client", KINDS[index % KINDS.length]);
+  }
+}
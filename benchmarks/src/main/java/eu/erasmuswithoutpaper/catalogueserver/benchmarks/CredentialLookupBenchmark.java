@@ -0,0 +1,123 @@
+package eu.erasmuswithoutpaper.catalogueserver.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
+
+import eu.erasmuswithoutpaper.catalogueserver.web.CatalogueIndex;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.SAXException;
+
+/**
+ * Finding hosts using a client certificate: {@link CatalogueIndex} lookup compared with a scan of
+ * the catalogue DOM, as done by servers authenticating requests with their own catalogue copy. The
+ * certificate of the last host is looked up, the worst case of the scan.
+ *
+ * <p>
+ * Credentials are looked up by their fingerprints only, so there is no need for a Bloom filter in
+ * front of the hash map: a miss costs the same single hash lookup.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class CredentialLookupBenchmark {
+  private static final String REGISTRY_NAMESPACE =
+      "https://github.com/erasmus-without-paper/ewp-specs-api-registry/tree/stable-v1";
+
+  @Param({ "1", "10", "50" })
+  public int sizeMegabytes;
+
+  private CatalogueIndex index;
+  private Document document;
+  private String fingerprint;
+
+  /**
+   * Generates the catalogue, its index and its DOM.
+   *
+   * @throws XMLStreamException           never, the catalogue is well-formed.
+   * @throws ParserConfigurationException if the DOM parser cannot be configured.
+   * @throws SAXException                 never, the catalogue is well-formed.
+   * @throws IOException                  never, the catalogue is read from memory.
+   */
+  @Setup
+  public void setUp() throws XMLStreamException, ParserConfigurationException, SAXException,
+      IOException {
+    byte[] catalogue = BenchmarkCatalogues.generate(this.sizeMegabytes);
+    this.index = CatalogueIndex.build(catalogue);
+    List<CatalogueIndex.HostEntry> hosts = this.index.getHosts();
+    this.fingerprint = hosts.get(hosts.size() - 1)
+        .getCredentials(CatalogueIndex.CredentialType.CLIENT_CERTIFICATE).get(0);
+    DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+    factory.setNamespaceAware(true);
+    // Nodes are expanded while parsing, so that the scan measures only the walk.
+    factory.setFeature("http://apache.org/xml/features/dom/defer-node-expansion", false);
+    this.document = factory.newDocumentBuilder().parse(new ByteArrayInputStream(catalogue));
+  }
+
+  @Benchmark
+  public Object indexLookup() {
+    return this.index.getCredentialUses(this.fingerprint);
+  }
+
+  /**
+   * Walks hosts and their client credentials until the fingerprint is found.
+   *
+   * @return host using the certificate.
+   */
+  @Benchmark
+  public Object domScan() {
+    for (Node host = this.document.getDocumentElement().getFirstChild(); host != null;
+        host = host.getNextSibling()) {
+      if (isRegistryElement(host, "host") && usesCertificate(host)) {
+        return host;
+      }
+    }
+    return null;
+  }
+
+  private boolean usesCertificate(Node host) {
+    for (Node credentials = host.getFirstChild(); credentials != null;
+        credentials = credentials.getNextSibling()) {
+      if (!isRegistryElement(credentials, "client-credentials-in-use")) {
+        continue;
+      }
+      for (Node credential = credentials.getFirstChild(); credential != null;
+          credential = credential.getNextSibling()) {
+        if (isRegistryElement(credential, "certificate") && this.fingerprint
+            .equalsIgnoreCase(((Element) credential).getAttribute("sha-256"))) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private static boolean isRegistryElement(Node node, String localName) {
+    return node.getNodeType() == Node.ELEMENT_NODE
+        && REGISTRY_NAMESPACE.equals(node.getNamespaceURI())
+        && localName.equals(node.getLocalName());
+  }
+}
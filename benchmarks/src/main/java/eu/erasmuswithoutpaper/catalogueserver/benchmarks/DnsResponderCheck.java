@@ -0,0 +1,217 @@
+package eu.erasmuswithoutpaper.catalogueserver.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import eu.erasmuswithoutpaper.catalogueserver.dns.DnsResponder;
+import eu.erasmuswithoutpaper.catalogueserver.dns.DnsZone;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Runs {@link DnsResponder} on localhost and reports its throughput in queries per second and how
+ * long it takes to stop and to resume answering after the health of the node changes.
+ *
+ * <p>
+ * Arguments: number of client threads (default 4), queries each client keeps in flight (default
+ * 32), duration of the throughput run in seconds (default 10), health check interval in
+ * milliseconds (default 250) and number of consecutive failed checks after which the node is
+ * taken out of rotation (default 3). Clients run in the same JVM, so the throughput is a lower
+ * bound of what a dedicated load generator would see.
+ * </p>
+ */
+public final class DnsResponderCheck {
+  private static final String ZONE = "registry.example.com";
+  private static final int TYPE_A = 1;
+  private static final int TYPE_NS = 2;
+  private static final int TYPE_SOA = 6;
+  private static final int TYPE_AAAA = 28;
+  private static final int FAILOVER_ROUNDS = 10;
+  private static final int QUERY_TIMEOUT_MILLIS = 100;
+
+  private DnsResponderCheck() {
+  }
+
+  /**
+   * Runs the check.
+   *
+   * @param args see the class description.
+   * @throws Exception if the server cannot be started.
+   */
+  public static void main(String[] args) throws Exception {
+    int clients = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+    int window = args.length > 1 ? Integer.parseInt(args[1]) : 32;
+    Duration duration = Duration.ofSeconds(args.length > 2 ? Long.parseLong(args[2]) : 10);
+    Duration checkInterval = Duration.ofMillis(args.length > 3 ? Long.parseLong(args[3]) : 250);
+    int failuresBeforeUnhealthy = args.length > 4 ? Integer.parseInt(args[4]) : 3;
+
+    AtomicBoolean healthy = new AtomicBoolean(true);
+    DnsZone zone = new DnsZone(ZONE, "ns1." + ZONE, "hostmaster." + ZONE,
+        Collections.singletonList(InetAddress.getByName("192.0.2.1")), 1, 2020032000L);
+    try (DnsResponder responder = new DnsResponder(new InetSocketAddress("127.0.0.1", 0), zone,
+        healthy::get, checkInterval, failuresBeforeUnhealthy, false, new SimpleMeterRegistry())) {
+      responder.start();
+      InetSocketAddress server = responder.getLocalAddress();
+      printAnswers(server);
+      measureThroughput(server, clients, window, duration);
+      measureFailover(server, healthy, checkInterval, failuresBeforeUnhealthy);
+    }
+  }
+
+  private static void printAnswers(InetSocketAddress server) throws IOException {
+    try (DatagramSocket socket = new DatagramSocket()) {
+      socket.setSoTimeout(1000);
+      Object[][] queries = {{ZONE, TYPE_A}, {ZONE, TYPE_NS}, {ZONE, TYPE_SOA},
+          {ZONE, TYPE_AAAA}, {"ns1." + ZONE, TYPE_A}, {"missing." + ZONE, TYPE_A},
+          {"example.org", TYPE_A}};
+      for (Object[] query : queries) {
+        byte[] response = exchange(socket, server, (String) query[0], (Integer) query[1]);
+        System.out.printf(Locale.ROOT, "%s type %d: rcode %d, %d answers, %d authority, "
+            + "%d additional%n", query[0], query[1], response[3] & 0x0f, getShort(response, 6),
+            getShort(response, 8), getShort(response, 10));
+      }
+    }
+  }
+
+  private static void measureThroughput(InetSocketAddress server, int clients, int window,
+      Duration duration) throws InterruptedException {
+    AtomicLong answered = new AtomicLong();
+    AtomicLong timeouts = new AtomicLong();
+    long deadline = System.nanoTime() + duration.toNanos();
+    List<Thread> threads = new ArrayList<>();
+    for (int i = 0; i < clients; i++) {
+      Thread thread = new Thread(() -> {
+        try (DatagramSocket socket = new DatagramSocket()) {
+          socket.setSoTimeout(QUERY_TIMEOUT_MILLIS);
+          socket.connect(server);
+          byte[] query = createQuery(0, ZONE, TYPE_A);
+          DatagramPacket request = new DatagramPacket(query, query.length);
+          DatagramPacket response = new DatagramPacket(new byte[512], 512);
+          for (int j = 0; j < window; j++) {
+            socket.send(request);
+          }
+          // Each answer is replaced with a new query, lost ones after a timeout.
+          while (System.nanoTime() < deadline) {
+            try {
+              socket.receive(response);
+              answered.incrementAndGet();
+              socket.send(request);
+            } catch (SocketTimeoutException e) {
+              timeouts.incrementAndGet();
+              for (int j = 0; j < window; j++) {
+                socket.send(request);
+              }
+            }
+          }
+        } catch (IOException e) {
+          throw new IllegalStateException(e);
+        }
+      });
+      threads.add(thread);
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    System.out.printf(Locale.ROOT, "Throughput: %.0f queries/s (%d clients, %d in flight each, "
+        + "%d timeouts)%n", answered.get() / (duration.toMillis() / 1000.0), clients, window,
+        timeouts.get());
+  }
+
+  private static void measureFailover(InetSocketAddress server, AtomicBoolean healthy,
+      Duration checkInterval, int failuresBeforeUnhealthy)
+      throws IOException, InterruptedException {
+    List<Double> stop = new ArrayList<>();
+    List<Double> resume = new ArrayList<>();
+    try (DatagramSocket socket = new DatagramSocket()) {
+      socket.setSoTimeout(QUERY_TIMEOUT_MILLIS);
+      for (int round = 0; round < FAILOVER_ROUNDS; round++) {
+        healthy.set(false);
+        stop.add(waitForRcode(socket, server, 2));
+        // Changes are not aligned with health checks in production either.
+        Thread.sleep(checkInterval.toMillis() + round * 37 % checkInterval.toMillis());
+        healthy.set(true);
+        resume.add(waitForRcode(socket, server, 0));
+        Thread.sleep(checkInterval.toMillis() + round * 53 % checkInterval.toMillis());
+      }
+    }
+    System.out.printf(Locale.ROOT, "Health check interval %d ms, %d failures before unhealthy%n",
+        checkInterval.toMillis(), failuresBeforeUnhealthy);
+    printLatency("Unhealthy to SERVFAIL", stop);
+    printLatency("Healthy to NOERROR", resume);
+  }
+
+  private static double waitForRcode(DatagramSocket socket, InetSocketAddress server, int rcode)
+      throws IOException {
+    long changed = System.nanoTime();
+    while (true) {
+      try {
+        byte[] response = exchange(socket, server, ZONE, TYPE_A);
+        if ((response[3] & 0x0f) == rcode) {
+          return (System.nanoTime() - changed) / 1e6;
+        }
+      } catch (SocketTimeoutException e) {
+        // Lost datagram, ask again.
+      }
+    }
+  }
+
+  private static void printLatency(String label, List<Double> latencies) {
+    double sum = 0;
+    for (double latency : latencies) {
+      sum += latency;
+    }
+    System.out.printf(Locale.ROOT, "%s: min %.1f ms, avg %.1f ms, max %.1f ms%n", label,
+        Collections.min(latencies), sum / latencies.size(), Collections.max(latencies));
+  }
+
+  private static byte[] exchange(DatagramSocket socket, InetSocketAddress server, String name,
+      int type) throws IOException {
+    byte[] query = createQuery(type, name, type);
+    socket.send(new DatagramPacket(query, query.length, server));
+    DatagramPacket response = new DatagramPacket(new byte[512], 512);
+    socket.receive(response);
+    byte[] data = new byte[response.getLength()];
+    System.arraycopy(response.getData(), 0, data, 0, data.length);
+    return data;
+  }
+
+  private static byte[] createQuery(int id, String name, int type) {
+    ByteArrayOutputStream query = new ByteArrayOutputStream();
+    // Header: id, RD flag, one question.
+    int[] header = {id, 0x0100, 1, 0, 0, 0};
+    for (int value : header) {
+      query.write(value >>> 8);
+      query.write(value);
+    }
+    for (String label : name.split("\\.")) {
+      byte[] bytes = label.getBytes(StandardCharsets.US_ASCII);
+      query.write(bytes.length);
+      query.write(bytes, 0, bytes.length);
+    }
+    query.write(0);
+    int[] question = {type, 1};
+    for (int value : question) {
+      query.write(value >>> 8);
+      query.write(value);
+    }
+    return query.toByteArray();
+  }
+
+  private static int getShort(byte[] data, int offset) {
+    return (data[offset] & 0xff) << 8 | data[offset + 1] & 0xff;
+  }
+}
@@ -0,0 +1,52 @@
+package eu.erasmuswithoutpaper.catalogueserver.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.stream.XMLStreamException;
+
+import eu.erasmuswithoutpaper.catalogueserver.web.CanonicalXml;
+import eu.erasmuswithoutpaper.catalogueserver.web.MetadataVerifier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Hashing the catalogue contents, done for every fetched version. The canonical hash is computed
+ * in addition if formatting changes are ignored.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class MetadataVerifierBenchmark {
+  @Param({ "1", "10", "50" })
+  public int sizeMegabytes;
+
+  private byte[] catalogue;
+
+  @Setup
+  public void setUp() {
+    this.catalogue = BenchmarkCatalogues.generate(this.sizeMegabytes);
+  }
+
+  @Benchmark
+  public String getHash() {
+    return MetadataVerifier.getHash(this.catalogue);
+  }
+
+  @Benchmark
+  public String getCanonicalHash() throws XMLStreamException {
+    return CanonicalXml.getHash(this.catalogue);
+  }
+}
@@ -13,6 +13,7 @@ NGINX_NO_SSL=0
 ALLOW_STALE_CATALOGUE=0
 DONT_UPDATE_CERTIFICATE=0
 NGINX_NO_SSL_PORT=80
+EMBEDDED_DNS=0
 
 echo "Startup check..."
 
@@ -55,6 +56,9 @@ while [[ $# -gt 0 ]]; do
                 --dont-update-certificate)
                         DONT_UPDATE_CERTIFICATE=1
                         ;;
+                --embedded-dns)
+                        EMBEDDED_DNS=1
+                        ;;
                 *)
                         echo "Unknown parameter $PARAM_NAME" >&2
                         exit 1
@@ -80,6 +84,7 @@ echo "NGINX_NO_SSL=${NGINX_NO_SSL}" | tee -a /vars
 echo "NGINX_NO_SSL_PORT=${NGINX_NO_SSL_PORT}" | tee -a /vars
 echo "ALLOW_STALE_CATALOGUE=${ALLOW_STALE_CATALOGUE}" | tee -a /vars
 echo "DONT_UPDATE_CERTIFICATE=${DONT_UPDATE_CERTIFICATE}" | tee -a /vars
+echo "EMBEDDED_DNS=${EMBEDDED_DNS}" | tee -a /vars
 echo "NAMESERVER_DOMAIN_NAME=${NAMESERVER_DOMAIN_NAME}" | tee -a /vars
 echo "NAMESERVER_ADMIN_EMAIL=${NAMESERVER_ADMIN_EMAIL}" | tee -a /vars
 echo "SENTRY_DSN=${SENTRY_DSN}" | tee -a /vars
@@ -181,10 +186,22 @@ else
 fi
 
 
-echo "Starting and stopping dns service to check config..."
-/etc/init.d/bind9 start
-/etc/init.d/bind9 stop
-echo "Done."
+# The embedded DNS server of the catalogue server answers only while the catalogue is served
+# correctly, BIND and the DNS watchdog are not used then.
+JAVA_DNS_OPTIONS=""
+if [[ "$EMBEDDED_DNS" -eq 1 ]]; then
+        if [[ "$ALLOW_STALE_CATALOGUE" -eq 1 ]]; then
+                ALLOW_STALE_DNS=true
+        else
+                ALLOW_STALE_DNS=false
+        fi
+        JAVA_DNS_OPTIONS="-Dapp.dns.enabled=true -Dapp.dns.zone=${REGISTRY_DOMAIN_NAME} -Dapp.dns.name-server=${NAMESERVER_DOMAIN_NAME} -Dapp.dns.admin-mailbox=${NAMESERVER_ADMIN_EMAIL} -Dapp.dns.addresses=${CURRENT_IP} -Dapp.dns.allow-stale-catalogue=${ALLOW_STALE_DNS}"
+else
+        echo "Starting and stopping dns service to check config..."
+        /etc/init.d/bind9 start
+        /etc/init.d/bind9 stop
+        echo "Done."
+fi
 
 echo "Updating TLS Certificate..."
 if [[ "$DONT_UPDATE_CERTIFICATE" -eq 1 ]]; then
@@ -207,7 +224,13 @@ fi
 
 echo "Configuring cron..."
 
-echo "*/1 * * * * /stop_dns_server_if_the_catalogue_is_not_served.sh >> /logs/cron.log 2>&1" > /tmp/cronfile
+echo -n "" > /tmp/cronfile
+
+if [[ "$EMBEDDED_DNS" -eq 1 ]]; then
+        echo "Skipping DNS watchdog configuration, embedded DNS server is used."
+else
+        echo "*/1 * * * * /stop_dns_server_if_the_catalogue_is_not_served.sh >> /logs/cron.log 2>&1" >> /tmp/cronfile
+fi
 
 if [[ "$DONT_UPDATE_CERTIFICATE" -eq 1 ]]; then
         echo "Skipping update_certificate.sh configuration."
@@ -221,4 +244,4 @@ echo "Starting cron..."
 /etc/init.d/cron start
 echo "Done."
 
-exec java -Dlogging.config=/logback.xml -Dsentry.dsn=${SENTRY_DSN} -jar /ewp-catalogue-server.jar
+exec java -Dlogging.config=/logback.xml -Dsentry.dsn=${SENTRY_DSN} ${JAVA_DNS_OPTIONS} -jar /ewp-catalogue-server.jar
@@ -23,15 +23,32 @@ fi
 
 CURL_SILENT=1
 
-MAX_TIME_WITHOUT_FETCH_SECONDS=120
+# The script is started by cron every minute and checks the catalogue every few seconds until the
+# next run, so that the DNS server is stopped or started within seconds.
+CHECK_INTERVAL_SECONDS=5
+CHECKS_PER_RUN=$((60 / CHECK_INTERVAL_SECONDS))
+LOCK_FILE="/tmp/dns_watchdog.lock"
+# A single failed check, e.g. while a new version is being published, doesn't stop the DNS server.
+# The count is kept between runs, so that failures around the start of a run are counted too.
+FAILURES_BEFORE_STOP=3
+FAILURES_FILE="/tmp/dns_watchdog.failures"
+
+# The server decides whether the catalogue it serves is up to date and consistent with the copy
+# in /cache. Maximal time without a fetch is set with app.catalogue.health.max-seconds-since-fetch.
+HEALTH_ENDPOINT="/health/catalogue"
+
+exec 9> "$LOCK_FILE"
+if ! flock -n 9; then
+        echo "Previous run is still checking."
+        exit 0
+fi
 
-LOCAL_CATALOGUE_CACHE_DIR="/cache/"
-LOCAL_CATALOGUE_FILE_PATH="${LOCAL_CATALOGUE_CACHE_DIR}/catalogue-v1.xml"
-LOCAL_CATALOGUE_METADATA_PATH="${LOCAL_CATALOGUE_CACHE_DIR}/catalogue-v1-metadata.xml"
-CATALOGUE_ENDPOINT="/catalogue-v1.xml"
-TEMP_CATALOGUE_FILE="/tmp/test_catalogue.xml"
+CONSECUTIVE_FAILURES=$(cat "$FAILURES_FILE" 2> /dev/null || true)
+if ! [[ "$CONSECUTIVE_FAILURES" =~ ^[0-9]+$ ]]; then
+        CONSECUTIVE_FAILURES=0
+fi
 
-if ! /etc/init.d/bind9 status; then
+if ! /etc/init.d/bind9 status > /dev/null; then
         IS_BIND9_STOPPED=1
 else
         IS_BIND9_STOPPED=0
@@ -48,22 +65,40 @@ function log_error() {
         sentry_log "$@"
 }
 
-function stop_dns_and_exit() {
-        log_error "Stopping DNS server: $1"
-        if [[ "$IS_BIND9_STOPPED" -eq 1 ]]; then
-                echo "Already stopped."
-        else
+function stop_dns() {
+        if [[ "$IS_BIND9_STOPPED" -eq 0 ]]; then
+                log_error "[$(date -Is)] Stopping DNS server: $1"
                 /etc/init.d/bind9 stop
+                IS_BIND9_STOPPED=1
         fi
-        exit 1
 }
 
-function check_catalogue_file_availability() {
-        IP=$1
-        PORT=$2
+function start_dns() {
+        if [[ "$IS_BIND9_STOPPED" -eq 1 ]]; then
+                echo "[$(date -Is)] Starting DNS server..."
+                /etc/init.d/bind9 start
+                IS_BIND9_STOPPED=0
+        fi
+}
 
-        rm -f "$TEMP_CATALOGUE_FILE"
+function on_check_passed() {
+        CONSECUTIVE_FAILURES=0
+        echo "$CONSECUTIVE_FAILURES" > "$FAILURES_FILE"
+        start_dns
+}
+
+function on_check_failed() {
+        CONSECUTIVE_FAILURES=$((CONSECUTIVE_FAILURES + 1))
+        echo "$CONSECUTIVE_FAILURES" > "$FAILURES_FILE"
+        if [[ "$CONSECUTIVE_FAILURES" -ge "$FAILURES_BEFORE_STOP" ]]; then
+                stop_dns "$1"
+        fi
+}
 
+# Prints 'status' reported by the health endpoint, 'unreachable' if it cannot be requested.
+function get_catalogue_status() {
+        IP=$1
+        PORT=$2
 
         CURL_FLAGS="-H 'Host $REGISTRY_DOMAIN_NAME' --max-time 5 --connect-timeout 5"
         if [[ 1 -eq "$CURL_SILENT" ]]; then
@@ -72,73 +107,59 @@ function check_catalogue_file_availability() {
 
         # Plain HTTP: just send a request to specified $IP:$PORT.
         if [[ 1 -eq "$USE_HTTP" ]]; then
-            echo "Using http connection"
-            URL="http://${IP}:${PORT}${CATALOGUE_ENDPOINT}"
+            URL="http://${IP}:${PORT}${HEALTH_ENDPOINT}"
         # HTTPS: we want to verify if certificate served by the server matched $REGISTRY_DOMAIN_NAME.
         # We will send a request to $REGISTRY_DOMAIN_NAME:443, but we will tell curl to resolve it's IP address as $IP.
         # curl will send the request to localhost, but it'll expect $REGISTRY_DOMAIN_NAME certificate.
         else
              CURL_FLAGS="${CURL_FLAGS} --resolve ${REGISTRY_DOMAIN_NAME}:${PORT}:${IP} --cacert /certs/${REGISTRY_DOMAIN_NAME}.crt"
-             URL="https://${REGISTRY_DOMAIN_NAME}:${PORT}${CATALOGUE_ENDPOINT}"
-        fi
-
-        COMMAND="curl $CURL_FLAGS $URL"
-
-        echo "executing: $COMMAND"
-
-        if ! $COMMAND > "$TEMP_CATALOGUE_FILE"; then
-                rm -f "$TEMP_CATALOGUE_FILE"
-                stop_dns_and_exit "cURL to $URL failed."
+             URL="https://${REGISTRY_DOMAIN_NAME}:${PORT}${HEALTH_ENDPOINT}"
         fi
 
-        if ! diff "$LOCAL_CATALOGUE_FILE_PATH" "$TEMP_CATALOGUE_FILE" > /dev/null; then
-                rm -f "$TEMP_CATALOGUE_FILE"
-                stop_dns_and_exit "Catalogue file hosted by this host and a catalogue copy stored in ${LOCAL_CATALOGUE_FILE_PATH} differ."
+        # 503 responses describe the problem, they are not treated as failures.
+        if ! RESPONSE=$(curl $CURL_FLAGS $URL); then
+                echo "unreachable"
+                return
         fi
-        rm -f "$TEMP_CATALOGUE_FILE"
+        STATUS=$(echo "$RESPONSE" | grep -oP '(?<="status":")[a-z]+' || true)
+        echo "${STATUS:-unreachable}"
 }
 
-function date_to_timestamp() {
-        date -d "$@" +%s
-}
-
-function is_local_catalogue_copy_stale() {
-        FETCH_DATE=$(grep -oPm1 "(?<=<last-fetch-date>)[^<]+" ${LOCAL_CATALOGUE_METADATA_PATH})
-        CURRENT_DATE=$(date -Is -u)
-        FETCH_TIMESTAMP=$(date_to_timestamp ${FETCH_DATE})
-        CURRENT_TIMESTAMP=$(date_to_timestamp ${CURRENT_DATE})
-        TIME_DIFF_SECONDS=$((${CURRENT_TIMESTAMP} - ${FETCH_TIMESTAMP}))
-        [[ "${TIME_DIFF_SECONDS}" -ge "${MAX_TIME_WITHOUT_FETCH_SECONDS}" ]]
-}
-
-echo "Checking if catalogue file is downloaded..."
-if [[ ! -f "$LOCAL_CATALOGUE_FILE_PATH" ]]; then
-        stop_dns_and_exit "Local Catalogue file not found. Checked path '${LOCAL_CATALOGUE_FILE_PATH}'."
-fi
-echo "OK"
-
-
-echo "Checking if it is served locally..."
-check_catalogue_file_availability 127.0.0.1 ${LOCALHOST_PORT}
-echo "OK"
-
-
-echo "Checking if the local catalogue file was fetched recently..."
-if is_local_catalogue_copy_stale; then
-        if [[ "$ALLOW_STALE_CATALOGUE" -eq 1 ]]; then
-                log_error "The local catalogue file is stale, however this server is allowed to serve stale content."
-        else
-                stop_dns_and_exit "The local catalogue file is stale. This might indicate problems with connecting to GitHub API, rate limit might have been exceeded."
+LAST_STATUS=""
+for ((CHECK = 1; CHECK <= CHECKS_PER_RUN; CHECK++)); do
+        STATUS=$(get_catalogue_status 127.0.0.1 ${LOCALHOST_PORT})
+        if [[ "$STATUS" != "$LAST_STATUS" ]]; then
+                echo "[$(date -Is)] Catalogue status: $STATUS"
+                LAST_STATUS="$STATUS"
+                if [[ "$STATUS" == "stale" ]] && [[ "$ALLOW_STALE_CATALOGUE" -eq 1 ]]; then
+                        log_error "The local catalogue file is stale, however this server is allowed to serve stale content."
+                fi
         fi
-fi
-echo "OK"
 
-
-if [[ $IS_BIND9_STOPPED -eq 1 ]]; then
-        echo "Starting dns server..."
-        /etc/init.d/bind9 start
-        echo "Done."
-else
-        echo "DNS server is already running."
-fi
-echo "Done."
+        case "$STATUS" in
+                ok)
+                        on_check_passed
+                        ;;
+                stale)
+                        if [[ "$ALLOW_STALE_CATALOGUE" -eq 1 ]]; then
+                                on_check_passed
+                        else
+                                on_check_failed "The local catalogue file is stale. This might indicate problems with connecting to GitHub API, rate limit might have been exceeded."
+                        fi
+                        ;;
+                inconsistent)
+                        on_check_failed "Catalogue served by this host doesn't match its hash or the copy stored in /cache."
+                        ;;
+                unavailable)
+                        on_check_failed "This host has no catalogue to serve."
+                        ;;
+                *)
+                        on_check_failed "Request to ${HEALTH_ENDPOINT} failed."
+                        ;;
+        esac
+
+        if [[ "$CHECK" -lt "$CHECKS_PER_RUN" ]]; then
+                sleep "$CHECK_INTERVAL_SECONDS"
+        fi
+done
+echo "[$(date -Is)] Done."